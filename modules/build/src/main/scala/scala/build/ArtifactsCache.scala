@@ -0,0 +1,158 @@
+package scala.build
+
+import dependency.AnyDependency
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
+
+import scala.build.errors.BuildException
+import scala.build.options.*
+import scala.build.options.scalajs.ScalaJsLinkerOptions
+
+/** Keeps the artifacts of the latest build of each scope, so that following builds whose
+  * resolution inputs didn't change don't resolve dependencies again.
+  *
+  * Only the options that [[BuildOptions.artifacts]] reads are compared (see
+  * [[ArtifactsCache.Key]]), so that changing compiler or Java options, the main class or test
+  * options doesn't trigger a new resolution. Any change of dependencies, repositories, Scala or
+  * platform versions, or of the positions of the directives declaring them does. Artifacts whose
+  * resolution recovered from errors aren't kept, nor are those depending on changing modules
+  * (snapshots, `latest.*` versions or version ranges), whose resolution may give different results
+  * from one build to the next.
+  */
+final class ArtifactsCache {
+  import ArtifactsCache.Key
+
+  private val latest = new ConcurrentHashMap[Scope, (Key, Artifacts)]
+  private val hits   = new LongAdder
+  private val misses = new LongAdder
+
+  /** Number of builds that could reuse the artifacts of the previous build */
+  def hitCount: Long = hits.sum()
+
+  /** Number of builds that had to resolve their artifacts */
+  def missCount: Long = misses.sum()
+
+  /** Drops the artifacts kept so far, so that the next build of each scope resolves them again */
+  def clear(): Unit = latest.clear()
+
+  def getOrFetch(
+    options: BuildOptions,
+    scope: Scope,
+    maybeRecoverOnError: BuildException => Option[BuildException]
+  )(
+    fetch: (BuildException => Option[BuildException]) => Either[BuildException, Artifacts]
+  ): Either[BuildException, Artifacts] = {
+    val key = Key(options)
+    Option(latest.get(scope)) match {
+      case Some((`key`, artifacts)) =>
+        hits.increment()
+        Right(artifacts)
+      case _ =>
+        misses.increment()
+        var recovered = false
+        val res       = fetch { e =>
+          recovered = true
+          maybeRecoverOnError(e)
+        }
+        res match {
+          case Right(artifacts) if !recovered && !key.hasChangingModules =>
+            latest.put(scope, (key, artifacts))
+          case _ =>
+            latest.remove(scope)
+        }
+        res
+    }
+  }
+}
+
+object ArtifactsCache {
+
+  /** The options [[BuildOptions.artifacts]] resolves dependencies from: Scala and platform
+    * parameters, dependencies, repositories, extra class path and the JVM to run on
+    */
+  private[build] final case class Key(
+    scalaVersion: Option[MaybeScalaVersion],
+    scalaBinaryVersion: Option[String],
+    defaultScalaVersion: Option[String],
+    addScalaLibrary: Option[Boolean],
+    addScalaCompiler: Option[Boolean],
+    generateSemanticDbs: Option[Boolean],
+    compilerPlugins: Seq[Positioned[AnyDependency]],
+    platform: Option[Positioned[Platform]],
+    scalaJsOptions: ScalaJsOptions,
+    scalaJsLinkerOptions: ScalaJsLinkerOptions,
+    scalaNativeOptions: ScalaNativeOptions,
+    internalDependencies: InternalDependenciesOptions,
+    jmhOptions: JmhOptions,
+    javaHome: Option[Positioned[os.Path]],
+    jvmId: Option[Positioned[String]],
+    javacPluginDependencies: Seq[Positioned[AnyDependency]],
+    javacPlugins: Seq[Positioned[os.Path]],
+    extraRepositories: Seq[String],
+    localRepository: Option[String],
+    extraDependencies: ShadowingSeq[Positioned[AnyDependency]],
+    extraCompileOnlyDependencies: ShadowingSeq[Positioned[AnyDependency]],
+    extraClassPath: Seq[os.Path],
+    extraCompileOnlyJars: Seq[os.Path],
+    extraSourceJars: Seq[os.Path],
+    fetchSources: Option[Boolean],
+    addRunnerDependency: Option[Boolean],
+    python: (Option[Boolean], Option[Boolean], Option[String]),
+    keepResolution: Boolean,
+    offline: Option[Boolean],
+    useBuildServer: Option[Boolean]
+  ) {
+    def hasChangingModules: Boolean =
+      (compilerPlugins ++ javacPluginDependencies ++ extraDependencies.toSeq ++
+        extraCompileOnlyDependencies.toSeq)
+        .exists(dep => isChangingVersion(dep.value.version))
+  }
+
+  /** Whether resolving `version` may give different modules over time */
+  private[build] def isChangingVersion(version: String): Boolean =
+    version.endsWith("SNAPSHOT") ||
+    version.startsWith("latest.") ||
+    version.endsWith("+") ||
+    version.exists(c => c == '[' || c == ']' || c == '(' || c == ')' || c == ',')
+
+  private[build] object Key {
+    def apply(options: BuildOptions): Key =
+      Key(
+        scalaVersion = options.scalaOptions.scalaVersion,
+        scalaBinaryVersion = options.scalaOptions.scalaBinaryVersion,
+        defaultScalaVersion = options.scalaOptions.defaultScalaVersion,
+        addScalaLibrary = options.scalaOptions.addScalaLibrary,
+        addScalaCompiler = options.scalaOptions.addScalaCompiler,
+        generateSemanticDbs = options.scalaOptions.semanticDbOptions.generateSemanticDbs,
+        compilerPlugins = options.scalaOptions.compilerPlugins,
+        platform = options.scalaOptions.platform,
+        scalaJsOptions = options.scalaJsOptions,
+        scalaJsLinkerOptions = options.notForBloopOptions.scalaJsLinkerOptions,
+        scalaNativeOptions = options.scalaNativeOptions,
+        internalDependencies = options.internalDependencies,
+        jmhOptions = options.jmhOptions,
+        javaHome = options.javaOptions.javaHomeOpt,
+        jvmId = options.javaOptions.jvmIdOpt,
+        javacPluginDependencies = options.javaOptions.javacPluginDependencies,
+        javacPlugins = options.javaOptions.javacPlugins,
+        extraRepositories = options.classPathOptions.extraRepositories,
+        localRepository = options.internal.localRepository,
+        extraDependencies = options.classPathOptions.extraDependencies,
+        extraCompileOnlyDependencies = options.classPathOptions.extraCompileOnlyDependencies,
+        extraClassPath = options.classPathOptions.extraClassPath,
+        extraCompileOnlyJars = options.classPathOptions.extraCompileOnlyJars,
+        extraSourceJars = options.classPathOptions.extraSourceJars,
+        fetchSources = options.classPathOptions.fetchSources,
+        addRunnerDependency = options.notForBloopOptions.addRunnerDependencyOpt,
+        python = (
+          options.notForBloopOptions.pythonSetup,
+          options.notForBloopOptions.python,
+          options.notForBloopOptions.scalaPyVersion
+        ),
+        keepResolution = options.internal.keepResolution,
+        offline = options.internal.offline,
+        useBuildServer = options.useBuildServer
+      )
+  }
+}
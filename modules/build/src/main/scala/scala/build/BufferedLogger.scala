@@ -0,0 +1,81 @@
+package scala.build
+
+import bloop.rifle.BloopRifleLogger
+import org.scalajs.logging.Logger as ScalaJsLogger
+
+import java.io.PrintStream
+
+import scala.build.errors.{BuildException, Diagnostic}
+import scala.build.internals.FeatureType
+import scala.collection.mutable.ListBuffer
+import scala.scalanative.build as sn
+
+/** Keeps what's reported to users, like messages, diagnostics and warnings, until [[replay]] is
+  * called, so that tasks running concurrently report things in a deterministic order. Verbose logs
+  * are passed to `parent` right away.
+  *
+  * Once replayed, everything is passed to `parent` right away, as the logger may have been kept by
+  * what it was passed to, like the functions wrapping scripts later on.
+  */
+final class BufferedLogger(parent: Logger) extends Logger {
+  private val buffer   = new ListBuffer[Logger => Unit]
+  private var replayed = false
+
+  private def buffered(f: Logger => Unit): Unit = {
+    val passThrough = buffer.synchronized {
+      if (!replayed) buffer += f
+      replayed
+    }
+    if (passThrough) f(parent)
+  }
+
+  /** Passes what was reported so far to `parent`, in the order it was reported, and what is
+    * reported from now on right away
+    */
+  def replay(): Unit = {
+    val reported = buffer.synchronized {
+      replayed = true
+      val res = buffer.toList
+      buffer.clear()
+      res
+    }
+    reported.foreach(_(parent))
+  }
+
+  def error(message: String): Unit = buffered(_.error(message))
+  def message(message: => String): Unit = {
+    val message0 = message
+    buffered(_.message(message0))
+  }
+  def log(s: => String): Unit                   = parent.log(s)
+  def log(s: => String, debug: => String): Unit = parent.log(s, debug)
+  def debug(s: => String): Unit                 = parent.debug(s)
+
+  def log(diagnostics: Seq[Diagnostic]): Unit =
+    if (diagnostics.nonEmpty) buffered(_.log(diagnostics))
+
+  def log(ex: BuildException): Unit     = buffered(_.log(ex))
+  def debug(ex: BuildException): Unit   = parent.debug(ex)
+  def exit(ex: BuildException): Nothing = parent.exit(ex)
+
+  def coursierLogger(printBefore: String): coursier.cache.CacheLogger =
+    parent.coursierLogger(printBefore)
+  def bloopRifleLogger: BloopRifleLogger                = parent.bloopRifleLogger
+  def scalaJsLogger: ScalaJsLogger                      = parent.scalaJsLogger
+  def scalaNativeTestLogger: sn.Logger                  = parent.scalaNativeTestLogger
+  def scalaNativeCliInternalLoggerOptions: List[String] = parent.scalaNativeCliInternalLoggerOptions
+
+  def compilerOutputStream: PrintStream = parent.compilerOutputStream
+
+  def verbosity: Int = parent.verbosity
+
+  def experimentalWarning(featureName: String, featureType: FeatureType): Unit =
+    buffered(_.experimentalWarning(featureName, featureType))
+
+  def flushExperimentalWarnings: Unit = buffered(_.flushExperimentalWarnings)
+
+  def deprecationWarning(featureName: String, message: String, featureType: FeatureType): Unit =
+    buffered(_.deprecationWarning(featureName, message, featureType))
+
+  def flushDeprecationWarnings: Unit = buffered(_.flushDeprecationWarnings)
+}
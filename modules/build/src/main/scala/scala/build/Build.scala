@@ -1,30 +1,26 @@
 package scala.build
 
 import ch.epfl.scala.bsp4j
-import com.swoval.files.FileTreeViews.Observer
-import com.swoval.files.{PathWatcher, PathWatchers}
 import dependency.ScalaParameters
 
 import java.io.File
 import java.nio.file.FileSystemException
-import java.util.concurrent.{ScheduledExecutorService, ScheduledFuture}
+import java.util.concurrent.ScheduledExecutorService
 
-import scala.annotation.tailrec
 import scala.build.EitherCps.{either, value}
 import scala.build.Ops.*
 import scala.build.compiler.{ScalaCompiler, ScalaCompilerMaker}
 import scala.build.errors.*
 import scala.build.input.*
 import scala.build.internal.resource.ResourceMapper
-import scala.build.internal.{Constants, MainClass, Name, Util}
+import scala.build.internal.FileWatchService.Registration
+import scala.build.internal.{ClassIndex, Constants, FileWatchService, MainClass, Name, Util}
 import scala.build.internals.ConsoleUtils.ScalaCliConsole.warnPrefix
 import scala.build.options.*
 import scala.build.options.validation.ValidationException
 import scala.build.postprocessing.*
 import scala.build.postprocessing.LineConversion.scalaLineToScLineShift
-import scala.collection.mutable.ListBuffer
-import scala.compiletime.uninitialized
-import scala.concurrent.duration.DurationInt
+import scala.build.preprocessing.PreprocessingCache
 import scala.util.Properties
 import scala.util.control.NonFatal
 
@@ -65,8 +61,11 @@ object Build {
       sources.resourceDirs ++ artifacts.compileClassPath
     def fullClassPath: Seq[os.Path]        = Seq(output) ++ dependencyClassPath
     def fullCompileClassPath: Seq[os.Path] = fullClassPath ++ dependencyCompileClassPath
+
+    /** Index of the classes of [[output]], shared by main class detection and the test runners */
+    lazy val classIndex: ClassIndex = ClassIndex.update(output, logger)
     private lazy val mainClassCandidatesInProject: Seq[MainClass.MainClassCandidate] =
-      MainClass.find(output, logger)
+      classIndex.mainClasses
         .filterNot(c => scriptWrapperUserCodeClasses.contains(c.className))
     private lazy val mainClassCandidatesOnExtraClasspath: Seq[MainClass.MainClassCandidate] =
       options.classPathOptions.extraClassPath.flatMap(MainClass.find(_, logger))
@@ -329,20 +328,28 @@ object Build {
   private def allInputs(
     inputs: Inputs,
     options: BuildOptions,
-    logger: Logger
-  )(using ScalaCliInvokeData) =
-    CrossSources.forInputs(
+    logger: Logger,
+    preprocessingCache: PreprocessingCache
+  )(using ScalaCliInvokeData) = {
+    val res = CrossSources.forInputs(
       inputs,
-      Sources.defaultPreprocessors(
-        archiveCache = options.archiveCache,
-        javaClassNameVersionOpt = options.internal.javaClassNameVersionOpt,
-        javaCommand = () => options.javaHome().value.javaCommand
+      Seq(
+        preprocessingCache.preprocessor(
+          Sources.defaultPreprocessors(
+            archiveCache = options.archiveCache,
+            javaClassNameVersionOpt = options.internal.javaClassNameVersionOpt,
+            javaCommand = () => options.javaHome().value.javaCommand
+          )
+        )
       ),
       logger,
       options.suppressWarningOptions,
       options.internal.exclude,
       download = options.downloader
     )
+    preprocessingCache.save(logger)
+    res
+  }
 
   private def build(
     inputs: Inputs,
@@ -376,6 +383,8 @@ object Build {
                 build.options.withResolvedSemanticDbSourceRoot
               )
           ).left.foreach(_.foreach(logger.message(_)))
+        // indexed once post-processing is done, as it may rewrite class files
+        build.classIndex
       case _ =>
     }
 
@@ -695,7 +704,9 @@ object Build {
       keepDiagnostics = options.internal.keepDiagnostics
     )
     val classesDir0                           = classesRootDir(inputs.workspace, inputs.projectName)
-    val (crossSources: CrossSources, inputs0) = value(allInputs(inputs, options, logger))
+    val (crossSources: CrossSources, inputs0) = value {
+      allInputs(inputs, options, logger, PreprocessingCache.persistent(inputs.workspace))
+    }
     val buildOptions                          = crossSources.sharedOptions(options)
     if !buildOptions.suppressWarningOptions.suppressDeprecatedFeatureWarning.getOrElse(false) &&
       buildOptions.scalaParams.exists(_.exists(_.scalaVersion == "2.12.4") &&
@@ -785,13 +796,14 @@ object Build {
       logger,
       keepDiagnostics = options.internal.keepDiagnostics
     )
-    val threads     = BuildThreads.create()
-    val classesDir0 = classesRootDir(inputs.workspace, inputs.projectName)
+    val threads            = BuildThreads.create()
+    val classesDir0        = classesRootDir(inputs.workspace, inputs.projectName)
+    val preprocessingCache = PreprocessingCache.persistent(inputs.workspace)
 
     lazy val compilers: Either[BuildException, (ScalaCompiler, Option[ScalaCompiler])] =
       either {
         val (crossSources: CrossSources, inputs0: Inputs) =
-          value(allInputs(inputs, options, logger))
+          value(allInputs(inputs, options, logger, preprocessingCache))
         val sharedOptions = crossSources.sharedOptions(options)
         val compiler      = value {
           compilerMaker.create(
@@ -815,14 +827,19 @@ object Build {
     def info: Either[BuildException, (ScalaCompiler, Option[ScalaCompiler], CrossSources, Inputs)] =
       either {
         val (crossSources: CrossSources, inputs0: Inputs) =
-          value(allInputs(inputs, options, logger))
+          value(allInputs(inputs, options, logger, preprocessingCache))
         val (compiler, docCompilerOpt) = value(compilers)
         (compiler, docCompilerOpt, crossSources, inputs0)
       }
 
     var res: Either[BuildException, Builds] = null
 
-    def run(): Unit = {
+    def run(changedPaths: Set[os.Path]): Unit = {
+      if changedPaths.nonEmpty then
+        logger.debug(
+          s"Building again after changes to ${changedPaths.size} path(s): " +
+            changedPaths.toSeq.map(printable).sorted.take(10).mkString(", ")
+        )
       try {
         res =
           info.flatMap {
@@ -855,14 +872,14 @@ object Build {
       postAction()
     }
 
-    run()
+    run(Set.empty)
 
     val watcher =
-      new Watcher(ListBuffer(), threads.fileWatcher, run(), info.foreach(_._1.shutdown()))
+      new Watcher(threads.fileWatcher, run(_), info.foreach(_._1.shutdown()), logger)
 
     def doWatch(): Unit = either {
       val (crossSources: CrossSources, inputs0: Inputs) =
-        value(allInputs(inputs, options, logger))
+        value(allInputs(inputs, options, logger, preprocessingCache))
       val mergedOptions          = crossSources.sharedOptions(options)
       val elements: Seq[Element] =
         if res == null then inputs0.elements
@@ -876,34 +893,19 @@ object Build {
               (mainElems ++ testElems ++ allResourceDirectories).distinct
             }
             .getOrElse(inputs.elements)
-      for (elem <- elements) {
-        val depth = elem match {
-          case _: SingleFile => -1
-          case _             => Int.MaxValue
-        }
-        val eventFilter: PathWatchers.Event => Boolean = elem match {
-          case d: Directory =>
-            // Filtering event for directories, to ignore those related to the .bloop directory in particular
-            event =>
-              val p           = os.Path(event.getTypedPath.getPath.toAbsolutePath)
-              val relPath     = p.relativeTo(d.path)
-              val isHidden    = relPath.segments.exists(_.startsWith("."))
-              val pathLast    = relPath.lastOpt.orElse(p.lastOpt).getOrElse("")
-              def isScalaFile = pathLast.endsWith(".sc") || pathLast.endsWith(".scala")
-              def isJavaFile  = pathLast.endsWith(".java")
-              !isHidden && (isScalaFile || isJavaFile)
-          case _ => _ => true
-        }
-
-        val watcher0 = watcher.newWatcher()
-        elem match {
-          case d: OnDisk =>
-            watcher0.register(d.path.toNIO, depth)
-          case _: Virtual =>
-        }
-        watcher0.addObserver {
-          onChangeBufferedObserver(event => if eventFilter(event) then watcher.schedule())
-        }
+      val inputRegistrations = elements.collect {
+        case d: Directory =>
+          // only sources trigger a build, not the .scala-build directory in particular
+          Registration(
+            d.path,
+            recursive = true,
+            pruneHidden = true,
+            accept = { (p, _) =>
+              p.last.endsWith(".sc") || p.last.endsWith(".scala") || p.last.endsWith(".java")
+            }
+          )
+        case f: SingleFile => Registration(f.path, recursive = false)
+        case d: OnDisk     => Registration(d.path, recursive = true)
       }
 
       val artifacts = res
@@ -918,23 +920,15 @@ object Build {
             .filterNot(_.segments.contains(Constants.workspaceDirName))
         }
         .getOrElse(Nil)
-      for (artifact <- artifacts) {
-        val depth    = if os.isFile(artifact) then -1 else Int.MaxValue
-        val watcher0 = watcher.newWatcher()
-        watcher0.register(artifact.toNIO, depth)
-        watcher0.addObserver(onChangeBufferedObserver(_ => watcher.schedule()))
-      }
 
       val extraWatchPaths = mergedOptions.watchOptions.extraWatchPaths.distinct
-      for (extraPath <- extraWatchPaths)
-        if os.exists(extraPath) then {
-          val depth    = if os.isFile(extraPath) then -1 else Int.MaxValue
-          val watcher0 = watcher.newWatcher()
-          watcher0.register(extraPath.toNIO, depth)
-          watcher0.addObserver(onChangeBufferedObserver(_ => watcher.schedule()))
-        }
-        else
-          logger.message(s"$warnPrefix provided watched path doesn't exist: $extraPath")
+      for (extraPath <- extraWatchPaths if !os.exists(extraPath))
+        logger.message(s"$warnPrefix provided watched path doesn't exist: $extraPath")
+      val otherRegistrations = (artifacts ++ extraWatchPaths.filter(os.exists(_))).map { path =>
+        Registration(path, recursive = !os.isFile(path))
+      }
+
+      watcher.register(inputRegistrations ++ otherRegistrations)
     }
 
     try doWatch()
@@ -1172,7 +1166,9 @@ object Build {
     compiler: ScalaCompiler,
     logger: Logger,
     buildClient: BloopBuildClient,
-    maybeRecoverOnError: BuildException => Option[BuildException] = e => Some(e)
+    maybeRecoverOnError: BuildException => Option[BuildException] = e => Some(e),
+    onArtifactsFetched: Long => Unit = _ => (),
+    artifactsCacheOpt: Option[ArtifactsCache] = None
   ): Either[BuildException, (os.Path, Option[ScalaParameters], Artifacts, Project, Boolean)] =
     either {
 
@@ -1195,7 +1191,18 @@ object Build {
 
       val classesDir0 = classesDir(inputs.workspace, inputs.projectName, scope)
 
-      val artifacts = value(options0.artifacts(logger, scope, maybeRecoverOnError))
+      val artifactsStart = System.nanoTime()
+      val artifacts      = value {
+        artifactsCacheOpt match {
+          case Some(artifactsCache) =>
+            artifactsCache.getOrFetch(options0, scope, maybeRecoverOnError) {
+              options0.artifacts(logger, scope, _)
+            }
+          case None =>
+            options0.artifacts(logger, scope, maybeRecoverOnError)
+        }
+      }
+      onArtifactsFetched(System.nanoTime() - artifactsStart)
 
       value(validate(logger, options0))
 
@@ -1346,80 +1353,40 @@ object Build {
         }
         .toMap
 
-      val postProcessors =
-        Seq(ByteCodePostProcessor) ++
-          (if updateSemanticDbs then Seq(SemanticDbPostProcessor) else Nil) ++
-          Seq(TastyPostProcessor)
-
-      val failures = postProcessors.flatMap(
-        _.postProcess(
-          generatedSources = generatedSources,
-          mappings = mappings,
-          workspace = workspace,
-          output = classesDir,
-          logger = logger,
-          scalaVersion = scalaVersion,
-          buildOptions = buildOptions
-        )
-          .fold(e => Seq(e), _ => Nil)
+      PostProcessingPipeline.run(
+        generatedSources = generatedSources,
+        mappings = mappings,
+        workspace = workspace,
+        output = classesDir,
+        logger = logger,
+        scalaVersion = scalaVersion,
+        buildOptions = buildOptions,
+        updateSemanticDbs = updateSemanticDbs
       )
-      if failures.isEmpty then Right(()) else Left(failures)
     }
     else
       Right(())
 
-  def onChangeBufferedObserver(onEvent: PathWatchers.Event => Unit): Observer[PathWatchers.Event] =
-    new Observer[PathWatchers.Event] {
-      def onError(t: Throwable): Unit = {
-        // TODO Log that properly
-        System.err.println("got error:")
-        @tailrec
-        def printEx(t: Throwable): Unit =
-          if t != null then {
-            System.err.println(t)
-            System.err.println(
-              t.getStackTrace.iterator.map("  " + _ + System.lineSeparator()).mkString
-            )
-            printEx(t.getCause)
-          }
-        printEx(t)
-      }
-
-      def onNext(event: PathWatchers.Event): Unit =
-        onEvent(event)
-    }
-
+  /** Runs `onChange` with the paths that changed each time files it's given to watch change */
   final class Watcher(
-    val watchers: ListBuffer[PathWatcher[PathWatchers.Event]],
     val scheduler: ScheduledExecutorService,
-    onChange: => Unit,
-    onDispose: => Unit
+    onChange: Set[os.Path] => Unit,
+    onDispose: => Unit,
+    logger: Logger
   ) {
-    def newWatcher(): PathWatcher[PathWatchers.Event] = {
-      val w = PathWatchers.get(true)
-      watchers += w
-      w
-    }
+    private val service = new FileWatchService(scheduler, onChange, logger)
+
+    def register(registrations: Seq[Registration]): Unit =
+      service.register(registrations)
     def dispose(): Unit = {
       onDispose
-      watchers.foreach(_.close())
+      service.close()
       scheduler.shutdown()
     }
 
-    private val lock                  = new Object
-    private var f: ScheduledFuture[?] = uninitialized
-    private val waitFor               = 50.millis
-    private val runnable: Runnable    = { () =>
-      lock.synchronized {
-        f = null
-      }
-      onChange // FIXME Log exceptions
-    }
+    /** Runs `onChange` again, with no changed paths */
     def schedule(): Unit =
-      if f == null then
-        lock.synchronized {
-          if f == null then f = scheduler.schedule(runnable, waitFor.length, waitFor.unit)
-        }
+      service.trigger()
   }
 
   private def printable(path: os.Path): String =
@@ -1,6 +1,6 @@
 package scala.build
 
-import java.util.concurrent.{Executors, ScheduledExecutorService}
+import java.util.concurrent.{ScheduledExecutorService, ScheduledThreadPoolExecutor}
 
 import scala.build.internal.Util
 
@@ -17,7 +17,9 @@ final case class BuildThreads(
 object BuildThreads {
   def create(): BuildThreads = {
     val bloop       = _root_.bloop.rifle.BloopThreads.create()
-    val fileWatcher = Executors.newSingleThreadScheduledExecutor(
+    // like Executors.newSingleThreadScheduledExecutor, but with a queue that can be inspected
+    val fileWatcher = new ScheduledThreadPoolExecutor(
+      1,
       Util.daemonThreadFactory("scala-cli-file-watcher")
     )
     BuildThreads(bloop, fileWatcher)
@@ -14,7 +14,7 @@ import scala.build.errors.{
 }
 import scala.build.input.*
 import scala.build.input.ElementsUtils.*
-import scala.build.internal.Constants
+import scala.build.internal.{Constants, Util}
 import scala.build.internal.util.{RegexUtils, WarningMessages}
 import scala.build.options.{
   BuildOptions,
@@ -25,6 +25,7 @@ import scala.build.options.{
   WithBuildRequirements
 }
 import scala.build.preprocessing.*
+import scala.collection.mutable
 import scala.util.Try
 import scala.util.chaining.*
 
@@ -154,6 +155,51 @@ object CrossSources {
       }
     }
 
+  /** Runs `f` on each element of `elems`, concurrently when there are several of them, returning
+    * results in the order of `elems`.
+    *
+    * Each run gets its own logger, and the errors it recovers from are recorded rather than passed
+    * to `maybeRecoverOnError` right away. Once all the runs are done, what each run reported is
+    * passed to `logger`, and its errors to `maybeRecoverOnError`, in the order of `elems`, so that
+    * diagnostics are reported in a deterministic order. Runs with errors that `maybeRecoverOnError`
+    * doesn't recover from fail with the first of them.
+    */
+  private def inParallel[T](
+    elems: Seq[SingleElement],
+    logger: Logger,
+    maybeRecoverOnError: BuildException => Option[BuildException]
+  )(
+    f: (
+      SingleElement,
+      Logger,
+      BuildException => Option[BuildException]
+    ) => Either[BuildException, T]
+  ): Seq[Either[BuildException, T]] =
+    if (elems.lengthCompare(1) <= 0) elems.map(f(_, logger, maybeRecoverOnError))
+    else {
+      val runs =
+        elems.map(_ => (new BufferedLogger(logger), mutable.ListBuffer.empty[BuildException]))
+      val results = Util.inParallel(elems.zip(runs)) {
+        case (elem, (elemLogger, recovered)) =>
+          f(
+            elem,
+            elemLogger,
+            e => {
+              recovered += e
+              None
+            }
+          )
+      }
+      results.zip(runs).map {
+        case (result, (elemLogger, recovered)) =>
+          elemLogger.replay()
+          recovered.iterator
+            .map(maybeRecoverOnError)
+            .collectFirst { case Some(e) => e }
+            .fold(result)(Left(_))
+      }
+    }
+
   private def outermostProjectFile(
     elements: Seq[SingleElement]
   ): Option[ProjectScalaFile] =
@@ -175,28 +221,37 @@ object CrossSources {
     def preprocessSources(
       elems: Seq[SingleElement],
       preprocessLogger: Logger = logger
-    ): Either[BuildException, Seq[PreprocessedSource]] =
-      elems
-        .map { elem =>
-          preprocessors
-            .iterator
-            .flatMap(p =>
-              p.preprocess(
-                elem,
-                preprocessLogger,
-                maybeRecoverOnError,
-                inputs.allowRestrictedFeatures,
-                suppressWarningOptions
-              ).iterator
-            )
-            .take(1)
-            .toList
-            .headOption
-            .getOrElse(Right(Nil)) // FIXME Warn about unprocessed stuff?
+    ): Either[BuildException, Seq[PreprocessedSource]] = either {
+      value {
+        preprocessors
+          .map(_.prepare(elems, preprocessLogger))
+          .sequence
+          .left.map(CompositeBuildException(_))
+      }
+      value {
+        inParallel(elems, preprocessLogger, maybeRecoverOnError) {
+          (elem, elemLogger, elemMaybeRecoverOnError) =>
+            preprocessors
+              .iterator
+              .flatMap(p =>
+                p.preprocess(
+                  elem,
+                  elemLogger,
+                  elemMaybeRecoverOnError,
+                  inputs.allowRestrictedFeatures,
+                  suppressWarningOptions
+                ).iterator
+              )
+              .take(1)
+              .toList
+              .headOption
+              .getOrElse(Right(Nil)) // FIXME Warn about unprocessed stuff?
         }
-        .sequence
-        .left.map(CompositeBuildException(_))
-        .map(_.flatten)
+          .sequence
+          .left.map(CompositeBuildException(_))
+          .map(_.flatten)
+      }
+    }
 
     val flattenedInputs = inputs.flattened()
     // Exclude may be declared in exactly one source: the project file or a script.
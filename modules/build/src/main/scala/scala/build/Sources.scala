@@ -6,7 +6,7 @@ import coursier.util.Task
 import java.nio.charset.StandardCharsets
 
 import scala.build.input.Inputs
-import scala.build.internal.{CodeWrapper, WrapperParams}
+import scala.build.internal.{CodeWrapper, SharedJavaParserProxy, WrapperParams}
 import scala.build.options.{BuildOptions, Scope}
 import scala.build.preprocessing.*
 
@@ -117,13 +117,15 @@ object Sources {
     archiveCache: ArchiveCache[Task],
     javaClassNameVersionOpt: Option[String],
     javaCommand: () => String
-  ): Seq[Preprocessor] =
+  ): Seq[Preprocessor] = {
+    val javaParser = new SharedJavaParserProxy(archiveCache, javaClassNameVersionOpt, javaCommand)
     Seq(
       ScriptPreprocessor,
-      MarkdownPreprocessor(archiveCache, javaClassNameVersionOpt, javaCommand),
-      JavaPreprocessor(archiveCache, javaClassNameVersionOpt, javaCommand),
+      MarkdownPreprocessor(javaParser),
+      JavaPreprocessor(javaParser),
       ScalaPreprocessor,
       DataPreprocessor,
       JarPreprocessor
     )
+  }
 }
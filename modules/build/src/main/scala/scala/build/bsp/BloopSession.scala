@@ -7,6 +7,7 @@ import java.util.concurrent.atomic.AtomicReference
 import scala.build.Build
 import scala.build.compiler.BloopCompiler
 import scala.build.input.{Inputs, OnDisk, SingleFile, Virtual}
+import scala.build.internal.FileWatchService
 
 final class BloopSession(
   val inputs: Inputs,
@@ -28,28 +29,22 @@ final class BloopSession(
   }
 
   def registerWatchInputs(): Unit =
-    inputs.elements.foreach {
-      case elem: OnDisk =>
-        val eventFilter: PathWatchers.Event => Boolean = { event =>
-          val newOrDeletedFile =
-            event.getKind == PathWatchers.Event.Kind.Create ||
-            event.getKind == PathWatchers.Event.Kind.Delete
-          lazy val p        = os.Path(event.getTypedPath.getPath.toAbsolutePath)
-          lazy val relPath  = p.relativeTo(elem.path)
-          lazy val isHidden = relPath.segments.exists(_.startsWith("."))
-          def isScalaFile   = relPath.last.endsWith(".sc") || relPath.last.endsWith(".scala")
-          def isJavaFile    = relPath.last.endsWith(".java")
-          newOrDeletedFile && !isHidden && (isScalaFile || isJavaFile)
-        }
-        val watcher0 = watcher.newWatcher()
-        watcher0.register(elem.path.toNIO, Int.MaxValue)
-        watcher0.addObserver {
-          Build.onChangeBufferedObserver { event =>
-            if (eventFilter(event))
-              watcher.schedule()
-          }
-        }
-      case _ =>
+    watcher.register {
+      inputs.elements.collect {
+        case elem: OnDisk =>
+          FileWatchService.Registration(
+            elem.path,
+            recursive = true,
+            pruneHidden = true,
+            accept = { (p, kind) =>
+              val newOrDeletedFile =
+                kind == PathWatchers.Event.Kind.Create || kind == PathWatchers.Event.Kind.Delete
+              def isScalaFile = p.last.endsWith(".sc") || p.last.endsWith(".scala")
+              def isJavaFile  = p.last.endsWith(".java")
+              newOrDeletedFile && (isScalaFile || isJavaFile)
+            }
+          )
+      }
     }
 }
 
@@ -18,7 +18,8 @@ object Bsp {
     threads: BspThreads,
     in: InputStream,
     out: OutputStream,
-    actionableDiagnostics: Option[Boolean]
+    actionableDiagnostics: Option[Boolean],
+    sessionRecordingOpt: Option[os.Path] = None
   )(using ScalaCliInvokeData): Bsp =
     new BspImpl(
       argsToInputs,
@@ -26,6 +27,7 @@ object Bsp {
       threads,
       in,
       out,
-      actionableDiagnostics
+      actionableDiagnostics,
+      sessionRecordingOpt
     )
 }
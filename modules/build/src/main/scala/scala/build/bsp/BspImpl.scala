@@ -23,7 +23,7 @@ import scala.build.errors.{
 import scala.build.input.{Inputs, ScalaCliInvokeData}
 import scala.build.internal.Constants
 import scala.build.options.{BuildOptions, Scope}
-import scala.collection.mutable.ListBuffer
+import scala.build.preprocessing.PreprocessingCache
 import scala.compiletime.uninitialized
 import scala.concurrent.duration.DurationInt
 import scala.concurrent.{ExecutionContext, Future, Promise}
@@ -42,6 +42,8 @@ import scala.util.{Failure, Success}
   *   the input stream of bytes
   * @param out
   *   the output stream of bytes
+  * @param sessionRecordingOpt
+  *   file to record the JSON-RPC messages of the session to, see [[BspSessionRecorder]]
   */
 final class BspImpl(
   argsToInputs: Seq[String] => Either[BuildException, Inputs],
@@ -49,7 +51,8 @@ final class BspImpl(
   threads: BspThreads,
   in: InputStream,
   out: OutputStream,
-  actionableDiagnostics: Option[Boolean]
+  actionableDiagnostics: Option[Boolean],
+  sessionRecordingOpt: Option[os.Path] = None
 )(using ScalaCliInvokeData) extends Bsp {
 
   import BspImpl.{PreBuildData, PreBuildProject, buildTargetIdToEvent, responseError}
@@ -60,6 +63,29 @@ final class BspImpl(
   private var localClient: b.BuildClient & BloopBuildClient = uninitialized
   private val bloopSession                                  = new BloopSession.Reference
 
+  private var sessionRecorderOpt = Option.empty[BspSessionRecorder]
+
+  private val metrics = new BspMetrics
+  metrics.registerQueue("prepareBuild", threads.prepareBuildExecutor)
+  metrics.registerQueue("fileWatcher", threads.buildThreads.fileWatcher)
+
+  // kept across reloads, so that these only re-process what changed
+  private var preprocessingCache: PreprocessingCache = uninitialized
+  private val artifactsCache                         = new ArtifactsCache
+  metrics.registerGauge("preprocessingCacheHits", () => preprocessingCache.hitCount)
+  metrics.registerGauge("preprocessingCacheMisses", () => preprocessingCache.missCount)
+  metrics.registerGauge("artifactsCacheHits", () => artifactsCache.hitCount)
+  metrics.registerGauge("artifactsCacheMisses", () => artifactsCache.missCount)
+
+  private def metricsTarget(bspServer: BspServer, scope: Scope): String =
+    bspServer.targetScopeIdOpt(scope).fold(BspMetrics.allTargets)(_.getUri)
+
+  private def countBloopProject(buildChanged: Boolean): Unit =
+    metrics.increment(
+      if (buildChanged) BspMetrics.Counter.BloopProjectsWritten
+      else BspMetrics.Counter.BloopProjectsUpToDate
+    )
+
   /** Sends the buildTarget/didChange BSP notification to the BSP client, indicating that the build
     * targets defined in the current session have changed.
     *
@@ -106,10 +132,14 @@ final class BspImpl(
     val (crossSources, allInputs) = value {
       CrossSources.forInputs(
         inputs = inputs,
-        preprocessors = Sources.defaultPreprocessors(
-          buildOptions.archiveCache,
-          buildOptions.internal.javaClassNameVersionOpt,
-          () => buildOptions.javaHome().value.javaCommand
+        preprocessors = Seq(
+          preprocessingCache.preprocessor(
+            Sources.defaultPreprocessors(
+              buildOptions.archiveCache,
+              buildOptions.internal.javaClassNameVersionOpt,
+              () => buildOptions.javaHome().value.javaCommand
+            )
+          )
         ),
         logger = persistentLogger,
         suppressWarningOptions = buildOptions.suppressWarningOptions,
@@ -118,6 +148,7 @@ final class BspImpl(
         download = buildOptions.downloader
       ).left.map((_, Scope.Main))
     }
+    preprocessingCache.save(logger)
 
     val sharedOptions = crossSources.sharedOptions(buildOptions)
 
@@ -164,10 +195,17 @@ final class BspImpl(
         compiler = currentBloopSession.remoteServer,
         logger = persistentLogger,
         buildClient = localClient,
-        maybeRecoverOnError = maybeRecoverOnError(Scope.Main)
+        maybeRecoverOnError = maybeRecoverOnError(Scope.Main),
+        onArtifactsFetched = metrics.record(
+          BspMetrics.Phase.Dependencies,
+          metricsTarget(bspServer, Scope.Main),
+          _
+        ),
+        artifactsCacheOpt = Some(artifactsCache)
       )
       res.left.map((_, Scope.Main))
     }
+    countBloopProject(buildChangedMain)
 
     val (classesDir0Test, scalaParamsTest, artifactsTest, projectTest, buildChangedTest) = value {
       val res = Build.prepareBuild(
@@ -179,10 +217,17 @@ final class BspImpl(
         compiler = currentBloopSession.remoteServer,
         logger = persistentLogger,
         buildClient = localClient,
-        maybeRecoverOnError = maybeRecoverOnError(Scope.Test)
+        maybeRecoverOnError = maybeRecoverOnError(Scope.Test),
+        onArtifactsFetched = metrics.record(
+          BspMetrics.Phase.Dependencies,
+          metricsTarget(bspServer, Scope.Test),
+          _
+        ),
+        artifactsCacheOpt = Some(artifactsCache)
       )
       res.left.map((_, Scope.Test))
     }
+    countBloopProject(buildChangedTest)
 
     localClient.setGeneratedSources(Scope.Main, generatedSourcesMain)
     localClient.setGeneratedSources(Scope.Test, generatedSourcesTest)
@@ -236,7 +281,11 @@ final class BspImpl(
       ).left.map(_ -> scope)
 
     either[(BuildException, Scope)] {
-      val preBuild = value(prepareBuild(currentBloopSession, reloadableOptions))
+      val preBuild = value {
+        metrics.time(BspMetrics.Phase.PrepareBuild, BspMetrics.allTargets) {
+          prepareBuild(currentBloopSession, reloadableOptions)
+        }
+      }
       if (notifyChanges && (preBuild.mainScope.buildChanged || preBuild.testScope.buildChanged))
         notifyBuildChange(currentBloopSession)
       value(doBuildOnce(preBuild.mainScope, Scope.Main))
@@ -272,7 +321,7 @@ final class BspImpl(
       }
     )
 
-  /** Compilation logic, to be called on a buildTarget/compile BSP request.
+  /** Pre-build logic, run before the compilations of buildTarget/compile BSP requests.
     *
     * @param currentBloopSession
     *   the current Bloop session
@@ -280,20 +329,19 @@ final class BspImpl(
     *   executor
     * @param reloadableOptions
     *   options which may be reloaded on a bsp workspace/reload request
-    * @param doCompile
-    *   (self-)reference to calling the compilation logic
     * @return
-    *   a future of [[b.CompileResult]]
+    *   a future of the pre-build result
     */
-  private def compile(
+  private def preBuild(
     currentBloopSession: BloopSession,
     executor: Executor,
-    reloadableOptions: BspReloadableOptions,
-    doCompile: () => CompletableFuture[b.CompileResult]
-  ): CompletableFuture[b.CompileResult] = {
-    val preBuild = CompletableFuture.supplyAsync(
+    reloadableOptions: BspReloadableOptions
+  ): CompletableFuture[Either[(BuildException, Scope), PreBuildProject]] =
+    CompletableFuture.supplyAsync(
       () =>
-        prepareBuild(currentBloopSession, reloadableOptions) match {
+        metrics.time(BspMetrics.Phase.PrepareBuild, BspMetrics.allTargets) {
+          prepareBuild(currentBloopSession, reloadableOptions)
+        } match {
           case Right(preBuild) =>
             if (preBuild.mainScope.buildChanged || preBuild.testScope.buildChanged)
               notifyBuildChange(currentBloopSession)
@@ -304,7 +352,30 @@ final class BspImpl(
       executor
     )
 
-    preBuild.thenCompose {
+  /** Compilation logic, to be called on a buildTarget/compile BSP request, once the pre-build is
+    * done.
+    *
+    * @param currentBloopSession
+    *   the current Bloop session
+    * @param executor
+    *   executor
+    * @param reloadableOptions
+    *   options which may be reloaded on a bsp workspace/reload request
+    * @param preBuild
+    *   the pre-build result
+    * @param doCompile
+    *   (self-)reference to calling the compilation logic
+    * @return
+    *   a future of [[b.CompileResult]]
+    */
+  private def compile(
+    currentBloopSession: BloopSession,
+    executor: Executor,
+    reloadableOptions: BspReloadableOptions,
+    preBuild: Either[(BuildException, Scope), PreBuildProject],
+    doCompile: () => CompletableFuture[b.CompileResult]
+  ): CompletableFuture[b.CompileResult] =
+    preBuild match {
       case Left((ex, scope)) =>
         val taskId = new b.TaskId(UUID.randomUUID().toString)
 
@@ -355,19 +426,24 @@ final class BspImpl(
         doCompile().thenCompose { res =>
           def doPostProcess(data: PreBuildData, scope: Scope): Unit =
             for (sv <- data.project.scalaCompiler.map(_.scalaVersion))
-              Build.postProcess(
-                data.generatedSources,
-                currentBloopSession.inputs.generatedSrcRoot(scope),
-                data.classesDir,
-                reloadableOptions.logger,
-                currentBloopSession.inputs.workspace,
-                updateSemanticDbs = true,
-                scalaVersion = sv,
-                buildOptions =
-                  currentBloopSession.inputs.originalWorkspaceOpt.fold(data.buildOptions)(
-                    data.buildOptions.withResolvedSemanticDbSourceRoot
-                  )
-              ).left.foreach(_.foreach(showGlobalWarningOnce))
+              metrics.time(
+                BspMetrics.Phase.PostProcess,
+                metricsTarget(currentBloopSession.bspServer, scope)
+              ) {
+                Build.postProcess(
+                  data.generatedSources,
+                  currentBloopSession.inputs.generatedSrcRoot(scope),
+                  data.classesDir,
+                  reloadableOptions.logger,
+                  currentBloopSession.inputs.workspace,
+                  updateSemanticDbs = true,
+                  scalaVersion = sv,
+                  buildOptions =
+                    currentBloopSession.inputs.originalWorkspaceOpt.fold(data.buildOptions)(
+                      data.buildOptions.withResolvedSemanticDbSourceRoot
+                    )
+                ).left.foreach(_.foreach(showGlobalWarningOnce))
+              }
 
           if (res.getStatusCode == b.StatusCode.OK)
             CompletableFuture.supplyAsync(
@@ -382,7 +458,6 @@ final class BspImpl(
             CompletableFuture.completedFuture(res)
         }
     }
-  }
 
   /** Returns a reference to the [[BspClient]], respecting the given verbosity
     * @param verbosity
@@ -431,19 +506,40 @@ final class BspImpl(
       20.seconds,
       strictBloopJsonCheck = buildOptions.internal.strictBloopJsonCheckOrDefault
     )
+    lazy val compileScheduler = new CompileScheduler[
+      Either[(BuildException, Scope), PreBuildProject]
+    ](
+      () => preBuild(bloopSession0, threads.prepareBuildExecutor, reloadableOptions),
+      (preBuild, doCompile) =>
+        compile(
+          bloopSession0,
+          threads.prepareBuildExecutor,
+          reloadableOptions,
+          preBuild,
+          doCompile
+        ),
+      logger
+    )
     lazy val bspServer = new BspServer(
       remoteServer.bloopServer.server,
-      doCompile =>
-        compile(bloopSession0, threads.prepareBuildExecutor, reloadableOptions, doCompile),
+      compileScheduler.submit,
       logger,
-      presetIntelliJ
+      presetIntelliJ,
+      metrics
+    )
+    metrics.registerQueue("compileRequests", () => compileScheduler.waitingRequestCount)
+    metrics.registerGauge("compileRequests", () => compileScheduler.metrics.requests)
+    metrics.registerGauge("coalescedCompileRequests", () => compileScheduler.metrics.coalesced)
+    metrics.registerGauge(
+      "cancelledPreBuilds",
+      () => compileScheduler.metrics.cancelledPreBuilds
     )
 
     lazy val watcher = new Build.Watcher(
-      ListBuffer(),
       threads.buildThreads.fileWatcher,
-      build(bloopSession0, actualLocalClient, notifyChanges = true, reloadableOptions),
-      ()
+      _ => build(bloopSession0, actualLocalClient, notifyChanges = true, reloadableOptions),
+      (),
+      logger
     )
     lazy val bloopSession0: BloopSession = BloopSession(inputs, remoteServer, bspServer, watcher)
 
@@ -464,6 +560,7 @@ final class BspImpl(
 
     actualLocalClient = new BspClient(logger)
     localClient = getLocalClient(verbosity)
+    preprocessingCache = PreprocessingCache.persistent(initialInputs.workspace)
 
     val currentBloopSession = newBloopSession(initialInputs, initialBspOptions)
     bloopSession.update(null, currentBloopSession, "BSP server already initialized")
@@ -481,13 +578,19 @@ final class BspImpl(
       then new LoggingBuildServerAll(actualLocalServer)
       else actualLocalServer
 
-    val launcher = new jsonrpc.Launcher.Builder[b.BuildClient]()
+    val launcherBuilder = new jsonrpc.Launcher.Builder[b.BuildClient]()
       .setExecutorService(threads.buildThreads.bloop.jsonrpc) // FIXME No
       .setInput(in)
       .setOutput(out)
       .setRemoteInterface(classOf[b.BuildClient])
       .setLocalService(localServer)
-      .create()
+    for (file <- sessionRecordingOpt) {
+      logger.message(s"Recording BSP session to $file")
+      val recorder = new BspSessionRecorder(file, logger)
+      sessionRecorderOpt = Some(recorder)
+      launcherBuilder.wrapMessages(recorder.wrap(_))
+    }
+    val launcher = launcherBuilder.create()
     val remoteClient = launcher.getRemoteProxy
     actualLocalClient.forwardToOpt = Some(remoteClient)
 
@@ -537,9 +640,11 @@ final class BspImpl(
   }
 
   /** Shuts down the current Bloop session */
-  override def shutdown(): Unit =
+  override def shutdown(): Unit = {
     for (currentBloopSession <- bloopSession.getAndNullify())
       currentBloopSession.dispose()
+    sessionRecorderOpt.foreach(_.close())
+  }
 
   /** BSP reload logic, to be used on a workspace/reload BSP request
     *
@@ -569,6 +674,8 @@ final class BspImpl(
     actualLocalClient.newInputs(newInputs)
 
     newBloopSession0.resetDiagnostics(actualLocalClient)
+    preprocessingCache.retain(newInputs.flattened())
+    artifactsCache.clear()
     prepareBuild(newBloopSession0, reloadableOptions) match {
       case Left((buildException, scope)) =>
         CompletableFuture.completedFuture(
@@ -631,6 +738,7 @@ final class BspImpl(
     *   a future containing a valid workspace/reload response
     */
   private def onReload(): CompletableFuture[AnyRef] = {
+    metrics.increment(BspMetrics.Counter.Reloads)
     val currentBloopSession = bloopSession.get()
     bspReloadableOptionsReference.reload()
     val reloadableOptions = bspReloadableOptionsReference.get
@@ -0,0 +1,136 @@
+package scala.build.bsp
+
+import ch.epfl.scala.bsp4j as b
+
+import java.util.concurrent.atomic.{AtomicLong, AtomicLongArray, LongAdder}
+import java.util.concurrent.{ConcurrentHashMap, ExecutorService, ThreadPoolExecutor}
+import java.util.function.{Function as JFunction, LongBinaryOperator}
+
+import scala.jdk.CollectionConverters.*
+
+/** Latency histograms of the build phases of BSP sessions, queue depths and counters, returned by
+  * `buildTarget/performanceMetrics`.
+  *
+  * Recording a duration only updates atomic counters, and allocates nothing once a phase has been
+  * recorded for a target, so that recording is kept on all the time.
+  */
+final class BspMetrics {
+
+  import BspMetrics.*
+
+  private val histograms =
+    Array.fill(Phase.values.length)(new ConcurrentHashMap[String, Histogram])
+  private val counters = Array.fill(Counter.values.length)(new LongAdder)
+  private val gauges   = new ConcurrentHashMap[String, () => Long]
+  private val queues   = new ConcurrentHashMap[String, () => Int]
+
+  /** Records a duration of `phase`
+    *
+    * @param target
+    *   URI of the build target, or [[allTargets]] for phases processing all the targets at once
+    */
+  def record(phase: Phase, target: String, durationNanos: Long): Unit =
+    histograms(phase.ordinal).computeIfAbsent(target, newHistogram).record(durationNanos)
+
+  def time[T](phase: Phase, target: String)(f: => T): T = {
+    val start = System.nanoTime()
+    try f
+    finally record(phase, target, System.nanoTime() - start)
+  }
+
+  def increment(counter: Counter): Unit =
+    counters(counter.ordinal).increment()
+
+  /** Adds a counter whose value is read when metrics are requested, replacing the one with the same
+    * name if any, like the ones of the previous session after a reload
+    */
+  def registerGauge(name: String, value: () => Long): Unit =
+    gauges.put(name, value)
+
+  def registerQueue(name: String, depth: () => Int): Unit =
+    queues.put(name, depth)
+
+  def registerQueue(name: String, executor: ExecutorService): Unit =
+    executor match {
+      case pool: ThreadPoolExecutor => registerQueue(name, () => pool.getQueue.size)
+      case _                        => // queue not accessible
+    }
+
+  /** @param targets
+    *   targets to return latencies for, or empty for all of them
+    */
+  def result(targets: Seq[b.BuildTargetIdentifier]): PerformanceMetricsResult = {
+    val targetUris = targets.map(_.getUri).toSet
+    val latencies  =
+      for {
+        phase              <- Phase.values.toSeq
+        (target, histogram) <- histograms(phase.ordinal).asScala.toSeq.sortBy(_._1)
+        if target == allTargets || targetUris.isEmpty || targetUris.contains(target)
+      } yield histogram.snapshot(phase, target)
+    val counterValues =
+      Counter.values.map(counter => counter.name -> counters(counter.ordinal).sum()).toMap ++
+        gauges.asScala.map { case (name, value) => name -> value() }
+    new PerformanceMetricsResult(
+      latencies.asJava,
+      queues.asScala.map { case (name, depth) => name -> Int.box(depth()) }.toMap.asJava,
+      counterValues.map { case (name, value) => name -> Long.box(value) }.asJava
+    )
+  }
+}
+
+object BspMetrics {
+
+  /** Target of the phases that process all the build targets at once */
+  val allTargets: String = ""
+
+  enum Phase(val name: String) {
+    case PrepareBuild extends Phase("prepareBuild")
+    case Dependencies extends Phase("dependencies")
+    case Compile      extends Phase("compile")
+    case PostProcess  extends Phase("postProcess")
+  }
+
+  enum Counter(val name: String) {
+    case Reloads               extends Counter("reloads")
+    case BloopProjectsUpToDate extends Counter("bloopProjectsUpToDate")
+    case BloopProjectsWritten  extends Counter("bloopProjectsWritten")
+  }
+
+  /** Inclusive upper bounds of the histogram buckets, in milliseconds */
+  private val bucketUpperBoundsMillis: Array[Long] =
+    Array(1L, 2L, 5L, 10L, 20L, 50L, 100L, 200L, 500L, 1000L, 2000L, 5000L, 10000L, 30000L, 60000L)
+
+  private val newHistogram: JFunction[String, Histogram] = _ => new Histogram
+  private val max: LongBinaryOperator                    = (a, b) => math.max(a, b)
+
+  private final class Histogram {
+    private val buckets    = new AtomicLongArray(bucketUpperBoundsMillis.length + 1)
+    private val totalNanos = new LongAdder
+    private val maxNanos   = new AtomicLong
+
+    def record(durationNanos: Long): Unit = {
+      val millis = durationNanos / 1000000L
+      var idx    = 0
+      while (idx < bucketUpperBoundsMillis.length && millis > bucketUpperBoundsMillis(idx))
+        idx += 1
+      buckets.incrementAndGet(idx)
+      totalNanos.add(durationNanos)
+      maxNanos.accumulateAndGet(durationNanos, max)
+    }
+
+    def snapshot(phase: Phase, target: String): LatencyHistogram = {
+      val counts = (0 until buckets.length).map(buckets.get)
+      val res    = new LatencyHistogram(
+        phase.name,
+        counts.sum,
+        totalNanos.sum() / 1e6,
+        maxNanos.get() / 1e6,
+        bucketUpperBoundsMillis.toSeq.map(Long.box).asJava,
+        counts.map(Long.box).asJava
+      )
+      if (target != allTargets)
+        res.setTarget(new b.BuildTargetIdentifier(target))
+      res
+    }
+  }
+}
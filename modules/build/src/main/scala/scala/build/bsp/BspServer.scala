@@ -8,7 +8,7 @@ import java.net.URI
 import java.util as ju
 import java.util.concurrent.{CompletableFuture, TimeUnit}
 
-import scala.build.Logger
+import scala.build.{GeneratedSource, Logger}
 import scala.build.input.Inputs
 import scala.build.internal.Constants
 import scala.build.options.Scope
@@ -18,9 +18,13 @@ import scala.util.Random
 
 class BspServer(
   bloopServer: b.BuildServer & b.ScalaBuildServer & b.JavaBuildServer & b.JvmBuildServer,
-  compile: (() => CompletableFuture[b.CompileResult]) => CompletableFuture[b.CompileResult],
+  compile: (
+    b.CompileParams,
+    b.CompileParams => CompletableFuture[b.CompileResult]
+  ) => CompletableFuture[b.CompileResult],
   logger: Logger,
-  presetIntelliJ: Boolean = false
+  presetIntelliJ: Boolean = false,
+  metrics: BspMetrics = new BspMetrics
 ) extends BuildServerForwardStubs
     with ScalaScriptBuildServer
     with ScalaBuildServerForwardStubs
@@ -208,7 +212,17 @@ class BspServer(
     super.buildTargetCleanCache(check(params))
 
   override def buildTargetCompile(params: b.CompileParams): CompletableFuture[b.CompileResult] =
-    compile(() => super.buildTargetCompile(check(params.withVerbosity(logger.verbosity > 0))))
+    compile(
+      check(params.withVerbosity(logger.verbosity > 0)),
+      params0 => {
+        val start = System.nanoTime()
+        super.buildTargetCompile(params0).whenComplete { (_, _) =>
+          val duration = System.nanoTime() - start
+          for (target <- params0.getTargets.asScala)
+            metrics.record(BspMetrics.Phase.Compile, target.getUri, duration)
+        }
+      }
+    )
 
   override def buildTargetDependencySources(
     params: b.DependencySourcesParams
@@ -299,32 +313,34 @@ class BspServer(
       res0
     }
 
-  def buildTargetWrappedSources(params: WrappedSourcesParams)
-    : CompletableFuture[WrappedSourcesResult] = {
-    def sourcesItemOpt(scope: Scope) = targetScopeIdOpt(scope).map { id =>
-      val items = generatedSources
-        .getOrElse(scope, HasGeneratedSources.GeneratedSources(Nil))
-        .sources
-        .flatMap { s =>
-          s.reportingPath.toSeq.map(_.toNIO.toUri.toASCIIString).map { uri =>
-            val item    = new WrappedSourceItem(uri, s.generated.toNIO.toUri.toASCIIString)
-            val content = os.read(s.generated)
-            item.setTopWrapper(
-              content
-                .linesIterator
-                .take(s.wrapperParamsOpt.map(_.topWrapperLineCount).getOrElse(0))
-                .mkString("", System.lineSeparator(), System.lineSeparator())
-            )
-            item.setBottomWrapper("}") // meh
-            item
-          }
-        }
-      new WrappedSourcesItem(id, items.asJava)
+  private val wrappedSourcesCache = new WrappedSourcesCache
+  metrics.registerGauge("wrappedSourcesCacheHits", () => wrappedSourcesCache.hitCount)
+  metrics.registerGauge("wrappedSourcesCacheMisses", () => wrappedSourcesCache.missCount)
+
+  private def wrappedSourcesTargets: Seq[(b.BuildTargetIdentifier, Seq[GeneratedSource])] =
+    Seq(Scope.Main, Scope.Test).flatMap { scope =>
+      targetScopeIdOpt(scope).toSeq.map { id =>
+        id -> generatedSources.get(scope).map(_.sources).getOrElse(Nil)
+      }
     }
-    val sourceItems = Seq(Scope.Main, Scope.Test).flatMap(sourcesItemOpt(_).toSeq)
-    val res         = new WrappedSourcesResult(sourceItems.asJava)
-    CompletableFuture.completedFuture(res)
-  }
+
+  def buildTargetWrappedSources(params: WrappedSourcesParams)
+    : CompletableFuture[WrappedSourcesResult] =
+    CompletableFuture.completedFuture(wrappedSourcesCache.result(wrappedSourcesTargets))
+
+  def buildTargetWrappedSourcesDelta(params: WrappedSourcesDeltaParams)
+    : CompletableFuture[WrappedSourcesDeltaResult] =
+    CompletableFuture.completedFuture(
+      wrappedSourcesCache.delta(
+        wrappedSourcesTargets,
+        params.getTargets.asScala.toSeq,
+        Option(params.getSinceVersion)
+      )
+    )
+
+  def buildTargetPerformanceMetrics(params: PerformanceMetricsParams)
+    : CompletableFuture[PerformanceMetricsResult] =
+    CompletableFuture.completedFuture(metrics.result(params.getTargets.asScala.toSeq))
 
   private val shutdownPromise                             = Promise[Unit]()
   override def buildShutdown(): CompletableFuture[Object] = {
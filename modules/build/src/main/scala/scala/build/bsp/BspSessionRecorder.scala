@@ -0,0 +1,104 @@
+package scala.build.bsp
+
+import org.eclipse.lsp4j.jsonrpc.MessageConsumer
+import org.eclipse.lsp4j.jsonrpc.json.{MessageJsonHandler, StreamMessageConsumer}
+import org.eclipse.lsp4j.jsonrpc.messages.Message
+
+import java.io.{BufferedWriter, IOException}
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.util as ju
+import java.util.concurrent.{LinkedBlockingQueue, TimeUnit}
+
+import scala.build.Logger
+import scala.build.internal.Util
+import scala.util.control.NonFatal
+
+/** Records the JSON-RPC messages of a BSP session to a JSON lines file, one message per line:
+  * {{{
+  * {"timeMicros":1234,"direction":"in","message":{"jsonrpc":"2.0","id":"1","method":"…"}}
+  * }}}
+  * where `timeMicros` is the time since the beginning of the session, and `direction` is `in` for
+  * messages from the client and `out` for messages to the client.
+  *
+  * Messages are serialized on the thread that handles them, and written by a background thread,
+  * so that recording doesn't wait for the disk. Recording errors stop the recording, not the
+  * session.
+  */
+final class BspSessionRecorder(file: os.Path, logger: Logger) {
+
+  import BspSessionRecorder.*
+
+  private val start       = System.nanoTime()
+  private val jsonHandler = new MessageJsonHandler(ju.Collections.emptyMap())
+  private val queue       = new LinkedBlockingQueue[String]
+  @volatile private var failed = false
+
+  private val writerThread = {
+    os.makeDir.all(file / os.up)
+    val writer = Files.newBufferedWriter(file.toNIO, StandardCharsets.UTF_8)
+    val thread = Util.daemonThreadFactory("scala-cli-bsp-session-recorder").newThread { () =>
+      writeLoop(writer)
+    }
+    thread.start()
+    thread
+  }
+
+  /** Wraps the consumers of incoming and outgoing messages, see
+    * `org.eclipse.lsp4j.jsonrpc.Launcher.Builder.wrapMessages`
+    */
+  def wrap(consumer: MessageConsumer): MessageConsumer = {
+    val direction = consumer match {
+      case _: StreamMessageConsumer => "out"
+      case _                        => "in"
+    }
+    message => {
+      record(direction, message)
+      consumer.consume(message)
+    }
+  }
+
+  private def record(direction: String, message: Message): Unit =
+    if (!failed)
+      try {
+        val timeMicros = (System.nanoTime() - start) / 1000L
+        val json       = jsonHandler.serialize(message)
+        queue.put(s"""{"timeMicros":$timeMicros,"direction":"$direction","message":$json}""")
+      }
+      catch {
+        case NonFatal(e) =>
+          logger.debug(s"Could not record BSP message: $e")
+      }
+
+  private def writeLoop(writer: BufferedWriter): Unit =
+    try {
+      var line = queue.take()
+      while (line ne endOfSession) {
+        writer.write(line)
+        writer.newLine()
+        if (queue.isEmpty) writer.flush()
+        line = queue.take()
+      }
+    }
+    catch {
+      case e: IOException =>
+        failed = true
+        queue.clear()
+        logger.message(s"Could not record the BSP session to $file: ${e.getMessage}")
+    }
+    finally
+      try writer.close()
+      catch {
+        case _: IOException =>
+      }
+
+  /** Writes the messages recorded so far, and stops recording */
+  def close(): Unit = {
+    queue.put(endOfSession)
+    writerThread.join(TimeUnit.SECONDS.toMillis(10L))
+  }
+}
+
+object BspSessionRecorder {
+  private val endOfSession = new String("end-of-session")
+}
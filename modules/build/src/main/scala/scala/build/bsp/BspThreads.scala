@@ -1,6 +1,6 @@
 package scala.build.bsp
 
-import java.util.concurrent.{ExecutorService, Executors}
+import java.util.concurrent.{ExecutorService, LinkedBlockingQueue, ThreadPoolExecutor, TimeUnit}
 
 import scala.build.BuildThreads
 import scala.build.internal.Util
@@ -27,7 +27,13 @@ object BspThreads {
   def create(): BspThreads =
     BspThreads(
       BuildThreads.create(),
-      Executors.newSingleThreadExecutor(
+      // like Executors.newSingleThreadExecutor, but with a queue that can be inspected
+      new ThreadPoolExecutor(
+        1,
+        1,
+        0L,
+        TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue[Runnable],
         Util.daemonThreadFactory("scala-cli-bsp-prepare-build-thread")
       )
     )
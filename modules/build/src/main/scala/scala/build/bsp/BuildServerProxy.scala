@@ -82,6 +82,13 @@ class BuildServerProxy(
   override def buildTargetWrappedSources(params: WrappedSourcesParams)
     : CompletableFuture[WrappedSourcesResult] = bspServer().buildTargetWrappedSources(params)
 
+  override def buildTargetWrappedSourcesDelta(params: WrappedSourcesDeltaParams)
+    : CompletableFuture[WrappedSourcesDeltaResult] =
+    bspServer().buildTargetWrappedSourcesDelta(params)
+  override def buildTargetPerformanceMetrics(params: PerformanceMetricsParams)
+    : CompletableFuture[PerformanceMetricsResult] =
+    bspServer().buildTargetPerformanceMetrics(params)
+
   override def buildTargetOutputPaths(params: b.OutputPathsParams)
     : CompletableFuture[b.OutputPathsResult] =
     bspServer().buildTargetOutputPaths(params)
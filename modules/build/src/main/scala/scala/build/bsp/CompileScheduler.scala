@@ -0,0 +1,211 @@
+package scala.build.bsp
+
+import ch.epfl.scala.bsp4j as b
+
+import java.util.concurrent.CompletableFuture
+
+import scala.build.Logger
+import scala.jdk.CollectionConverters.*
+import scala.util.control.NonFatal
+
+/** Schedules the compilations of `buildTarget/compile` requests, so that bursts of requests, like
+  * the ones sent when saving files in quick succession, don't each preprocess and compile the
+  * sources.
+  *
+  * A request arriving while a pre-build is running makes that pre-build stale: it's cancelled (it
+  * doesn't run if it's still queued, and its result is ignored otherwise), and its requests wait
+  * for a new pre-build along with the new request. Requests arriving while a compilation is running
+  * wait for it to finish. Waiting requests for overlapping build targets are merged, and compiled
+  * once for the union of their targets, all of them getting the result of that compilation.
+  *
+  * @param prepare
+  *   starts a pre-build, preprocessing the sources of all the build targets
+  * @param compile
+  *   compiles with the result of a pre-build, by calling the function passed to it
+  * @tparam P
+  *   the result of pre-builds
+  */
+final class CompileScheduler[P](
+  prepare: () => CompletableFuture[P],
+  compile: (P, () => CompletableFuture[b.CompileResult]) => CompletableFuture[b.CompileResult],
+  logger: Logger
+) {
+
+  import CompileScheduler.*
+
+  /** A pre-build, followed by the compilations of its groups of requests */
+  private final class Run(var groups: List[Group]) {
+    var preBuild: CompletableFuture[P] = null
+    var compiling                      = false
+    var cancelled                      = false
+
+    /** Adds a group of requests to this run, returning whether it was merged with another group */
+    def add(group: Group): Boolean = {
+      val (overlapping, others) = groups.partition(_.overlaps(group))
+      groups = others :+ (overlapping :+ group).reduce(_.merge(_))
+      overlapping.nonEmpty
+    }
+  }
+
+  private var running = Option.empty[Run]
+  private var pending = Option.empty[Run]
+
+  private var requestCount            = 0L
+  private var coalescedCount          = 0L
+  private var cancelledPreBuildsCount = 0L
+  private var preBuildCount           = 0L
+  private var compilationCount        = 0L
+
+  def metrics: Metrics = synchronized {
+    Metrics(
+      requests = requestCount,
+      coalesced = coalescedCount,
+      cancelledPreBuilds = cancelledPreBuildsCount,
+      preBuilds = preBuildCount,
+      compilations = compilationCount
+    )
+  }
+
+  /** Number of requests waiting for a pre-build or for a running compilation to finish */
+  def waitingRequestCount: Int = synchronized {
+    val waiting = pending.toSeq ++ running.filter(!_.compiling)
+    waiting.flatMap(_.groups).map(_.results.length).sum
+  }
+
+  /** Schedules the compilation of `params`, calling `doCompile` with them, or with the merged
+    * params of overlapping requests
+    */
+  def submit(
+    params: b.CompileParams,
+    doCompile: b.CompileParams => CompletableFuture[b.CompileResult]
+  ): CompletableFuture[b.CompileResult] = {
+    val result = new CompletableFuture[b.CompileResult]
+    val group  = Group(params.getTargets.asScala.toVector, params, doCompile, Vector(result))
+    val (started, stale) = synchronized {
+      requestCount += 1
+      (pending, running) match {
+        case (Some(run), _) =>
+          if (run.add(group)) coalescedCount += 1
+          (None, None)
+        case (None, Some(run)) if !run.compiling =>
+          run.cancelled = true
+          cancelledPreBuildsCount += 1
+          val next = new Run(Nil)
+          for (previous <- run.groups) next.add(previous)
+          if (next.add(group)) coalescedCount += 1
+          (Some(startLocked(next)), Some(run))
+        case (None, Some(_)) =>
+          pending = Some(new Run(List(group)))
+          (None, None)
+        case (None, None) =>
+          (Some(startLocked(new Run(List(group)))), None)
+      }
+    }
+    for (run <- stale) {
+      logger.debug("Cancelling stale BSP pre-build")
+      run.preBuild.cancel(false)
+    }
+    started.foreach(watch)
+    result
+  }
+
+  private def startLocked(run: Run): Run = {
+    running = Some(run)
+    preBuildCount += 1
+    run.preBuild = prepare()
+    run
+  }
+
+  private def watch(run: Run): Unit =
+    run.preBuild.whenComplete { (preBuild, ex) =>
+      val proceed = synchronized {
+        // the requests of cancelled runs were moved to a newer run
+        if (!run.cancelled) {
+          run.compiling = true
+          if (ex == null) compilationCount += run.groups.length
+        }
+        !run.cancelled
+      }
+      if (proceed)
+        if (ex == null) {
+          val compilations = run.groups.map { group =>
+            val compilation =
+              try compile(preBuild, () => group.doCompile(group.params))
+              catch {
+                case NonFatal(e) => CompletableFuture.failedFuture[b.CompileResult](e)
+              }
+            compilation.whenComplete { (res, ex0) =>
+              for (result <- group.results)
+                if (ex0 == null) result.complete(res)
+                else result.completeExceptionally(ex0)
+            }
+          }
+          CompletableFuture.allOf(compilations*).whenComplete((_, _) => finished(run))
+        }
+        else {
+          for (group <- run.groups; result <- group.results)
+            result.completeExceptionally(ex)
+          finished(run)
+        }
+    }
+
+  private def finished(run: Run): Unit = {
+    val next = synchronized {
+      running = None
+      val next = pending.map(startLocked)
+      pending = None
+      next
+    }
+    logger.debug(s"BSP compile requests: $metrics")
+    next.foreach(watch)
+  }
+}
+
+object CompileScheduler {
+
+  /** @param requests
+    *   `buildTarget/compile` requests received
+    * @param coalesced
+    *   requests merged with an earlier waiting request, sharing its result
+    * @param cancelledPreBuilds
+    *   pre-builds cancelled, as newer requests made them stale
+    * @param preBuilds
+    *   pre-builds started, including cancelled ones
+    * @param compilations
+    *   compilations started
+    */
+  final case class Metrics(
+    requests: Long,
+    coalesced: Long,
+    cancelledPreBuilds: Long,
+    preBuilds: Long,
+    compilations: Long
+  )
+
+  /** Requests for overlapping build targets, compiled together */
+  private final case class Group(
+    targets: Vector[b.BuildTargetIdentifier],
+    latestParams: b.CompileParams,
+    doCompile: b.CompileParams => CompletableFuture[b.CompileResult],
+    results: Vector[CompletableFuture[b.CompileResult]]
+  ) {
+    def overlaps(other: Group): Boolean =
+      targets.exists(other.targets.contains)
+
+    /** Merges `other`, a newer group, into this one */
+    def merge(other: Group): Group =
+      Group(
+        (targets ++ other.targets).distinct,
+        other.latestParams,
+        other.doCompile,
+        results ++ other.results
+      )
+
+    /** The params of the latest request, for all the targets of this group */
+    def params: b.CompileParams = {
+      val params = latestParams.duplicate()
+      params.setTargets(targets.asJava)
+      params
+    }
+  }
+}
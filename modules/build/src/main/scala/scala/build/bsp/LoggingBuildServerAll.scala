@@ -14,6 +14,12 @@ class LoggingBuildServerAll(
   def buildTargetWrappedSources(params: WrappedSourcesParams)
     : CompletableFuture[WrappedSourcesResult] =
     underlying.buildTargetWrappedSources(pprint.err.log(params)).logF
+  def buildTargetWrappedSourcesDelta(params: WrappedSourcesDeltaParams)
+    : CompletableFuture[WrappedSourcesDeltaResult] =
+    underlying.buildTargetWrappedSourcesDelta(pprint.err.log(params)).logF
+  def buildTargetPerformanceMetrics(params: PerformanceMetricsParams)
+    : CompletableFuture[PerformanceMetricsResult] =
+    underlying.buildTargetPerformanceMetrics(pprint.err.log(params)).logF
 
   override def buildTargetOutputPaths(params: b.OutputPathsParams)
     : CompletableFuture[b.OutputPathsResult] =
@@ -0,0 +1,211 @@
+package scala.build.bsp
+
+import ch.epfl.scala.bsp4j as b
+
+import java.math.BigInteger
+import java.nio.charset.StandardCharsets
+import java.security.MessageDigest
+import java.util as ju
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+
+import scala.build.GeneratedSource
+import scala.collection.mutable
+import scala.jdk.CollectionConverters.*
+
+/** Computes the wrapped sources returned by `buildTarget/wrappedSources` and
+  * `buildTarget/wrappedSourcesDelta`.
+  *
+  * Generated sources are only read again when their size, last modification time or top wrapper
+  * line count change, and their wrappers are only computed again when their content hash changes,
+  * so that generated sources written again with the same content by a new build don't count as
+  * changed. Each distinct set of wrapped sources gets a new version, and the wrapped sources of the
+  * last `maxVersions` versions are kept, so that clients can ask for the items that changed since
+  * one of them.
+  */
+final class WrappedSourcesCache(maxVersions: Int = 16) {
+
+  import WrappedSourcesCache.*
+
+  private val session  = UUID.randomUUID().toString.take(8)
+  private var counter  = 0L
+  private var current  = Map.empty[Key, Item]
+  private val versions = mutable.LinkedHashMap(version(counter) -> current)
+  private val files    = mutable.HashMap.empty[os.Path, (Stamp, Item)]
+
+  private var hits   = 0L
+  private var misses = 0L
+
+  /** Number of times a wrapped source could be reused as is */
+  def hitCount: Long = synchronized(hits)
+
+  /** Number of times a wrapped source had to be computed */
+  def missCount: Long = synchronized(misses)
+
+  private def version(counter: Long): String = s"$session-$counter"
+
+  /** All the wrapped sources of `targets`, along with their version */
+  def result(targets: Seq[(b.BuildTargetIdentifier, Seq[GeneratedSource])])
+    : WrappedSourcesResult = synchronized {
+    val items = update(targets)
+    val res   = new WrappedSourcesResult(
+      items.map { case (id, targetItems) => sourcesItem(id, targetItems) }.asJava
+    )
+    res.setVersion(version(counter))
+    res
+  }
+
+  /** The wrapped sources of `targets` that changed since `sinceVersion`, or all of them if that
+    * version is unknown
+    *
+    * @param requested
+    *   targets the client asked for, or empty for all of them
+    */
+  def delta(
+    targets: Seq[(b.BuildTargetIdentifier, Seq[GeneratedSource])],
+    requested: Seq[b.BuildTargetIdentifier],
+    sinceVersion: Option[String]
+  ): WrappedSourcesDeltaResult = synchronized {
+    val requestedUris            = requested.map(_.getUri).toSet
+    def isRequested(uri: String) = requestedUris.isEmpty || requestedUris.contains(uri)
+
+    val previousOpt    = sinceVersion.flatMap(versions.get)
+    val items          = update(targets)
+    val requestedItems = items.filter { case (id, _) => isRequested(id.getUri) }
+    previousOpt match {
+      case None =>
+        new WrappedSourcesDeltaResult(
+          version(counter),
+          true,
+          requestedItems.map { case (id, targetItems) => sourcesItem(id, targetItems) }.asJava,
+          ju.Collections.emptyList()
+        )
+      case Some(previous) =>
+        val changed = requestedItems
+          .map {
+            case (id, targetItems) =>
+              id -> targetItems.filter {
+                case (uri, item) => !previous.get(Key(id.getUri, uri)).contains(item)
+              }
+          }
+          .filter(_._2.nonEmpty)
+        val removed = previous
+          .toVector
+          .filter { case (key, _) => isRequested(key.target) && !current.contains(key) }
+          .sortBy(_._1.uri)
+          .groupBy(_._1.target)
+          .toVector
+          .sortBy(_._1)
+          .map {
+            case (target, targetItems) =>
+              new WrappedSourcesItem(
+                new b.BuildTargetIdentifier(target),
+                targetItems
+                  .map { case (key, item) => new WrappedSourceItem(key.uri, item.generatedUri) }
+                  .asJava
+              )
+          }
+        new WrappedSourcesDeltaResult(
+          version(counter),
+          false,
+          changed.map { case (id, targetItems) => sourcesItem(id, targetItems) }.asJava,
+          removed.asJava
+        )
+    }
+  }
+
+  /** Computes the wrapped sources of `targets`, and bumps the version if they changed */
+  private def update(targets: Seq[(b.BuildTargetIdentifier, Seq[GeneratedSource])])
+    : Seq[(b.BuildTargetIdentifier, Seq[(String, Item)])] = {
+    val seen  = mutable.HashSet.empty[os.Path]
+    val items = targets.map {
+      case (id, sources) =>
+        id -> sources.flatMap { s =>
+          s.reportingPath.toSeq.map { reportingPath =>
+            seen += s.generated
+            reportingPath.toNIO.toUri.toASCIIString -> item(s)
+          }
+        }
+    }
+    files.filterInPlace((path, _) => seen.contains(path))
+
+    val newCurrent = items
+      .flatMap { case (id, targetItems) =>
+        targetItems.map { case (uri, item) => Key(id.getUri, uri) -> item }
+      }
+      .toMap
+    if (newCurrent != current) {
+      counter += 1
+      current = newCurrent
+      versions += version(counter) -> current
+      while (versions.size > maxVersions)
+        versions -= versions.head._1
+    }
+    items
+  }
+
+  private def item(source: GeneratedSource): Item = {
+    val stat  = os.stat(source.generated)
+    val stamp = Stamp(
+      stat.size,
+      stat.mtime.to(TimeUnit.NANOSECONDS),
+      source.wrapperParamsOpt.map(_.topWrapperLineCount).getOrElse(0)
+    )
+    files.get(source.generated) match {
+      case Some((`stamp`, item)) =>
+        hits += 1
+        item
+      case previousOpt           =>
+        val content = os.read.bytes(source.generated)
+        val hash    = {
+          val md = MessageDigest.getInstance("SHA-1")
+          md.update(content)
+          String.format("%040x", new BigInteger(1, md.digest()))
+        }
+        val item = previousOpt match {
+          case Some((previousStamp, previousItem))
+              if previousItem.hash == hash &&
+              previousStamp.topWrapperLineCount == stamp.topWrapperLineCount =>
+            hits += 1
+            previousItem
+          case _ =>
+            misses += 1
+            val topWrapper = new String(content, StandardCharsets.UTF_8)
+              .linesIterator
+              .take(stamp.topWrapperLineCount)
+              .mkString("", System.lineSeparator(), System.lineSeparator())
+            Item(source.generated.toNIO.toUri.toASCIIString, hash, topWrapper)
+        }
+        files(source.generated) = (stamp, item)
+        item
+    }
+  }
+}
+
+object WrappedSourcesCache {
+
+  private final case class Stamp(size: Long, mtimeNanos: Long, topWrapperLineCount: Int)
+
+  /** @param target
+    *   URI of the build target
+    * @param uri
+    *   URI of the original source
+    */
+  private final case class Key(target: String, uri: String)
+
+  private final case class Item(generatedUri: String, hash: String, topWrapper: String)
+
+  private def sourcesItem(
+    id: b.BuildTargetIdentifier,
+    items: Seq[(String, Item)]
+  ): WrappedSourcesItem = {
+    val sources = items.map {
+      case (uri, item) =>
+        val res = new WrappedSourceItem(uri, item.generatedUri)
+        res.setTopWrapper(item.topWrapper)
+        res.setBottomWrapper("}") // meh
+        res
+    }
+    new WrappedSourcesItem(id, sources.asJava)
+  }
+}
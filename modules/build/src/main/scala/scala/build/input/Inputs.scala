@@ -1,9 +1,7 @@
 package scala.build.input
 
 import java.io.{ByteArrayInputStream, File}
-import java.math.BigInteger
 import java.nio.charset.StandardCharsets
-import java.security.MessageDigest
 
 import scala.annotation.tailrec
 import scala.build.Directories
@@ -97,28 +95,8 @@ final case class Inputs(
     val canWrite = existingParent(workspace).exists(reallyOwnedByUser)
     if canWrite then this else inHomeDir(directories)
   }
-  def sourceHash(): String = {
-    def bytes(s: String): Array[Byte] = s.getBytes(StandardCharsets.UTF_8)
-    val it                            = elements.iterator.flatMap {
-      case elem: OnDisk =>
-        val content = elem match {
-          case dirInput: Directory =>
-            Seq("dir:") ++ dirInput.singleFilesFromDirectory(enableMarkdown)
-              .map(file => s"${file.path}:" + os.read(file.path))
-          case _: ResourceDirectory => Nil
-          case _: SbtFile           => Nil
-          case _                    => Seq(os.read(elem.path))
-        }
-        (Iterator(elem.path.toString) ++ content.iterator ++ Iterator("\n")).map(bytes)
-      case v: Virtual =>
-        Iterator(v.content, bytes("\n"))
-    }
-    val md = MessageDigest.getInstance("SHA-1")
-    it.foreach(md.update)
-    val digest        = md.digest()
-    val calculatedSum = new BigInteger(1, digest)
-    String.format(s"%040x", calculatedSum)
-  }
+  def sourceHash(): String =
+    SourceHash(elements, enableMarkdown)
 
   def nativeWorkDir: os.Path =
     workspace / Constants.workspaceDirName / projectName / "native"
@@ -0,0 +1,181 @@
+package scala.build.input
+
+import java.math.BigInteger
+import java.nio.charset.StandardCharsets
+import java.nio.{ByteBuffer, CharBuffer}
+import java.security.MessageDigest
+import java.util.concurrent.{CompletableFuture, ConcurrentHashMap, TimeUnit}
+
+import scala.build.input.ElementsUtils.*
+import scala.build.internal.Util
+
+/** Computes [[Inputs.sourceHash]]: the SHA-1 of the paths and contents of the inputs, fed in order.
+  *
+  * As a single digest is fed with all the inputs, it can't be combined from digests of each file.
+  * Instead, the stamps (path, size and last modification time) of the files of the latest inputs
+  * are kept along with their hash, which is returned as is, without reading any file, as long as
+  * none of these stamps changed. Otherwise, files are read ahead on a thread pool while the digest
+  * is fed, and large files are streamed in fixed-size buffers.
+  *
+  * File contents used to be fed to the digest as `os.read(path).getBytes(UTF_8)`, which are the
+  * bytes of the file as long as it's valid UTF-8. Files that aren't fall back to that, so that
+  * hashes stay the same.
+  */
+object SourceHash {
+
+  private val bufferSize = 64 * 1024
+  // larger files are streamed on the calling thread rather than read ahead
+  private val maxReadAheadSize = 1024L * 1024L
+  // below that, stamps are computed on the calling thread
+  private val parallelThreshold = 32
+  private val maxCachedInputs   = 64
+
+  private val latest = new ConcurrentHashMap[(Seq[Element], Boolean), (Seq[Stamp], String)]
+
+  def apply(elements: Seq[Element], enableMarkdown: Boolean): String = {
+    val parts  = elements.flatMap(partsOf(_, enableMarkdown)).toIndexedSeq
+    val files  = parts.collect { case FileContent(path) => path }
+    val stamps = Util.inParallel(files, parallelThreshold)(Stamp(_))
+    val key    = (elements, enableMarkdown)
+    Option(latest.get(key)) match {
+      case Some((`stamps`, hash)) => hash
+      case _                      =>
+        val hash = compute(parts, stamps.map(s => s.path -> s.size).toMap)
+        if (latest.size() >= maxCachedInputs) latest.clear()
+        latest.put(key, (stamps, hash))
+        hash
+    }
+  }
+
+  private sealed abstract class Part extends Product with Serializable
+  private final case class Text(value: String)        extends Part
+  private final case class Bytes(value: Array[Byte])  extends Part
+  private final case class FileContent(path: os.Path) extends Part
+
+  private def partsOf(elem: Element, enableMarkdown: Boolean): Seq[Part] =
+    elem match {
+      case elem: OnDisk =>
+        val content = elem match {
+          case dirInput: Directory =>
+            Text("dir:") +: dirInput.singleFilesFromDirectory(enableMarkdown).flatMap { file =>
+              Seq(Text(s"${file.path}:"), FileContent(file.path))
+            }
+          case _: ResourceDirectory => Nil
+          case _: SbtFile           => Nil
+          case _                    => Seq(FileContent(elem.path))
+        }
+        (Text(elem.path.toString) +: content) :+ Text("\n")
+      case v: Virtual =>
+        Seq(Bytes(v.content), Text("\n"))
+    }
+
+  private def compute(parts: IndexedSeq[Part], sizes: Map[os.Path, Long]): String = {
+    var md        = MessageDigest.getInstance("SHA-1")
+    val readAhead = 8 * Runtime.getRuntime.availableProcessors()
+    val pending   = new Array[CompletableFuture[Array[Byte]]](parts.length)
+    var scheduled = 0
+    def scheduleUntil(idx: Int): Unit =
+      while (scheduled < parts.length && scheduled <= idx) {
+        parts(scheduled) match {
+          case FileContent(path) if sizes(path) <= maxReadAheadSize =>
+            pending(scheduled) = Util.onCpuPool(asUtf8(os.read.bytes(path)))
+          case _ =>
+        }
+        scheduled += 1
+      }
+
+    try
+      for ((part, idx) <- parts.zipWithIndex) {
+        scheduleUntil(idx + readAhead)
+        part match {
+          case Text(value)       => md.update(value.getBytes(StandardCharsets.UTF_8))
+          case Bytes(value)      => md.update(value)
+          case FileContent(path) =>
+            val readOpt = Option(pending(idx))
+            pending(idx) = null
+            readOpt match {
+              case Some(read) => md.update(Util.join(read))
+              case None       => md = streamed(md, path)
+            }
+        }
+      }
+    finally
+      pending.foreach(read => if (read != null) read.cancel(false))
+
+    String.format("%040x", new BigInteger(1, md.digest()))
+  }
+
+  /** `content`, or what decoding it as UTF-8 and encoding it back gives if it's not valid UTF-8 */
+  private def asUtf8(content: Array[Byte]): Array[Byte] = {
+    val check = new Utf8Check
+    check.update(content, content.length, endOfInput = true)
+    if (check.valid) content
+    else new String(content, StandardCharsets.UTF_8).getBytes(StandardCharsets.UTF_8)
+  }
+
+  /** Feeds the content of `path` to a copy of `md`, one buffer at a time, and returns that copy,
+    * unless `path` isn't valid UTF-8, in which case `md` is fed with its decoded content
+    */
+  private def streamed(md: MessageDigest, path: os.Path): MessageDigest = {
+    val res   = md.clone().asInstanceOf[MessageDigest]
+    val check = new Utf8Check
+    val buf   = new Array[Byte](bufferSize)
+    val is    = os.read.inputStream(path)
+    try {
+      var read = is.read(buf)
+      while (read >= 0) {
+        res.update(buf, 0, read)
+        check.update(buf, read, endOfInput = false)
+        read = is.read(buf)
+      }
+    }
+    finally is.close()
+    check.update(buf, 0, endOfInput = true)
+    if (check.valid) res
+    else {
+      md.update(os.read(path).getBytes(StandardCharsets.UTF_8))
+      md
+    }
+  }
+
+  /** Checks whether bytes passed chunk by chunk are valid UTF-8, without keeping what they decode
+    * to
+    */
+  private final class Utf8Check {
+    private val decoder  = StandardCharsets.UTF_8.newDecoder()
+    private val chars    = CharBuffer.allocate(bufferSize)
+    private var leftover = Array.emptyByteArray
+
+    var valid = true
+
+    def update(bytes: Array[Byte], length: Int, endOfInput: Boolean): Unit =
+      if (valid) {
+        val input =
+          if (leftover.isEmpty) ByteBuffer.wrap(bytes, 0, length)
+          else ByteBuffer.wrap(leftover ++ bytes.take(length))
+        var underflow = false
+        while (valid && !underflow) {
+          chars.clear()
+          val res = decoder.decode(input, chars, endOfInput)
+          if (res.isError) valid = false
+          else underflow = res.isUnderflow
+        }
+        if (valid && endOfInput) {
+          chars.clear()
+          valid = !decoder.flush(chars).isError
+        }
+        // incomplete sequence at the end of the chunk, completed by the next one
+        leftover = new Array[Byte](input.remaining())
+        input.get(leftover)
+      }
+  }
+
+  private final case class Stamp(path: os.Path, size: Long, mtimeNanos: Long)
+
+  private object Stamp {
+    def apply(path: os.Path): Stamp = {
+      val stat = os.stat(path)
+      Stamp(path, stat.size, stat.mtime.to(TimeUnit.NANOSECONDS))
+    }
+  }
+}
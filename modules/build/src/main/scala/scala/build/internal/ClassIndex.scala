@@ -0,0 +1,272 @@
+package scala.build.internal
+
+import org.objectweb.asm
+import org.objectweb.asm.ClassReader
+
+import java.io.IOException
+import java.math.BigInteger
+import java.security.MessageDigest
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
+
+import scala.build.Logger
+import scala.build.postprocessing.PostProcessor
+
+/** What main class detection and test discovery need to know about the classes of a build output
+  * directory, so that they don't each read and parse all its class files again.
+  *
+  * The index is written under the project directory of the classes directory, as
+  * `.scala-build/<project>/class-index/<classes directory>`, and is updated after each build: only
+  * the class files whose size or last modification time changed since then are parsed again.
+  *
+  * The test runners read it too, to discover test suites without reading class files. Its format
+  * is read by the `ClassDirectoryIndex` of the Scala and Java test runners, keep them in sync.
+  *
+  * @param classes
+  *   classes of the output directory, by internal name (like `foo/Bar$`)
+  */
+final case class ClassIndex(output: os.Path, classes: Map[String, ClassIndex.Entry]) {
+
+  /** The classes with a launchable main method, like [[MainClass.find]] finds them */
+  def mainClasses: Seq[MainClass.MainClassCandidate] =
+    classes.toVector.sortBy(_._1).flatMap {
+      case (name, entry) =>
+        entry.mainMethodKind.map(MainClass.MainClassCandidate(name.replace('/', '.'), _))
+    }
+}
+
+object ClassIndex {
+
+  /** @param methodAnnotations
+    *   runtime-visible annotations of the methods of the class, constructors excluded
+    * @param publicMethodAnnotations
+    *   same as `methodAnnotations`, for public methods only
+    */
+  final case class Entry(
+    size: Long,
+    mtimeNanos: Long,
+    hash: String,
+    access: Int,
+    publicConstructorCount: Int,
+    superName: Option[String],
+    interfaces: Seq[String],
+    classAnnotations: Set[String],
+    methodAnnotations: Set[String],
+    publicMethodAnnotations: Set[String],
+    mainMethodKind: Option[MainClass.MainMethodKind]
+  )
+
+  private val header = "scala-cli-class-index\t1"
+
+  private val indices = new ConcurrentHashMap[os.Path, ClassIndex]
+
+  def file(output: os.Path): os.Path =
+    output / os.up / os.up / "class-index" / output.last
+
+  /** Brings the index of `output` up-to-date with its class files, and writes it if it changed */
+  def update(output: os.Path, logger: Logger): ClassIndex = {
+    val previous = Option(indices.get(output)).map(_.classes).getOrElse(read(output, logger))
+    val stamped  =
+      if os.isDir(output) then
+        os.walk.attrs(output).collect {
+          case (path, attrs) if attrs.isFile && path.last.endsWith(".class") =>
+            (path, attrs.size, attrs.mtime.to(TimeUnit.NANOSECONDS))
+        }
+      else Nil
+
+    val (unchanged, changed) = stamped.partition {
+      case (path, size, mtimeNanos) =>
+        previous.get(className(output, path))
+          .exists(e => e.size == size && e.mtimeNanos == mtimeNanos)
+    }
+    val reindexed = Util.inParallel(changed) {
+      case (path, size, mtimeNanos) =>
+        try Some(className(output, path) -> entry(os.read.bytes(path), size, mtimeNanos))
+        catch {
+          case e @ (_: IOException | _: RuntimeException) =>
+            logger.debug(s"Could not index class file $path: $e")
+            None
+        }
+    }
+    val classes = unchanged.map {
+      case (path, _, _) =>
+        val name = className(output, path)
+        name -> previous(name)
+    }.toMap ++ reindexed.flatten
+    if classes != previous then write(output, classes, logger)
+    logger.debug(s"Indexed ${changed.length} of ${stamped.length} class files of $output")
+
+    val index = ClassIndex(output, classes)
+    indices.put(output, index)
+    index
+  }
+
+  private def className(output: os.Path, path: os.Path): String =
+    path.subRelativeTo(output).toString.stripSuffix(".class")
+
+  private def entry(content: Array[Byte], size: Long, mtimeNanos: Long): Entry = {
+    val header  = new HeaderCollector
+    val checker = new MainClass.MainMethodChecker(header)
+    new ClassReader(content).accept(
+      checker,
+      ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES
+    )
+    Entry(
+      size = size,
+      mtimeNanos = mtimeNanos,
+      hash = hash(content),
+      access = header.access,
+      publicConstructorCount = header.publicConstructorCount,
+      superName = header.superName,
+      interfaces = header.interfaces,
+      classAnnotations = header.classAnnotations,
+      methodAnnotations = header.methodAnnotations,
+      publicMethodAnnotations = header.publicMethodAnnotations,
+      mainMethodKind = checker.candidateOpt.map(_.kind)
+    )
+  }
+
+  /** Reads the class header and runtime-visible annotations, like the test runners do */
+  private class HeaderCollector extends asm.ClassVisitor(asm.Opcodes.ASM9) {
+    var access: Int                          = 0
+    var superName: Option[String]            = None
+    var interfaces: Seq[String]              = Nil
+    var publicConstructorCount: Int          = 0
+    var classAnnotations: Set[String]        = Set.empty
+    var methodAnnotations: Set[String]       = Set.empty
+    var publicMethodAnnotations: Set[String] = Set.empty
+
+    override def visit(
+      version: Int,
+      access: Int,
+      name: String,
+      signature: String,
+      superName: String,
+      interfaces: Array[String]
+    ): Unit = {
+      this.access = access
+      this.superName = Option(superName)
+      this.interfaces = Option(interfaces).toSeq.flatten
+    }
+
+    override def visitAnnotation(descriptor: String, visible: Boolean): asm.AnnotationVisitor = {
+      if visible then classAnnotations += descriptor
+      null
+    }
+
+    override def visitMethod(
+      access: Int,
+      name: String,
+      descriptor: String,
+      signature: String,
+      exceptions: Array[String]
+    ): asm.MethodVisitor = {
+      val isPublic = (access & asm.Opcodes.ACC_PUBLIC) != 0
+      if name == "<init>" && isPublic then publicConstructorCount += 1
+      if name == "<init>" || name == "<clinit>" then null
+      else
+        new asm.MethodVisitor(asm.Opcodes.ASM9) {
+          override def visitAnnotation(desc: String, visible: Boolean): asm.AnnotationVisitor = {
+            if visible then {
+              methodAnnotations += desc
+              if isPublic then publicMethodAnnotations += desc
+            }
+            null
+          }
+        }
+    }
+  }
+
+  private def hash(content: Array[Byte]): String = {
+    val md = MessageDigest.getInstance("SHA-1")
+    md.update(content)
+    String.format("%040x", new BigInteger(1, md.digest()))
+  }
+
+  private def list(values: Iterable[String]): String =
+    values.toSeq.sorted.mkString(",")
+
+  private def write(output: os.Path, classes: Map[String, Entry], logger: Logger): Unit = {
+    val lines = Iterator(header, s"classes\t$output") ++
+      classes.toVector.sortBy(_._1).iterator.map {
+        case (name, e) =>
+          Seq(
+            "class",
+            name,
+            e.size.toString,
+            e.mtimeNanos.toString,
+            e.hash,
+            e.access.toString,
+            e.publicConstructorCount.toString,
+            e.superName.getOrElse(""),
+            e.interfaces.mkString(","),
+            list(e.classAnnotations),
+            list(e.methodAnnotations),
+            list(e.publicMethodAnnotations),
+            e.mainMethodKind.fold("")(_.toString)
+          ).mkString("\t")
+      }
+    try
+      PostProcessor.writeAtomically(
+        file(output),
+        lines.mkString("", "\n", "\n").getBytes(java.nio.charset.StandardCharsets.UTF_8),
+        createFolders = true
+      )
+    catch {
+      case e: IOException =>
+        logger.debug(s"Could not write the class index of $output: $e")
+    }
+  }
+
+  private def read(output: os.Path, logger: Logger): Map[String, Entry] = {
+    val indexFile = file(output)
+    def list(field: String): Seq[String] =
+      if field.isEmpty then Nil else field.split(",").toSeq
+    try
+      if os.isFile(indexFile) then {
+        val lines = os.read.lines(indexFile)
+        if lines.take(2) == Seq(header, s"classes\t$output") then
+          lines.iterator.drop(2).flatMap { line =>
+            line.split("\t", -1) match {
+              case Array(
+                    "class",
+                    name,
+                    size,
+                    mtimeNanos,
+                    hash,
+                    access,
+                    publicConstructorCount,
+                    superName,
+                    interfaces,
+                    classAnnotations,
+                    methodAnnotations,
+                    publicMethodAnnotations,
+                    mainMethodKind
+                  ) =>
+                val entry = Entry(
+                  size = size.toLong,
+                  mtimeNanos = mtimeNanos.toLong,
+                  hash = hash,
+                  access = access.toInt,
+                  publicConstructorCount = publicConstructorCount.toInt,
+                  superName = Some(superName).filter(_.nonEmpty),
+                  interfaces = list(interfaces),
+                  classAnnotations = list(classAnnotations).toSet,
+                  methodAnnotations = list(methodAnnotations).toSet,
+                  publicMethodAnnotations = list(publicMethodAnnotations).toSet,
+                  mainMethodKind =
+                    Some(mainMethodKind).filter(_.nonEmpty).map(MainClass.MainMethodKind.valueOf)
+                )
+                Some(name -> entry)
+              case _ => None
+            }
+          }.toMap
+        else Map.empty
+      }
+      else Map.empty
+    catch {
+      case e @ (_: IOException | _: IllegalArgumentException) =>
+        logger.debug(s"Ignoring invalid class index $indexFile: $e")
+        Map.empty
+    }
+  }
+}
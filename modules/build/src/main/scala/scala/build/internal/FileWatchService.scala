@@ -0,0 +1,257 @@
+package scala.build.internal
+
+import com.swoval.files.FileTreeViews.Observer
+import com.swoval.files.{PathWatcher, PathWatchers}
+
+import java.util.concurrent.{ScheduledExecutorService, ScheduledFuture, TimeUnit}
+
+import scala.annotation.tailrec
+import scala.build.Logger
+import scala.collection.mutable
+import scala.compiletime.uninitialized
+import scala.concurrent.duration.{DurationInt, FiniteDuration}
+
+/** Watches the inputs of a build with a single file watcher, and calls `onChange` with the paths
+  * that changed once events stop coming in.
+  *
+  * Registrations are consolidated before anything gets watched: the trees of recursive
+  * registrations are walked upfront, and each of their directories is registered once on the
+  * underlying watcher, however many registrations cover it. Registrations nested in another one
+  * don't walk anything of their own. Hidden directories (like `.git` or `.scala-build`) are left
+  * out of the trees of the registrations that ignore them, rather than watched and filtered out
+  * afterwards. Directories created later are registered when their creation is notified.
+  *
+  * Events are merged: the first one schedules a call to `onChange` after `quietPeriod`, which is
+  * postponed as long as more events come in, up to `maxDelay` after the first one.
+  *
+  * Errors of the underlying watcher are reported to `logger`.
+  */
+final class FileWatchService(
+  scheduler: ScheduledExecutorService,
+  onChange: Set[os.Path] => Unit,
+  logger: Logger,
+  quietPeriod: FiniteDuration = 50.millis,
+  maxDelay: FiniteDuration = 1.second
+) {
+  import FileWatchService.*
+
+  private val lock                                                = new Object
+  private var watcherOpt: Option[PathWatcher[PathWatchers.Event]] = None
+  private var closed                                              = false
+
+  // by path, so that events only look their ancestors up
+  private val registrations = mutable.HashMap.empty[os.Path, List[Registration]]
+  private val watchedDirs   = mutable.HashSet.empty[os.Path]
+  private val watchedFiles  = mutable.HashSet.empty[os.Path]
+
+  private var pending                       = Set.empty[os.Path]
+  private var firstEventNanos               = 0L
+  private var lastEventNanos                = 0L
+  private var scheduled: ScheduledFuture[?] = uninitialized
+
+  /** Directories registered on the underlying watcher so far */
+  def watchedDirectories: Set[os.Path] = lock.synchronized(watchedDirs.toSet)
+
+  /** Files registered on their own on the underlying watcher, as their directory isn't watched */
+  def watchedSingleFiles: Set[os.Path] = lock.synchronized(watchedFiles.toSet)
+
+  def register(newRegistrations: Seq[Registration]): Unit = {
+    val newDirs  = Seq.newBuilder[os.Path]
+    val newFiles = Seq.newBuilder[os.Path]
+    lock.synchronized {
+      if !closed then {
+        for (r <- newRegistrations)
+          registrations(r.path) = r :: registrations.getOrElse(r.path, Nil)
+        for (r <- roots(newRegistrations))
+          if r.recursive && os.isDir(r.path) then
+            newDirs ++= walkTree(r, r.path)._1.filter(watchedDirs.add)
+          else if !watchedDirs.contains(r.path / os.up) && watchedFiles.add(r.path) then
+            newFiles += r.path
+      }
+    }
+    watch(newDirs.result(), newFiles.result())
+  }
+
+  /** Calls `onChange` as if something changed, like when users ask for a new run */
+  def trigger(): Unit = lock.synchronized(changed(Set.empty))
+
+  def close(): Unit = {
+    val watcherOpt0 = lock.synchronized {
+      closed = true
+      if scheduled != null then scheduled.cancel(false)
+      val w = watcherOpt
+      watcherOpt = None
+      w
+    }
+    watcherOpt0.foreach(_.close())
+  }
+
+  private[build] def onEvent(path: os.Path, kind: PathWatchers.Event.Kind, isDir: Boolean): Unit = {
+    val created     = isDir && kind == PathWatchers.Event.Kind.Create
+    val coveringOpt = lock.synchronized {
+      if closed then None
+      else {
+        if kind == PathWatchers.Event.Kind.Delete && watchedDirs.contains(path) then
+          watchedDirs.filterInPlace(!_.startsWith(path))
+        Some(coveringRegistrations(path))
+      }
+    }
+    for (covering <- coveringOpt) {
+      // files created before the new directory gets watched are only found by walking it, which
+      // is done without holding `lock`, so that other events and registrations don't wait for it
+      val trees =
+        if created then covering.filter(_.recursive).map(r => r -> walkTree(r, path))
+        else Nil
+      val newDirs = lock.synchronized {
+        if closed then Nil
+        else {
+          val newFiles = trees.flatMap {
+            case (r, (_, files)) => files.filter(r.accept(_, PathWatchers.Event.Kind.Create))
+          }
+          val accepted = covering.exists(_.accept(path, kind))
+          if accepted || newFiles.nonEmpty then
+            changed(newFiles.toSet ++ (if accepted then Set(path) else Set.empty))
+          // the directory may have been deleted, and its deletion handled, while being walked
+          if trees.isEmpty || !os.isDir(path) then Nil
+          else trees.flatMap { case (_, (dirs, _)) => dirs }.filter(watchedDirs.add)
+        }
+      }
+      watch(newDirs, Nil)
+    }
+  }
+
+  /** Registers `dirs` and `files` on the underlying watcher.
+    *
+    * Not called with `lock` held, as the watcher may be notifying an event at the same time.
+    */
+  private def watch(dirs: Seq[os.Path], files: Seq[os.Path]): Unit =
+    if dirs.nonEmpty || files.nonEmpty then
+      for (w <- lock.synchronized(if closed then None else Some(watcher()))) {
+        for (dir <- dirs) w.register(dir.toNIO, 0)
+        for (file <- files) w.register(file.toNIO, -1)
+      }
+
+  private def watcher(): PathWatcher[PathWatchers.Event] =
+    watcherOpt.getOrElse {
+      val w = PathWatchers.get(true)
+      w.addObserver {
+        new Observer[PathWatchers.Event] {
+          def onError(t: Throwable): Unit = {
+            logger.message(s"Error watching files: $t")
+            logger.debugStackTrace(t)
+          }
+          def onNext(event: PathWatchers.Event): Unit = {
+            val typedPath = event.getTypedPath
+            onEvent(os.Path(typedPath.getPath.toAbsolutePath), event.getKind, typedPath.isDirectory)
+          }
+        }
+      }
+      watcherOpt = Some(w)
+      w
+    }
+
+  /** The directories of the tree of `r` under `dir`, `dir` included, and the files found there
+    *
+    * Doesn't read nor update the state of this service, so that it can be called without holding
+    * `lock`.
+    */
+  private def walkTree(r: Registration, dir: os.Path): (Seq[os.Path], Seq[os.Path]) =
+    if !os.isDir(dir) then (Nil, Nil)
+    else {
+      val dirs  = Seq.newBuilder[os.Path]
+      val files = Seq.newBuilder[os.Path]
+      dirs += dir
+      try
+        os.walk.stream.attrs(
+          dir,
+          skip = (p, attrs) => attrs.isDir && r.pruneHidden && p.last.startsWith(".")
+        ).foreach {
+          case (p, attrs) if attrs.isDir =>
+            dirs += p
+          case (p, _) =>
+            files += p
+        }
+      catch {
+        // deleted while being walked, its deletion gets notified too
+        case _: java.io.IOException | _: java.io.UncheckedIOException =>
+      }
+      (dirs.result(), files.result())
+    }
+
+  private def coveringRegistrations(path: os.Path): List[Registration] = {
+    @tailrec
+    def helper(current: os.Path, acc: List[Registration]): List[Registration] = {
+      val acc0 = registrations.getOrElse(current, Nil).filter(_.covers(path)) ::: acc
+      if current.segmentCount == 0 then acc0 else helper(current / os.up, acc0)
+    }
+    helper(path, Nil)
+  }
+
+  private def changed(paths: Set[os.Path]): Unit = {
+    val now = System.nanoTime()
+    if scheduled == null then firstEventNanos = now
+    lastEventNanos = now
+    pending ++= paths
+    if scheduled == null && !closed then
+      scheduled = scheduler.schedule(flush, quietPeriod.toNanos, TimeUnit.NANOSECONDS)
+  }
+
+  private val flush: Runnable = () => {
+    val changedOpt = lock.synchronized {
+      val now      = System.nanoTime()
+      val quietFor = now - lastEventNanos
+      val waited   = now - firstEventNanos
+      if closed then None
+      else if quietFor < quietPeriod.toNanos && waited < maxDelay.toNanos then {
+        val delay = math.min(quietPeriod.toNanos - quietFor, maxDelay.toNanos - waited)
+        scheduled = scheduler.schedule(flush, delay, TimeUnit.NANOSECONDS)
+        None
+      }
+      else {
+        // events coming in while onChange runs schedule another call
+        scheduled = null
+        val changed0 = pending
+        pending = Set.empty
+        Some(changed0)
+      }
+    }
+    changedOpt.foreach(onChange)
+  }
+}
+
+object FileWatchService {
+
+  /** @param recursive
+    *   whether the whole tree under `path` is watched, if it's a directory
+    * @param pruneHidden
+    *   whether hidden directories are left out of the watched tree, along with everything under
+    *   them
+    * @param accept
+    *   whether a change of kind `kind` to a file or directory covered by this registration should
+    *   trigger `onChange`
+    */
+  final case class Registration(
+    path: os.Path,
+    recursive: Boolean,
+    pruneHidden: Boolean = false,
+    accept: (os.Path, PathWatchers.Event.Kind) => Boolean = (_, _) => true
+  ) {
+    def covers(other: os.Path): Boolean =
+      if recursive then
+        other.startsWith(path) &&
+        !(pruneHidden && other.relativeTo(path).segments.exists(_.startsWith(".")))
+      else other == path
+  }
+
+  /** The registrations whose tree isn't already walked for another registration */
+  private def roots(registrations: Seq[Registration]): Seq[Registration] = {
+    // a nested tree is already walked if the outer one doesn't prune more than it does
+    def coveredBy(inner: Registration, outer: Registration): Boolean =
+      outer.recursive && outer.covers(inner.path) &&
+      (!inner.recursive || !outer.pruneHidden || inner.pruneHidden)
+    val sorted = registrations.sortBy(r => (r.path.segmentCount, r.pruneHidden))
+    sorted.zipWithIndex.collect {
+      case (r, idx) if !sorted.take(idx).exists(coveredBy(r, _)) => r
+    }
+  }
+}
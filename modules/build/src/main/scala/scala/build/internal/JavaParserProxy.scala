@@ -1,6 +1,7 @@
 package scala.build.internal
 
-import scala.build.errors.BuildException
+import scala.build.Ops.*
+import scala.build.errors.{BuildException, CompositeBuildException}
 
 /** Helper to get class names from Java sources
   *
@@ -19,4 +20,16 @@ trait JavaParserProxy {
     *   [[BuildException]]
     */
   def className(content: Array[Byte]): Either[BuildException, Option[String]]
+
+  /** Extracts the class names of several Java sources at once, which implementations can do more
+    * efficiently than one source at a time.
+    *
+    * @param contents
+    *   the Java sources to extract class names from
+    * @return
+    *   the class name of each source if one was found, in the order of `contents`, or a
+    *   [[BuildException]]
+    */
+  def classNames(contents: Seq[Array[Byte]]): Either[BuildException, Seq[Option[String]]] =
+    contents.map(className).sequence.left.map(CompositeBuildException(_))
 }
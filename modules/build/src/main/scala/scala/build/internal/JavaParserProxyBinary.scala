@@ -4,6 +4,7 @@ import coursier.cache.ArchiveCache
 import coursier.util.Task
 import dependency.*
 
+import java.nio.charset.StandardCharsets
 import java.util.function.Supplier
 
 import scala.build.EitherCps.{either, value}
@@ -37,8 +38,8 @@ class JavaParserProxyBinary(
       () => javaCommand0.get()
     )
 
-  def className(content: Array[Byte]): Either[BuildException, Option[String]] = either {
-
+  /** The java-class-name binary, fetched once, and reused for all the sources */
+  private lazy val binary: Either[BuildException, ExternalBinary] = {
     val platformSuffix  = FetchExternalBinary.platformSuffix()
     val version         = javaClassNameVersionOpt.getOrElse(Constants.javaClassNameVersion)
     val (tag, changing) =
@@ -57,20 +58,46 @@ class JavaParserProxyBinary(
       ),
       "scala.cli.javaclassname.JavaClassName" // FIXME I'd rather not hardcode that, but automatic detection is cumbersome to setup…
     )
-    val binary =
-      value(FetchExternalBinary.fetch(params, archiveCache, logger, javaCommand))
+    FetchExternalBinary.fetch(params, archiveCache, logger, javaCommand)
+  }
+
+  def className(content: Array[Byte]): Either[BuildException, Option[String]] =
+    classNames(Seq(content)).map(_.head)
 
-    val source =
-      os.temp(content, suffix = ".java", perms = if (Properties.isWin) null else "rw-------")
-    val command = binary.command
-    val output  =
+  /** java-class-name handles one source per run, so sources are written to a temporary directory,
+    * and java-class-name is run concurrently on them, with at most as many processes at a time as
+    * there are available processors.
+    */
+  override def classNames(contents: Seq[Array[Byte]])
+    : Either[BuildException, Seq[Option[String]]] = either {
+    val command = value(binary).command
+    if (contents.isEmpty) Nil
+    else {
+      val dir = os.temp.dir(prefix = "scala-cli-java-class-name", perms = tempPerms("rwx------"))
       try {
-        logger.debug(s"Running $command $source")
-        val res = os.proc(command, source).call()
-        res.out.trim()
+        val sources = contents.map { content =>
+          os.temp(content, dir = dir, suffix = ".java", perms = tempPerms("rw-------"))
+        }
+        val parallelism = math.max(1, Runtime.getRuntime.availableProcessors())
+        sources.grouped(parallelism).toVector.flatMap { group =>
+          val procs = group.map { source =>
+            logger.debug(s"Running $command $source")
+            os.proc(command, source).spawn(stderr = os.Inherit)
+          }
+          group.zip(procs).map { (source, proc) =>
+            val output = new String(proc.stdout.readAllBytes(), StandardCharsets.UTF_8).trim()
+            proc.waitFor()
+            if (proc.exitCode() != 0)
+              sys.error(s"$command $source exited with code ${proc.exitCode()}")
+            if (output.isEmpty) None
+            else Some(output)
+          }
+        }
       }
-      finally os.remove(source)
-    if (output.isEmpty) None
-    else Some(output)
+      finally os.remove.all(dir)
+    }
   }
+
+  private def tempPerms(perms: String): os.PermSet =
+    if (Properties.isWin) null else perms
 }
@@ -11,4 +11,8 @@ import scala.cli.javaclassname.JavaParser
 class JavaParserProxyJvm extends JavaParserProxy {
   override def className(content: Array[Byte]): Either[BuildException, Option[String]] =
     Right(JavaParser.parseRootPublicClassName(content))
+
+  override def classNames(contents: Seq[Array[Byte]])
+    : Either[BuildException, Seq[Option[String]]] =
+    Right(contents.map(JavaParser.parseRootPublicClassName))
 }
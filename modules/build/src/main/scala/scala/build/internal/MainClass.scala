@@ -43,7 +43,9 @@ object MainClass {
   private val stringArrayDescriptor = "([Ljava/lang/String;)V"
   private val noArgDescriptor       = "()V"
 
-  private class MainMethodChecker extends asm.ClassVisitor(asm.Opcodes.ASM9) {
+  /** Finds the main method of the visited class, passing visits on to `next` if it's not null */
+  private[internal] class MainMethodChecker(next: asm.ClassVisitor = null)
+      extends asm.ClassVisitor(asm.Opcodes.ASM9, next) {
     private var nameOpt: Option[String]         = None
     private var classAccess: Int                = 0
     private var hasNonPrivateNoArgCtor: Boolean = false
@@ -59,6 +61,7 @@ object MainClass {
     ): Unit = {
       classAccess = access
       nameOpt = Some(name.replace('/', '.').replace('\\', '.'))
+      super.visit(version, access, name, signature, superName, interfaces)
     }
 
     override def visitMethod(
@@ -83,7 +86,7 @@ object MainClass {
           case (false, `noArgDescriptor`, _)          => mainKinds += InstanceNoArgs
           case _                                      => ()
         }
-      null
+      super.visitMethod(access, name, descriptor, signature, exceptions)
     }
 
     def candidateOpt: Option[MainClassCandidate] = {
@@ -15,7 +15,7 @@ import scala.build.Logger
 import scala.build.errors.*
 import scala.build.internals.EnvVar
 import scala.build.testrunner.FrameworkUtils.*
-import scala.build.testrunner.{AsmTestRunner, Logger as TestRunnerLogger, TestRunner}
+import scala.build.testrunner.{AsmTestRunner, Logger as TestRunnerLogger, TestIndex, TestRunner}
 import scala.scalanative.testinterface.adapter.TestAdapter as ScalaNativeTestAdapter
 import scala.util.{Failure, Properties, Success}
 
@@ -177,7 +177,8 @@ object Runner {
     cwd: Option[os.Path] = None,
     extraEnv: Map[String, String] = Map.empty,
     useManifest: Option[Boolean] = None,
-    scratchDirOpt: Option[os.Path] = None
+    scratchDirOpt: Option[os.Path] = None,
+    inheritStreams: Boolean = true
   ): Process = {
 
     val command = jvmCommand(
@@ -195,7 +196,7 @@ object Runner {
     if (allowExecve)
       maybeExec("java", command, logger, cwd = cwd, extraEnv = extraEnv)
     else
-      run(command, logger, cwd = cwd, extraEnv = extraEnv)
+      run(command, logger, cwd = cwd, extraEnv = extraEnv, inheritStreams = inheritStreams)
   }
 
   private def endsWithCaseInsensitive(s: String, suffix: String): Boolean =
@@ -494,12 +495,13 @@ object Runner {
   def frameworkNames(
     classPath: Seq[Path],
     parentInspector: AsmTestRunner.ParentInspector,
-    logger: Logger
+    logger: Logger,
+    testIndex: Option[TestIndex] = None
   ): Either[NoTestFrameworkFoundError, Seq[String]] = {
     val trLogger = toTestRunnerLogger(logger)
     logger.debug("Looking for test framework services on the classpath...")
     val foundFrameworkServices =
-      AsmTestRunner.findFrameworkServices(classPath, trLogger)
+      AsmTestRunner.findFrameworkServices(classPath, trLogger, testIndex)
         .map(_.replace('/', '.').replace('\\', '.'))
     logger.debug(s"Found ${foundFrameworkServices.length} test framework services.")
     if foundFrameworkServices.nonEmpty then
@@ -510,7 +512,8 @@ object Runner {
         classPath,
         TestRunner.commonTestFrameworks,
         parentInspector,
-        trLogger
+        trLogger,
+        testIndex
       )
         .map(_.replace('/', '.').replace('\\', '.'))
     logger.debug(s"Found ${foundFrameworks.length} additional test frameworks")
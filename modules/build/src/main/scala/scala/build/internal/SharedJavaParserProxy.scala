@@ -0,0 +1,70 @@
+package scala.build.internal
+
+import coursier.cache.ArchiveCache
+import coursier.util.Task
+
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentHashMap
+
+import scala.build.Logger
+import scala.build.errors.BuildException
+
+/** The [[JavaParserProxy]] shared by the preprocessors of a build, made by
+  * [[JavaParserProxyMaker]] when first needed.
+  *
+  * Class names are kept once extracted, so that those of all the sources of a build can be
+  * extracted in a single batch with [[prefetch]] before the sources are preprocessed one by one.
+  *
+  * @param archiveCache
+  *   when using a java-class-name external binary (see [[JavaParserProxyBinary]]), a cache to
+  *   download that binary with
+  * @param javaClassNameVersionOpt
+  *   when using a java-class-name external binary, this forces the java-class-name version to
+  *   download
+  */
+final class SharedJavaParserProxy(
+  archiveCache: ArchiveCache[Task],
+  javaClassNameVersionOpt: Option[String],
+  javaCommand: () => String
+) {
+
+  private var proxyOpt = Option.empty[JavaParserProxy]
+  private val known    = new ConcurrentHashMap[ByteBuffer, Option[String]]
+
+  private def proxy(logger: Logger): JavaParserProxy = synchronized {
+    proxyOpt.getOrElse {
+      val proxy0 = (new JavaParserProxyMaker)
+        .get(archiveCache, javaClassNameVersionOpt, logger, () => javaCommand())
+      proxyOpt = Some(proxy0)
+      proxy0
+    }
+  }
+
+  /** Extracts the class names of the sources among `contents` that weren't seen before, in one
+    * batch
+    */
+  def prefetch(contents: Seq[Array[Byte]], logger: Logger): Either[BuildException, Unit] = {
+    val missing = contents
+      .map(ByteBuffer.wrap)
+      .distinct
+      .filterNot(known.containsKey)
+    if (missing.isEmpty) Right(())
+    else
+      proxy(logger).classNames(missing.map(_.array())).map { classNames =>
+        for ((content, classNameOpt) <- missing.zip(classNames))
+          known.put(content, classNameOpt)
+      }
+  }
+
+  /** The class names of `contents`, in the same order, extracted in one batch if needed */
+  def classNames(
+    contents: Seq[Array[Byte]],
+    logger: Logger
+  ): Either[BuildException, Seq[Option[String]]] =
+    prefetch(contents, logger).map { _ =>
+      contents.map(content => known.get(ByteBuffer.wrap(content)))
+    }
+
+  def className(content: Array[Byte], logger: Logger): Either[BuildException, Option[String]] =
+    classNames(Seq(content), logger).map(_.head)
+}
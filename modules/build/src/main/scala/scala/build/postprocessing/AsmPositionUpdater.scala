@@ -45,46 +45,52 @@ object AsmPositionUpdater {
     }
   }
 
-  def postProcess(
+  /** Tracks the class files of `output` processed with `mappings` */
+  private[postprocessing] def manifest(
     mappings: Map[String, (String, Int)],
-    output: os.Path,
+    output: os.Path
+  ): PostProcessingManifest =
+    PostProcessingManifest.load(output, "bytecode", mappings.toSeq.sorted.mkString("\n"))
+
+  /** Updates the source file name and line numbers of the class file at `path`, if it comes from a
+    * generated source
+    */
+  private[postprocessing] def postProcessFile(
+    mappings: Map[String, (String, Int)],
+    manifest: PostProcessingManifest,
     logger: Logger
-  ): Unit = {
-    os.walk(output)
-      .iterator
-      .filter(os.isFile(_))
-      .filter(_.last.endsWith(".class"))
-      .foreach { path =>
-        try retry()(logger) {
-            val is                = os.read.inputStream(path)
-            val updateByteCodeOpt =
-              try retry()(logger) {
-                  val reader  = new asm.ClassReader(is)
-                  val writer  = new asm.ClassWriter(reader, 0)
-                  val checker = new LineNumberTableClassVisitor(mappings, writer)
-                  reader.accept(checker, 0)
-                  if checker.mappedStuff then Some(writer.toByteArray) else None
-                }
-              catch {
-                case e: ArrayIndexOutOfBoundsException =>
-                  e.getStackTrace.foreach(ste => logger.debug(ste.toString))
-                  logger.log(s"Error while processing ${path.relativeTo(Os.pwd)}: $e.")
-                  logger.log("Are you trying to run too many builds at once? Trying to recover...")
-                  None
-              }
-              finally is.close()
-            for (b <- updateByteCodeOpt) {
-              logger.debug(s"Overwriting ${path.relativeTo(Os.pwd)}")
-              os.write.over(path, b)
+  )(path: os.Path): Unit =
+    try retry()(logger) {
+        var recovered         = false
+        val is                = os.read.inputStream(path)
+        val updateByteCodeOpt =
+          try retry()(logger) {
+              val reader  = new asm.ClassReader(is)
+              val writer  = new asm.ClassWriter(reader, 0)
+              val checker = new LineNumberTableClassVisitor(mappings, writer)
+              reader.accept(checker, 0)
+              if checker.mappedStuff then Some(writer.toByteArray) else None
             }
+          catch {
+            case e: ArrayIndexOutOfBoundsException =>
+              e.getStackTrace.foreach(ste => logger.debug(ste.toString))
+              logger.log(s"Error while processing ${path.relativeTo(Os.pwd)}: $e.")
+              logger.log("Are you trying to run too many builds at once? Trying to recover...")
+              recovered = true
+              None
           }
-        catch {
-          case e: (NoSuchFileException | FileAlreadyExistsException |
-                ArrayIndexOutOfBoundsException) =>
-            logger.debugStackTrace(e)
-            logger.log(s"Error while processing ${path.relativeTo(Os.pwd)}: $e")
-            logger.log("Are you trying to run too many builds at once? Trying to recover...")
+          finally is.close()
+        for (b <- updateByteCodeOpt) {
+          logger.debug(s"Overwriting ${path.relativeTo(Os.pwd)}")
+          PostProcessor.writeAtomically(path, b)
         }
+        if (!recovered) manifest.processed(path)
       }
-  }
+    catch {
+      case e: (NoSuchFileException | FileAlreadyExistsException |
+            ArrayIndexOutOfBoundsException) =>
+        logger.debugStackTrace(e)
+        logger.log(s"Error while processing ${path.relativeTo(Os.pwd)}: $e")
+        logger.log("Are you trying to run too many builds at once? Trying to recover...")
+    }
 }
@@ -0,0 +1,149 @@
+package scala.build.postprocessing
+
+import java.io.IOException
+import java.math.BigInteger
+import java.nio.charset.StandardCharsets
+import java.security.MessageDigest
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
+
+import scala.build.Logger
+import scala.jdk.CollectionConverters.*
+
+/** Records the files of an output directory that a post-processor went through, along with their
+  * size, last modification time and content hash once post-processed, so that later runs only go
+  * through files that are new or that changed since then.
+  *
+  * Files that changed have a different size or last modification time. Files whose last
+  * modification time changed but whose content is still the post-processed one don't need to be
+  * post-processed again. Records are discarded altogether when the post-processor settings (like
+  * the source mappings) change.
+  *
+  * Manifests are written under the project directory of classes directories, as
+  * `.scala-build/<project>/post-processing/<classes directory>-<post-processor>`.
+  */
+final class PostProcessingManifest private (
+  file: os.Path,
+  output: os.Path,
+  settingsHash: String,
+  previous: Map[os.SubPath, PostProcessingManifest.Entry]
+) {
+
+  import PostProcessingManifest.*
+
+  private val current = new ConcurrentHashMap[os.SubPath, Entry]
+
+  /** Whether `path` is new or changed since it was last post-processed.
+    *
+    * Files that aren't are kept in the manifest as is.
+    */
+  def needsProcessing(path: os.Path): Boolean = {
+    val subPath = path.subRelativeTo(output)
+    previous.get(subPath) match {
+      case None        => true
+      case Some(entry) =>
+        try {
+          val stamp = Stamp(path)
+          if (stamp == entry.stamp) {
+            current.put(subPath, entry)
+            false
+          }
+          else if (stamp.size == entry.stamp.size && hash(os.read.bytes(path)) == entry.hash) {
+            current.put(subPath, entry.copy(stamp = stamp))
+            false
+          }
+          else true
+        }
+        catch {
+          case _: IOException => true
+        }
+    }
+  }
+
+  /** Records that `path` was successfully post-processed */
+  def processed(path: os.Path): Unit =
+    try {
+      val stamp   = Stamp(path)
+      val content = os.read.bytes(path)
+      // not recorded if it changed in the meantime, so that it's post-processed next time
+      if (Stamp(path) == stamp)
+        current.put(path.subRelativeTo(output), Entry(stamp, hash(content)))
+    }
+    catch {
+      case _: IOException =>
+    }
+
+  /** Writes the files recorded so far to the manifest, dropping the ones that weren't seen */
+  def save(logger: Logger): Unit = {
+    val entries = current.asScala.toMap
+    if (entries != previous)
+      try {
+        val lines = Iterator(formatHeader, settingsHash) ++
+          entries.iterator.map { case (subPath, entry) =>
+            s"${entry.stamp.size} ${entry.stamp.mtimeNanos} ${entry.hash} $subPath"
+          }
+        val content = lines.mkString("", System.lineSeparator(), System.lineSeparator())
+        // written to a temporary file first, so that concurrent builds never read a partial file
+        val tmp = file / os.up / s".${file.last}-${ProcessHandle.current().pid()}.tmp"
+        os.write.over(tmp, content, createFolders = true)
+        os.move(tmp, file, replaceExisting = true, atomicMove = true)
+      }
+      catch {
+        case e: IOException =>
+          logger.debug(s"Could not write the post-processing manifest $file: $e")
+      }
+  }
+}
+
+object PostProcessingManifest {
+
+  private val formatHeader = "scala-cli-post-processing-manifest 1"
+
+  /** Reads the manifest of the `name` post-processor for `output`, unless `settings` changed
+    * since it was written
+    */
+  def load(output: os.Path, name: String, settings: String): PostProcessingManifest =
+    loadFrom(output / os.up / os.up / "post-processing" / s"${output.last}-$name", output, settings)
+
+  /** Reads the manifest of `output` written at `file`, for output directories that aren't under a
+    * project directory, unless `settings` changed since it was written
+    */
+  def loadFrom(file: os.Path, output: os.Path, settings: String): PostProcessingManifest = {
+    val settingsHash = hash(settings.getBytes(StandardCharsets.UTF_8))
+    val previous     =
+      try
+        if (os.isFile(file)) {
+          val lines = os.read.lines(file)
+          if (lines.take(2) == Seq(formatHeader, settingsHash))
+            lines.iterator.drop(2).flatMap { line =>
+              line.split(" ", 4) match {
+                case Array(size, mtimeNanos, hash, subPath) =>
+                  Some(os.SubPath(subPath) -> Entry(Stamp(size.toLong, mtimeNanos.toLong), hash))
+                case _ => None
+              }
+            }.toMap
+          else Map.empty
+        }
+        else Map.empty
+      catch {
+        case _: IOException | _: IllegalArgumentException => Map.empty
+      }
+    new PostProcessingManifest(file, output, settingsHash, previous)
+  }
+
+  private def hash(content: Array[Byte]): String = {
+    val md = MessageDigest.getInstance("SHA-1")
+    md.update(content)
+    String.format("%040x", new BigInteger(1, md.digest()))
+  }
+
+  private final case class Stamp(size: Long, mtimeNanos: Long)
+
+  private object Stamp {
+    def apply(path: os.Path): Stamp = {
+      val stat = os.stat(path)
+      Stamp(stat.size, stat.mtime.to(TimeUnit.NANOSECONDS))
+    }
+  }
+
+  private final case class Entry(stamp: Stamp, hash: String)
+}
@@ -0,0 +1,89 @@
+package scala.build.postprocessing
+
+import scala.build.internal.Util
+import scala.build.options.BuildOptions
+import scala.build.{GeneratedSource, Logger}
+
+/** Post-processes the class, TASTy and SemanticDB files of a build in a single stage.
+  *
+  * The output directory is walked once, and each class or TASTy file is handed to its
+  * post-processor on the shared CPU pool, along with the SemanticDB post-processing, which goes
+  * through the files of generated sources rather than through the output directory. Class and
+  * TASTy files that didn't change since the last run with the same settings are left as is, see
+  * [[PostProcessingManifest]].
+  */
+object PostProcessingPipeline {
+
+  def run(
+    generatedSources: Seq[GeneratedSource],
+    mappings: Map[String, (String, Int)],
+    workspace: os.Path,
+    output: os.Path,
+    logger: Logger,
+    scalaVersion: String,
+    buildOptions: BuildOptions,
+    updateSemanticDbs: Boolean
+  ): Either[Seq[String], Unit] = {
+    val tastyPathsOrError =
+      TastyPostProcessor.updatedPathsOpt(generatedSources, workspace, scalaVersion, buildOptions)
+
+    // without mappings, class files are left as is
+    val byteCodeManifestOpt =
+      if mappings.isEmpty then None else Some(AsmPositionUpdater.manifest(mappings, output))
+    val tastyOpt = tastyPathsOrError.toOption.flatten.map { paths =>
+      (paths, TastyPostProcessor.manifest(paths, output))
+    }
+
+    def ifNeeded(manifest: PostProcessingManifest, path: os.Path)(
+      process: => Unit
+    ): Option[String] = {
+      if manifest.needsProcessing(path) then process
+      None
+    }
+
+    val fileTasks: Seq[() => Option[String]] =
+      if byteCodeManifestOpt.isEmpty && tastyOpt.isEmpty then Nil
+      else
+        os.walk.attrs(output).flatMap {
+          case (path, attrs) if attrs.isFile =>
+            if path.last.endsWith(".class") then
+              byteCodeManifestOpt.map { manifest => () =>
+                ifNeeded(manifest, path) {
+                  AsmPositionUpdater.postProcessFile(mappings, manifest, logger)(path)
+                }
+              }
+            else if path.last.endsWith(".tasty") then
+              tastyOpt.map { case (paths, manifest) => () =>
+                ifNeeded(manifest, path) {
+                  TastyPostProcessor.updateTastyFile(logger, paths, manifest)(path)
+                }
+              }
+            else None
+          case _ => None
+        }
+
+    val semanticDbTaskOpt =
+      if updateSemanticDbs then
+        Some { () =>
+          SemanticDbPostProcessor.postProcess(
+            generatedSources = generatedSources,
+            mappings = mappings,
+            workspace = workspace,
+            output = output,
+            logger = logger,
+            scalaVersion = scalaVersion,
+            buildOptions = buildOptions
+          ).left.toOption
+        }
+      else None
+
+    val tasks    = fileTasks ++ semanticDbTaskOpt.toSeq
+    val failures = Util.inParallel(tasks)(_()).flatten
+
+    byteCodeManifestOpt.foreach(_.save(logger))
+    tastyOpt.foreach(_._2.save(logger))
+
+    val allFailures = failures ++ tastyPathsOrError.left.toOption
+    if allFailures.isEmpty then Right(()) else Left(allFailures)
+  }
+}
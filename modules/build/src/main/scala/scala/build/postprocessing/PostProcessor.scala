@@ -1,5 +1,7 @@
 package scala.build.postprocessing
 
+import java.util.concurrent.atomic.AtomicLong
+
 import scala.build.options.BuildOptions
 import scala.build.{GeneratedSource, Logger}
 
@@ -14,3 +16,20 @@ trait PostProcessor {
     buildOptions: BuildOptions
   ): Either[String, Unit]
 }
+
+object PostProcessor {
+
+  private val tmpFileCount = new AtomicLong
+
+  /** Overwrites `path` with `content`, by writing it to a temporary file next to `path` first, and
+    * renaming that file to `path`, so that builds running concurrently never see partially written
+    * files.
+    */
+  def writeAtomically(path: os.Path, content: Array[Byte], createFolders: Boolean = false): Unit = {
+    val tmp = path / os.up /
+      s".${path.last}-${ProcessHandle.current().pid()}-${tmpFileCount.incrementAndGet()}.tmp"
+    os.write.over(tmp, content, createFolders = createFolders)
+    try os.move(tmp, path, replaceExisting = true, atomicMove = true)
+    finally os.remove(tmp, checkExists = false)
+  }
+}
@@ -107,7 +107,7 @@ object SemanticdbProcessor {
             }
         }
       }
-      os.write.over(dest, updatedDocs.toByteArray, createFolders = true)
+      PostProcessor.writeAtomically(dest, updatedDocs.toByteArray, createFolders = true)
     }
     else
       System.err.println(s"Error: $orig not found (for $dest)")
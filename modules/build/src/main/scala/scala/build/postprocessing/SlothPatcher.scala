@@ -2,18 +2,27 @@ package scala.build.postprocessing
 
 import sloth.jar.JarProcessor
 
-import java.io.{ByteArrayOutputStream, PrintStream}
+import java.io.{
+  BufferedInputStream,
+  ByteArrayInputStream,
+  ByteArrayOutputStream,
+  DataInputStream,
+  EOFException,
+  InputStream,
+  PrintStream
+}
 import java.math.BigInteger
+import java.nio.charset.StandardCharsets
 import java.nio.file.attribute.FileTime
 import java.nio.file.{AtomicMoveNotSupportedException, FileAlreadyExistsException}
 import java.security.MessageDigest
 import java.util.jar.{Attributes as JarAttributes, JarOutputStream, Manifest as JarManifest}
-import java.util.zip.{ZipEntry, ZipFile, ZipOutputStream}
+import java.util.zip.{ZipEntry, ZipFile, ZipInputStream, ZipOutputStream}
 
 import scala.build.Ops.EitherIteratorOps
 import scala.build.errors.BuildException
 import scala.build.internal.util.WarningMessages
-import scala.build.internal.{Constants, JarManifests}
+import scala.build.internal.{Constants, JarManifests, Util}
 import scala.build.internals.ConsoleUtils.ScalaCliConsole.warnPrefix
 import scala.build.options.BuildOptions
 import scala.build.{Build, Directories, Logger, coursierVersion, isScala38OrNewer}
@@ -97,6 +106,11 @@ object SlothPatcher:
   /** Patch `.class` files under `dir` in place when `--sloth` is enabled and `shouldPatch` is true.
     * Registers `dir` in the in-process memo once the pass completes (including when nothing needed
     * patching), so callers can skip re-patching a copy of the same directory.
+    *
+    * Only class files that changed since the last pass, according to a [[PostProcessingManifest]]
+    * kept in the sloth cache, and that [[mayHaveLazyVals]] go through sloth, in parallel groups,
+    * and only the ones it changed are written back, so that the work done depends on the changed
+    * classes with lazy vals rather than on the size of `dir`.
     */
   def patchClassDirInPlace(
     dir: os.Path,
@@ -110,43 +124,81 @@ object SlothPatcher:
         captureStdio(logger):
           try
             withOriginalFallback(dir.toString, (), logger):
-              val tmpInput =
-                os.temp(prefix = "sloth-inplace-", suffix = ".jar", deleteOnExit = false)
-              val tmpOutput =
-                os.temp(prefix = "sloth-inplace-out-", suffix = ".jar", deleteOnExit = false)
-              try
-                jarDirectory(dir, tmpInput)
-                runJarProcessor(tmpInput, tmpOutput) match
-                  case Left(errorMsg) =>
-                    logger.message(
-                      s"$warnPrefix ${WarningMessages.slothCouldNotPatch(dir.toString, errorMsg)}"
-                    )
-                  case Right(result) if result.patchedClasses == 0 =>
-                    logger.debug(s"No lazy vals to patch in place in $dir")
-                  case Right(_) =>
-                    writeBackPatchedClasses(dir, tmpInput, tmpOutput, logger)
-                    logger.debug(s"Patched lazy vals in place in $dir")
-              finally
-                if os.exists(tmpInput) then os.remove(tmpInput)
-                if os.exists(tmpOutput) then os.remove(tmpOutput)
+              val manifest =
+                PostProcessingManifest.loadFrom(manifestFile(dir), dir, Constants.slothVersion)
+              val classFiles = os.walk.stream(dir).filter(p => p.ext == "class" && os.isFile(p))
+                .toVector
+              val changed    = classFiles.filter(manifest.needsProcessing)
+              logger.debug(
+                s"Checking ${changed.length} of ${classFiles.length} class files in $dir"
+              )
+              val candidates = inParallelGroups(changed)(_.filter(file => mayHaveLazyVals(file)))
+              val results    = inParallelGroups(candidates)(files =>
+                Seq(patchClassFilesInPlace(dir, files, logger).map(count => (files, count)))
+              )
+              for case Left(errorMsg) <- results do
+                logger.message(
+                  s"$warnPrefix ${WarningMessages.slothCouldNotPatch(dir.toString, errorMsg)}"
+                )
+              val candidateSet = candidates.toSet
+              for file <- changed if !candidateSet.contains(file) do manifest.processed(file)
+              // classes sloth failed on are left out, so that they go through it again next time
+              for case Right((files, _)) <- results; file <- files do manifest.processed(file)
+              manifest.save(logger)
+              val written = results.collect { case Right((_, count)) => count }.sum
+              if written == 0 then logger.debug(s"No lazy vals to patch in place in $dir")
+              else logger.debug(s"Patched lazy vals in place in $dir ($written class files)")
           finally
             patchedClassDirsInThisProcess.add(dir)
 
-  private def writeBackPatchedClasses(
+  /** Where the [[PostProcessingManifest]] of the in-place patching of `dir` is kept, as `dir` isn't
+    * necessarily under a project directory
+    */
+  private def manifestFile(dir: os.Path): os.Path =
+    val md = MessageDigest.getInstance("SHA-1")
+    md.update(dir.toString.getBytes(StandardCharsets.UTF_8))
+    val dirHash = String.format("%040x", BigInteger(1, md.digest()))
+    cacheDir / Constants.slothVersion / "in-place" / dirHash
+
+  /** Runs `files` of `dir` through sloth, and writes back the ones it changed, returning their
+    * count.
+    */
+  private def patchClassFilesInPlace(
     dir: os.Path,
-    originalJar: os.Path,
-    patchedJar: os.Path,
+    files: Seq[os.Path],
     logger: Logger
-  ): Unit =
-    val originalEntries = readZipEntries(originalJar).map((e, b) => e.getName -> b).toMap
-    for (entry, content) <- readZipEntries(patchedJar) do
-      val name = entry.getName
-      if name.endsWith(".class") && !JarManifests.isManifestEntry(name) then
-        val original = originalEntries.get(name)
-        if !original.exists(java.util.Arrays.equals(_, content)) then
-          val dest = dir / os.RelPath(name)
-          os.write.over(dest, content, createFolders = true)
-          logger.debug(s"Wrote patched class $name -> $dest")
+  ): Either[String, Int] =
+    val tmpInput  = os.temp(prefix = "sloth-inplace-", suffix = ".jar", deleteOnExit = false)
+    val tmpOutput = os.temp(prefix = "sloth-inplace-out-", suffix = ".jar", deleteOnExit = false)
+    try
+      Using.resource(ZipOutputStream(os.write.outputStream(tmpInput))): out =>
+        for file <- files do
+          out.putNextEntry(ZipEntry(file.subRelativeTo(dir).toString))
+          out.write(os.read.bytes(file))
+          out.closeEntry()
+      runJarProcessor(tmpInput, tmpOutput).map: result =>
+        if result.patchedClasses == 0 then 0
+        else writeBackPatchedClasses(dir, tmpOutput, logger)
+    finally
+      if os.exists(tmpInput) then os.remove(tmpInput)
+      if os.exists(tmpOutput) then os.remove(tmpOutput)
+
+  /** Streams the classes of `patchedJar`, one at a time, overwriting the ones that differ from
+    * their counterpart in `dir`, and returns their count.
+    */
+  private def writeBackPatchedClasses(dir: os.Path, patchedJar: os.Path, logger: Logger): Int =
+    var written = 0
+    Using.resource(ZipInputStream(os.read.inputStream(patchedJar))): zis =>
+      for entry <- Iterator.continually(zis.getNextEntry).takeWhile(_ != null) do
+        val name = entry.getName
+        if name.endsWith(".class") && !JarManifests.isManifestEntry(name) then
+          val content = zis.readAllBytes()
+          val dest    = dir / os.RelPath(name)
+          if !os.isFile(dest) || !java.util.Arrays.equals(os.read.bytes(dest), content) then
+            PostProcessor.writeAtomically(dest, content, createFolders = true)
+            logger.debug(s"Wrote patched class $name -> $dest")
+            written += 1
+    written
 
   def patchByteCodeZipEntries(
     entries: Seq[(ZipEntry, Array[Byte])],
@@ -155,12 +207,89 @@ object SlothPatcher:
   ): Either[BuildException, Seq[(ZipEntry, Array[Byte])]] =
     if !options.notForBloopOptions.sloth || entries.isEmpty then Right(entries)
     else
-      val tmpJar = os.temp(prefix = "sloth-entries-", suffix = ".jar", deleteOnExit = false)
-      try
-        withOriginalFallback("bytecode zip entries", Right(entries), logger):
-          writeZipEntries(tmpJar, entries)
-          patchJarFile(tmpJar, options, logger).map(readZipEntries)
-      finally if os.exists(tmpJar) then os.remove(tmpJar)
+      // only the classes that may have lazy vals go through sloth, the others are kept as is
+      val candidates = entries.filter: (entry, content) =>
+        entry.getName.endsWith(".class") && mayHaveLazyVals(content)
+      if candidates.isEmpty then Right(entries)
+      else
+        val tmpJar = os.temp(prefix = "sloth-entries-", suffix = ".jar", deleteOnExit = false)
+        try
+          withOriginalFallback("bytecode zip entries", Right(entries), logger):
+            writeZipEntries(tmpJar, candidates)
+            patchJarFile(tmpJar, options, logger).map: patchedJar =>
+              if patchedJar == tmpJar then entries
+              else
+                val patched = readZipEntries(patchedJar).map((e, b) => e.getName -> b).toMap
+                entries.map: (entry, content) =>
+                  patched.get(entry.getName) match
+                    case Some(patchedContent)
+                        if !java.util.Arrays.equals(patchedContent, content) =>
+                      val patchedEntry = ZipEntry(entry.getName)
+                      Option(entry.getLastModifiedTime).foreach(patchedEntry.setLastModifiedTime)
+                      patchedEntry.setSize(patchedContent.length)
+                      (patchedEntry, patchedContent)
+                    case _ => (entry, content)
+        finally if os.exists(tmpJar) then os.remove(tmpJar)
+
+  /** Prefix of the runtime support classes of Scala 3 lazy vals (`LazyVals$`,
+    * `LazyVals$Evaluating$`, etc.), whose `sun.misc.Unsafe` based operations sloth rewrites.
+    */
+  private val lazyValsRuntimePrefix = "scala/runtime/LazyVals".getBytes(StandardCharsets.UTF_8)
+
+  /** Whether the constant pool of `classFile` references the runtime support of lazy vals, meaning
+    * that sloth may have something to patch in it.
+    *
+    * This only walks the constant pool, so it's much cheaper than having sloth go through the
+    * class. Content that isn't a well-formed class file is assumed to need patching, so that sloth
+    * still gets a chance to report it.
+    */
+  private[build] def mayHaveLazyVals(classFile: Array[Byte]): Boolean =
+    mayHaveLazyVals(ByteArrayInputStream(classFile))
+
+  /** Like the above, only reading `classFile` up to the end of its constant pool */
+  private[build] def mayHaveLazyVals(classFile: os.Path): Boolean =
+    Using.resource(BufferedInputStream(os.read.inputStream(classFile)))(in => mayHaveLazyVals(in))
+
+  private def mayHaveLazyVals(classFile: InputStream): Boolean =
+    val in     = DataInputStream(classFile)
+    val prefix = lazyValsRuntimePrefix
+    def containsPrefix(bytes: Array[Byte]): Boolean =
+      (0 to bytes.length - prefix.length).exists: start =>
+        prefix.indices.forall(i => bytes(start + i) == prefix(i))
+    try
+      if in.readInt() != 0xcafebabe then true
+      else
+        in.skipNBytes(4) // minor and major versions
+        val count = in.readUnsignedShort()
+        var index = 1
+        var found = false
+        while !found && index < count do
+          in.readUnsignedByte() match
+            case 1 => // CONSTANT_Utf8
+              val bytes = new Array[Byte](in.readUnsignedShort())
+              in.readFully(bytes)
+              found = containsPrefix(bytes)
+            case 5 | 6 => // CONSTANT_Long, CONSTANT_Double, which take two slots
+              in.skipNBytes(8)
+              index += 1
+            case 7 | 8 | 16 | 19 | 20                => in.skipNBytes(2)
+            case 15                                  => in.skipNBytes(3)
+            case 3 | 4 | 9 | 10 | 11 | 12 | 17 | 18 => in.skipNBytes(4)
+            case tag => throw IllegalArgumentException(s"Unknown constant pool tag $tag")
+          index += 1
+        found
+    catch
+      case _: EOFException | _: IllegalArgumentException => true
+
+  /** Splits `inputs` in as many groups as there are processors, and runs `f` on them in parallel
+    * on the shared CPU pool
+    */
+  private def inParallelGroups[A, B](inputs: Seq[A])(f: Seq[A] => Seq[B]): Seq[B] =
+    if inputs.isEmpty then Nil
+    else
+      val processors = Runtime.getRuntime.availableProcessors()
+      val groups     = inputs.grouped((inputs.length + processors - 1) / processors).toVector
+      Util.inParallel(groups)(f).flatten
 
   /** ZIP local-file / empty-archive / spanned signatures. */
   private val zipLocalFileHeader: Array[Byte] = Array(0x50, 0x4b, 0x03, 0x04)
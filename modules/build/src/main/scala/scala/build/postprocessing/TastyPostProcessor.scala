@@ -7,17 +7,18 @@ import scala.build.options.BuildOptions
 import scala.build.tastylib.{TastyData, TastyVersions}
 import scala.build.{GeneratedSource, Logger, retry}
 
-case object TastyPostProcessor extends PostProcessor {
+/** Updates the source paths in the TASTy files of generated sources, file by file, from
+  * [[PostProcessingPipeline]]
+  */
+object TastyPostProcessor {
 
-  def postProcess(
+  /** The source paths to update in TASTy files, if TASTy files need to be post-processed */
+  private[postprocessing] def updatedPathsOpt(
     generatedSources: Seq[GeneratedSource],
-    mappings: Map[String, (String, Int)],
     workspace: os.Path,
-    output: os.Path,
-    logger: Logger,
     scalaVersion: String,
     buildOptions: BuildOptions
-  ): Either[String, Unit] = {
+  ): Either[String, Option[Map[String, String]]] = {
 
     def updatedPaths = generatedSources
       .flatMap { source =>
@@ -34,23 +35,25 @@ case object TastyPostProcessor extends PostProcessor {
       Constants.version,
       buildOptions.scalaOptions.defaultScalaVersion
     ) match {
-      case Right(false) => Right(())
-      case Left(msg)    => if (updatedPaths.isEmpty) Right(()) else Left(msg)
+      case Right(false) => Right(None)
+      case Left(msg)    => if (updatedPaths.isEmpty) Right(None) else Left(msg)
       case Right(true)  =>
         val paths = updatedPaths
-        if (paths.isEmpty) Right(())
-        else Right(
-          os.walk(output)
-            .filter(os.isFile(_))
-            .filter(_.last.endsWith(".tasty")) // make that case-insensitive just in case?
-            .foreach(updateTastyFile(logger, paths))
-        )
+        if (paths.isEmpty) Right(None)
+        else Right(Some(paths))
     }
   }
 
-  private def updateTastyFile(
+  private[postprocessing] def manifest(
+    updatedPaths: Map[String, String],
+    output: os.Path
+  ): PostProcessingManifest =
+    PostProcessingManifest.load(output, "tasty", updatedPaths.toSeq.sorted.mkString("\n"))
+
+  private[postprocessing] def updateTastyFile(
     logger: Logger,
-    updatedPaths: Map[String, String]
+    updatedPaths: Map[String, String],
+    manifest: PostProcessingManifest
   )(f: os.Path): Unit = {
     logger.debug(s"Reading TASTy file $f")
     try retry()(logger) {
@@ -74,9 +77,10 @@ case object TastyPostProcessor extends PostProcessor {
                 s"Overwriting ${if f.startsWith(os.pwd) then f.relativeTo(os.pwd) else f}"
               )
               val updatedContent = TastyData.write(updatedData)
-              os.write.over(f, updatedContent)
+              PostProcessor.writeAtomically(f, updatedContent)
             }
         }
+        manifest.processed(f)
       }
     catch {
       case e: (NoSuchFileException | FileAlreadyExistsException | ArrayIndexOutOfBoundsException) =>
@@ -1,15 +1,12 @@
 package scala.build.preprocessing
 
-import coursier.cache.ArchiveCache
-import coursier.util.Task
-
 import java.nio.charset.StandardCharsets
 
 import scala.build.EitherCps.{either, value}
 import scala.build.Logger
 import scala.build.errors.BuildException
 import scala.build.input.{JavaFile, ScalaCliInvokeData, SingleElement, VirtualJavaFile}
-import scala.build.internal.JavaParserProxyMaker
+import scala.build.internal.SharedJavaParserProxy
 import scala.build.options.SuppressWarningOptions
 import scala.build.preprocessing.directives.PreprocessedDirectives
 
@@ -18,18 +15,20 @@ import scala.build.preprocessing.directives.PreprocessedDirectives
   * Doesn't modify Java sources. This only extracts using directives from them, and for unnamed
   * sources (like stdin), tries to infer a class name from the sources themselves.
   *
-  * @param archiveCache
-  *   when using a java-class-name external binary to infer a class name (see [[JavaParserProxy]]),
-  *   a cache to download that binary with
-  * @param javaClassNameVersionOpt
-  *   when using a java-class-name external binary to infer a class name (see [[JavaParserProxy]]),
-  *   this forces the java-class-name version to download
+  * @param javaParser
+  *   infers class names, for all the unnamed sources of a build at once in [[prepare]]
   */
-final case class JavaPreprocessor(
-  archiveCache: ArchiveCache[Task],
-  javaClassNameVersionOpt: Option[String],
-  javaCommand: () => String
-) extends Preprocessor {
+final case class JavaPreprocessor(javaParser: SharedJavaParserProxy) extends Preprocessor {
+
+  private def isUnnamed(v: VirtualJavaFile): Boolean =
+    v.isStdin || v.isSnippet
+
+  override def prepare(elements: Seq[SingleElement], logger: Logger): Either[BuildException, Unit] =
+    javaParser.prefetch(
+      elements.collect { case v: VirtualJavaFile if isUnnamed(v) => v.content },
+      logger
+    )
+
   def preprocess(
     input: SingleElement,
     logger: Logger,
@@ -94,17 +93,8 @@ final case class JavaPreprocessor(
       case v: VirtualJavaFile =>
         val res = either {
           val relPath =
-            if (v.isStdin || v.isSnippet) {
-              val classNameOpt = value {
-                (new JavaParserProxyMaker)
-                  .get(
-                    archiveCache,
-                    javaClassNameVersionOpt,
-                    logger,
-                    () => javaCommand()
-                  )
-                  .className(v.content)
-              }
+            if (isUnnamed(v)) {
+              val classNameOpt = value(javaParser.className(v.content, logger))
               val fileName = classNameOpt
                 .map(_ + ".java")
                 .getOrElse(v.generatedSourceFileName)
@@ -1,15 +1,12 @@
 package scala.build.preprocessing
 
-import coursier.cache.ArchiveCache
-import coursier.util.Task
-
 import java.nio.charset.StandardCharsets
 
 import scala.build.EitherCps.{either, value}
 import scala.build.Logger
 import scala.build.errors.BuildException
 import scala.build.input.{MarkdownFile, ScalaCliInvokeData, SingleElement, VirtualMarkdownFile}
-import scala.build.internal.JavaParserProxyMaker
+import scala.build.internal.SharedJavaParserProxy
 import scala.build.internal.markdown.{MarkdownCodeBlock, MarkdownCodeWrapper}
 import scala.build.options.SuppressWarningOptions
 import scala.build.preprocessing.ScalaPreprocessor.ProcessingOutput
@@ -17,18 +14,10 @@ import scala.build.preprocessing.directives.PreprocessedDirectives
 
 /** Markdown source preprocessor.
   *
-  * @param archiveCache
-  *   when using a java-class-name external binary to infer a class name (see [[JavaParserProxy]]),
-  *   a cache to download that binary with
-  * @param javaClassNameVersionOpt
-  *   when using a java-class-name external binary to infer a class name (see [[JavaParserProxy]]),
-  *   this forces the java-class-name version to download
+  * @param javaParser
+  *   infers the class names of Java snippets, for all those of a Markdown file at once
   */
-final case class MarkdownPreprocessor(
-  archiveCache: ArchiveCache[Task],
-  javaClassNameVersionOpt: Option[String],
-  javaCommand: () => String
-) extends Preprocessor {
+final case class MarkdownPreprocessor(javaParser: SharedJavaParserProxy) extends Preprocessor {
   def preprocess(
     input: SingleElement,
     logger: Logger,
@@ -42,9 +31,6 @@ final case class MarkdownPreprocessor(
           val content      = value(PreprocessingUtil.maybeRead(markdown.path))
           val preprocessed = value {
             preprocessContent(
-              archiveCache = archiveCache,
-              javaClassNameVersionOpt = javaClassNameVersionOpt,
-              javaCommand = javaCommand,
               reportingPath = Right(markdown.path),
               content = content,
               subPath = markdown.subPath,
@@ -63,9 +49,6 @@ final case class MarkdownPreprocessor(
         val res     = either {
           val preprocessed = value {
             preprocessContent(
-              archiveCache = archiveCache,
-              javaClassNameVersionOpt = javaClassNameVersionOpt,
-              javaCommand = javaCommand,
               reportingPath = Left(markdown.source),
               content = content,
               subPath = markdown.wrapperPath,
@@ -84,9 +67,6 @@ final case class MarkdownPreprocessor(
     }
 
   private def preprocessContent(
-    archiveCache: ArchiveCache[Task],
-    javaClassNameVersionOpt: Option[String],
-    javaCommand: () => String,
     reportingPath: Either[String, os.Path],
     content: String,
     subPath: os.SubPath,
@@ -138,14 +118,6 @@ final case class MarkdownPreprocessor(
       isTest: Boolean
     ): Either[BuildException, List[PreprocessedSource.InMemory]] =
       either {
-        val javaParser =
-          (new JavaParserProxyMaker)
-            .get(
-              archiveCache,
-              javaClassNameVersionOpt,
-              logger,
-              () => javaCommand()
-            )
         blocks.codeBlocks.zipWithIndex.map { (block, index) =>
           value {
             emitJavaSnippet(
@@ -155,7 +127,6 @@ final case class MarkdownPreprocessor(
               subPath = subPath,
               scopePath = scopePath,
               reportingPath = reportingPath,
-              javaParser = javaParser,
               logger = logger,
               allowRestrictedFeatures = allowRestrictedFeatures,
               suppressWarningOptions = suppressWarningOptions,
@@ -182,6 +153,15 @@ final case class MarkdownPreprocessor(
     val maybeMainFile = value(preprocessSnippets(mainScalaCode, ".scala"))
     val maybeRawFile  = value(preprocessSnippets(rawScalaCode, ".raw.scala"))
     val maybeTestFile = value(preprocessSnippets(testScalaCode, ".test.scala"))
+    // the class names of all the Java snippets are inferred at once, then read back one by one
+    value {
+      javaParser.prefetch(
+        (preprocessedMarkdown.javaCodeBlocks.codeBlocks ++
+          preprocessedMarkdown.javaTestCodeBlocks.codeBlocks)
+          .map(_.body.getBytes(StandardCharsets.UTF_8)),
+        logger
+      )
+    }
     val javaFiles     = value(emitJavaSnippets(preprocessedMarkdown.javaCodeBlocks, isTest = false))
     val javaTestFiles =
       value(emitJavaSnippets(preprocessedMarkdown.javaTestCodeBlocks, isTest = true))
@@ -196,14 +176,13 @@ final case class MarkdownPreprocessor(
     subPath: os.SubPath,
     scopePath: ScopePath,
     reportingPath: Either[String, os.Path],
-    javaParser: scala.build.internal.JavaParserProxy,
     logger: Logger,
     allowRestrictedFeatures: Boolean,
     suppressWarningOptions: SuppressWarningOptions,
     maybeRecoverOnError: BuildException => Option[BuildException]
   )(using ScalaCliInvokeData): Either[BuildException, PreprocessedSource.InMemory] = either {
     val classNameOpt = value {
-      javaParser.className(block.body.getBytes(StandardCharsets.UTF_8))
+      javaParser.className(block.body.getBytes(StandardCharsets.UTF_8), logger)
     }
     val mdBaseName   = subPath.last.stripSuffix(".md")
     val baseName     = classNameOpt.getOrElse(s"${mdBaseName}_md_snippet$index")
@@ -0,0 +1,385 @@
+package scala.build.preprocessing
+
+import bloop.rifle.BloopRifleLogger
+import org.scalajs.logging.Logger as ScalaJsLogger
+
+import java.io.{IOException, PrintStream}
+import java.math.BigInteger
+import java.nio.charset.StandardCharsets
+import java.security.MessageDigest
+import java.util.concurrent.atomic.LongAdder
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
+
+import scala.build.Logger
+import scala.build.Ops.*
+import scala.build.errors.{BuildException, CompositeBuildException, Diagnostic}
+import scala.build.input.{ScalaCliInvokeData, Script, SingleElement, SingleFile}
+import scala.build.internal.Constants
+import scala.build.internals.FeatureType
+import scala.build.options.{BuildOptions, BuildRequirements, SuppressWarningOptions}
+import scala.build.preprocessing.PreprocessedSource.UnwrappedScript
+import scala.jdk.CollectionConverters.*
+import scala.scalanative.build as sn
+
+/** Keeps the preprocessed sources of files on disk across builds, so that only the files that
+  * changed since the previous build are preprocessed again.
+  *
+  * A file is considered unchanged as long as its size and last modification time are. Results that
+  * came with diagnostics, warnings or recovered errors aren't kept, so that these are reported
+  * again on the next build, and neither are scripts, whose wrapping reports diagnostics later on.
+  *
+  * If `persistentFileOpt` is defined, the results of sources without using directives, most of the
+  * sources of large projects, are also written to that file by [[save]], and are read back by the
+  * next cache using that file. These are keyed both by the hash of the file path, size and last
+  * modification time, so that unchanged files are found without being read, and by the hash of
+  * the file name and content, so that files that were only touched are found too. Both hashes
+  * include the Scala CLI version and the preprocessing options. Other results hold build options,
+  * which can't be written as is, and are only kept in memory.
+  */
+final class PreprocessingCache(persistentFileOpt: Option[os.Path] = None) {
+
+  import PreprocessingCache.*
+
+  private val entries        = new ConcurrentHashMap[SingleFile, Entry]
+  private val hits           = new LongAdder
+  private val persistentHits = new LongAdder
+  private val misses         = new LongAdder
+
+  private lazy val persisted: Seq[Record] =
+    persistentFileOpt.fold(Seq.empty[Record])(readPersisted)
+  private lazy val persistedByStamp: Map[String, Record] =
+    persisted.iterator.map(record => record.stampKey -> record).toMap
+  private lazy val persistedByContent: Map[String, Persisted] =
+    persisted.iterator.map(record => record.contentKey -> record.value).toMap
+  private var writtenOpt = Option.empty[Set[Record]]
+
+  /** Number of files whose preprocessed sources could be reused, from memory or from disk */
+  def hitCount: Long = hits.sum()
+
+  /** Number of files whose preprocessed sources were read from disk */
+  def persistentHitCount: Long = persistentHits.sum()
+
+  /** Number of files that had to be preprocessed */
+  def missCount: Long = misses.sum()
+
+  /** A preprocessor running the first of `preprocessors` that accepts an input, unless that input
+    * is a file that didn't change since it was last preprocessed
+    */
+  def preprocessor(preprocessors: Seq[Preprocessor]): Preprocessor =
+    new Preprocessor {
+      override def prepare(
+        elements: Seq[SingleElement],
+        logger: Logger
+      ): Either[BuildException, Unit] =
+        preprocessors
+          .map(_.prepare(elements, logger))
+          .sequence
+          .left.map(CompositeBuildException(_))
+          .map(_ => ())
+
+      def preprocess(
+        input: SingleElement,
+        logger: Logger,
+        maybeRecoverOnError: BuildException => Option[BuildException],
+        allowRestrictedFeatures: Boolean,
+        suppressWarningOptions: SuppressWarningOptions
+      )(using ScalaCliInvokeData): Option[Either[BuildException, Seq[PreprocessedSource]]] = {
+        def run(logger: Logger, maybeRecoverOnError: BuildException => Option[BuildException]) =
+          preprocessors
+            .iterator
+            .flatMap { p =>
+              p.preprocess(
+                input,
+                logger,
+                maybeRecoverOnError,
+                allowRestrictedFeatures,
+                suppressWarningOptions
+              ).iterator
+            }
+            .take(1)
+            .toList
+            .headOption
+
+        input match {
+          case file: SingleFile if os.isFile(file.path) =>
+            val stamp    = Stamp(file.path, allowRestrictedFeatures, suppressWarningOptions)
+            val entryOpt = Option(entries.get(file)).filter(_.stamp == stamp)
+            entryOpt match {
+              case Some(entry) =>
+                hits.increment()
+                entry.result
+              case None =>
+                val stampKeyOpt =
+                  if (persistentFileOpt.isEmpty || file.isInstanceOf[Script]) None
+                  else Some(persistentStampKey(file, stamp))
+                lazy val contentKeyOpt = stampKeyOpt.flatMap { _ =>
+                  try Some(persistentContentKey(file, os.read.bytes(file.path), stamp))
+                  catch {
+                    case _: IOException => None
+                  }
+                }
+                val recordOpt = stampKeyOpt.flatMap { stampKey =>
+                  persistedByStamp.get(stampKey).orElse {
+                    contentKeyOpt.flatMap { key =>
+                      persistedByContent.get(key).map(Record(key, stampKey, _))
+                    }
+                  }
+                }
+                recordOpt match {
+                  case Some(record) =>
+                    hits.increment()
+                    persistentHits.increment()
+                    val res = Some(Right(Seq(record.value.source(file.path))))
+                    entries.put(file, Entry(stamp, res, Some(record)))
+                    res
+                  case None =>
+                    misses.increment()
+                    val reportingLogger = new ReportingLogger(logger)
+                    var recovered       = false
+                    val res             = run(
+                      reportingLogger,
+                      e => {
+                        recovered = true
+                        maybeRecoverOnError(e)
+                      }
+                    )
+                    val cacheable = !reportingLogger.reported && !recovered && res.forall {
+                      // scripts are wrapped later on, with the logger they were preprocessed with
+                      case Right(sources) => !sources.exists(_.isInstanceOf[UnwrappedScript])
+                      case Left(_)        => false
+                    }
+                    if (cacheable) {
+                      val persistedOpt = (stampKeyOpt, res) match {
+                        case (Some(stampKey), Some(Right(Seq(source)))) =>
+                          for {
+                            value <- Persisted.of(source, file.path)
+                            key   <- contentKeyOpt
+                          } yield Record(key, stampKey, value)
+                        case _ => None
+                      }
+                      entries.put(file, Entry(stamp, res, persistedOpt))
+                    }
+                    else entries.remove(file)
+                    res
+                }
+            }
+          case _ =>
+            run(logger, maybeRecoverOnError)
+        }
+      }
+    }
+
+  /** Forgets the files that aren't part of `elements` anymore */
+  def retain(elements: Seq[SingleElement]): Unit = {
+    val files = elements.collect { case f: SingleFile => f }.toSet
+    entries.keySet.asScala.filterNot(files).foreach(entries.remove(_))
+  }
+
+  /** Adds the results that can be persisted of the files currently known to the persistent file, if
+    * some of these weren't in it when it was read or last written
+    *
+    * The entries already in the file, written for other inputs of the same workspace or by other
+    * builds, are kept, up to a fixed number of entries overall, the oldest ones being dropped
+    * first.
+    */
+  def save(logger: Logger): Unit = {
+    logger.log(
+      s"Preprocessing cache: $hitCount hits ($persistentHitCount from disk), $missCount misses"
+    )
+    for (file <- persistentFileOpt) synchronized {
+      val current = entries.values.asScala.flatMap(_.persistedOpt).toSet
+      if (!current.subsetOf(writtenOpt.getOrElse(persisted.toSet)))
+        try {
+          // read again, as other builds may have written the file since it was first read
+          val currentStampKeys = current.map(_.stampKey)
+          val others           = readPersisted(file).filterNot(r => currentStampKeys(r.stampKey))
+          val merged           = (others ++ current).takeRight(maxPersistedRecords)
+          writePersisted(file, merged)
+          writtenOpt = Some(merged.toSet)
+        }
+        catch {
+          case e: IOException =>
+            logger.debug(s"Could not write the preprocessing cache $file: $e")
+        }
+    }
+  }
+}
+
+object PreprocessingCache {
+
+  /** A cache persisting its results under the Scala CLI directory of `workspace` */
+  def persistent(workspace: os.Path): PreprocessingCache =
+    new PreprocessingCache(Some(workspace / Constants.workspaceDirName / "preprocessing-cache"))
+
+  private val formatHeader = "scala-cli-preprocessing-cache 2"
+
+  /** Maximum number of results kept in a persistent file, the oldest ones being dropped first */
+  private val maxPersistedRecords = 50000
+
+  /** Results that can be persisted: sources left as is, with no using directives */
+  private enum Persisted(val id: String) {
+    // what ScalaPreprocessor returns for sources without directives
+    case NoDirectives extends Persisted("none")
+    // what JavaPreprocessor returns for sources without directives
+    case EmptyDirectives extends Persisted("empty")
+
+    def source(path: os.Path): PreprocessedSource.OnDisk = this match {
+      case NoDirectives    => PreprocessedSource.OnDisk(path, None, Nil, None, Nil, None, None)
+      case EmptyDirectives =>
+        PreprocessedSource.OnDisk(
+          path,
+          Some(BuildOptions()),
+          Nil,
+          Some(BuildRequirements()),
+          Nil,
+          None,
+          None
+        )
+    }
+  }
+
+  private object Persisted {
+    def of(source: PreprocessedSource, path: os.Path): Option[Persisted] =
+      Persisted.values.find(_.source(path) == source)
+  }
+
+  /** A persisted result, along with the hashes of the file content and stamp it was computed for */
+  private final case class Record(contentKey: String, stampKey: String, value: Persisted)
+
+  private def persistentKey(file: SingleFile, stamp: Stamp, extra: Seq[String])(
+    update: MessageDigest => Unit
+  ): String = {
+    val md     = MessageDigest.getInstance("SHA-1")
+    val header = Seq(
+      formatHeader,
+      Constants.version,
+      file.getClass.getName,
+      stamp.allowRestrictedFeatures.toString,
+      stamp.suppressWarningOptions.toString
+    ) ++ extra
+    md.update(header.mkString("", "\n", "\n").getBytes(StandardCharsets.UTF_8))
+    update(md)
+    String.format("%040x", new BigInteger(1, md.digest()))
+  }
+
+  private def persistentContentKey(file: SingleFile, content: Array[Byte], stamp: Stamp): String =
+    persistentKey(file, stamp, Seq(file.path.last))(_.update(content))
+
+  private def persistentStampKey(file: SingleFile, stamp: Stamp): String =
+    persistentKey(
+      file,
+      stamp,
+      Seq(file.path.toString, stamp.size.toString, stamp.mtimeNanos.toString)
+    )(_ => ())
+
+  private def readPersisted(file: os.Path): Seq[Record] =
+    try
+      if (os.isFile(file)) {
+        val lines = os.read.lines(file)
+        if (lines.headOption.contains(formatHeader))
+          lines.iterator.drop(1).flatMap { line =>
+            line.split(' ') match {
+              case Array(key, id, stampKey) =>
+                Persisted.values.find(_.id == id).map(Record(key, stampKey, _))
+              case _ => None
+            }
+          }.toVector
+        else Nil
+      }
+      else Nil
+    catch {
+      case _: IOException => Nil
+    }
+
+  private def writePersisted(file: os.Path, records: Seq[Record]): Unit = {
+    val content = (Iterator(formatHeader) ++ records.iterator.map { record =>
+      s"${record.contentKey} ${record.value.id} ${record.stampKey}"
+    }).mkString("", System.lineSeparator(), System.lineSeparator())
+    // written to a temporary file first, so that concurrent builds never read a partial file
+    val tmp = file / os.up / s".${file.last}-${ProcessHandle.current().pid()}.tmp"
+    os.write.over(tmp, content, createFolders = true)
+    os.move(tmp, file, replaceExisting = true, atomicMove = true)
+  }
+
+  private final case class Stamp(
+    size: Long,
+    mtimeNanos: Long,
+    allowRestrictedFeatures: Boolean,
+    suppressWarningOptions: SuppressWarningOptions
+  )
+
+  private object Stamp {
+    def apply(
+      path: os.Path,
+      allowRestrictedFeatures: Boolean,
+      suppressWarningOptions: SuppressWarningOptions
+    ): Stamp = {
+      val stat = os.stat(path)
+      Stamp(
+        stat.size,
+        stat.mtime.to(TimeUnit.NANOSECONDS),
+        allowRestrictedFeatures,
+        suppressWarningOptions
+      )
+    }
+  }
+
+  private final case class Entry(
+    stamp: Stamp,
+    result: Option[Either[BuildException, Seq[PreprocessedSource]]],
+    persistedOpt: Option[Record]
+  )
+
+  /** Forwards everything to `parent`, keeping track of whether anything was reported to users */
+  private final class ReportingLogger(parent: Logger) extends Logger {
+    @volatile var reported = false
+
+    def error(message: String): Unit = {
+      reported = true
+      parent.error(message)
+    }
+    def message(message: => String): Unit = {
+      reported = true
+      parent.message(message)
+    }
+    def log(s: => String): Unit                   = parent.log(s)
+    def log(s: => String, debug: => String): Unit = parent.log(s, debug)
+    def debug(s: => String): Unit                 = parent.debug(s)
+
+    def log(diagnostics: Seq[Diagnostic]): Unit = {
+      if (diagnostics.nonEmpty) reported = true
+      parent.log(diagnostics)
+    }
+
+    def log(ex: BuildException): Unit = {
+      reported = true
+      parent.log(ex)
+    }
+    def debug(ex: BuildException): Unit   = parent.debug(ex)
+    def exit(ex: BuildException): Nothing = parent.exit(ex)
+
+    def coursierLogger(printBefore: String): coursier.cache.CacheLogger =
+      parent.coursierLogger(printBefore)
+    def bloopRifleLogger: BloopRifleLogger                = parent.bloopRifleLogger
+    def scalaJsLogger: ScalaJsLogger                      = parent.scalaJsLogger
+    def scalaNativeTestLogger: sn.Logger                  = parent.scalaNativeTestLogger
+    def scalaNativeCliInternalLoggerOptions: List[String] =
+      parent.scalaNativeCliInternalLoggerOptions
+
+    def compilerOutputStream: PrintStream = parent.compilerOutputStream
+
+    def verbosity: Int = parent.verbosity
+
+    def experimentalWarning(featureName: String, featureType: FeatureType): Unit = {
+      reported = true
+      parent.experimentalWarning(featureName, featureType)
+    }
+    def flushExperimentalWarnings: Unit = parent.flushExperimentalWarnings
+
+    def deprecationWarning(featureName: String, message: String, featureType: FeatureType): Unit = {
+      reported = true
+      parent.deprecationWarning(featureName, message, featureType)
+    }
+    def flushDeprecationWarnings: Unit = parent.flushDeprecationWarnings
+  }
+}
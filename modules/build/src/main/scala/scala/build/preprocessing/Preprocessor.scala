@@ -6,6 +6,13 @@ import scala.build.input.{ScalaCliInvokeData, SingleElement}
 import scala.build.options.SuppressWarningOptions
 
 trait Preprocessor {
+
+  /** Called with the elements about to be preprocessed, before [[preprocess]] is called on each of
+    * them, possibly concurrently, so that work needed by several of them can be done at once
+    */
+  def prepare(elements: Seq[SingleElement], logger: Logger): Either[BuildException, Unit] =
+    Right(())
+
   def preprocess(
     input: SingleElement,
     logger: Logger,
@@ -0,0 +1,79 @@
+package scala.build.tests
+
+import ch.epfl.scala.bsp4j as b
+import com.eed3si9n.expecty.Expecty.expect
+
+import java.util.concurrent.TimeUnit
+
+import scala.build.bsp.{BspMetrics, BspServer, PerformanceMetricsParams}
+import scala.jdk.CollectionConverters.*
+
+class BspMetricsTests extends TestUtil.ScalaCliBuildSuite {
+
+  private val mainTarget = "file:///workspace/.scala-build/?id=main"
+  private val testTarget = "file:///workspace/.scala-build/?id=test"
+
+  private def millis(value: Long): Long = TimeUnit.MILLISECONDS.toNanos(value)
+
+  test("latencies are recorded per phase and target, in histograms") {
+    val metrics = new BspMetrics
+    metrics.record(BspMetrics.Phase.PrepareBuild, BspMetrics.allTargets, millis(3))
+    metrics.record(BspMetrics.Phase.Compile, mainTarget, millis(1))
+    metrics.record(BspMetrics.Phase.Compile, mainTarget, millis(40))
+    metrics.record(BspMetrics.Phase.Compile, mainTarget, millis(120000))
+    metrics.record(BspMetrics.Phase.Compile, testTarget, millis(7))
+
+    val latencies = metrics.result(Nil).getLatencies.asScala.toSeq
+    expect(latencies.map(h => (h.getPhase, Option(h.getTarget).map(_.getUri))) == Seq(
+      ("prepareBuild", None),
+      ("compile", Some(mainTarget)),
+      ("compile", Some(testTarget))
+    ))
+
+    val mainCompile = latencies(1)
+    expect(mainCompile.getCount == 3L)
+    expect(mainCompile.getMaxMillis == 120000.0)
+    expect(mainCompile.getTotalMillis == 120041.0)
+    val bounds = mainCompile.getBucketUpperBoundsMillis.asScala.map(_.toLong)
+    val counts = mainCompile.getBucketCounts.asScala.map(_.toLong)
+    expect(counts.length == bounds.length + 1)
+    expect(counts(bounds.indexOf(1L)) == 1L)
+    expect(counts(bounds.indexOf(50L)) == 1L)
+    expect(counts.last == 1L)
+    expect(counts.sum == 3L)
+
+    // phases processing all the targets are always returned
+    val filtered = metrics.result(Seq(new b.BuildTargetIdentifier(testTarget))).getLatencies
+    expect(filtered.asScala.map(h => Option(h.getTarget).map(_.getUri)) == Seq(
+      None,
+      Some(testTarget)
+    ))
+  }
+
+  test("counters, gauges and queue depths") {
+    val metrics = new BspMetrics
+    metrics.increment(BspMetrics.Counter.Reloads)
+    metrics.increment(BspMetrics.Counter.Reloads)
+    metrics.registerGauge("cacheHits", () => 1L)
+    metrics.registerGauge("cacheHits", () => 3L)
+    metrics.registerQueue("prepareBuild", () => 2)
+
+    val res = metrics.result(Nil)
+    expect(res.getCounters.get("reloads") == 2L)
+    expect(res.getCounters.get("bloopProjectsWritten") == 0L)
+    expect(res.getCounters.get("cacheHits") == 3L)
+    expect(res.getQueueDepths.size == 1)
+    expect(res.getQueueDepths.get("prepareBuild") == 2)
+  }
+
+  test("buildTarget/performanceMetrics returns the metrics of the server") {
+    val metrics   = new BspMetrics
+    val bspServer = new BspServer(null, null, null, metrics = metrics)
+    metrics.record(BspMetrics.Phase.PostProcess, mainTarget, millis(2))
+    val res = bspServer
+      .buildTargetPerformanceMetrics(new PerformanceMetricsParams(Seq.empty.asJava))
+      .get(10, TimeUnit.SECONDS)
+    expect(res.getLatencies.asScala.map(_.getPhase) == Seq("postProcess"))
+    expect(res.getCounters.get("wrappedSourcesCacheHits") == 0L)
+  }
+}
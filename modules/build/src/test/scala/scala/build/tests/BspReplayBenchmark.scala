@@ -0,0 +1,196 @@
+package scala.build.tests
+
+import com.google.gson.{JsonNull, JsonObject, JsonParser, JsonPrimitive}
+
+import java.io.{BufferedInputStream, ByteArrayOutputStream, InputStream, OutputStream}
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.{CompletableFuture, ConcurrentHashMap, TimeUnit}
+
+import scala.collection.mutable
+
+/** Replays a BSP session recorded with `scala-cli bsp --record-session` against a fresh BSP server
+  * running on a local workspace, and reports the latency percentiles of each kind of request, along
+  * with the ones of the recorded session.
+  *
+  * Client messages are sent in the order they were recorded, each request waiting for the response
+  * to the previous one, so that replays of a session are comparable. The workspace URI of the
+  * recorded session is replaced by the one of the local workspace in all messages. Requests from
+  * the server (like `window/showMessageRequest`) are answered with a `null` result.
+  *
+  * Run with
+  * {{{
+  * ./mill -i 'build.test.runMain' scala.build.tests.BspReplayBenchmark session.jsonl workspace [-- server command…]
+  * }}}
+  * where the server command defaults to `scala-cli bsp <workspace>`.
+  */
+object BspReplayBenchmark {
+
+  private final case class Recorded(timeMicros: Long, direction: String, message: JsonObject) {
+    def method: Option[String] = Option(message.get("method")).map(_.getAsString)
+    def id: Option[String]     = Option(message.get("id")).filter(!_.isJsonNull).map(_.toString)
+    def isRequest: Boolean     = method.nonEmpty && id.nonEmpty
+  }
+
+  private def readRecording(file: os.Path): Seq[Recorded] =
+    os.read.lines(file).filter(_.trim.nonEmpty).map { line =>
+      val obj = JsonParser.parseString(line).getAsJsonObject
+      Recorded(
+        obj.get("timeMicros").getAsLong,
+        obj.get("direction").getAsString,
+        obj.get("message").getAsJsonObject
+      )
+    }
+
+  /** Latencies of the requests of the recorded session, from the request to its response */
+  private def recordedLatencies(messages: Seq[Recorded]): Seq[(String, Long)] = {
+    val requests = messages
+      .filter(m => m.direction == "in" && m.isRequest)
+      .map(m => m.id.get -> m)
+      .toMap
+    messages.filter(m => m.direction == "out" && m.method.isEmpty).flatMap { response =>
+      for {
+        id      <- response.id
+        request <- requests.get(id)
+      } yield request.method.get -> (response.timeMicros - request.timeMicros)
+    }
+  }
+
+  private def workspaceUri(messages: Seq[Recorded]): Option[String] =
+    messages
+      .find(_.method.contains("build/initialize"))
+      .flatMap(m => Option(m.message.getAsJsonObject("params")))
+      .flatMap(params => Option(params.get("rootUri")))
+      .map(_.getAsString.stripSuffix("/"))
+
+  private def writeMessage(out: OutputStream, json: String): Unit = {
+    val content = json.getBytes(StandardCharsets.UTF_8)
+    out.write(s"Content-Length: ${content.length}\r\n\r\n".getBytes(StandardCharsets.US_ASCII))
+    out.write(content)
+    out.flush()
+  }
+
+  private def readMessage(in: InputStream): Option[String] = {
+    def readLine(): Option[String] = {
+      val b = new ByteArrayOutputStream
+      var c = in.read()
+      while (c >= 0 && c != '\n') {
+        if (c != '\r') b.write(c)
+        c = in.read()
+      }
+      if (c < 0 && b.size() == 0) None
+      else Some(new String(b.toByteArray, StandardCharsets.US_ASCII))
+    }
+    var contentLength = -1
+    var line          = readLine()
+    while (line.exists(_.nonEmpty)) {
+      for (l <- line if l.toLowerCase.startsWith("content-length:"))
+        contentLength = l.drop("content-length:".length).trim.toInt
+      line = readLine()
+    }
+    if (line.isEmpty || contentLength < 0) None
+    else Some(new String(in.readNBytes(contentLength), StandardCharsets.UTF_8))
+  }
+
+  private def percentile(sorted: IndexedSeq[Long], p: Int): Long =
+    sorted(math.min(sorted.length - 1, math.ceil(sorted.length * p / 100.0).toInt - 1).max(0))
+
+  private def report(title: String, latenciesMicros: Seq[(String, Long)]): Unit = {
+    def ms(micros: Long) = f"${micros / 1000.0}%.1f"
+    println(title)
+    println(f"  ${"method"}%-40s ${"count"}%6s ${"p50"}%9s ${"p90"}%9s ${"p99"}%9s ${"max"}%9s")
+    for ((method, values) <- latenciesMicros.groupBy(_._1).toSeq.sortBy(_._1)) {
+      val sorted = values.map(_._2).sorted.toIndexedSeq
+      println(
+        f"  $method%-40s ${sorted.length}%6d ${ms(percentile(sorted, 50))}%9s " +
+          f"${ms(percentile(sorted, 90))}%9s ${ms(percentile(sorted, 99))}%9s " +
+          f"${ms(sorted.last)}%9s"
+      )
+    }
+  }
+
+  def main(args: Array[String]): Unit = {
+    val (mainArgs, serverArgs) = args.span(_ != "--")
+    if (mainArgs.length != 2) {
+      System.err.println("Usage: BspReplayBenchmark session.jsonl workspace [-- server command…]")
+      sys.exit(1)
+    }
+    val recording = os.Path(mainArgs(0), os.pwd)
+    val workspace = os.Path(mainArgs(1), os.pwd)
+    val command   =
+      if (serverArgs.length > 1) serverArgs.toSeq.drop(1)
+      else Seq("scala-cli", "bsp", workspace.toString)
+
+    val messages  = readRecording(recording)
+    val localUri  = workspace.toNIO.toUri.toASCIIString.stripSuffix("/")
+    val toReplace = workspaceUri(messages).filter(_ != localUri)
+    def localize(message: JsonObject): String = {
+      val json = message.toString
+      toReplace.fold(json)(json.replace(_, localUri))
+    }
+
+    val proc    = os.proc(command).spawn(cwd = workspace, stderr = os.Inherit)
+    val out     = proc.stdin
+    val pending = new ConcurrentHashMap[String, CompletableFuture[Unit]]
+
+    val reader = new Thread("bsp-replay-reader") {
+      setDaemon(true)
+      override def run(): Unit = {
+        val in      = new BufferedInputStream(proc.stdout.wrapped)
+        var message = readMessage(in)
+        while (message.nonEmpty) {
+          val obj = JsonParser.parseString(message.get).getAsJsonObject
+          val id  = Option(obj.get("id")).filter(!_.isJsonNull)
+          (Option(obj.get("method")), id) match {
+            case (None, Some(id)) =>
+              Option(pending.remove(id.toString)).foreach(_.complete(()))
+            case (Some(_), Some(id)) =>
+              val response = new JsonObject
+              response.add("jsonrpc", new JsonPrimitive("2.0"))
+              response.add("id", id)
+              response.add("result", JsonNull.INSTANCE)
+              out.synchronized(writeMessage(out, response.toString))
+            case _ => // notification, like diagnostics or logs
+          }
+          message = readMessage(in)
+        }
+        pending.values.forEach(_.completeExceptionally(new Exception("BSP server exited")))
+      }
+    }
+    reader.start()
+
+    val latencies = mutable.Buffer.empty[(String, Long)]
+    def send(recorded: Recorded): Unit =
+      if (recorded.isRequest) {
+        val response = new CompletableFuture[Unit]
+        pending.put(recorded.id.get, response)
+        val start = System.nanoTime()
+        out.synchronized(writeMessage(out, localize(recorded.message)))
+        response.get(10L, TimeUnit.MINUTES)
+        latencies += recorded.method.get -> (System.nanoTime() - start) / 1000L
+      }
+      else
+        out.synchronized(writeMessage(out, localize(recorded.message)))
+
+    val clientMessages = messages.filter(_.direction == "in")
+    // responses to requests of the recorded server aren't replayed, the reader answers them
+    for (recorded <- clientMessages if recorded.method.nonEmpty)
+      send(recorded)
+    if (!clientMessages.exists(_.method.contains("build/shutdown")))
+      send(Recorded(0L, "in", shutdownRequest))
+    if (!clientMessages.exists(_.method.contains("build/exit")))
+      out.synchronized(writeMessage(out, """{"jsonrpc":"2.0","method":"build/exit"}"""))
+    proc.waitFor(TimeUnit.SECONDS.toMillis(30L))
+    if (proc.isAlive()) proc.destroy()
+
+    report(s"Replay of $recording (ms)", latencies.toSeq)
+    report("Recorded session (ms)", recordedLatencies(messages))
+  }
+
+  private def shutdownRequest: JsonObject = {
+    val obj = new JsonObject
+    obj.add("jsonrpc", new JsonPrimitive("2.0"))
+    obj.add("id", new JsonPrimitive("replay-shutdown"))
+    obj.add("method", new JsonPrimitive("build/shutdown"))
+    obj
+  }
+}
@@ -9,10 +9,12 @@ import scala.build.bsp.{
   BspServer,
   ScalaScriptBuildServer,
   WrappedSourceItem,
+  WrappedSourcesDeltaParams,
   WrappedSourcesItem,
   WrappedSourcesParams,
   WrappedSourcesResult
 }
+import scala.build.internal.WrapperParams
 import scala.build.options.{BuildOptions, InternalOptions, Scope}
 import scala.build.{Build, BuildThreads, Directories, GeneratedSource, LocalRepo}
 import scala.collection.mutable.ArrayBuffer
@@ -81,4 +83,62 @@ class BspServerTests extends TestUtil.ScalaCliBuildSuite {
 
     }
   }
+
+  test("wrapped sources delta only has the items that changed since a version") {
+    TestInputs.withTmpDir("bsp-wrapped-sources") { root =>
+      def generatedSource(name: String, content: String): GeneratedSource = {
+        val generated = root / ".scala-build" / s"$name.scala"
+        os.write.over(generated, content, createFolders = true)
+        GeneratedSource(generated, Right(root / s"$name.sc"), Some(WrapperParams(1, 1, name)))
+      }
+      def uri(name: String) = (root / s"$name.sc").toNIO.toUri.toASCIIString
+      def uris(items: java.util.List[WrappedSourcesItem]) =
+        items.asScala.toSeq.flatMap(_.getSources.asScala).map(_.getUri)
+
+      val bspServer = new BspServer(null, null, null)
+      bspServer.setProjectName(root, "test", Scope.Main)
+      bspServer.setGeneratedSources(
+        Scope.Main,
+        Seq(generatedSource("a", "object a {\nval a = 1\n}"), generatedSource("b", "object b {}"))
+      )
+      def full() = bspServer
+        .buildTargetWrappedSources(new WrappedSourcesParams(ArrayBuffer.empty.asJava))
+        .get(10, TimeUnit.SECONDS)
+      def delta(sinceVersion: String) = bspServer
+        .buildTargetWrappedSourcesDelta(
+          new WrappedSourcesDeltaParams(ArrayBuffer.empty.asJava, sinceVersion)
+        )
+        .get(10, TimeUnit.SECONDS)
+
+      val first = full()
+      expect(uris(first.getItems) == Seq(uri("a"), uri("b")))
+
+      // written again by a new build, with the same content
+      generatedSource("a", "object a {\nval a = 1\n}")
+      expect(full().getVersion == first.getVersion)
+      val unchanged = delta(first.getVersion)
+      expect(!unchanged.isFull)
+      expect(unchanged.getItems.isEmpty)
+      expect(unchanged.getRemoved.isEmpty)
+
+      bspServer.setGeneratedSources(
+        Scope.Main,
+        Seq(generatedSource("a", "object a0 {\nval a = 2\n}"))
+      )
+      val changed = delta(first.getVersion)
+      expect(changed.getVersion != first.getVersion)
+      expect(!changed.isFull)
+      expect(uris(changed.getItems) == Seq(uri("a")))
+      expect(
+        changed.getItems.get(0).getSources.get(0).getTopWrapper ==
+          "object a0 {" + System.lineSeparator()
+      )
+      expect(uris(changed.getRemoved) == Seq(uri("b")))
+      expect(full().getVersion == changed.getVersion)
+
+      val unknown = delta("unknown")
+      expect(unknown.isFull)
+      expect(uris(unknown.getItems) == Seq(uri("a")))
+    }
+  }
 }
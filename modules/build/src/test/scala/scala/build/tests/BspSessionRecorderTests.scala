@@ -0,0 +1,33 @@
+package scala.build.tests
+
+import com.eed3si9n.expecty.Expecty.expect
+import com.google.gson.JsonParser
+import org.eclipse.lsp4j.jsonrpc.messages.{Message, NotificationMessage}
+
+import scala.build.bsp.BspSessionRecorder
+import scala.collection.mutable
+
+class BspSessionRecorderTests extends TestUtil.ScalaCliBuildSuite {
+
+  test("messages are recorded as JSON lines, and passed along") {
+    TestInputs.withTmpDir("scala-cli-bsp-session-recorder-") { root =>
+      val file     = root / "session.jsonl"
+      val recorder = new BspSessionRecorder(file, TestLogger())
+      val consumed = mutable.Buffer.empty[Message]
+      val consumer = recorder.wrap(message => consumed += message)
+
+      val message = new NotificationMessage
+      message.setMethod("build/initialized")
+      consumer.consume(message)
+      recorder.close()
+
+      expect(consumed.toSeq == Seq(message))
+      val lines = os.read.lines(file)
+      expect(lines.length == 1)
+      val line = JsonParser.parseString(lines.head).getAsJsonObject
+      expect(line.get("direction").getAsString == "in")
+      expect(line.get("timeMicros").getAsLong >= 0L)
+      expect(line.getAsJsonObject("message").get("method").getAsString == "build/initialized")
+    }
+  }
+}
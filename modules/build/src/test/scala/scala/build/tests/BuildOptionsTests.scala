@@ -6,6 +6,7 @@ import coursier.cache.FileCache
 import coursier.maven.MavenRepository
 import coursier.version.Version
 import dependency.ScalaParameters
+import dependency.parser.DependencyParser
 
 import scala.build.Ops.*
 import scala.build.errors.{
@@ -18,7 +19,16 @@ import scala.build.internal.Constants.*
 import scala.build.internal.Regexes.{scala2NightlyRegex, scala3LtsRegex}
 import scala.build.options.*
 import scala.build.tests.util.BloopServer
-import scala.build.{Build, BuildThreads, Directories, LocalRepo, Positioned, RepositoryUtils}
+import scala.build.{
+  Artifacts,
+  ArtifactsCache,
+  Build,
+  BuildThreads,
+  Directories,
+  LocalRepo,
+  Positioned,
+  RepositoryUtils
+}
 import scala.concurrent.duration.DurationInt
 
 class BuildOptionsTests extends TestUtil.ScalaCliBuildSuite {
@@ -475,4 +485,81 @@ class BuildOptionsTests extends TestUtil.ScalaCliBuildSuite {
     }
   }
 
+  test("artifacts cache key only changes with resolution inputs") {
+    val options = baseOptions.copy(
+      scalaOptions = ScalaOptions(scalaVersion = Some(MaybeScalaVersion("3.3.3")))
+    )
+    val withScalacOption = options.copy(
+      scalaOptions = options.scalaOptions.copy(
+        scalacOptions = ShadowingSeq.from(Seq(Positioned.none(ScalacOpt("-deprecation"))))
+      ),
+      mainClass = Some("Main")
+    )
+    val osLib          = DependencyParser.parse("com.lihaoyi::os-lib:0.11.3").toOption.get
+    val withDependency = options.copy(
+      classPathOptions = options.classPathOptions.copy(
+        extraDependencies = ShadowingSeq.from(Seq(Positioned.none(osLib)))
+      )
+    )
+    val withScalaVersion = options.copy(
+      scalaOptions = options.scalaOptions.copy(scalaVersion = Some(MaybeScalaVersion("3.3.4")))
+    )
+    val key = ArtifactsCache.Key(options)
+    expect(ArtifactsCache.Key(withScalacOption) == key)
+    expect(ArtifactsCache.Key(withDependency) != key)
+    expect(ArtifactsCache.Key(withScalaVersion) != key)
+  }
+
+  test("artifacts cache resolves changing modules and cleared artifacts again") {
+    val emptyArtifacts = Artifacts(
+      javacPluginDependencies = Nil,
+      extraJavacPlugins = Nil,
+      defaultDependencies = Nil,
+      extraDependencies = Nil,
+      userCompileOnlyDependencies = Nil,
+      internalDependencies = Nil,
+      detailedArtifacts = Nil,
+      detailedRuntimeArtifacts = Nil,
+      extraClassPath = Nil,
+      extraCompileOnlyJars = Nil,
+      extraRuntimeClassPath = Nil,
+      extraSourceJars = Nil,
+      scalaOpt = None,
+      hasJvmRunner = false,
+      hasJavaTestRunner = false,
+      resolution = None
+    )
+    def withDependency(dep: String) = baseOptions.copy(
+      classPathOptions = baseOptions.classPathOptions.copy(
+        extraDependencies =
+          ShadowingSeq.from(Seq(Positioned.none(DependencyParser.parse(dep).toOption.get)))
+      )
+    )
+    def fetchCount(cache: ArtifactsCache, options: BuildOptions, times: Int): Int = {
+      var count = 0
+      for (_ <- 1 to times)
+        cache.getOrFetch(options, Scope.Main, Some(_)) { _ =>
+          count += 1
+          Right(emptyArtifacts)
+        }
+      count
+    }
+
+    val cache = new ArtifactsCache
+    expect(fetchCount(cache, withDependency("com.lihaoyi::os-lib:0.11.3"), 3) == 1)
+    for (
+      dep <- Seq(
+        "com.lihaoyi::os-lib:0.11.4-SNAPSHOT",
+        "com.lihaoyi::os-lib:latest.release",
+        "com.lihaoyi::os-lib:0.11.+"
+      )
+    )
+      expect(fetchCount(cache, withDependency(dep), 3) == 3)
+
+    val options = withDependency("com.lihaoyi::os-lib:0.11.3")
+    expect(fetchCount(cache, options, 1) == 1)
+    expect(fetchCount(cache, options, 1) == 0)
+    cache.clear()
+    expect(fetchCount(cache, options, 1) == 1)
+  }
 }
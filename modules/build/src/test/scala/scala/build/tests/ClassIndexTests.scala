@@ -0,0 +1,59 @@
+package scala.build.tests
+
+import com.eed3si9n.expecty.Expecty.expect
+import org.objectweb.asm.Opcodes
+
+import scala.build.internal.{ClassIndex, MainClass}
+
+class ClassIndexTests extends TestUtil.ScalaCliBuildSuite {
+
+  private def classBytes(name: String, mains: Seq[(Int, String)]): Array[Byte] =
+    TestUtil.classBytes(
+      name,
+      methods = mains.map { case (access, descriptor) =>
+        TestUtil.GeneratedMethod("main", access, descriptor)
+      },
+      constructor = true
+    )
+
+  private val staticMain   = (Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "([Ljava/lang/String;)V")
+  private val instanceMain = (Opcodes.ACC_PUBLIC, "()V")
+
+  test("main classes of the class index are the ones MainClass.find finds") {
+    TestInputs.withTmpDir("scala-cli-tests-class-index-") { root =>
+      val output = root / "project" / "classes" / "main"
+      os.write(output / "Static.class", classBytes("Static", Seq(staticMain)), createFolders = true)
+      os.write(
+        output / "pkg" / "Instance.class",
+        classBytes("pkg/Instance", Seq(instanceMain)),
+        createFolders = true
+      )
+      os.write(output / "NoMain.class", classBytes("NoMain", Nil))
+
+      val index = ClassIndex.update(output, TestLogger())
+      val found = MainClass.find(output, TestLogger()).sortBy(_.className)
+      expect(index.mainClasses.map(_.className) == Seq("Static", "pkg.Instance"))
+      expect(index.mainClasses.sortBy(_.className) == found)
+      expect(os.isFile(root / "project" / "class-index" / "main"))
+    }
+  }
+
+  test("only new or changed class files are indexed again") {
+    TestInputs.withTmpDir("scala-cli-tests-class-index-") { root =>
+      val output = root / "project" / "classes" / "main"
+      for (idx <- 0 until 10)
+        os.write(output / s"C$idx.class", classBytes(s"C$idx", Nil), createFolders = true)
+      ClassIndex.update(output, TestLogger())
+
+      os.write.over(output / "C3.class", classBytes("C3", Seq(staticMain)))
+      os.remove(output / "C7.class")
+      val logger = RecordingLogger()
+      val index  = ClassIndex.update(output, logger)
+      expect(logger.debugMessages.exists(_.startsWith("Indexed 1 of 9 class files")))
+      expect(index.classes.keySet == (0 until 10).filter(_ != 7).map(idx => s"C$idx").toSet)
+      expect(index.mainClasses == Seq(
+        MainClass.MainClassCandidate("C3", MainClass.MainMethodKind.StaticWithArgs)
+      ))
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package scala.build.tests
+
+import ch.epfl.scala.bsp4j as b
+import com.eed3si9n.expecty.Expecty.expect
+
+import java.util.concurrent.{CompletableFuture, TimeUnit}
+
+import scala.build.bsp.CompileScheduler
+import scala.collection.mutable
+import scala.jdk.CollectionConverters.*
+
+class CompileSchedulerTests extends TestUtil.ScalaCliBuildSuite {
+
+  private val mainTarget = new b.BuildTargetIdentifier("file:///workspace/.scala-build/?id=main")
+  private val testTarget = new b.BuildTargetIdentifier("file:///workspace/.scala-build/?id=test")
+
+  /** A scheduler whose pre-builds and compilations only complete when the test says so */
+  private final class Fixture {
+    val preBuilds    = mutable.Buffer.empty[CompletableFuture[String]]
+    val compilations = mutable.Buffer.empty[(b.CompileParams, CompletableFuture[b.CompileResult])]
+
+    val scheduler = new CompileScheduler[String](
+      () => {
+        val preBuild = new CompletableFuture[String]
+        preBuilds.synchronized(preBuilds += preBuild)
+        preBuild
+      },
+      (_, doCompile) => doCompile(),
+      TestLogger()
+    )
+
+    def compile(targets: b.BuildTargetIdentifier*): CompletableFuture[b.CompileResult] =
+      scheduler.submit(
+        new b.CompileParams(targets.asJava),
+        params => {
+          val compilation = new CompletableFuture[b.CompileResult]
+          compilations.synchronized(compilations += ((params, compilation)))
+          compilation
+        }
+      )
+  }
+
+  private def ok() = new b.CompileResult(b.StatusCode.OK)
+
+  test("burst of saves") {
+    val fixture = new Fixture
+    import fixture.*
+
+    // one compile request per save, each one making the pre-build of the previous one stale
+    val results = (1 to 5).map(_ => compile(mainTarget))
+    expect(preBuilds.length == 5)
+    expect(preBuilds.init.forall(_.isCancelled))
+    expect(compilations.isEmpty)
+
+    preBuilds.last.complete("inputs")
+    expect(compilations.length == 1)
+    val (params, compilation) = compilations.head
+    expect(params.getTargets.asScala.toSeq == Seq(mainTarget))
+    val res = ok()
+    compilation.complete(res)
+    for (result <- results)
+      expect(result.get(10, TimeUnit.SECONDS) eq res)
+
+    expect(
+      scheduler.metrics == CompileScheduler.Metrics(
+        requests = 5,
+        coalesced = 4,
+        cancelledPreBuilds = 4,
+        preBuilds = 5,
+        compilations = 1
+      )
+    )
+  }
+
+  test("requests arriving during a compilation wait for it, and are coalesced") {
+    val fixture = new Fixture
+    import fixture.*
+
+    val first = compile(mainTarget)
+    preBuilds.head.complete("first inputs")
+    expect(compilations.length == 1)
+
+    // compilations aren't cancelled
+    val second = compile(mainTarget)
+    val third  = compile(mainTarget, testTarget)
+    val fourth = compile(testTarget)
+    expect(preBuilds.length == 1)
+    expect(!first.isDone)
+
+    compilations.head._2.complete(ok())
+    expect(first.get(10, TimeUnit.SECONDS).getStatusCode == b.StatusCode.OK)
+    expect(preBuilds.length == 2)
+    preBuilds.last.complete("second inputs")
+    expect(compilations.length == 2)
+    val (params, compilation) = compilations.last
+    expect(params.getTargets.asScala.toSeq == Seq(mainTarget, testTarget))
+    val res = ok()
+    compilation.complete(res)
+    for (result <- Seq(second, third, fourth))
+      expect(result.get(10, TimeUnit.SECONDS) eq res)
+
+    expect(scheduler.metrics.coalesced == 2)
+    expect(scheduler.metrics.cancelledPreBuilds == 0)
+  }
+
+  test("waiting requests for distinct targets are compiled separately") {
+    val fixture = new Fixture
+    import fixture.*
+
+    val first = compile(mainTarget)
+    preBuilds.head.complete("first inputs")
+    compilations.head._2.complete(ok())
+    expect(first.isDone)
+
+    val mainResult = compile(mainTarget)
+    val testResult = compile(testTarget)
+    expect(preBuilds.length == 3)
+    expect(preBuilds(1).isCancelled)
+    preBuilds.last.complete("second inputs")
+    expect(compilations.length == 3)
+    val compiledTargets = compilations.drop(1).map(_._1.getTargets.asScala.toSeq).toSet
+    expect(compiledTargets == Set(Seq(mainTarget), Seq(testTarget)))
+    for ((_, compilation) <- compilations.drop(1))
+      compilation.complete(ok())
+    expect(mainResult.isDone)
+    expect(testResult.isDone)
+    expect(scheduler.metrics.coalesced == 0)
+  }
+
+  test("failed pre-builds fail all the waiting requests") {
+    val fixture = new Fixture
+    import fixture.*
+
+    val results = Seq(compile(mainTarget), compile(testTarget))
+    preBuilds.last.completeExceptionally(new Exception("nope"))
+    for (result <- results)
+      expect(result.isCompletedExceptionally)
+    expect(compilations.isEmpty)
+
+    // and the next request starts a new pre-build
+    compile(mainTarget)
+    expect(preBuilds.length == 3)
+  }
+}
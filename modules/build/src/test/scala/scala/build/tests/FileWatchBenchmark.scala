@@ -0,0 +1,98 @@
+package scala.build.tests
+
+import com.swoval.files.PathWatchers
+
+import java.util.concurrent.{Executors, LinkedBlockingQueue, TimeUnit}
+
+import scala.build.Logger
+import scala.build.internal.FileWatchService
+import scala.build.internal.FileWatchService.Registration
+
+/** Tracks how long watching a workspace takes to set up, and how long a change takes to be
+  * notified, against the number of files of the workspace.
+  *
+  * Each workspace has one source directory per module, with a hidden `.scala-build` directory of
+  * class files in each of them, like a monorepo with many modules. This compares one recursive
+  * watcher per module, like `Build.watch` used to create, with [[FileWatchService]], and then
+  * times how long an edited source takes to reach the `onChange` of the latter.
+  *
+  * Run with
+  * {{{
+  * ./mill -i 'build.test.runMain' scala.build.tests.FileWatchBenchmark [sizes]
+  * }}}
+  * where `sizes` is a comma-separated list of file counts, like `5000,50000`.
+  */
+object FileWatchBenchmark {
+
+  private def time[T](f: => T): (T, Long) = {
+    val start = System.nanoTime()
+    val res   = f
+    (res, (System.nanoTime() - start) / 1000000L)
+  }
+
+  private val modules = 100
+
+  private def isSource(p: os.Path, kind: PathWatchers.Event.Kind): Boolean =
+    p.last.endsWith(".scala")
+
+  def main(args: Array[String]): Unit = {
+    val sizes      = args.lift(0).fold(Seq(5000, 50000))(_.split(',').toSeq.map(_.toInt))
+    val iterations = 3
+
+    TestInputs.withTmpDir("scala-cli-file-watch-benchmark-") { root =>
+      for (size <- sizes) {
+        val workspace = root / s"workspace-$size"
+        // half of the files are sources, the other half build outputs
+        for (idx <- 0 until size / 2) {
+          val module = workspace / s"module${idx % modules}"
+          val pkg    = s"pkg${(idx / modules) % 10}"
+          os.write(module / "src" / pkg / s"Foo$idx.scala", "", createFolders = true)
+          os.write(
+            module / ".scala-build" / "classes" / pkg / s"Foo$idx.class",
+            "",
+            createFolders = true
+          )
+        }
+        val moduleDirs    = (0 until modules).map(idx => workspace / s"module$idx")
+        val registrations =
+          Registration(workspace, recursive = true, pruneHidden = true, accept = isSource) +:
+            moduleDirs.map(Registration(_, recursive = true, pruneHidden = true, accept = isSource))
+
+        for (iteration <- 1 to iterations) {
+          val (watchers, perModuleMs) = time {
+            (workspace +: moduleDirs).map { dir =>
+              val w = PathWatchers.get(true)
+              w.register(dir.toNIO, Int.MaxValue)
+              w
+            }
+          }
+          watchers.foreach(_.close())
+
+          val scheduler = Executors.newSingleThreadScheduledExecutor()
+          val changes   = new LinkedBlockingQueue[Set[os.Path]]
+          val service   = new FileWatchService(scheduler, changes.put, Logger.nop)
+          try {
+            val (_, serviceMs) = time(service.register(registrations))
+            val edited         = moduleDirs(iteration % modules) / "src" / "pkg0" / "Edited.scala"
+
+            val (changed, latencyMs) = time {
+              os.write.over(edited, s"// $iteration")
+              changes.poll(30L, TimeUnit.SECONDS)
+            }
+            println(
+              s"#$iteration: $size files: one watcher per module: $perModuleMs ms, " +
+                s"file watch service: $serviceMs ms " +
+                s"(${service.watchedDirectories.size} directories), " +
+                s"change notified in $latencyMs ms${if changed == null then " (timed out)" else ""}"
+            )
+          }
+          finally {
+            service.close()
+            scheduler.shutdown()
+          }
+        }
+        os.remove.all(workspace)
+      }
+    }
+  }
+}
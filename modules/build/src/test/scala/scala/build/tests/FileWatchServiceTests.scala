@@ -0,0 +1,90 @@
+package scala.build.tests
+
+import com.eed3si9n.expecty.Expecty.expect
+import com.swoval.files.PathWatchers
+
+import java.util.concurrent.{Executors, LinkedBlockingQueue, TimeUnit}
+
+import scala.build.internal.FileWatchService
+import scala.build.internal.FileWatchService.Registration
+import scala.concurrent.duration.DurationInt
+
+class FileWatchServiceTests extends TestUtil.ScalaCliBuildSuite {
+
+  private def withService[T](f: (FileWatchService, LinkedBlockingQueue[Set[os.Path]]) => T): T = {
+    val scheduler = Executors.newSingleThreadScheduledExecutor()
+    val changes   = new LinkedBlockingQueue[Set[os.Path]]
+    val service   =
+      new FileWatchService(scheduler, changes.put, TestLogger(), quietPeriod = 20.millis)
+    try f(service, changes)
+    finally {
+      service.close()
+      scheduler.shutdown()
+    }
+  }
+
+  private def isSource(p: os.Path, kind: PathWatchers.Event.Kind): Boolean =
+    p.last.endsWith(".scala")
+
+  test("nested registrations are watched once, without their hidden directories") {
+    TestInputs.withTmpDir("scala-cli-tests-file-watch-") { root =>
+      os.write(root / "a" / "A.scala", "", createFolders = true)
+      os.write(root / "a" / "b" / "B.scala", "", createFolders = true)
+      os.write(root / ".scala-build" / "project" / "Foo.class", "", createFolders = true)
+      os.write(root / "a" / ".hidden" / "C.scala", "", createFolders = true)
+      os.write(root / "other" / "Lib.jar", "", createFolders = true)
+      withService { (service, _) =>
+        service.register(Seq(
+          Registration(root, recursive = true, pruneHidden = true, accept = isSource),
+          Registration(root / "a", recursive = true, pruneHidden = true, accept = isSource),
+          Registration(root / "a" / "A.scala", recursive = false),
+          Registration(root / "other" / "Lib.jar", recursive = false)
+        ))
+        val expectedDirs = Set(root, root / "a", root / "a" / "b", root / "other")
+        expect(service.watchedDirectories == expectedDirs)
+        expect(service.watchedSingleFiles.isEmpty)
+      }
+    }
+  }
+
+  test("a burst of events triggers a single change, with the accepted paths") {
+    TestInputs.withTmpDir("scala-cli-tests-file-watch-") { root =>
+      os.makeDir.all(root / "src")
+      withService { (service, changes) =>
+        service.register(Seq(
+          Registration(root / "src", recursive = true, pruneHidden = true, accept = isSource)
+        ))
+        val kind = PathWatchers.Event.Kind.Modify
+        for (idx <- 0 until 20)
+          service.onEvent(root / "src" / s"Foo$idx.scala", kind, isDir = false)
+        service.onEvent(root / "src" / "notes.txt", kind, isDir = false)
+        service.onEvent(root / "src" / ".hidden" / "Bar.scala", kind, isDir = false)
+
+        val changed = changes.poll(10L, TimeUnit.SECONDS)
+        assertEquals(changed, (0 until 20).map(idx => root / "src" / s"Foo$idx.scala").toSet)
+        expect(changes.poll(200L, TimeUnit.MILLISECONDS) == null)
+      }
+    }
+  }
+
+  test("directories created after registration are watched, and their sources reported") {
+    TestInputs.withTmpDir("scala-cli-tests-file-watch-") { root =>
+      os.makeDir.all(root / "src")
+      withService { (service, changes) =>
+        service.register(Seq(
+          Registration(root / "src", recursive = true, pruneHidden = true, accept = isSource)
+        ))
+        os.write(root / "src" / "new" / "deep" / "Foo.scala", "", createFolders = true)
+        service.onEvent(root / "src" / "new", PathWatchers.Event.Kind.Create, isDir = true)
+
+        val changed = changes.poll(10L, TimeUnit.SECONDS)
+        assertEquals(changed, Set(root / "src" / "new" / "deep" / "Foo.scala"))
+        expect(service.watchedDirectories.contains(root / "src" / "new" / "deep"))
+
+        os.remove.all(root / "src" / "new")
+        service.onEvent(root / "src" / "new", PathWatchers.Event.Kind.Delete, isDir = false)
+        expect(service.watchedDirectories == Set(root / "src"))
+      }
+    }
+  }
+}
@@ -3,6 +3,10 @@ package scala.build.tests
 import bloop.rifle.BloopRifleConfig
 import com.eed3si9n.expecty.Expecty.expect
 
+import java.math.BigInteger
+import java.nio.charset.StandardCharsets
+import java.security.MessageDigest
+
 import scala.build.input.*
 import scala.build.input.ElementsUtils.*
 import scala.build.internal.Constants
@@ -215,4 +219,52 @@ class InputsTests extends TestUtil.ScalaCliBuildSuite {
     val v = VirtualJavaFile(Array.emptyByteArray, "<stdin>-java-file")
     expect(v.generatedSourceFileName == "stdin.java")
   }
+
+  test("source hash is the hash of the paths and contents of the inputs") {
+    // how the source hash used to be computed, reading each file as a String
+    def expectedSourceHash(inputs: Inputs): String = {
+      def bytes(s: String): Array[Byte] = s.getBytes(StandardCharsets.UTF_8)
+      val it                            = inputs.elements.iterator.flatMap {
+        case elem: OnDisk =>
+          val content = elem match {
+            case dirInput: Directory =>
+              Seq("dir:") ++ dirInput.singleFilesFromDirectory(inputs.enableMarkdown)
+                .map(file => s"${file.path}:" + os.read(file.path))
+            case _: ResourceDirectory => Nil
+            case _: SbtFile           => Nil
+            case _                    => Seq(os.read(elem.path))
+          }
+          (Iterator(elem.path.toString) ++ content.iterator ++ Iterator("\n")).map(bytes)
+        case v: Virtual =>
+          Iterator(v.content, bytes("\n"))
+      }
+      val md = MessageDigest.getInstance("SHA-1")
+      it.foreach(md.update)
+      String.format("%040x", new BigInteger(1, md.digest()))
+    }
+
+    val testInputs = TestInputs(
+      Seq(os.rel / "Main.scala" -> "object Main { val s = \"h\u00e9llo \u2603\" }") ++
+        (0 until 50).map(idx => os.rel / "pkg" / s"File$idx.scala" -> s"object File$idx")
+    )
+    testInputs.withCustomInputs(viaDirectory = true, forcedWorkspaceOpt = None) {
+      (root, inputs0) =>
+        // not valid UTF-8, small and large enough to be streamed
+        val invalid = Array[Byte](0x6f, 0xc3.toByte, 0x28, 0xe2.toByte, 0x82.toByte)
+        os.write(root / "Invalid.scala", invalid)
+        os.write(root / "LargeInvalid.scala", Array.fill(300 * 1024)(invalid).flatten)
+        os.write(root / "Large.scala", "// \u00e9t\u00e9\n" * (128 * 1024))
+        val virtual = Virtual("Virtual.scala", "object Virtual".getBytes(StandardCharsets.UTF_8))
+        val inputs  = inputs0.add(Seq(virtual))
+
+        val first = inputs.sourceHash()
+        expect(first == expectedSourceHash(inputs))
+        expect(inputs.sourceHash() == first)
+
+        os.write.over(root / "pkg" / "File3.scala", "object File3 { def changed = true }")
+        val second = inputs.sourceHash()
+        expect(second != first)
+        expect(second == expectedSourceHash(inputs))
+    }
+  }
 }
@@ -0,0 +1,484 @@
+package scala.build.tests
+
+import org.objectweb.asm.Opcodes
+import sbt.testing.{AnnotatedFingerprint, Fingerprint, SubclassFingerprint, TaskDef}
+
+import java.io.PrintStream
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path}
+import java.util.zip.{ZipEntry, ZipOutputStream}
+
+import scala.build.testrunner.{
+  AsmTestRunner,
+  JavaAsmTestRunner,
+  JavaClassPathResources,
+  JavaParallelDiscovery,
+  JavaTestIndex,
+  JavaTestLogger,
+  Logger as TestRunnerLogger,
+  TestIndex
+}
+import scala.jdk.CollectionConverters.*
+
+class JavaAsmTestRunnerTests extends TestUtil.ScalaCliBuildSuite {
+
+  private val logger = new JavaTestLogger(0, new PrintStream(System.err))
+
+  private def suiteFingerprint: SubclassFingerprint = new SubclassFingerprint {
+    override def isModule(): Boolean                = false
+    override def superclassName(): String           = "my.Suite"
+    override def requireNoArgConstructor(): Boolean = true
+  }
+
+  private def testAnnotationFingerprint: AnnotatedFingerprint = new AnnotatedFingerprint {
+    override def isModule(): Boolean      = false
+    override def annotationName(): String = "my.Test"
+  }
+
+  private val testAnnotationDesc = "Lmy/Test;"
+
+  private def classBytes(
+    name: String,
+    superName: String,
+    access: Int,
+    classAnnotations: Seq[String] = Nil,
+    methodAnnotations: Seq[(Int, String)] = Nil,
+    interfaces: Seq[String] = Nil
+  ): Array[Byte] =
+    TestUtil.classBytes(
+      name,
+      superName,
+      access,
+      interfaces,
+      classAnnotations = classAnnotations,
+      methods = methodAnnotations.zipWithIndex.map { case ((methodAccess, desc), idx) =>
+        TestUtil.GeneratedMethod(s"test$idx", methodAccess, annotations = Seq(desc))
+      },
+      constructor = (access & Opcodes.ACC_INTERFACE) == 0
+    )
+
+  private def withJar[T](
+    classes: Iterator[(String, Array[Byte])],
+    resources: Seq[(String, String)] = Nil
+  )(f: Path => T): T = {
+    val jar = Files.createTempFile("scala-cli-java-asm-test-runner-", ".jar")
+    try {
+      val zos = new ZipOutputStream(Files.newOutputStream(jar))
+      try {
+        for ((name, bytes) <- classes) {
+          zos.putNextEntry(new ZipEntry(name + ".class"))
+          zos.write(bytes)
+          zos.closeEntry()
+        }
+        for ((name, content) <- resources) {
+          zos.putNextEntry(new ZipEntry(name))
+          zos.write(content.getBytes(StandardCharsets.UTF_8))
+          zos.closeEntry()
+        }
+      }
+      finally zos.close()
+      f(jar)
+    }
+    finally Files.deleteIfExists(jar)
+  }
+
+  test("taskDefs streams a 50k-class class path through a fixed byte window") {
+    val fillerCount = 50000
+    val fillers     = Iterator.range(0, fillerCount).map { i =>
+      val name = f"pkg/filler$i%05d/Filler$i"
+      name -> classBytes(name, "java/lang/Object", Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT)
+    }
+    val suites = Iterator("pkg/FirstTest", "pkg/SecondTest").map { name =>
+      name -> classBytes(name, "my/Suite", Opcodes.ACC_PUBLIC)
+    }
+    withJar(suites ++ fillers) { jar =>
+      val classPath       = Seq(jar).asJava
+      val scanner         = new JavaAsmTestRunner.ClassScanner(logger)
+      val parentInspector = new JavaAsmTestRunner.ParentInspector(classPath, logger)
+      val taskDefs        = JavaAsmTestRunner.taskDefs(
+        scanner,
+        classPath,
+        true,
+        Seq[Fingerprint](suiteFingerprint).asJava,
+        parentInspector,
+        logger
+      ).asScala
+
+      assertEquals(
+        taskDefs.map(_.fullyQualifiedName()).toSeq,
+        Seq("pkg.FirstTest", "pkg.SecondTest")
+      )
+      assertEquals(scanner.classCount(), fillerCount + 2L)
+      // the whole class path went through the scanner, but never more than one small window at once
+      assert(scanner.bytesRead() > 100L * scanner.windowSize())
+      assert(
+        scanner.windowSize() <= 16384,
+        clue = s"Byte window grew to ${scanner.windowSize()} bytes"
+      )
+    }
+  }
+
+  test("ClassScanner visits duplicate class names only once, first class path entry wins") {
+    val first  = Iterator("pkg/MyTest" -> classBytes("pkg/MyTest", "my/Suite", Opcodes.ACC_PUBLIC))
+    val second = Iterator(
+      "pkg/MyTest" -> classBytes("pkg/MyTest", "java/lang/Object", Opcodes.ACC_PUBLIC)
+    )
+    withJar(first) { firstJar =>
+      withJar(second) { secondJar =>
+        val classPath       = Seq(firstJar, secondJar).asJava
+        val parentInspector = new JavaAsmTestRunner.ParentInspector(classPath, logger)
+        val taskDefs        = JavaAsmTestRunner.taskDefs(
+          classPath,
+          true,
+          Seq[Fingerprint](suiteFingerprint).asJava,
+          parentInspector,
+          logger
+        ).asScala
+        assertEquals(taskDefs.map(_.fullyQualifiedName()).toSeq, Seq("pkg.MyTest"))
+      }
+    }
+  }
+
+  test("parallel taskDefs returns the same task definitions, in the same order, as sequential") {
+    def classes(prefix: String) = Iterator.range(0, 700).map { i =>
+      val name      = f"$prefix/Class$i%03d"
+      val superName = if (i % 7 == 0) "my/Suite" else "java/lang/Object"
+      name -> classBytes(name, superName, Opcodes.ACC_PUBLIC)
+    }
+    withJar(classes("first")) { firstJar =>
+      withJar(classes("second")) { secondJar =>
+        val classPath    = Seq(firstJar, secondJar).asJava
+        val fingerprints = Seq[Fingerprint](suiteFingerprint).asJava
+        val sequential   = JavaAsmTestRunner.taskDefs(
+          classPath,
+          true,
+          fingerprints,
+          new JavaAsmTestRunner.ParentInspector(classPath, logger),
+          logger
+        ).asScala.map(_.fullyQualifiedName()).toSeq
+        val discovery = JavaParallelDiscovery.parallel(4)
+        val parallel  =
+          try
+            JavaAsmTestRunner.taskDefs(
+              discovery,
+              classPath,
+              true,
+              fingerprints,
+              new JavaAsmTestRunner.ParentInspector(classPath, logger),
+              logger
+            ).asScala.map(_.fullyQualifiedName()).toSeq
+          finally discovery.close()
+        assertEquals(sequential.length, 2 * 100)
+        assertEquals(parallel, sequential)
+      }
+    }
+  }
+
+  test("annotated fingerprints are matched from bytecode, including through parents") {
+    val annotationAccess =
+      Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT | Opcodes.ACC_ANNOTATION
+    val classes = Iterator(
+      // annotation on a public method of a superclass
+      "pkg/BaseSuite" -> classBytes(
+        "pkg/BaseSuite",
+        "java/lang/Object",
+        Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT,
+        methodAnnotations = Seq(Opcodes.ACC_PUBLIC -> testAnnotationDesc)
+      ),
+      "pkg/InheritsMethod" -> classBytes("pkg/InheritsMethod", "pkg/BaseSuite", Opcodes.ACC_PUBLIC),
+      // annotation on a private method of the class itself
+      "pkg/OwnPrivateMethod" -> classBytes(
+        "pkg/OwnPrivateMethod",
+        "java/lang/Object",
+        Opcodes.ACC_PUBLIC,
+        methodAnnotations = Seq(Opcodes.ACC_PRIVATE -> testAnnotationDesc)
+      ),
+      // annotation on a private method of a superclass: not visible through getMethods
+      "pkg/PrivateBase" -> classBytes(
+        "pkg/PrivateBase",
+        "java/lang/Object",
+        Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT,
+        methodAnnotations = Seq(Opcodes.ACC_PRIVATE -> "Lother/Ann;")
+      ),
+      "pkg/InheritsPrivate" ->
+        classBytes("pkg/InheritsPrivate", "pkg/PrivateBase", Opcodes.ACC_PUBLIC),
+      // class annotations on a superclass: only inherited if the annotation is @Inherited
+      "pkg/AnnotatedBase" -> classBytes(
+        "pkg/AnnotatedBase",
+        "java/lang/Object",
+        Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT,
+        classAnnotations = Seq(testAnnotationDesc)
+      ),
+      "pkg/InheritsClassAnnotation" ->
+        classBytes("pkg/InheritsClassAnnotation", "pkg/AnnotatedBase", Opcodes.ACC_PUBLIC),
+      "pkg/OtherAnnotatedBase" -> classBytes(
+        "pkg/OtherAnnotatedBase",
+        "java/lang/Object",
+        Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT,
+        classAnnotations = Seq("Lother/Ann;")
+      ),
+      "pkg/InheritsOtherClassAnnotation" -> classBytes(
+        "pkg/InheritsOtherClassAnnotation",
+        "pkg/OtherAnnotatedBase",
+        Opcodes.ACC_PUBLIC
+      ),
+      "my/Test" -> classBytes(
+        "my/Test",
+        "java/lang/Object",
+        annotationAccess,
+        classAnnotations = Seq("Ljava/lang/annotation/Inherited;")
+      ),
+      "other/Ann" -> classBytes("other/Ann", "java/lang/Object", annotationAccess)
+    )
+    val otherFingerprint = new AnnotatedFingerprint {
+      override def isModule(): Boolean      = false
+      override def annotationName(): String = "other.Ann"
+    }
+    withJar(classes) { jar =>
+      val classPath = Seq(jar).asJava
+      val taskDefs  = JavaAsmTestRunner.taskDefs(
+        classPath,
+        true,
+        Seq[Fingerprint](testAnnotationFingerprint, otherFingerprint).asJava,
+        new JavaAsmTestRunner.ParentInspector(classPath, logger),
+        logger
+      ).asScala
+      val matched = taskDefs.map { td =>
+        td.fullyQualifiedName() ->
+          td.fingerprint().asInstanceOf[AnnotatedFingerprint].annotationName()
+      }.toSeq
+      assertEquals(
+        matched,
+        Seq(
+          "pkg.InheritsMethod"          -> "my.Test",
+          "pkg.OwnPrivateMethod"        -> "my.Test",
+          "pkg.InheritsClassAnnotation" -> "my.Test"
+        )
+      )
+    }
+  }
+
+  test("test index is read back on later runs, and shared with the Scala test runner") {
+    val frameworkClasses = Iterator(
+      "pkg/MyFramework" -> classBytes(
+        "pkg/MyFramework",
+        "java/lang/Object",
+        Opcodes.ACC_PUBLIC,
+        interfaces = Seq("sbt/testing/Framework")
+      ),
+      "pkg/AbstractFramework" -> classBytes(
+        "pkg/AbstractFramework",
+        "java/lang/Object",
+        Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT,
+        interfaces = Seq("sbt/testing/Framework")
+      ),
+      "pkg/NotAFramework" -> classBytes("pkg/NotAFramework", "java/lang/Object", Opcodes.ACC_PUBLIC)
+    )
+    val services = Seq(
+      "META-INF/services/sbt.testing.Framework" -> "# comment\npkg.MyFramework\n"
+    )
+    val indexDir = Files.createTempDirectory("scala-cli-test-index-")
+    try
+      withJar(frameworkClasses, services) { jar =>
+        val classPath = Seq(jar).asJava
+        def frameworks(index: JavaTestIndex) =
+          JavaAsmTestRunner.findFrameworks(
+            classPath,
+            Seq.empty[String].asJava,
+            index,
+            new JavaAsmTestRunner.ParentInspector(classPath, index, logger),
+            logger
+          ).asScala.toSeq
+        val scanned = JavaAsmTestRunner.findFrameworks(
+          classPath,
+          Seq.empty[String].asJava,
+          new JavaAsmTestRunner.ParentInspector(classPath, logger),
+          logger
+        ).asScala.toSeq
+        assertEquals(scanned, Seq("pkg/MyFramework"))
+
+        val cold = new JavaTestIndex(indexDir, logger)
+        assertEquals(frameworks(cold), scanned)
+        assertEquals(
+          JavaAsmTestRunner.findFrameworkServices(classPath, cold, logger).asScala.toSeq,
+          Seq("pkg.MyFramework")
+        )
+        assertEquals((cold.readCount(), cold.writeCount()), (0, 1))
+
+        val warm = new JavaTestIndex(indexDir, logger)
+        assertEquals(frameworks(warm), scanned)
+        assertEquals((warm.readCount(), warm.writeCount()), (1, 0))
+
+        val trLogger   = TestRunnerLogger(0)
+        val scalaIndex = new TestIndex(indexDir, trLogger)
+        val fromScala  = AsmTestRunner.findFrameworks(
+          Seq(jar),
+          Nil,
+          new AsmTestRunner.ParentInspector(Seq(jar), trLogger, Some(scalaIndex)),
+          trLogger,
+          Some(scalaIndex)
+        )
+        assertEquals(fromScala, scanned.toList)
+        assertEquals(
+          AsmTestRunner.findFrameworkServices(Seq(jar), trLogger, Some(scalaIndex)),
+          Seq("pkg.MyFramework")
+        )
+        assertEquals((scalaIndex.readCount, scalaIndex.writeCount), (1, 0))
+      }
+    finally {
+      Files.list(indexDir).forEach(p => Files.delete(p))
+      Files.delete(indexDir)
+    }
+  }
+
+  test("ParentInspector looks classes up through the shared resource index, opening each JAR once") {
+    val interfaceAccess = Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT
+    val first           = Iterator(
+      "a/Base" -> classBytes("a/Base", "java/lang/Object", Opcodes.ACC_PUBLIC, interfaces = Seq("x/I"))
+    )
+    val second = Iterator(
+      "b/Mid" -> classBytes("b/Mid", "a/Base", Opcodes.ACC_PUBLIC),
+      // shadowed by the first JAR
+      "a/Base" -> classBytes("a/Base", "java/lang/Thread", Opcodes.ACC_PUBLIC)
+    )
+    val third = Iterator(
+      "x/I"   -> classBytes("x/I", "java/lang/Object", interfaceAccess),
+      "c/Top" -> classBytes("c/Top", "b/Mid", Opcodes.ACC_PUBLIC)
+    )
+    withJar(first) { firstJar =>
+      withJar(second) { secondJar =>
+        withJar(third) { thirdJar =>
+          val classPath = Seq(firstJar, secondJar, thirdJar).asJava
+          val expected  =
+            new JavaAsmTestRunner.ParentInspector(classPath, logger).allParents("c/Top").asScala
+          assertEquals(
+            expected.toSeq,
+            Seq("c/Top", "b/Mid", "a/Base", "java/lang/Object", "x/I")
+          )
+          val resources = new JavaClassPathResources(classPath, logger)
+          try {
+            val parentInspector =
+              new JavaAsmTestRunner.ParentInspector(classPath, resources, null, logger)
+            assertEquals(parentInspector.allParents("c/Top").asScala, expected)
+            assertEquals(resources.owner("a/Base.class"), firstJar)
+            assertEquals(resources.openedJarCount(), 3)
+          }
+          finally resources.close()
+
+          // with a warm test index, JARs are neither listed nor read
+          val indexDir = Files.createTempDirectory("scala-cli-test-index-")
+          try {
+            classPath.asScala.foreach(new JavaTestIndex(indexDir, logger).jar(_))
+            val index          = new JavaTestIndex(indexDir, logger)
+            val indexResources = new JavaClassPathResources(classPath, index, logger)
+            try {
+              val parentInspector =
+                new JavaAsmTestRunner.ParentInspector(classPath, indexResources, index, logger)
+              assertEquals(parentInspector.allParents("c/Top").asScala, expected)
+              assertEquals(indexResources.owner("a/Base.class"), firstJar)
+              assertEquals(indexResources.openedJarCount(), 0)
+              assertEquals(index.readCount(), 3)
+            }
+            finally indexResources.close()
+          }
+          finally {
+            Files.list(indexDir).forEach(p => Files.delete(p))
+            Files.delete(indexDir)
+          }
+        }
+      }
+    }
+  }
+
+  test("classes of a build output are matched from its class index, unless they changed") {
+    TestInputs.withTmpDir("scala-cli-tests-class-index-") { root =>
+      val output  = root / "project" / "classes" / "main"
+      val classes = (0 until 40).map { i =>
+        val name = f"pkg/Class$i%02d"
+        if (i % 10 == 0) name -> classBytes(name, "my/Suite", Opcodes.ACC_PUBLIC)
+        else if (i % 10 == 5)
+          name -> classBytes(
+            name,
+            "java/lang/Object",
+            Opcodes.ACC_PUBLIC,
+            methodAnnotations = Seq(Opcodes.ACC_PRIVATE -> testAnnotationDesc)
+          )
+        else name -> classBytes(name, "java/lang/Object", Opcodes.ACC_PUBLIC)
+      }
+      for ((name, bytes) <- classes)
+        os.write(output / os.SubPath(name + ".class"), bytes, createFolders = true)
+      scala.build.internal.ClassIndex.update(output, TestLogger())
+      // changed after indexing, so that it has to be read from bytecode
+      os.write.over(
+        output / "pkg" / "Class01.class",
+        classBytes("pkg/Class01", "my/Suite", Opcodes.ACC_PUBLIC, interfaces = Seq("my/Other"))
+      )
+
+      val classPath    = Seq(output.toNIO).asJava
+      val fingerprints = Seq[Fingerprint](suiteFingerprint, testAnnotationFingerprint).asJava
+      def names(taskDefs: java.util.List[TaskDef]) =
+        taskDefs.asScala.map(_.fullyQualifiedName()).toSeq
+      val fromByteCode = names(JavaAsmTestRunner.taskDefs(
+        new JavaAsmTestRunner.ClassScanner(logger),
+        classPath,
+        false,
+        fingerprints,
+        new JavaAsmTestRunner.ParentInspector(classPath, logger),
+        logger
+      ))
+      val fromIndex = names(JavaAsmTestRunner.taskDefs(
+        JavaParallelDiscovery.sequential(),
+        classPath,
+        false,
+        fingerprints,
+        new JavaAsmTestRunner.ParentInspector(classPath, logger),
+        logger
+      ))
+      assertEquals(
+        fromByteCode.sorted,
+        Seq("00", "01", "05", "10", "15", "20", "25", "30", "35").map(idx => s"pkg.Class$idx")
+      )
+      assertEquals(fromIndex, fromByteCode)
+
+      val trLogger  = TestRunnerLogger(0)
+      val fromScala = AsmTestRunner.taskDefs(
+        Seq(output.toNIO),
+        keepJars = false,
+        Seq[Fingerprint](suiteFingerprint),
+        new AsmTestRunner.ParentInspector(Seq(output.toNIO), trLogger),
+        trLogger
+      ).map(_.fullyQualifiedName()).toSeq
+      // the Scala test runner only looks at annotations of public methods
+      assertEquals(fromScala, fromByteCode.filterNot(_.endsWith("5")))
+    }
+  }
+
+  test("class index of a build output is read again once the build output is indexed again") {
+    TestInputs.withTmpDir("scala-cli-tests-class-index-") { root =>
+      val output    = root / "project" / "classes" / "main"
+      val classFile = output / "pkg" / "A.class"
+      val trLogger  = TestRunnerLogger(0)
+      def superNames(): (Option[String], Option[String]) = {
+        val fromJava = Option(JavaTestIndex.classDirectory(output.toNIO, logger))
+          .flatMap(index => Option(index.get("pkg/A")))
+          .flatMap(indexed => Option(indexed.getInfo.getSuperName))
+        val fromScala = TestIndex.classDirectory(output.toNIO, trLogger)
+          .flatMap(_.get("pkg/A"))
+          .flatMap(_.superName)
+        (fromJava, fromScala)
+      }
+
+      os.write(
+        classFile,
+        classBytes("pkg/A", "java/lang/Object", Opcodes.ACC_PUBLIC),
+        createFolders = true
+      )
+      scala.build.internal.ClassIndex.update(output, TestLogger())
+      assertEquals(superNames(), (Some("java/lang/Object"), Some("java/lang/Object")))
+
+      os.write.over(classFile, classBytes("pkg/A", "my/Suite", Opcodes.ACC_PUBLIC))
+      scala.build.internal.ClassIndex.update(output, TestLogger())
+      assertEquals(superNames(), (Some("my/Suite"), Some("my/Suite")))
+    }
+  }
+}
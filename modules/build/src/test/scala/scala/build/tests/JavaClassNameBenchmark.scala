@@ -0,0 +1,81 @@
+package scala.build.tests
+
+import coursier.cache.ArchiveCache
+
+import java.nio.charset.StandardCharsets
+
+import scala.build.Ops.*
+import scala.build.internal.{
+  JavaParserProxy,
+  JavaParserProxyBinary,
+  JavaParserProxyJvm,
+  SharedJavaParserProxy
+}
+
+/** Compares extracting the class names of generated Java sources one source at a time with
+  * extracting them in a single batch.
+  *
+  * Also compares making a new [[JavaParserProxy]] for each source, like the Java and Markdown
+  * preprocessors used to, with the batch of the [[SharedJavaParserProxy]] they now share, which
+  * uses the in-process parser when run on the JVM.
+  *
+  * Uses the java-class-name binary if `binary` is passed, and the in-process parser otherwise.
+  *
+  * Run with
+  * {{{
+  * ./mill -i 'build.test.runMain' scala.build.tests.JavaClassNameBenchmark [sources] [binary]
+  * }}}
+  */
+object JavaClassNameBenchmark {
+
+  private def time[T](f: => T): (T, Long) = {
+    val start = System.nanoTime()
+    val res   = f
+    (res, (System.nanoTime() - start) / 1000000L)
+  }
+
+  def main(args: Array[String]): Unit = {
+    val sourceCount = args.lift(0).map(_.toInt).getOrElse(1000)
+    val useBinary   = args.lift(1).contains("binary")
+    val iterations  = 5
+
+    val contents = (0 until sourceCount).map { idx =>
+      s"""package pkg${idx % 50};
+         |
+         |public class Main$idx {
+         |  public static void main(String[] args) {
+         |    System.out.println("Hello from " + $idx);
+         |  }
+         |}
+         |""".stripMargin.getBytes(StandardCharsets.UTF_8)
+    }
+    val expected = (0 until sourceCount).map(idx => Some(s"Main$idx"))
+
+    def newParser(): JavaParserProxy =
+      if (useBinary)
+        new JavaParserProxyBinary(ArchiveCache(), None, TestLogger(), () => "java")
+      else
+        new JavaParserProxyJvm
+    val parser = newParser()
+
+    println(s"$sourceCount sources, ${if (useBinary) "java-class-name binary" else "JVM parser"}")
+    // warm-up, which also fetches the binary if needed
+    parser.className(contents.head).orThrow
+    for (iteration <- 1 to iterations) {
+      val (oneByOne, oneByOneMs) = time(contents.map(parser.className(_).orThrow))
+      val (batch, batchMs)       = time(parser.classNames(contents).orThrow)
+      assert(oneByOne == expected && batch == expected)
+      println(s"#$iteration: one source at a time: $oneByOneMs ms, batch: $batchMs ms")
+    }
+    for (iteration <- 1 to iterations) {
+      val (perSource, perSourceMs) = time(contents.map(newParser().className(_).orThrow))
+      val (shared, sharedMs)       = time {
+        new SharedJavaParserProxy(ArchiveCache(), None, () => "java")
+          .classNames(contents, TestLogger())
+          .orThrow
+      }
+      assert(perSource == expected && shared == expected)
+      println(s"#$iteration: a proxy per source: $perSourceMs ms, shared proxy: $sharedMs ms")
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package scala.build.tests
+
+import org.objectweb.asm.Opcodes
+
+import java.io.PrintStream
+import java.nio.file.{Files, Path}
+import java.util.zip.{ZipEntry, ZipOutputStream}
+
+import scala.build.testrunner.{JavaAsmTestRunner, JavaClassPathResources, JavaTestLogger}
+import scala.jdk.CollectionConverters.*
+
+/** Compares parent lookups of [[JavaAsmTestRunner.ParentInspector]], when it tries each class
+  * path entry in turn, and when it goes through a [[JavaClassPathResources]].
+  *
+  * Run with
+  * {{{
+  * ./mill -i 'build.test.runMain' scala.build.tests.ParentInspectorBenchmark [jars] [classesPerJar]
+  * }}}
+  *
+  * Each class of JAR `n` extends the class with the same index in JAR `n - 1`, and implements an
+  * interface of the last JAR, so that walking the parents of the last JAR's classes looks up
+  * classes from all over the class path.
+  */
+object ParentInspectorBenchmark {
+
+  private def writeJar(jar: Path, classes: Seq[(String, Array[Byte])]): Unit = {
+    val zos = new ZipOutputStream(Files.newOutputStream(jar))
+    try
+      for ((name, bytes) <- classes) {
+        zos.putNextEntry(new ZipEntry(name + ".class"))
+        zos.write(bytes)
+        zos.closeEntry()
+      }
+    finally zos.close()
+  }
+
+  private def time[T](f: => T): (T, Long) = {
+    val start = System.nanoTime()
+    val res   = f
+    (res, (System.nanoTime() - start) / 1000000L)
+  }
+
+  def main(args: Array[String]): Unit = {
+    val jarCount      = args.lift(0).map(_.toInt).getOrElse(300)
+    val classesPerJar = args.lift(1).map(_.toInt).getOrElse(4)
+    val iterations    = 5
+    val logger        = new JavaTestLogger(0, new PrintStream(System.err))
+
+    val dir = Files.createTempDirectory("scala-cli-parent-inspector-benchmark-")
+    try {
+      val jars = (0 until jarCount).map { j =>
+        val classes = (0 until classesPerJar).map { i =>
+          val name      = s"pkg$j/C$i"
+          val superName = if (j == 0) "java/lang/Object" else s"pkg${j - 1}/C$i"
+          name -> TestUtil.classBytes(name, superName, Opcodes.ACC_PUBLIC, Seq(s"iface/I$i"))
+        }
+        val interfaces =
+          if (j == jarCount - 1)
+            (0 until classesPerJar).map { i =>
+              val name = s"iface/I$i"
+              name -> TestUtil.classBytes(
+                name,
+                "java/lang/Object",
+                Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT
+              )
+            }
+          else Nil
+        val jar = dir.resolve(f"lib$j%04d.jar")
+        writeJar(jar, classes ++ interfaces)
+        jar
+      }
+      val classPath = jars.asJava
+      val roots     = (0 until classesPerJar).map(i => s"pkg${jarCount - 1}/C$i")
+
+      def perLookup(): Int = {
+        val parentInspector = new JavaAsmTestRunner.ParentInspector(classPath, logger)
+        roots.map(parentInspector.allParents(_).size()).sum
+      }
+      def pooled(): (Int, Int) = {
+        val resources = new JavaClassPathResources(classPath, logger)
+        try {
+          val parentInspector =
+            new JavaAsmTestRunner.ParentInspector(classPath, resources, null, logger)
+          (roots.map(parentInspector.allParents(_).size()).sum, resources.openedJarCount())
+        }
+        finally resources.close()
+      }
+
+      println(s"$jarCount JARs, $classesPerJar classes per JAR")
+      for (iteration <- 1 to iterations) {
+        val (found, perLookupMs)              = time(perLookup())
+        val ((pooledFound, opened), pooledMs) = time(pooled())
+        assert(found == pooledFound, s"$found != $pooledFound")
+        println(
+          s"#$iteration: $found parents, per-lookup JAR opens: $perLookupMs ms, " +
+            s"resource index and JAR pool: $pooledMs ms ($opened JAR opens)"
+        )
+      }
+    }
+    finally {
+      Files.list(dir).forEach(p => Files.delete(p))
+      Files.delete(dir)
+    }
+  }
+}
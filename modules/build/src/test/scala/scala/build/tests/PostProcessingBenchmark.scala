@@ -0,0 +1,84 @@
+package scala.build.tests
+
+import scala.build.Logger
+import scala.build.options.BuildOptions
+import scala.build.postprocessing.PostProcessingPipeline
+
+/** Tracks the wall time of post-processing against the number of class files in the output
+  * directory.
+  *
+  * For each output size, this times [[PostProcessingPipeline]] on a fresh output, and then again on
+  * the same output, which it already went through. One class file in ten comes from a generated
+  * source, and is rewritten.
+  *
+  * Run with
+  * {{{
+  * ./mill -i 'build.test.runMain' scala.build.tests.PostProcessingBenchmark [sizes]
+  * }}}
+  * where `sizes` is a comma-separated list of class file counts, like `1000,5000,20000`.
+  */
+object PostProcessingBenchmark {
+
+  private def time[T](f: => T): (T, Long) = {
+    val start = System.nanoTime()
+    val res   = f
+    (res, (System.nanoTime() - start) / 1000000L)
+  }
+
+  private def classBytes(name: String, source: String): Array[Byte] =
+    TestUtil.classBytes(
+      name,
+      source = Some(source),
+      methods = (0 until 20).map(m => TestUtil.GeneratedMethod(s"m$m", line = Some(10 + m)))
+    )
+
+  def main(args: Array[String]): Unit = {
+    val sizes      = args.lift(0).fold(Seq(1000, 5000, 20000))(_.split(',').toSeq.map(_.toInt))
+    val iterations = 3
+    val logger     = Logger.nop
+
+    println(s"${Runtime.getRuntime.availableProcessors()} available processors")
+    TestInputs.withTmpDir("scala-cli-post-processing-benchmark-") { root =>
+      for (size <- sizes) {
+        val classes = (0 until size).map { idx =>
+          val source = if (idx % 10 == 0) s"Generated$idx.scala" else s"Source$idx.scala"
+          s"pkg${idx % 100}/Class$idx.class" -> classBytes(s"pkg${idx % 100}/Class$idx", source)
+        }
+        val mappings = (0 until size by 10).map { idx =>
+          s"Generated$idx.scala" -> (s"Generated$idx.sc", 3)
+        }.toMap
+
+        var count = 0
+        def freshOutput(): os.Path = {
+          count += 1
+          val output = root / s"$size-$count" / "classes" / "main"
+          for ((relPath, bytes) <- classes)
+            os.write(output / os.RelPath(relPath), bytes, createFolders = true)
+          output
+        }
+        def pipeline(output: os.Path): Unit =
+          PostProcessingPipeline.run(
+            generatedSources = Nil,
+            mappings = mappings,
+            workspace = root,
+            output = output,
+            logger = logger,
+            scalaVersion = "3.3.4",
+            buildOptions = BuildOptions(),
+            updateSemanticDbs = false
+          )
+
+        for (iteration <- 1 to iterations) {
+          val pipelineOutput     = freshOutput()
+          val (_, pipelineMs)    = time(pipeline(pipelineOutput))
+          val (_, incrementalMs) = time(pipeline(pipelineOutput))
+          println(
+            s"#$iteration: $size class files: pipeline: $pipelineMs ms, " +
+              s"pipeline on unchanged output: $incrementalMs ms"
+          )
+          os.remove.all(pipelineOutput / os.up / os.up)
+        }
+      }
+    }
+  }
+}
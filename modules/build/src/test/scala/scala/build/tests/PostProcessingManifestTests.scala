@@ -0,0 +1,120 @@
+package scala.build.tests
+
+import com.eed3si9n.expecty.Expecty.expect
+
+import scala.build.options.BuildOptions
+import scala.build.postprocessing.{PostProcessingManifest, PostProcessingPipeline}
+
+class PostProcessingManifestTests extends TestUtil.ScalaCliBuildSuite {
+
+  private def classBytes(name: String, source: String, line: Int): Array[Byte] =
+    TestUtil.classBytes(
+      name,
+      source = Some(source),
+      methods = Seq(TestUtil.GeneratedMethod("f", line = Some(line)))
+    )
+
+  private def contents(dir: os.Path): Map[String, Seq[Byte]] =
+    os.list(dir).map(p => p.last -> os.read.bytes(p).toSeq).toMap
+
+  private def postProcess(
+    mappings: Map[String, (String, Int)],
+    root: os.Path,
+    output: os.Path
+  ): Unit = {
+    val res = PostProcessingPipeline.run(
+      generatedSources = Nil,
+      mappings = mappings,
+      workspace = root,
+      output = output,
+      logger = TestLogger(),
+      scalaVersion = "3.3.4",
+      buildOptions = BuildOptions(),
+      updateSemanticDbs = true
+    )
+    expect(res.isRight)
+  }
+
+  test("only new or changed files need to be processed again") {
+    TestInputs.withTmpDir("scala-cli-tests-post-processing-") { root =>
+      val output = root / "project" / "classes" / "main"
+      os.write(output / "A.class", "a", createFolders = true)
+      os.write(output / "B.class", "b")
+
+      val first = PostProcessingManifest.load(output, "test", "settings")
+      expect(first.needsProcessing(output / "A.class"))
+      expect(first.needsProcessing(output / "B.class"))
+      first.processed(output / "A.class")
+      first.processed(output / "B.class")
+      first.save(TestLogger())
+      expect(os.isFile(root / "project" / "post-processing" / "main-test"))
+
+      os.write.over(output / "B.class", "bb")
+      os.write(output / "C.class", "c")
+      val second = PostProcessingManifest.load(output, "test", "settings")
+      expect(!second.needsProcessing(output / "A.class"))
+      expect(second.needsProcessing(output / "B.class"))
+      expect(second.needsProcessing(output / "C.class"))
+
+      val otherSettings = PostProcessingManifest.load(output, "test", "other settings")
+      expect(otherSettings.needsProcessing(output / "A.class"))
+    }
+  }
+
+  test("incremental bytecode post-processing gives the same classes as a full one") {
+    TestInputs.withTmpDir("scala-cli-tests-post-processing-") { root =>
+      val mappings  = Map("A.scala" -> ("A.sc", 3), "B.scala" -> ("B.sc", 5))
+      val originals = scala.collection.mutable.Map(
+        "A" -> classBytes("A", "A.scala", 10),
+        "B" -> classBytes("B", "B.scala", 20),
+        "C" -> classBytes("C", "C.java", 30)
+      )
+      def fullPass(name: String): Map[String, Seq[Byte]] = {
+        val dir = root / name / "classes" / "main"
+        for ((className, bytes) <- originals)
+          os.write(dir / s"$className.class", bytes, createFolders = true)
+        postProcess(mappings, root, dir)
+        contents(dir)
+      }
+
+      val output = root / "incremental" / "classes" / "main"
+      for ((className, bytes) <- originals)
+        os.write(output / s"$className.class", bytes, createFolders = true)
+      postProcess(mappings, root, output)
+      val firstPass = contents(output)
+      expect(firstPass == fullPass("full-1"))
+      expect(firstPass("A.class") != originals("A").toSeq)
+      expect(firstPass("C.class") == originals("C").toSeq)
+
+      // as if A and B were compiled again, B with no changes
+      originals("A") = classBytes("A", "A.scala", 11)
+      os.write.over(output / "A.class", originals("A"))
+      os.write.over(output / "B.class", originals("B"))
+      postProcess(mappings, root, output)
+      val secondPass = contents(output)
+      expect(secondPass == fullPass("full-2"))
+      expect(secondPass("A.class") != firstPass("A.class"))
+      expect(secondPass("B.class") == firstPass("B.class"))
+    }
+  }
+
+  test("post-processing pipeline only rewrites the classes of generated sources") {
+    TestInputs.withTmpDir("scala-cli-tests-post-processing-") { root =>
+      val mappings = Map("A.scala" -> ("A.sc", 3))
+      val classes  = (0 until 20).map { idx =>
+        val source = if (idx % 2 == 0) "A.scala" else s"Other$idx.scala"
+        (s"C$idx.class", source, classBytes(s"C$idx", source, idx + 1))
+      }
+      val output = root / "pipeline" / "classes" / "main"
+      for ((fileName, _, bytes) <- classes)
+        os.write(output / fileName, bytes, createFolders = true)
+
+      postProcess(mappings, root, output)
+      val processed = contents(output)
+      for ((fileName, source, bytes) <- classes)
+        expect((processed(fileName) == bytes.toSeq) == !mappings.contains(source))
+      // no temporary files are left behind
+      expect(processed.keySet == classes.map(_._1).toSet)
+    }
+  }
+}
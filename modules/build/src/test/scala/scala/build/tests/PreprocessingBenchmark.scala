@@ -0,0 +1,129 @@
+package scala.build.tests
+
+import coursier.cache.ArchiveCache
+
+import scala.build.Ops.*
+import scala.build.input.ScalaCliInvokeData
+import scala.build.options.SuppressWarningOptions
+import scala.build.preprocessing.{PreprocessingCache, Preprocessor}
+import scala.build.{CrossSources, Logger, Sources}
+
+/** Compares preprocessing the sources of a generated project one file at a time, like
+  * `CrossSources.forInputs` used to, with `CrossSources.forInputs`, which preprocesses them
+  * concurrently.
+  *
+  * Then compares reading these from a warm persistent preprocessing cache, like a new Scala CLI
+  * process does, when the files are unchanged and found by stamp, and when they were all touched
+  * and have to be read to be found by content.
+  *
+  * Run with
+  * {{{
+  * ./mill -i 'build.test.runMain' scala.build.tests.PreprocessingBenchmark [files]
+  * }}}
+  */
+object PreprocessingBenchmark {
+
+  private given ScalaCliInvokeData = ScalaCliInvokeData.dummy
+
+  private def time[T](f: => T): (T, Long) = {
+    val start = System.nanoTime()
+    val res   = f
+    (res, (System.nanoTime() - start) / 1000000L)
+  }
+
+  def main(args: Array[String]): Unit = {
+    val fileCount  = args.lift(0).map(_.toInt).getOrElse(5000)
+    val iterations = 5
+
+    val files = (0 until fileCount).map { idx =>
+      val pkg        = s"pkg${idx % 50}"
+      val directives =
+        if (idx % 100 == 0) s"//> using dep org$idx:name$idx:1.0\n//> using option -deprecation\n"
+        else ""
+      val content =
+        s"""${directives}package $pkg
+           |
+           |/** File $idx */
+           |object File$idx {
+           |  def value: Int = $idx
+           |  def describe(other: Int): String = s"$$value and $$other"
+           |}
+           |""".stripMargin
+      os.rel / pkg / s"File$idx.scala" -> content
+    }
+
+    TestInputs(files*).withInputs { (root, inputs) =>
+      val preprocessors: Seq[Preprocessor] =
+        Sources.defaultPreprocessors(ArchiveCache(), None, () => sys.error("not needed"))
+      val logger = Logger.nop
+
+      def sequential(): Int =
+        inputs.flattened().map { elem =>
+          preprocessors
+            .iterator
+            .flatMap(
+              _.preprocess(
+                elem,
+                logger,
+                e => Some(e),
+                inputs.allowRestrictedFeatures,
+                SuppressWarningOptions()
+              ).iterator
+            )
+            .take(1)
+            .toList
+            .headOption
+            .getOrElse(Right(Nil))
+            .orThrow
+            .length
+        }.sum
+
+      def parallel(): Int = {
+        val (crossSources, _) =
+          CrossSources.forInputs(inputs, preprocessors, logger, SuppressWarningOptions()).orThrow
+        crossSources.paths.length + crossSources.inMemory.length
+      }
+
+      println(
+        s"$fileCount files, ${Runtime.getRuntime.availableProcessors()} available processors"
+      )
+      // warm-up
+      sequential()
+      parallel()
+      for (iteration <- 1 to iterations) {
+        val (sequentialCount, sequentialMs) = time(sequential())
+        val (parallelCount, parallelMs)     = time(parallel())
+        assert(sequentialCount == fileCount && parallelCount == fileCount)
+        println(s"#$iteration: one file at a time: $sequentialMs ms, forInputs: $parallelMs ms")
+      }
+
+      val persistentFile = root / ".scala-build" / "preprocessing-cache"
+      def persistent(): Long = {
+        val cache = new PreprocessingCache(Some(persistentFile))
+        CrossSources.forInputs(
+          inputs,
+          Seq(cache.preprocessor(preprocessors)),
+          logger,
+          SuppressWarningOptions()
+        ).orThrow
+        cache.save(logger)
+        cache.persistentHitCount
+      }
+      def touchAll(): Unit =
+        for ((relPath, _) <- files)
+          os.mtime.set(root / relPath, os.mtime(root / relPath) + 1000L)
+      // populates the persistent file
+      persistent()
+      for (iteration <- 1 to iterations) {
+        val (stampHits, stampMs) = time(persistent())
+        touchAll()
+        val (contentHits, contentMs) = time(persistent())
+        assert(stampHits == contentHits)
+        println(
+          s"#$iteration: warm persistent cache ($stampHits hits): unchanged files: $stampMs ms, " +
+            s"touched files: $contentMs ms"
+        )
+      }
+    }
+  }
+}
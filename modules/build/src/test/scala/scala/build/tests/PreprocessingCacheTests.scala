@@ -0,0 +1,151 @@
+package scala.build.tests
+
+import com.eed3si9n.expecty.Expecty.expect
+import coursier.cache.ArchiveCache
+
+import scala.build.Ops.*
+import scala.build.input.ScalaCliInvokeData
+import scala.build.options.{BuildOptions, SuppressWarningOptions}
+import scala.build.preprocessing.PreprocessingCache
+import scala.build.{CrossSources, Sources}
+
+class PreprocessingCacheTests extends TestUtil.ScalaCliBuildSuite {
+
+  given ScalaCliInvokeData = ScalaCliInvokeData.dummy
+
+  private val testInputs = TestInputs(
+    os.rel / "A.scala" ->
+      """//> using dep org1:name1:1.1
+        |object A
+        |""".stripMargin,
+    os.rel / "B.scala" ->
+      """object B
+        |""".stripMargin,
+    os.rel / "C.java" ->
+      """public class C {}
+        |""".stripMargin
+  )
+
+  test("only changed files are preprocessed again") {
+    testInputs.withInputs { (root, inputs) =>
+      val cache = new PreprocessingCache
+      def crossSources() =
+        CrossSources.forInputs(
+          inputs,
+          Seq(cache.preprocessor(Sources.defaultPreprocessors(ArchiveCache(), None, () => ???))),
+          TestLogger(),
+          SuppressWarningOptions()
+        ).orThrow._1
+      def dependencies(crossSources: CrossSources) =
+        crossSources.sharedOptions(BuildOptions()).classPathOptions.extraDependencies.toSeq
+          .map(_.value.render)
+          .sorted
+
+      val first = crossSources()
+      val firstMisses = cache.missCount
+      expect(firstMisses == 3L)
+
+      val second = crossSources()
+      expect(cache.missCount == firstMisses)
+      expect(cache.hitCount >= 3L)
+      expect(second.paths == first.paths)
+      expect(second.inMemory.map(_.value.generatedRelPath) ==
+        first.inMemory.map(_.value.generatedRelPath))
+      expect(dependencies(second) == Seq("org1:name1:1.1"))
+
+      os.write.over(
+        root / "A.scala",
+        """//> using dep org1:name1:1.2 org2:name2:2.0
+          |object A
+          |""".stripMargin
+      )
+      val hitsBefore = cache.hitCount
+      val third      = crossSources()
+      expect(cache.missCount == firstMisses + 1L)
+      expect(cache.hitCount > hitsBefore)
+      expect(dependencies(third) == Seq("org1:name1:1.2", "org2:name2:2.0"))
+    }
+  }
+
+  test("sources without directives are persisted across caches") {
+    testInputs.withInputs { (root, inputs) =>
+      val persistentFile = root / ".scala-build" / "preprocessing-cache"
+      def crossSources(cache: PreprocessingCache) = {
+        val res = CrossSources.forInputs(
+          inputs,
+          Seq(cache.preprocessor(Sources.defaultPreprocessors(ArchiveCache(), None, () => ???))),
+          TestLogger(),
+          SuppressWarningOptions()
+        ).orThrow._1
+        cache.save(TestLogger())
+        res
+      }
+
+      val firstCache = new PreprocessingCache(Some(persistentFile))
+      val first      = crossSources(firstCache)
+      expect(firstCache.persistentHitCount == 0L)
+      expect(os.isFile(persistentFile))
+
+      val secondCache = new PreprocessingCache(Some(persistentFile))
+      val second      = crossSources(secondCache)
+      // B.scala and C.java, while A.scala has directives
+      expect(secondCache.persistentHitCount == 2L)
+      expect(secondCache.missCount == 1L)
+      expect(second == first)
+
+      // changed sources aren't read from disk
+      os.write.over(root / "B.scala", "object B { def b = 2 }")
+      val thirdCache = new PreprocessingCache(Some(persistentFile))
+      crossSources(thirdCache)
+      expect(thirdCache.persistentHitCount == 1L)
+      expect(thirdCache.missCount == 2L)
+    }
+  }
+
+  test("touched files are found by content in the persistent file") {
+    testInputs.withInputs { (root, inputs) =>
+      val persistentFile = root / ".scala-build" / "preprocessing-cache"
+      def crossSources(cache: PreprocessingCache): Unit = {
+        CrossSources.forInputs(
+          inputs,
+          Seq(cache.preprocessor(Sources.defaultPreprocessors(ArchiveCache(), None, () => ???))),
+          TestLogger(),
+          SuppressWarningOptions()
+        ).orThrow
+        cache.save(TestLogger())
+      }
+
+      crossSources(new PreprocessingCache(Some(persistentFile)))
+      os.mtime.set(root / "B.scala", os.mtime(root / "B.scala") + 10000L)
+      val secondCache = new PreprocessingCache(Some(persistentFile))
+      crossSources(secondCache)
+      expect(secondCache.persistentHitCount == 2L)
+    }
+  }
+
+  test("saving keeps the persisted results of other inputs") {
+    TestInputs.withTmpDir("scala-cli-preprocessing-cache-") { tmpDir =>
+      val persistentFile = tmpDir / "preprocessing-cache"
+      def crossSources(testInputs: TestInputs): Long =
+        testInputs.withInputs { (_, inputs) =>
+          val cache = new PreprocessingCache(Some(persistentFile))
+          CrossSources.forInputs(
+            inputs,
+            Seq(cache.preprocessor(Sources.defaultPreprocessors(ArchiveCache(), None, () => ???))),
+            TestLogger(),
+            SuppressWarningOptions()
+          ).orThrow
+          cache.save(TestLogger())
+          cache.persistentHitCount
+        }
+      val first  = TestInputs(os.rel / "B.scala" -> "object B\n")
+      val second = TestInputs(os.rel / "C.java" -> "public class C {}\n")
+
+      expect(crossSources(first) == 0L)
+      expect(crossSources(second) == 0L)
+      // the results of the second inputs didn't replace those of the first ones
+      expect(crossSources(first) == 1L)
+      expect(crossSources(second) == 1L)
+    }
+  }
+}
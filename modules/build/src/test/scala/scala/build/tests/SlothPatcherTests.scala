@@ -391,6 +391,91 @@ class SlothPatcherTests extends TestUtil.ScalaCliBuildSuite:
         s"Expected $classDir to be left alone when shouldPatch is false"
       )
 
+  /** A class with a static method, that reads `LazyVals$.MODULE$` if `referenceLazyVals` is true */
+  private def generatedClassBytes(name: String, referenceLazyVals: Boolean): Array[Byte] =
+    TestUtil.classBytes(
+      name,
+      methods = Seq(TestUtil.GeneratedMethod("f", readsLazyVals = referenceLazyVals))
+    )
+
+  test("mayHaveLazyVals only keeps classes referencing the lazy vals runtime"):
+    assert(SlothPatcher.mayHaveLazyVals(generatedClassBytes("A", referenceLazyVals = true)))
+    assert(!SlothPatcher.mayHaveLazyVals(generatedClassBytes("B", referenceLazyVals = false)))
+    assert(
+      SlothPatcher.mayHaveLazyVals(Array[Byte](1, 2, 3)),
+      "Content that isn't a class file should be left to sloth"
+    )
+    val truncated = generatedClassBytes("C", referenceLazyVals = false).take(20)
+    assert(
+      SlothPatcher.mayHaveLazyVals(truncated),
+      "Truncated class files should be left to sloth"
+    )
+
+  test("patchClassDirInPlace leaves classes without lazy vals untouched"):
+    TestInputs.withTmpDir("sloth-inplace-"): root =>
+      val logger   = RecordingLogger()
+      val classDir = root / "classes"
+      val files    = (0 until 10).map { idx =>
+        val dest = classDir / "pkg" / s"C$idx.class"
+        os.write(
+          dest,
+          generatedClassBytes(s"pkg/C$idx", referenceLazyVals = false),
+          createFolders = true
+        )
+        dest
+      }
+      val before = files.map(f => (os.read.bytes(f).toSeq, os.mtime(f)))
+      val result = SlothPatcher.patchClassDirInPlace(
+        classDir,
+        optionsWithSloth(enabled = true),
+        logger,
+        shouldPatch = true
+      )
+      assert(result.isRight, s"Expected Right, got: $result")
+      assert(files.map(f => (os.read.bytes(f).toSeq, os.mtime(f))) == before)
+      assert(
+        os.walk(classDir).filter(os.isFile).toSet == files.toSet,
+        s"Expected no other files in $classDir"
+      )
+      assert(
+        logger.debugMessages.exists(_.contains("No lazy vals to patch in place")),
+        s"Expected no-op debug log, got debug=${logger.debugMessages}"
+      )
+      assert(SlothPatcher.wasPatchedInThisProcess(classDir))
+
+  test("patchClassDirInPlace only checks the classes that changed since the last pass"):
+    TestInputs.withTmpDir("sloth-inplace-incremental-"): root =>
+      val classDir = root / "classes"
+      val files    = (0 until 10).map { idx =>
+        val dest = classDir / "pkg" / s"C$idx.class"
+        os.write(
+          dest,
+          generatedClassBytes(s"pkg/C$idx", referenceLazyVals = false),
+          createFolders = true
+        )
+        dest
+      }
+      def patch(): Seq[String] =
+        val logger = RecordingLogger()
+        val result = SlothPatcher.patchClassDirInPlace(
+          classDir,
+          optionsWithSloth(enabled = true),
+          logger,
+          shouldPatch = true
+        )
+        assert(result.isRight, s"Expected Right, got: $result")
+        logger.debugMessages.toSeq
+      def checked(debugMessages: Seq[String], count: Int): Boolean =
+        debugMessages.exists(_.contains(s"Checking $count of 10 class files"))
+
+      val first = patch()
+      assert(checked(first, 10), s"Expected all classes to be checked, got debug=$first")
+      val second = patch()
+      assert(checked(second, 0), s"Expected no class to be checked, got debug=$second")
+      os.write.over(files.head, generatedClassBytes("pkg/C0x", referenceLazyVals = false))
+      val third = patch()
+      assert(checked(third, 1), s"Expected the changed class to be checked, got debug=$third")
+
   test("shouldPatchProjectClasses returns false for pure Java project"):
     val result = SlothPatcher.shouldPatchProjectClasses(
       hasJava = true,
@@ -11,12 +11,14 @@ import java.nio.charset.StandardCharsets
 
 import scala.build.Ops.*
 import scala.build.errors.{UsingDirectiveValueNumError, UsingDirectiveWrongValueTypeError}
-import scala.build.input.ScalaCliInvokeData
+import scala.build.input.{OnDisk, ScalaCliInvokeData}
+import scala.build.internal.util.WarningMessages
 import scala.build.internal.ScalaJsLinkerConfig
 import scala.build.options.{BuildOptions, Scope, SuppressWarningOptions}
 import scala.build.preprocessing.Preprocessor
 import scala.build.{CrossSources, Position, Sources}
 import scala.concurrent.ExecutionContext
+import scala.jdk.CollectionConverters.*
 
 class SourcesTests extends TestUtil.ScalaCliBuildSuite {
   def scalaVersion: String         = "2.13.5"
@@ -873,4 +875,61 @@ class SourcesTests extends TestUtil.ScalaCliBuildSuite {
     }
   }
 
+  test("@main warnings of scripts preprocessed along with other inputs are reported") {
+    val testInputs = TestInputs(
+      os.rel / "Message.scala" ->
+        """object Message {
+          |  val hello = "Hello"
+          |}
+          |""".stripMargin,
+      os.rel / "script.sc" ->
+        """@main def hello(): Unit = println(Message.hello)
+          |""".stripMargin
+    )
+    testInputs.withInputs { (root, inputs) =>
+      val logger            = new RecordingLogger()
+      val (crossSources, _) =
+        CrossSources.forInputs(inputs, preprocessors, logger, SuppressWarningOptions()).orThrow
+      val scopedSources = crossSources.scopedSources(BuildOptions()).orThrow
+      scopedSources.sources(
+        Scope.Main,
+        crossSources.sharedOptions(BuildOptions()),
+        root,
+        logger
+      ).orThrow
+      val expectedWarnings = Seq(true, false).map(WarningMessages.mainAnnotationNotSupported)
+      expect(logger.diagnostics.exists(d => expectedWarnings.contains(d.message)))
+    }
+  }
+
+  test("errors recovered from while preprocessing are passed on in the order of the inputs") {
+    val names      = (0 until 8).map(idx => s"Foo$idx.scala")
+    val testInputs = TestInputs(
+      names.map { name =>
+        os.rel / name ->
+          s"""//> using jsVersion 1.8.0 2.3.4
+             |object ${name.stripSuffix(".scala")}
+             |""".stripMargin
+      }*
+    )
+    testInputs.withInputs { (_, inputs) =>
+      val recovered = new java.util.concurrent.ConcurrentLinkedQueue[String]
+      CrossSources.forInputs(
+        inputs,
+        preprocessors,
+        TestLogger(),
+        SuppressWarningOptions(),
+        maybeRecoverOnError = { e =>
+          recovered.add(e.getMessage)
+          None
+        }
+      ).orThrow
+      val recoveredNames = recovered.asScala.toSeq.flatMap(msg => names.find(msg.contains))
+      val expectedNames  = inputs.flattened().collect {
+        case f: OnDisk if names.contains(f.path.last) => f.path.last
+      }
+      expect(recoveredNames.length == names.length)
+      expect(recoveredNames == expectedNames)
+    }
+  }
 }
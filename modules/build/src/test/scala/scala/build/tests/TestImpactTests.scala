@@ -0,0 +1,140 @@
+package scala.build.tests
+
+import org.objectweb.asm.{ClassReader, ClassWriter, Opcodes, Type}
+import sbt.testing.{SuiteSelector, TaskDef}
+
+import scala.build.testrunner.{JavaAsmTestRunner, JavaTestImpact, JavaTestLogger, Logger, TestImpact}
+import scala.jdk.CollectionConverters.*
+
+class TestImpactTests extends TestUtil.ScalaCliBuildSuite {
+
+  /** A class with a static `run` method calling the `run` method of each class of `calls`, and an
+    * int field per name of `fields`
+    */
+  private def classBytes(name: String, calls: Seq[String], fields: Seq[String] = Nil) =
+    TestUtil.classBytes(
+      name,
+      fields = fields,
+      methods = Seq(TestUtil.GeneratedMethod("run", calls = calls))
+    )
+
+  private def writeClasses(dir: os.Path, fooFields: Seq[String] = Nil): Unit = {
+    os.write.over(
+      dir / "p" / "Foo.class",
+      classBytes("p/Foo", Nil, fooFields),
+      createFolders = true
+    )
+    os.write.over(dir / "p" / "Bar.class", classBytes("p/Bar", Seq("p/Foo")))
+    os.write.over(dir / "p" / "Baz.class", classBytes("p/Baz", Nil))
+    os.write.over(dir / "p" / "ATest.class", classBytes("p/ATest", Seq("p/Bar")))
+    os.write.over(dir / "p" / "BTest.class", classBytes("p/BTest", Seq("p/Baz")))
+  }
+
+  private val suites = Seq("p.ATest", "p.BTest")
+
+  /** Runs test impact analysis on `classDir` with `stateFile`, returning the selected suites, and
+    * saving the state as if the suites of `failed` failed
+    */
+  private type Run = (os.Path, os.Path, Set[String]) => Seq[String]
+
+  private def taskDef(name: String) = new TaskDef(name, null, false, Array(new SuiteSelector))
+
+  private val runners: Seq[(String, Run)] = Seq(
+    "Java" -> { (stateFile: os.Path, classDir: os.Path, failed: Set[String]) =>
+      val impact = JavaTestImpact.load(
+        stateFile.toNIO,
+        Seq(classDir.toNIO).asJava,
+        Seq.empty[String].asJava,
+        new JavaTestLogger(0, System.err)
+      )
+      val selected = impact.select(suites.map(taskDef).asJava)
+      impact.save(selected, failed.asJava)
+      selected.asScala.toSeq.map(_.fullyQualifiedName())
+    },
+    "Scala" -> { (stateFile: os.Path, classDir: os.Path, failed: Set[String]) =>
+      val impact   = TestImpact.load(stateFile.toNIO, Seq(classDir.toNIO), Nil, Logger(0))
+      val selected = impact.select(suites.map(taskDef))
+      impact.save(selected, failed)
+      selected.map(_.fullyQualifiedName())
+    }
+  )
+
+  for ((runner, run) <- runners)
+    test(s"$runner test runner only runs suites affected by changes") {
+      TestInputs.withTmpDir("test-impact") { root =>
+        val classDir  = root / "classes"
+        val stateFile = root / "test-impact.tsv"
+        writeClasses(classDir)
+        assertEquals(run(stateFile, classDir, Set.empty), suites)
+        assertEquals(run(stateFile, classDir, Set.empty), Nil)
+
+        // p.ATest reaches p.Foo through p.Bar
+        writeClasses(classDir, fooFields = Seq("added"))
+        assertEquals(run(stateFile, classDir, Set("p.ATest")), Seq("p.ATest"))
+        // failed last time
+        assertEquals(run(stateFile, classDir, Set.empty), Seq("p.ATest"))
+        assertEquals(run(stateFile, classDir, Set.empty), Nil)
+
+        // resources aren't tracked, any change runs everything
+        os.write(classDir / "app.conf", "a = 1")
+        assertEquals(run(stateFile, classDir, Set.empty), suites)
+        assertEquals(run(stateFile, classDir, Set.empty), Nil)
+
+        // a removed class counts as changed
+        os.remove(classDir / "p" / "Baz.class")
+        assertEquals(run(stateFile, classDir, Set.empty), Seq("p.BTest"))
+      }
+    }
+
+  test("Failures of unknown suites keep suites that ran from being recorded as passing") {
+    TestInputs.withTmpDir("test-impact") { root =>
+      val classDir  = root / "classes"
+      val stateFile = root / "test-impact.tsv"
+      writeClasses(classDir)
+      val (_, run) = runners.head
+      assertEquals(run(stateFile, classDir, Set("p.ATest$Nested")), suites)
+      assertEquals(run(stateFile, classDir, Set.empty), suites)
+    }
+  }
+
+  test("Java and Scala test runners write the same state") {
+    TestInputs.withTmpDir("test-impact") { root =>
+      val classDir = root / "classes"
+      writeClasses(classDir)
+      val states = for ((runner, run) <- runners) yield {
+        val stateFile = root / s"$runner.tsv"
+        run(stateFile, classDir, Set("p.BTest"))
+        os.read(stateFile)
+      }
+      assertEquals(states.head, states.last)
+    }
+  }
+
+  test("Dependencies are found through signatures and constants") {
+    val cw = new ClassWriter(ClassWriter.COMPUTE_MAXS)
+    cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "p/User", null, "java/lang/Object", null)
+    cw.visitField(
+      Opcodes.ACC_PUBLIC,
+      "list",
+      "Ljava/util/List;",
+      "Ljava/util/List<Lp/Element;>;",
+      null
+    ).visitEnd()
+    val mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "run", "()V", null, null)
+    mv.visitCode()
+    mv.visitLdcInsn("p.Reflected")
+    mv.visitInsn(Opcodes.POP)
+    mv.visitLdcInsn(Type.getObjectType("p/Literal"))
+    mv.visitInsn(Opcodes.POP)
+    mv.visitInsn(Opcodes.RETURN)
+    mv.visitMaxs(0, 0)
+    mv.visitEnd()
+    cw.visitEnd()
+    val collector = new JavaAsmTestRunner.ReferenceCollector
+    new ClassReader(cw.toByteArray).accept(collector, 0)
+    val references = collector.getReferences.asScala.toSet
+    for (name <- Seq("p/Element", "p/Reflected", "p/Literal", "java/util/List"))
+      assert(references.contains(name), s"$name not in $references")
+    assert(!references.contains("p/User"))
+  }
+}
@@ -13,10 +13,11 @@ import scala.build.internals.FeatureType
 import scala.collection.mutable.ListBuffer
 import scala.scalanative.build as sn
 
-/** Logger that records all message(), log(), and debug() calls for test assertions. */
+/** Logger that records all message(), log(), debug() and diagnostic calls for test assertions. */
 final class RecordingLogger(delegate: Logger = TestLogger()) extends Logger {
-  val messages: ListBuffer[String]      = ListBuffer.empty
-  val debugMessages: ListBuffer[String] = ListBuffer.empty
+  val messages: ListBuffer[String]        = ListBuffer.empty
+  val debugMessages: ListBuffer[String]   = ListBuffer.empty
+  val diagnostics: ListBuffer[Diagnostic] = ListBuffer.empty
 
   override def error(message: String): Unit      = delegate.error(message)
   override def message(message: => String): Unit = {
@@ -35,7 +36,10 @@ final class RecordingLogger(delegate: Logger = TestLogger()) extends Logger {
     debugMessages += msg
     delegate.debug(msg)
   }
-  override def log(diagnostics: Seq[Diagnostic]): Unit           = delegate.log(diagnostics)
+  override def log(diagnostics: Seq[Diagnostic]): Unit = {
+    this.diagnostics ++= diagnostics
+    delegate.log(diagnostics)
+  }
   override def log(ex: BuildException): Unit                     = delegate.log(ex)
   override def debug(ex: BuildException): Unit                   = delegate.debug(ex)
   override def exit(ex: BuildException): Nothing                 = delegate.exit(ex)
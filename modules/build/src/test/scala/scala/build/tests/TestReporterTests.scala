@@ -0,0 +1,127 @@
+package scala.build.tests
+
+import sbt.testing.*
+
+import java.nio.file.Path
+import javax.xml.parsers.DocumentBuilderFactory
+
+import scala.build.testrunner.{JavaTestLogger, JavaTestReporter, Logger, TestReporter}
+
+class TestReporterTests extends TestUtil.ScalaCliBuildSuite {
+
+  private def event(
+    suite: String,
+    test: String,
+    status0: Status,
+    durationMs: Long,
+    error: Option[Throwable] = None
+  ): Event = new Event {
+    def fullyQualifiedName(): String = suite
+    def fingerprint(): Fingerprint   = null
+    def selector(): Selector         = new TestSelector(test)
+    def status(): Status             = status0
+    def throwable(): OptionalThrowable =
+      error.fold(new OptionalThrowable)(new OptionalThrowable(_))
+    def duration(): Long = durationMs
+  }
+
+  private val events = Seq(
+    event("foo.ATest", "ok <1>", Status.Success, 12L),
+    event("foo.BTest", "boom", Status.Failure, 30L, Some(new AssertionError("a & \"b\""))),
+    event("foo.ATest", "ok 2", Status.Success, 8L),
+    event("foo.BTest", "later", Status.Skipped, 0L),
+    event("foo.CTest", "crash", Status.Error, 5L, Some(new RuntimeException("crash\nnow")))
+  )
+
+  /** Creates a reporter, returning it along with its failed event count and `close` method */
+  private type NewReporter =
+    (Option[Path], Option[Path]) => (EventHandler, () => Long, () => Unit)
+
+  private val reporters: Seq[(String, NewReporter)] = Seq(
+    "Java" -> { (jsonLines: Option[Path], junitDir: Option[Path]) =>
+      val r = new JavaTestReporter(
+        jsonLines.orNull,
+        junitDir.orNull,
+        new JavaTestLogger(0, System.err)
+      )
+      (r, () => r.failedCount(), () => r.close())
+    },
+    "Scala" -> { (jsonLines: Option[Path], junitDir: Option[Path]) =>
+      val r = new TestReporter(jsonLines, junitDir, Logger(0))
+      (r, () => r.failedCount, () => r.close())
+    }
+  )
+
+  for ((runner, reporter) <- reporters)
+    test(s"$runner test runner writes JSON lines and JUnit XML reports") {
+      TestInputs.withTmpDir("test-reporter") { root =>
+        val jsonLines                     = root / "events.jsonl"
+        val junitDir                      = root / "junit"
+        val (handler, failedCount, close) =
+          reporter(Some(jsonLines.toNIO), Some(junitDir.toNIO))
+        events.foreach(handler.handle)
+        close()
+        assertEquals(failedCount(), 2L)
+
+        val lines = os.read.lines(jsonLines)
+        assertEquals(lines.count(_.startsWith("""{"type":"event",""")), events.length)
+        assertEquals(lines.count(_.startsWith("""{"type":"suite",""")), 3)
+        assert(lines.forall(l => l.startsWith("{") && l.endsWith("}")))
+        assert(lines.exists(_.contains(""""message":"a & \"b\""""")))
+        assert(lines.exists(_.contains(""""message":"crash\nnow"""")))
+        assert(
+          lines.contains(
+            """{"type":"suite","suite":"foo.ATest","tests":2,"failures":0,"errors":0,"skipped":0,"durationMs":20}"""
+          )
+        )
+
+        assertEquals(
+          os.list(junitDir).map(_.last).sorted,
+          Seq("TEST-foo.ATest.xml", "TEST-foo.BTest.xml", "TEST-foo.CTest.xml")
+        )
+        val doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+          .parse((junitDir / "TEST-foo.BTest.xml").toIO)
+        val suite = doc.getDocumentElement
+        assertEquals(suite.getAttribute("tests"), "2")
+        assertEquals(suite.getAttribute("failures"), "1")
+        assertEquals(suite.getAttribute("skipped"), "1")
+        assertEquals(suite.getAttribute("time"), "0.030")
+        val failure = doc.getElementsByTagName("failure").item(0)
+        assertEquals(
+          failure.getAttributes.getNamedItem("message").getNodeValue,
+          "a & \"b\""
+        )
+        val aDoc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+          .parse((junitDir / "TEST-foo.ATest.xml").toIO)
+        val firstTestCase = aDoc.getElementsByTagName("testcase").item(0)
+        assertEquals(firstTestCase.getAttributes.getNamedItem("name").getNodeValue, "ok <1>")
+      }
+    }
+
+  test("Java and Scala test runners write the same reports") {
+    TestInputs.withTmpDir("test-reporter") { root =>
+      val outputs = for ((runner, reporter) <- reporters) yield {
+        val dir                 = root / runner
+        val (handler, _, close) = reporter(Some((dir / "events.jsonl").toNIO), Some(dir.toNIO))
+        events.foreach(handler.handle)
+        close()
+        os.list(dir).map(p => p.last -> os.read(p)).sorted
+      }
+      assertEquals(outputs.head, outputs.last)
+    }
+  }
+
+  test("JUnit XML files are rebuilt from scratch on later runs") {
+    TestInputs.withTmpDir("test-reporter") { root =>
+      for (_ <- 0 until 2) {
+        val r = new JavaTestReporter(null, root.toNIO, new JavaTestLogger(0, System.err))
+        events.foreach(r.handle)
+        r.close()
+      }
+      val doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+        .parse((root / "TEST-foo.ATest.xml").toIO)
+      assertEquals(doc.getElementsByTagName("testcase").getLength, 2)
+      assert(!os.list(root).exists(_.last.endsWith(".part")))
+    }
+  }
+}
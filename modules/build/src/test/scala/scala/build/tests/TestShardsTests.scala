@@ -0,0 +1,87 @@
+package scala.build.tests
+
+import sbt.testing.{Fingerprint, SubclassFingerprint, SuiteSelector, TaskDef}
+
+import scala.build.testrunner.{JavaTestShards, TestShards}
+import scala.jdk.CollectionConverters.*
+
+class TestShardsTests extends TestUtil.ScalaCliBuildSuite {
+
+  private val fingerprint: Fingerprint = new SubclassFingerprint {
+    def isModule(): Boolean                = false
+    def superclassName(): String           = "munit.Suite"
+    def requireNoArgConstructor(): Boolean = true
+  }
+
+  private def taskDefs(count: Int): Seq[TaskDef] =
+    (0 until count).map { idx =>
+      new TaskDef(f"foo.Suite$idx%02d", fingerprint, false, Array(new SuiteSelector))
+    }
+
+  private type Select = (Seq[TaskDef], Int, Int, Map[String, Long]) => Seq[TaskDef]
+
+  private val selectors: Seq[(String, Select)] =
+    Seq(
+      "Java" -> { (defs: Seq[TaskDef], shard: Int, count: Int, durations: Map[String, Long]) =>
+        JavaTestShards.select(
+          defs.asJava,
+          shard,
+          count,
+          durations.map { case (k, v) => k -> java.lang.Long.valueOf(v) }.asJava
+        ).asScala.toSeq
+      },
+      "Scala" -> (TestShards.select(_, _, _, _))
+    )
+
+  private def checkPartition(shards: Seq[Seq[TaskDef]], all: Seq[TaskDef]): Unit = {
+    val names = shards.map(_.map(_.fullyQualifiedName()))
+    assertEquals(names.flatten.sorted, all.map(_.fullyQualifiedName()).sorted)
+    assertEquals(names.flatten.distinct.length, all.length, clue = "Shards should be disjoint")
+    for (shard <- names)
+      assertEquals(shard, shard.sorted, clue = "Suites should keep discovery order")
+  }
+
+  for ((runner, select) <- selectors) {
+    test(s"$runner runner splits suites evenly without durations") {
+      val all    = taskDefs(10)
+      val shards = (0 until 3).map(select(all, _, 3, Map.empty))
+      checkPartition(shards, all)
+      assertEquals(shards.map(_.length).sorted, Seq(3, 3, 4))
+    }
+
+    test(s"$runner runner balances shards with recorded durations") {
+      val all = taskDefs(6)
+      // one long suite, the others short: the long one should get a shard of its own
+      val durations = all.map(_.fullyQualifiedName()).zipWithIndex.map {
+        case (name, 0) => name -> 1000L
+        case (name, _) => name -> 100L
+      }.toMap
+      val shards = (0 until 2).map(select(all, _, 2, durations))
+      checkPartition(shards, all)
+      val loads = shards.map(_.map(t => durations(t.fullyQualifiedName())).sum)
+      assertEquals(loads.sorted, Seq(500L, 1000L))
+    }
+
+    test(s"$runner runner gives the average duration to new suites") {
+      val all       = taskDefs(4)
+      val durations = Map(all(0).fullyQualifiedName() -> 300L, all(1).fullyQualifiedName() -> 100L)
+      val shards    = (0 until 2).map(select(all, _, 2, durations))
+      checkPartition(shards, all)
+      // weights 300, 100, 200, 200: {300, 100} and {200, 200}
+      assertEquals(shards.map(_.length), Seq(2, 2))
+    }
+  }
+
+  test("Java and Scala runners agree on shards") {
+    val all       = taskDefs(25)
+    val durations = all.zipWithIndex.collect {
+      case (t, idx) if idx % 4 != 0 => t.fullyQualifiedName() -> (idx * 37L % 500L)
+    }.toMap
+    val Seq((_, javaSelect), (_, scalaSelect)) = selectors
+    for (shard <- 0 until 4)
+      assertEquals(
+        javaSelect(all, shard, 4, durations).map(_.fullyQualifiedName()),
+        scalaSelect(all, shard, 4, durations).map(_.fullyQualifiedName())
+      )
+  }
+}
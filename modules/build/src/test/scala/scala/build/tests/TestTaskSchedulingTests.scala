@@ -0,0 +1,118 @@
+package scala.build.tests
+
+import sbt.testing.{
+  Event,
+  EventHandler,
+  Fingerprint,
+  Framework,
+  Logger as SbtTestLogger,
+  Runner,
+  Task,
+  TaskDef
+}
+
+import java.io.{ByteArrayOutputStream, PrintStream}
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.atomic.AtomicInteger
+
+import scala.build.testrunner.{
+  JavaTestLogger,
+  JavaTestRunner,
+  Logger as TestRunnerLogger,
+  TestRunner
+}
+import scala.jdk.CollectionConverters.*
+
+class TestTaskSchedulingTests extends TestUtil.ScalaCliBuildSuite {
+
+  private final class Counters {
+    val running          = new AtomicInteger
+    val maxRunning       = new AtomicInteger
+    val runningTagged    = new AtomicInteger
+    val maxRunningTagged = new AtomicInteger
+  }
+
+  /** Task logging a few lines, with tasks whose index is a multiple of 3 tagged "db" */
+  private def task(idx: Int, counters: Counters): Task = new Task {
+    private val tagged        = idx % 3 == 0
+    def tags(): Array[String] = if (tagged) Array("db") else Array.empty
+    def taskDef(): TaskDef    = null
+    def execute(handler: EventHandler, loggers: Array[SbtTestLogger]): Array[Task] = {
+      counters.maxRunning.accumulateAndGet(counters.running.incrementAndGet(), math.max)
+      if (tagged)
+        counters.maxRunningTagged.accumulateAndGet(counters.runningTagged.incrementAndGet(), math.max)
+      for (line <- 0 until 3) {
+        loggers.foreach(_.info(s"task $idx line $line"))
+        Thread.sleep(20L)
+      }
+      if (tagged) counters.runningTagged.decrementAndGet()
+      counters.running.decrementAndGet()
+      handler.handle(null.asInstanceOf[Event])
+      Array.empty
+    }
+  }
+
+  private class CustomFramework extends Framework {
+    def name(): String                     = "custom"
+    def fingerprints(): Array[Fingerprint] = Array.empty
+    def runner(args: Array[String], remoteArgs: Array[String], loader: ClassLoader): Runner = null
+  }
+
+  private def checkOutput(output: String, taskCount: Int): Unit = {
+    val lines = output.linesIterator.toVector
+    assertEquals(lines.length, 3 * taskCount)
+    for (group <- lines.grouped(3)) {
+      val idx = group.head.split(' ')(1)
+      assertEquals(group, (0 until 3).map(line => s"task $idx line $line").toVector)
+    }
+  }
+
+  private def checkConcurrentRun(runTasks: (Seq[Task], PrintStream, Int) => Int): Unit = {
+    val counters = new Counters
+    val buffer   = new ByteArrayOutputStream
+    val out      = new PrintStream(buffer, true)
+    val tasks    = (0 until 12).map(task(_, counters))
+    val events   = runTasks(tasks, out, 4)
+    assertEquals(events, tasks.length)
+    assert(counters.maxRunning.get() > 1, clue = "Tasks should have run concurrently")
+    assert(counters.maxRunning.get() <= 4)
+    assertEquals(counters.maxRunningTagged.get(), 1, clue = "Tasks sharing a tag should not overlap")
+    checkOutput(new String(buffer.toByteArray, StandardCharsets.UTF_8), tasks.length)
+  }
+
+  test("Java runner runs tasks concurrently, without interleaving their output") {
+    checkConcurrentRun((tasks, out, n) => JavaTestRunner.runTasks(tasks.asJava, out, n).size())
+  }
+
+  test("Scala runner runs tasks concurrently, without interleaving their output") {
+    checkConcurrentRun((tasks, out, n) => TestRunner.runTasks(tasks, out, n).length)
+  }
+
+  test("tasks run sequentially by default") {
+    val counters = new Counters
+    val buffer   = new ByteArrayOutputStream
+    val tasks    = (0 until 4).map(task(_, counters))
+    TestRunner.runTasks(tasks, new PrintStream(buffer, true))
+    assertEquals(counters.maxRunning.get(), 1)
+    assertEquals(
+      new String(buffer.toByteArray, StandardCharsets.UTF_8).linesIterator.toVector,
+      (0 until 4).flatMap(idx => (0 until 3).map(line => s"task $idx line $line")).toVector
+    )
+  }
+
+  test("tasks of frameworks not known to support it only run in parallel when listed") {
+    val framework = new CustomFramework
+    val name      = classOf[CustomFramework].getName
+    val logger    = new JavaTestLogger(0, new PrintStream(new ByteArrayOutputStream))
+    val trLogger  = TestRunnerLogger(0)
+    val javaKnown = JavaTestRunner.parallelTestFrameworks()
+    assertEquals(JavaTestRunner.parallelism(framework, 4, javaKnown, logger), 1)
+    assertEquals(
+      JavaTestRunner.parallelism(framework, 4, (javaKnown.asScala :+ name).asJava, logger),
+      4
+    )
+    val known = TestRunner.parallelTestFrameworks
+    assertEquals(TestRunner.parallelism(framework, 4, known, trLogger), 1)
+    assertEquals(TestRunner.parallelism(framework, 4, known :+ name, trLogger), 4)
+  }
+}
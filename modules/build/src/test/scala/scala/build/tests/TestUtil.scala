@@ -2,6 +2,7 @@ package scala.build.tests
 
 import munit.AnyFixture
 import munit.Assertions.assertEquals
+import org.objectweb.asm.{ClassWriter, Label, Opcodes}
 
 import java.util.concurrent.TimeUnit
 
@@ -93,6 +94,86 @@ object TestUtil {
       )
   }
 
+  /** A method of a class generated by [[classBytes]], whose body calls the static `run` method of
+    * each class of `calls`, then reads `LazyVals$.MODULE$` if `readsLazyVals` is true
+    *
+    * @param line
+    *   line number of the method body, if any
+    */
+  final case class GeneratedMethod(
+    name: String,
+    access: Int = Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+    descriptor: String = "()V",
+    annotations: Seq[String] = Nil,
+    line: Option[Int] = None,
+    calls: Seq[String] = Nil,
+    readsLazyVals: Boolean = false
+  )
+
+  /** The bytecode of a class, for the tests and benchmarks that need class files
+    *
+    * @param fields
+    *   names of the public int fields of the class
+    * @param constructor
+    *   whether the class has a public no-arg constructor
+    */
+  def classBytes(
+    name: String,
+    superName: String = "java/lang/Object",
+    access: Int = Opcodes.ACC_PUBLIC,
+    interfaces: Seq[String] = Nil,
+    source: Option[String] = None,
+    classAnnotations: Seq[String] = Nil,
+    fields: Seq[String] = Nil,
+    methods: Seq[GeneratedMethod] = Nil,
+    constructor: Boolean = false
+  ): Array[Byte] = {
+    val cw = new ClassWriter(ClassWriter.COMPUTE_MAXS)
+    cw.visit(Opcodes.V1_8, access, name, null, superName, interfaces.toArray)
+    for (file <- source)
+      cw.visitSource(file, null)
+    for (desc <- classAnnotations)
+      cw.visitAnnotation(desc, true).visitEnd()
+    for (field <- fields)
+      cw.visitField(Opcodes.ACC_PUBLIC, field, "I", null, null).visitEnd()
+    if (constructor) {
+      val init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null)
+      init.visitCode()
+      init.visitVarInsn(Opcodes.ALOAD, 0)
+      init.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false)
+      init.visitInsn(Opcodes.RETURN)
+      init.visitMaxs(0, 0)
+      init.visitEnd()
+    }
+    for (method <- methods) {
+      val mv = cw.visitMethod(method.access, method.name, method.descriptor, null, null)
+      for (desc <- method.annotations)
+        mv.visitAnnotation(desc, true).visitEnd()
+      mv.visitCode()
+      for (line <- method.line) {
+        val start = new Label
+        mv.visitLabel(start)
+        mv.visitLineNumber(line, start)
+      }
+      for (owner <- method.calls)
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, owner, "run", "()V", false)
+      if (method.readsLazyVals) {
+        mv.visitFieldInsn(
+          Opcodes.GETSTATIC,
+          "scala/runtime/LazyVals$",
+          "MODULE$",
+          "Lscala/runtime/LazyVals$;"
+        )
+        mv.visitInsn(Opcodes.POP)
+      }
+      mv.visitInsn(Opcodes.RETURN)
+      mv.visitMaxs(0, 0)
+      mv.visitEnd()
+    }
+    cw.visitEnd()
+    cw.toByteArray
+  }
+
   def c2s(c: Char): String = c match {
     case '\r' => "\\r"
     case '\n' => "\\n"
@@ -0,0 +1,90 @@
+package scala.build.tests
+
+import com.google.gson.Gson
+
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.TimeUnit
+
+import scala.build.GeneratedSource
+import scala.build.bsp.{BspServer, WrappedSourcesDeltaParams, WrappedSourcesParams}
+import scala.build.internal.WrapperParams
+import scala.build.options.Scope
+import scala.jdk.CollectionConverters.*
+
+/** Compares the payload size and latency of `buildTarget/wrappedSources` requests, as they used to
+  * be answered (reading all generated sources each time), once wrapped sources are cached, and of
+  * `buildTarget/wrappedSourcesDelta` requests after a single script changed.
+  *
+  * Run with
+  * {{{
+  * ./mill -i 'build.test.runMain' scala.build.tests.WrappedSourcesBenchmark [scripts] [wrapperLines]
+  * }}}
+  */
+object WrappedSourcesBenchmark {
+
+  private val gson = new Gson
+
+  private def time[T](f: => T): (T, Long) = {
+    val start = System.nanoTime()
+    val res   = f
+    (res, (System.nanoTime() - start) / 1000L)
+  }
+
+  private def payloadSize(res: AnyRef): Int =
+    gson.toJson(res).getBytes(StandardCharsets.UTF_8).length
+
+  def main(args: Array[String]): Unit = {
+    val scriptCount  = args.lift(0).map(_.toInt).getOrElse(500)
+    val wrapperLines = args.lift(1).map(_.toInt).getOrElse(20)
+    val iterations   = 5
+
+    TestInputs.withTmpDir("scala-cli-wrapped-sources-benchmark-") { root =>
+      def writeScript(idx: Int, edit: Int): GeneratedSource = {
+        val generated = root / ".scala-build" / s"script$idx.scala"
+        val wrapper   = (0 until wrapperLines).map(line => s"// wrapper line $line of script$idx")
+        val content   =
+          (wrapper ++ Seq(s"object script$idx {", s"  val edit = $edit", "}")).mkString("\n")
+        os.write.over(generated, content, createFolders = true)
+        GeneratedSource(
+          generated,
+          Right(root / s"script$idx.sc"),
+          Some(WrapperParams(wrapperLines + 1, 1, s"script$idx"))
+        )
+      }
+      val sources = (0 until scriptCount).map(writeScript(_, 0))
+
+      def newServer(): BspServer = {
+        val server = new BspServer(null, null, null)
+        server.setProjectName(root, "benchmark", Scope.Main)
+        server.setGeneratedSources(Scope.Main, sources)
+        server
+      }
+      val fullParams = new WrappedSourcesParams(Seq.empty.asJava)
+      def full(server: BspServer) =
+        server.buildTargetWrappedSources(fullParams).get(10, TimeUnit.SECONDS)
+
+      println(s"$scriptCount scripts, $wrapperLines wrapper lines per script")
+      val server = newServer()
+      full(server)
+      for (iteration <- 1 to iterations) {
+        // a new server has an empty cache, and reads every generated source like before
+        val (uncached, uncachedUs) = time(full(newServer()))
+        val (cached, cachedUs)     = time(full(server))
+        writeScript(iteration % scriptCount, iteration)
+        val (delta, deltaUs) = time {
+          server
+            .buildTargetWrappedSourcesDelta(
+              new WrappedSourcesDeltaParams(Seq.empty.asJava, cached.getVersion)
+            )
+            .get(10, TimeUnit.SECONDS)
+        }
+        assert(delta.getItems.asScala.map(_.getSources.size).sum == 1)
+        println(
+          s"#$iteration: uncached full: $uncachedUs us, ${payloadSize(uncached)} B, " +
+            s"cached full: $cachedUs us, ${payloadSize(cached)} B, " +
+            s"delta after one edit: $deltaUs us, ${payloadSize(delta)} B"
+        )
+      }
+    }
+  }
+}
@@ -177,7 +177,8 @@ object Bsp extends ScalaCommand[BspOptions] {
         threads,
         System.in,
         System.out,
-        actionableDiagnostics
+        actionableDiagnostics,
+        options.recordSession.map(path => os.Path(path, os.pwd))
       )
 
       try {
@@ -30,7 +30,13 @@ final case class BspOptions(
   @Hidden
   @Tag(tags.implementation)
   @Name("envsFile")
-    envs: Option[String] = None
+    envs: Option[String] = None,
+
+  @HelpMessage("Record the JSON-RPC messages of the BSP session, with timestamps, to this JSON lines file")
+  @ValueDescription("path")
+  @Hidden
+  @Tag(tags.implementation)
+    recordSession: Option[String] = None
 ) extends HasSharedOptions {
   // format: on
 }
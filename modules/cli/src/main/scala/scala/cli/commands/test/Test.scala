@@ -15,7 +15,7 @@ import scala.build.internals.ConsoleUtils.ScalaCliConsole
 import scala.build.internals.ConsoleUtils.ScalaCliConsole.warnPrefix
 import scala.build.options.{BuildOptions, JavaOpt, Platform, Scope}
 import scala.build.postprocessing.{SlothAgent, SlothPatcher}
-import scala.build.testrunner.{AsmTestRunner, Logger as TestRunnerLogger}
+import scala.build.testrunner.{AsmTestRunner, Logger as TestRunnerLogger, TestIndex}
 import scala.cli.CurrentParams
 import scala.cli.commands.run.Run
 import scala.cli.commands.setupide.SetupIde
@@ -49,7 +49,14 @@ object Test extends ScalaCommand[TestOptions] {
       ),
       testOptions = baseOptions.testOptions.copy(
         frameworks = testFrameworks.map(_.trim).filter(_.nonEmpty).map(Positioned.commandLine),
-        testOnly = testOnly.map(_.trim).filter(_.nonEmpty)
+        testOnly = testOnly.map(_.trim).filter(_.nonEmpty),
+        parallelDiscovery = parallelDiscovery,
+        parallelism = testParallelism.filter(_ > 0),
+        parallelFrameworks = testParallelFrameworks.map(_.trim).filter(_.nonEmpty),
+        shards = shards.filter(_ > 0),
+        eventsFile = testEvents.map(_.trim).filter(_.nonEmpty).map(os.Path(_, os.pwd)),
+        junitReportDir = junitReportDir.map(_.trim).filter(_.nonEmpty).map(os.Path(_, os.pwd)),
+        impactAnalysis = testImpact
       ),
       internalDependencies = baseOptions.internalDependencies.copy(
         addTestRunnerDependencyOpt = Some(true)
@@ -88,8 +95,14 @@ object Test extends ScalaCommand[TestOptions] {
       *   build results, checked for failures
       * @param allowExit
       *   false in watchMode
+      * @param worker
+      *   where to keep a warm test runner JVM between runs, if any
       */
-    def maybeTest(builds: Builds, allowExit: Boolean): Unit =
+    def maybeTest(
+      builds: Builds,
+      allowExit: Boolean,
+      worker: Option[TestWorkerProcess.Holder] = None
+    ): Unit =
       if (builds.anyFailed) {
         System.err.println("Compilation failed")
         if (allowExit)
@@ -119,7 +132,8 @@ object Test extends ScalaCommand[TestOptions] {
               args.unparsed,
               logger,
               allowExecve = allowExit && buildsLen <= 1,
-              asJar = options.shared.asJar
+              asJar = options.shared.asJar,
+              worker = worker
             )
             if (printBeforeAfterMessages && idx < buildsLen - 1)
               System.err.println()
@@ -149,6 +163,9 @@ object Test extends ScalaCommand[TestOptions] {
       }
 
     if (options.watch.watchMode) {
+      val worker =
+        if (options.warmTestJvm.getOrElse(false)) Some(new TestWorkerProcess.Holder(logger))
+        else None
       val watcher = Build.watch(
         inputs,
         initialBuildOptions,
@@ -162,10 +179,13 @@ object Test extends ScalaCommand[TestOptions] {
         postAction = () => WatchUtil.printWatchMessage()
       ) { res =>
         for (builds <- res.orReport(logger))
-          maybeTest(builds, allowExit = false)
+          maybeTest(builds, allowExit = false, worker = worker)
       }
       try WatchUtil.waitForCtrlC(() => watcher.schedule())
-      finally watcher.dispose()
+      finally {
+        watcher.dispose()
+        worker.foreach(_.stop())
+      }
     }
     else {
       val builds =
@@ -191,7 +211,8 @@ object Test extends ScalaCommand[TestOptions] {
     args: Seq[String],
     logger: Logger,
     asJar: Boolean,
-    allowExecve: Boolean
+    allowExecve: Boolean,
+    worker: Option[TestWorkerProcess.Holder]
   ): Either[BuildException, Int] = either {
 
     val predefinedTestFrameworks = build.options.testOptions.frameworks
@@ -292,12 +313,29 @@ object Test extends ScalaCommand[TestOptions] {
           }
         val testOnly = build.options.testOptions.testOnly
 
-        val extraArgs =
-          (if requireTests then Seq("--require-tests") else Nil) ++
-            build.options.internal.verbosity.map(v => s"--verbosity=$v") ++
+        val parallelDiscovery =
+          build.options.testOptions.parallelDiscovery.getOrElse(false)
+        if parallelDiscovery && !build.artifacts.hasJavaTestRunner then
+          logger.debug("Parallel test discovery is only supported by the Java test runner, ignoring")
+
+        val runnerArgs =
+          build.options.internal.verbosity.map(v => s"--verbosity=$v").toSeq ++
             predefinedTestFrameworks0.map(_.value).map(fw => s"--test-framework=$fw") ++
             testOnly.map(to => s"--test-only=$to").toSeq ++
-            Seq("--") ++ args
+            build.options.testOptions.parallelism.filter(_ > 1)
+              .map(n => s"--test-parallelism=$n").toSeq ++
+            build.options.testOptions.parallelFrameworks
+              .map(fw => s"--test-parallel-framework=$fw") ++
+            (if parallelDiscovery && build.artifacts.hasJavaTestRunner
+             then Seq("--parallel-discovery")
+             else Nil) ++
+            (if build.artifacts.hasJavaTestRunner
+             then Seq(s"--test-index-dir=$testIndexDir")
+             else Nil) ++
+            build.options.testOptions.junitReportDir.map(dir => s"--junit-report-dir=$dir").toSeq
+        val eventsFile     = build.options.testOptions.eventsFile
+        val projectDir     = Build.projectRootDir(build.inputs.workspace, build.inputs.projectName)
+        val impactAnalysis = build.options.testOptions.impactAnalysis.getOrElse(false)
 
         val testRunnerMainClass =
           if build.artifacts.hasJavaTestRunner
@@ -310,27 +348,215 @@ object Test extends ScalaCommand[TestOptions] {
         val javaOpts =
           slothAgentJavaOpts ++ build.options.javaOptions.javaOpts.toSeq.map(_.value.value)
 
-        Runner.runJvm(
-          build.options.javaHome().value.javaCommand,
-          javaOpts,
-          classPath,
-          testRunnerMainClass,
-          extraArgs,
-          logger,
-          allowExecve = allowExecve
-        ).waitFor()
+        def runTests(
+          extraArgs: Seq[String],
+          allowExecve: Boolean,
+          inheritStreams: Boolean = true
+        ): Process =
+          Runner.runJvm(
+            build.options.javaHome().value.javaCommand,
+            javaOpts,
+            classPath,
+            testRunnerMainClass,
+            extraArgs,
+            logger,
+            allowExecve = allowExecve,
+            inheritStreams = inheritStreams
+          )
+
+        (build.options.testOptions.shards.filter(_ > 1), worker) match {
+          case (Some(shardCount), worker0) =>
+            if impactAnalysis then
+              logger.message(
+                s"$warnPrefix Test impact analysis is not supported with --shards, ignoring"
+              )
+            if worker0.nonEmpty then
+              logger.message(
+                s"$warnPrefix A warm test JVM is not supported with --shards, ignoring"
+              )
+            val durationsFile = projectDir / "test-durations.tsv"
+            val reportDir     = projectDir / "test-reports"
+            def shardEvents(shard: Int): os.Path = reportDir / s"events-$shard.jsonl"
+            val exitCode = runShards(shardCount, durationsFile, reportDir, requireTests, logger) {
+              (shard, report) =>
+                val shardArgs = Seq(
+                  s"--shard=$shard/$shardCount",
+                  s"--test-durations=$durationsFile",
+                  s"--test-report=$report"
+                ) ++ eventsFile.map(_ => s"--test-events=${shardEvents(shard)}")
+                runTests(
+                  runnerArgs ++ shardArgs ++ Seq("--") ++ args,
+                  allowExecve = false,
+                  inheritStreams = false
+                )
+            }
+            for (file <- eventsFile)
+              concatenate((0 until shardCount).map(shardEvents), file)
+            exitCode
+          case (None, worker0) =>
+            val extraArgs =
+              (if requireTests then Seq("--require-tests") else Nil) ++
+                runnerArgs ++
+                eventsFile.map(file => s"--test-events=$file").toSeq ++
+                (if impactAnalysis then Seq(s"--test-impact=${projectDir / "test-impact.tsv"}")
+                 else Nil) ++
+                Seq("--") ++ args
+            worker0 match {
+              case Some(holder) =>
+                // Project class directories are loaded anew by the worker for each run, the
+                // JARs make up the class path of the worker JVM itself
+                val (classDirs, jars) = classPath.partition(os.isDir)
+                val key               = TestWorkerProcess.Key(
+                  build.options.javaHome().value.javaCommand,
+                  javaOpts,
+                  jars,
+                  useJavaTestRunner = build.artifacts.hasJavaTestRunner
+                )
+                holder.run(key, classDirs, extraArgs)
+              case None =>
+                runTests(extraArgs, allowExecve = allowExecve).waitFor()
+            }
+        }
+    }
+  }
+
+  /** Runs the test suites across `shardCount` test runner JVMs at the same time.
+    *
+    * Each JVM discovers the same suites and runs its own share of them, balanced with the suite
+    * durations of earlier sharded runs. Once all are done, the durations they report are saved for
+    * the next runs. `startShard` is expected to pipe the standard output of the JVMs, each line of
+    * which is printed prefixed with the index of its shard.
+    *
+    * @return
+    *   the first non-zero exit code of the shards, if any
+    */
+  private def runShards(
+    shardCount: Int,
+    durationsFile: os.Path,
+    reportDir: os.Path,
+    requireTests: Boolean,
+    logger: Logger
+  )(startShard: (Int, os.Path) => Process): Int = {
+    os.remove.all(reportDir)
+    os.makeDir.all(reportDir)
+    val reports   = (0 until shardCount).map(shard => reportDir / s"shard-$shard.tsv")
+    val processes = reports.zipWithIndex.map { case (report, shard) => startShard(shard, report) }
+    val pumps     = processes.zipWithIndex.map { case (process, shard) =>
+      process.getOutputStream.close()
+      printPrefixed(process.getInputStream, s"[shard $shard/$shardCount] ")
+    }
+    val exitCodes = processes.map(_.waitFor())
+    pumps.foreach(_.join())
+    val results   = reports.map(readShardReport(_, logger))
+    val durations = results.flatMap(_._1)
+    if (durations.nonEmpty)
+      saveDurations(durationsFile, durations, logger)
+    val eventCount = results.map(_._2).sum
+    logger.debug(
+      s"Ran $eventCount event(s) in $shardCount shards (exit codes: ${exitCodes.mkString(", ")})"
+    )
+    exitCodes.find(_ != 0).getOrElse {
+      if (requireTests && eventCount == 0) {
+        logger.error("Error: no tests were run.")
+        1
+      }
+      else 0
+    }
+  }
+
+  /** Prints the lines read from `input` to the standard output, prefixed with `prefix`, from a
+    * daemon thread which ends with the input
+    */
+  private def printPrefixed(input: java.io.InputStream, prefix: String): Thread = {
+    val thread = new Thread(s"test-shard-output-$prefix") {
+      setDaemon(true)
+      override def run(): Unit = {
+        val reader = new java.io.BufferedReader(
+          new java.io.InputStreamReader(input, java.nio.charset.StandardCharsets.UTF_8)
+        )
+        try {
+          var line = reader.readLine()
+          while (line != null) {
+            System.out.println(prefix + line)
+            line = reader.readLine()
+          }
+        }
+        finally reader.close()
+      }
     }
+    thread.start()
+    thread
   }
 
+  /** Reads the suite durations and event count written by a test runner for `--test-report` */
+  private def readShardReport(report: os.Path, logger: Logger): (Seq[(String, Long)], Int) =
+    if (os.isFile(report)) {
+      val lines     = os.read.lines(report).map(_.split("\t", -1).toSeq)
+      val durations = lines.collect {
+        case Seq("suite", name, duration) if duration.toLongOption.nonEmpty =>
+          name -> duration.toLong
+      }
+      val eventCount = lines.collect {
+        case Seq("events", count) if count.toIntOption.nonEmpty => count.toInt
+      }.sum
+      (durations, eventCount)
+    }
+    else {
+      logger.debug(s"No test report found at $report")
+      (Nil, 0)
+    }
+
+  /** Writes the content of the existing files among `files` to `target`, one after the other */
+  private def concatenate(files: Seq[os.Path], target: os.Path): Unit = {
+    os.makeDir.all(target / os.up)
+    val out = java.nio.file.Files.newOutputStream(target.toNIO)
+    try
+      for (file <- files if os.isFile(file))
+        java.nio.file.Files.copy(file.toNIO, out)
+    finally out.close()
+  }
+
+  /** Updates the durations of `durations`' suites in `durationsFile`, keeping the other ones */
+  private def saveDurations(
+    durationsFile: os.Path,
+    durations: Seq[(String, Long)],
+    logger: Logger
+  ): Unit = {
+    val previous =
+      if (os.isFile(durationsFile))
+        os.read.lines(durationsFile).flatMap { line =>
+          val idx = line.lastIndexOf('\t')
+          if (idx <= 0) Nil
+          else line.substring(idx + 1).toLongOption.map(line.substring(0, idx) -> _).toSeq
+        }
+      else Nil
+    val merged  = (previous ++ durations).toMap
+    val content = merged.toVector.sortBy(_._1).map { case (name, d) => s"$name\t$d\n" }.mkString
+    val tmp     = durationsFile / os.up / s".${durationsFile.last}.tmp"
+    try {
+      os.write.over(tmp, content, createFolders = true)
+      os.move(tmp, durationsFile, replaceExisting = true, atomicMove = true)
+    }
+    catch {
+      case e: java.io.IOException =>
+        logger.debug(s"Could not save test durations to $durationsFile: ${e.getMessage}")
+    }
+  }
+
+  /** Where the test runners keep the per-JAR test framework and class header indices */
+  private def testIndexDir: os.Path =
+    Directories.directories.cacheDir / "test-index"
+
   private def findTestFramework(classPath: Seq[Path], logger: Logger): Option[String] = {
     val classPath0 = classPath.map(_.toString)
 
     // https://github.com/VirtusLab/scala-cli/issues/426
     if classPath0.exists(_.contains("zio-test")) && !classPath0.exists(_.contains("zio-test-sbt"))
     then {
-      val parentInspector =
-        new AsmTestRunner.ParentInspector(classPath, TestRunnerLogger(logger.verbosity))
-      Runner.frameworkNames(classPath, parentInspector, logger) match {
+      val trLogger        = TestRunnerLogger(logger.verbosity)
+      val testIndex       = new TestIndex(testIndexDir.toNIO, trLogger)
+      val parentInspector = new AsmTestRunner.ParentInspector(classPath, trLogger, Some(testIndex))
+      Runner.frameworkNames(classPath, parentInspector, logger, Some(testIndex)) match {
         case Right(f) => f.headOption
         case Left(_)  =>
           logger.message(
@@ -35,7 +35,62 @@ final case class TestOptions(
   @Tag(tags.should)
   @Tag(tags.inShortHelp)
   @HelpMessage("Specify a glob pattern to filter the tests suite to be run.")
-  testOnly: Option[String] = None
+  testOnly: Option[String] = None,
+  @Group(HelpGroup.Test.toString)
+  @Tag(tags.experimental)
+  @HelpMessage("Discover test suites on all available cores (only supported for pure Java tests)")
+  parallelDiscovery: Option[Boolean] = None,
+  @Group(HelpGroup.Test.toString)
+  @Tag(tags.experimental)
+  @HelpMessage(
+    """Run up to this many test tasks at the same time (1 by default, running tasks sequentially).
+      |Tasks sharing a tag are never run concurrently, and the output of each task is printed whole.""".stripMargin
+  )
+  @ValueDescription("threads")
+  testParallelism: Option[Int] = None,
+  @Group(HelpGroup.Test.toString)
+  @Tag(tags.experimental)
+  @HelpMessage(
+    """Run the tasks of this test framework in parallel with --test-parallelism.
+      |Only JUnit, JUnit Jupiter, munit, utest and ScalaTest tasks run in parallel by default, other frameworks run their tasks sequentially.""".stripMargin
+  )
+  @ValueDescription("class-name")
+  @Name("testParallelFramework")
+  testParallelFrameworks: List[String] = Nil,
+  @Group(HelpGroup.Test.toString)
+  @Tag(tags.experimental)
+  @HelpMessage(
+    """Split test suites across this many JVMs running at the same time (JVM only).
+      |Suites are balanced using their durations in earlier sharded runs, or by count when none were recorded.""".stripMargin
+  )
+  @ValueDescription("count")
+  shards: Option[Int] = None,
+  @Group(HelpGroup.Test.toString)
+  @Tag(tags.experimental)
+  @HelpMessage(
+    "Write each test event, with its duration and failure details, to this file as JSON lines (JVM only)"
+  )
+  @ValueDescription("path")
+  testEvents: Option[String] = None,
+  @Group(HelpGroup.Test.toString)
+  @Tag(tags.experimental)
+  @HelpMessage("Write a JUnit XML report per test suite to this directory (JVM only)")
+  @ValueDescription("directory")
+  junitReportDir: Option[String] = None,
+  @Group(HelpGroup.Test.toString)
+  @Tag(tags.experimental)
+  @HelpMessage(
+    """With --watch, keep a test runner JVM running between test runs (JVM only).
+      |Dependencies stay loaded from one run to the next, project classes are loaded anew for each run.""".stripMargin
+  )
+  warmTestJvm: Option[Boolean] = None,
+  @Group(HelpGroup.Test.toString)
+  @Tag(tags.experimental)
+  @HelpMessage(
+    """Only run the test suites that failed last time, or that depend on classes that changed since (JVM only).
+      |Dependencies are found in the project bytecode. Any change in dependencies, resources or test arguments runs all suites.""".stripMargin
+  )
+  testImpact: Option[Boolean] = None
 ) extends HasSharedOptions
 
 object TestOptions {
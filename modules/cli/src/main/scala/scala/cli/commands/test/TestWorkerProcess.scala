@@ -0,0 +1,135 @@
+package scala.cli.commands.test
+
+import java.io.{
+  BufferedReader,
+  BufferedWriter,
+  File,
+  IOException,
+  InputStreamReader,
+  OutputStreamWriter
+}
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.TimeUnit
+
+import scala.annotation.tailrec
+import scala.build.Logger
+import scala.build.internal.Runner
+import scala.build.testrunner.TestWorker
+
+/** A test runner JVM kept running from one test run to the next, see [[TestWorker]] and
+  * `JavaTestWorker` in the test runners.
+  *
+  * The worker class path only has JARs, so that dependency classes stay loaded between runs. The
+  * project class directories are passed along with each run, and loaded by a new class loader
+  * every time.
+  */
+final class TestWorkerProcess private (val key: TestWorkerProcess.Key, process: Process) {
+
+  private val input =
+    new BufferedWriter(new OutputStreamWriter(process.getOutputStream, StandardCharsets.UTF_8))
+  private val output =
+    new BufferedReader(new InputStreamReader(process.getInputStream, StandardCharsets.UTF_8))
+
+  def isAlive: Boolean = process.isAlive
+
+  /** Runs tests in the worker, passing each line they print to `onLine`
+    *
+    * @return
+    *   the test runner exit code, or `None` if the worker exited before the end of the run
+    */
+  def run(
+    classDirs: Seq[os.Path],
+    args: Seq[String],
+    onLine: String => Unit = System.out.println
+  ): Option[Int] = {
+    val request = "run" +: classDirs.map(_.toString).mkString(File.pathSeparator) +: args
+    try {
+      input.write(request.mkString("\u0000"))
+      input.newLine()
+      input.flush()
+    }
+    catch {
+      case _: IOException => // the worker exited, readLine returns null below
+    }
+
+    @tailrec
+    def readOutput(): Option[Int] =
+      output.readLine() match {
+        case null => None
+        case line =>
+          val idx = line.indexOf(TestWorker.doneMarker)
+          if (idx < 0) {
+            onLine(line)
+            readOutput()
+          }
+          else {
+            if (idx > 0) onLine(line.substring(0, idx))
+            line.substring(idx + TestWorker.doneMarker.length).trim.toIntOption
+          }
+      }
+
+    readOutput()
+  }
+
+  def stop(): Unit = {
+    try {
+      input.write("exit")
+      input.newLine()
+      input.flush()
+    }
+    catch {
+      case _: IOException => // already exited
+    }
+    if (!process.waitFor(5L, TimeUnit.SECONDS))
+      process.destroyForcibly()
+  }
+}
+
+object TestWorkerProcess {
+
+  /** What a worker JVM is started with: a worker can only be reused if this didn't change */
+  final case class Key(
+    javaCommand: String,
+    javaOpts: Seq[String],
+    jars: Seq[os.Path],
+    useJavaTestRunner: Boolean
+  ) {
+    def mainClass: String =
+      if (useJavaTestRunner) "scala.build.testrunner.JavaTestWorker"
+      else "scala.build.testrunner.TestWorker"
+  }
+
+  def start(key: Key, logger: Logger): TestWorkerProcess = {
+    val command = Runner.jvmCommand(key.javaCommand, key.javaOpts, key.jars, key.mainClass, Nil)
+    logger.debug(s"Starting test worker ${key.mainClass}")
+    new TestWorkerProcess(key, Runner.run(command, logger, inheritStreams = false))
+  }
+
+  /** Keeps a worker around between the test runs of `scala-cli test --watch`, starting a new one
+    * if the previous one exited, or if its class path or JVM options changed.
+    */
+  final class Holder(logger: Logger) {
+    private var current = Option.empty[TestWorkerProcess]
+
+    def run(key: Key, classDirs: Seq[os.Path], args: Seq[String]): Int = synchronized {
+      val worker = current match {
+        case Some(w) if w.key == key && w.isAlive => w
+        case other                                =>
+          other.foreach(_.stop())
+          val w = start(key, logger)
+          current = Some(w)
+          w
+      }
+      worker.run(classDirs, args).getOrElse {
+        logger.error("Test worker exited unexpectedly, a new one will be started for the next run")
+        current = None
+        1
+      }
+    }
+
+    def stop(): Unit = synchronized {
+      current.foreach(_.stop())
+      current = None
+    }
+  }
+}
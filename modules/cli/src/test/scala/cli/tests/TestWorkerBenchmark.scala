@@ -0,0 +1,107 @@
+package cli.tests
+
+import java.io.{BufferedReader, File, InputStreamReader}
+import java.nio.charset.StandardCharsets
+import java.nio.file.Paths
+
+import scala.build.internal.Runner
+import scala.build.tests.TestLogger
+import scala.cli.commands.test.TestWorkerProcess
+
+/** Compares the latency of test runs in a new test runner JVM each time, like `scala-cli test
+  * --watch` does by default, and in a warm [[TestWorkerProcess]], like with `--warm-test-jvm`.
+  *
+  * Run with
+  * {{{
+  * ./mill -i 'cli[].test.runMain' cli.tests.TestWorkerBenchmark [runs]
+  * }}}
+  *
+  * Runs [[TestWorkerBenchmarkSuite]] from the class directory it was compiled to, with the rest of
+  * the class path of the benchmark as dependencies. For each run, prints the time it took until the
+  * first line of test output (edit-to-first-result, minus compilation), and until the end of the
+  * run.
+  */
+object TestWorkerBenchmark {
+
+  private def elapsedMs(start: Long): Long = (System.nanoTime() - start) / 1000000L
+
+  def main(args: Array[String]): Unit = {
+    val runs     = args.headOption.map(_.toInt).getOrElse(5)
+    val suite    = classOf[TestWorkerBenchmarkSuite]
+    val suiteDir =
+      os.Path(Paths.get(suite.getProtectionDomain.getCodeSource.getLocation.toURI))
+    val dependencies = sys.props("java.class.path")
+      .split(File.pathSeparator)
+      .filter(_.nonEmpty)
+      .map(os.Path(_, os.pwd))
+      .filter(_ != suiteDir)
+      .toSeq
+    val javaCommand = (os.Path(sys.props("java.home")) / "bin" / "java").toString
+    val runnerArgs  =
+      Seq("--test-framework=munit.Framework", s"--test-only=${suite.getName}", "--")
+    val logger = TestLogger(info = false)
+
+    def coldRun(): (Long, Long) = {
+      val start   = System.nanoTime()
+      val command = Runner.jvmCommand(
+        javaCommand,
+        Nil,
+        suiteDir +: dependencies,
+        "scala.build.testrunner.DynamicTestRunner",
+        runnerArgs
+      )
+      val process = new ProcessBuilder(command*)
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start()
+      process.getOutputStream.close()
+      val output = new BufferedReader(
+        new InputStreamReader(process.getInputStream, StandardCharsets.UTF_8)
+      )
+      output.readLine()
+      val firstResultMs = elapsedMs(start)
+      Iterator.continually(output.readLine()).takeWhile(_ != null).foreach(_ => ())
+      val exitCode = process.waitFor()
+      assert(exitCode == 0, s"Cold test run exited with code $exitCode")
+      (firstResultMs, elapsedMs(start))
+    }
+
+    val key    = TestWorkerProcess.Key(javaCommand, Nil, dependencies, useJavaTestRunner = false)
+    val worker = TestWorkerProcess.start(key, logger)
+    def warmRun(): (Long, Long) = {
+      val start         = System.nanoTime()
+      var firstResultMs = -1L
+      val exitCode      = worker.run(
+        Seq(suiteDir),
+        runnerArgs,
+        _ => if (firstResultMs < 0) firstResultMs = elapsedMs(start)
+      )
+      assert(exitCode.contains(0), s"Warm test run exited with $exitCode")
+      (firstResultMs, elapsedMs(start))
+    }
+
+    def report(name: String, run: () => (Long, Long)): Unit = {
+      val results = (1 to runs).map { idx =>
+        val (firstResultMs, totalMs) = run()
+        println(s"$name #$idx: first result after $firstResultMs ms, done after $totalMs ms")
+        firstResultMs
+      }
+      val sorted = results.sorted
+      println(s"$name: median time to first result ${sorted(sorted.length / 2)} ms")
+    }
+
+    try {
+      println(s"$runs runs, ${dependencies.length} dependency class path entries")
+      report("cold fork", () => coldRun())
+      report("warm worker", () => warmRun())
+    }
+    finally worker.stop()
+  }
+}
+
+/** Test suite run by [[TestWorkerBenchmark]] */
+class TestWorkerBenchmarkSuite extends munit.FunSuite {
+  for (idx <- 1 to 20)
+    test(s"test $idx") {
+      assertEquals(List.fill(idx)(idx).sum, idx * idx)
+    }
+}
@@ -0,0 +1,99 @@
+package scala.cli.parse.bench
+
+import org.openjdk.jmh.annotations.*
+import org.openjdk.jmh.infra.Blackhole
+
+import java.util.concurrent.TimeUnit
+
+import scala.cli.parse.{CommentExtractor, UsingDirectivesParser}
+import scala.compiletime.uninitialized
+
+/** Measures the using directives parser on the kinds of sources it runs on for every build.
+  *
+  * Run with
+  * {{{
+  * ./mill 'directives-parser-bench.runJmh'
+  * ./mill 'directives-parser-bench.runJmh' -p corpus=large-file UsingDirectivesParserBenchmark
+  * }}}
+  */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+class UsingDirectivesParserBenchmark:
+
+  @Param(Array("no-directives", "many-directives", "large-file"))
+  var corpus: String = uninitialized
+
+  private var sources: Array[Array[Char]] = uninitialized
+
+  @Setup
+  def setup(): Unit =
+    sources = Corpus(corpus).map(_.toCharArray).toArray
+
+  @Benchmark
+  def parse(bh: Blackhole): Unit =
+    for source <- sources do bh.consume(UsingDirectivesParser.parse(source))
+
+  @Benchmark
+  def extract(bh: Blackhole): Unit =
+    for source <- sources do bh.consume(CommentExtractor.extract(source))
+
+/** Generated sources resembling those of real projects. */
+object Corpus:
+
+  def apply(name: String): Seq[String] =
+    name match
+      case "no-directives" =>
+        (0 until 100).map(idx => code(idx, methods = 80))
+      case "many-directives" =>
+        (0 until 100).map(idx => directives(idx) + code(idx, methods = 80))
+      case "large-file" =>
+        // a few directives on top of a very large file
+        val header = directives(0).linesIterator.take(4).mkString("", "\n", "\n")
+        Seq(header + code(0, methods = 20000))
+      case _ =>
+        sys.error(s"Unknown corpus: $name")
+
+  private def directives(idx: Int): String =
+    s"""#!/usr/bin/env -S scala-cli shebang
+       |// Project settings
+       |//> using scala 3.3.4
+       |//> using jvm 17
+       |//> using options -deprecation -feature -Wunused:all
+       |//> using dep com.lihaoyi::os-lib:0.11.4 com.lihaoyi::upickle:4.1.0
+       |//> using dep org.typelevel::cats-core:2.12.0, org.typelevel::cats-effect:3.5.7
+       |//> using test.dep org.scalameta::munit:1.0.4
+       |//> using resourceDir ./resources
+       |//> using javaOpt -Xmx2g "-Dproject.name=project $idx"
+       |//> using publish.organization "org.example"
+       |//> using publish.version 1.0.$idx
+       |/* License header
+       | * spanning several lines
+       | */
+       |//> using mainClass example.pkg$idx.Main
+       |//> using `publish.name` project-$idx
+       |//> using exclude "**/generated/**"
+       |
+       |""".stripMargin
+
+  private def code(idx: Int, methods: Int): String =
+    val body = (0 until methods).map { m =>
+      s"""  /** Computes value $m, see [[Main$idx.value${m + 1}]] */
+         |  def value$m(input: Seq[Int]): Int =
+         |    // keep values above the threshold
+         |    input.filter(_ > $m).map(_ * 2).sum
+         |""".stripMargin
+    }
+    s"""package example.pkg$idx
+       |
+       |import scala.util.Try
+       |
+       |object Main$idx {
+       |${body.mkString("\n")}
+       |  def main(args: Array[String]): Unit =
+       |    println(Try(value0(args.toSeq.map(_.toInt))))
+       |}
+       |""".stripMargin
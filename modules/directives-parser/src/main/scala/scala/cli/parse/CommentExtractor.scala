@@ -34,22 +34,61 @@ object CommentExtractor:
   private val UsingDirectiveRegex = """^//>\s+using(?:\s|$)""".r
 
   def extract(rawContent: Array[Char]): ExtractorResult =
-    val content =
-      if rawContent.nonEmpty && rawContent(0) == '\uFEFF' then rawContent.drop(1)
-      else rawContent
+    val directives                = scala.collection.mutable.ArrayBuffer.empty[DirectiveLine]
+    val (codeOffset, diagnostics) =
+      scan(rawContent) { (start, end, lineNum) =>
+        directives += DirectiveLine(new String(rawContent, start, end - start), lineNum, start)
+      }
+    ExtractorResult(directives.toSeq, codeOffset, diagnostics)
+
+  /** Same as [[extract]], but passes the bounds of each directive line in `content` to
+    * `onDirective`, along with its line number, rather than copying its text.
+    *
+    * Lines are only copied to strings when they start with `//>` but not with `//> using`. Once
+    * code is found, the rest of the file is only looked at line by line if it contains `//>`.
+    *
+    * @return
+    *   the code offset and the diagnostics
+    */
+  private[parse] def scan(content: Array[Char])(
+    onDirective: (Int, Int, Int) => Unit
+  ): (Int, Seq[UsingDirectiveDiagnostic]) =
     val length      = content.length
-    val bomOffset   = rawContent.length - content.length
+    val bomOffset   = if length > 0 && content(0) == '\uFEFF' then 1 else 0
     val diagnostics = scala.collection.mutable.ArrayBuffer.empty[UsingDirectiveDiagnostic]
-    val directives  = scala.collection.mutable.ArrayBuffer.empty[DirectiveLine]
 
-    var offset    = 0
+    // All offsets below are offsets in `content`, BOM included.
+    var offset    = bomOffset
     var lineNum   = 0
     var codeStart = -1 // -1 means not yet found
 
-    def currentLineText(lineStartOff: Int): String =
-      var end = lineStartOff
+    def lineEnd(lineStart: Int): Int =
+      var end = lineStart
       while end < length && content(end) != '\n' do end += 1
-      new String(content, lineStartOff, end - lineStartOff)
+      end
+
+    // Offset of the first non-whitespace character of a line, like `String.stripLeading` does.
+    def trimmedStart(lineStart: Int, end: Int): Int =
+      var off = lineStart
+      while off < end && Character.isWhitespace(content(off)) do off += 1
+      off
+
+    def startsWith(off: Int, end: Int, prefix: String): Boolean =
+      end - off >= prefix.length && {
+        var i = 0
+        while i < prefix.length && content(off + i) == prefix.charAt(i) do i += 1
+        i == prefix.length
+      }
+
+    def afterLine(end: Int): Int =
+      if end < length then end + 1 else end
+
+    def containsDirectivePrefix(from: Int): Boolean =
+      var off = from + 2
+      while off < length &&
+        !(content(off) == '>' && content(off - 1) == '/' && content(off - 2) == '/')
+      do off += 1
+      off < length
 
     // Skip a block comment starting at `offset` (which points to `/` of `/*`).
     // Returns the offset just after the closing `*/`, updating `lineNum`.
@@ -75,30 +114,20 @@ object CommentExtractor:
 
     while offset < length && codeStart < 0 do
       val lineStart = offset
+      val end       = lineEnd(lineStart)
+      val trimmed   = trimmedStart(lineStart, end)
 
-      // Determine what kind of line this is (without consuming it yet)
-      val lineContent = currentLineText(lineStart)
-      val trimmed     = lineContent.stripLeading()
-
-      if trimmed.isEmpty then
+      if trimmed == end then
         // Blank line: skip
-        offset = lineStart + lineContent.length
-        if offset < length && content(offset) == '\n' then offset += 1
+        offset = afterLine(end)
         lineNum += 1
-      else if lineNum == 0 && trimmed.startsWith("#!") then
+      else if lineNum == 0 && startsWith(trimmed, end, "#!") then
         // Shebang: skip only on the very first line
-        offset = lineStart + lineContent.length
-        if offset < length && content(offset) == '\n' then offset += 1
+        offset = afterLine(end)
         lineNum += 1
-      else if trimmed.startsWith("/*") then
+      else if startsWith(trimmed, end, "/*") then
         // Block comment: skip the whole comment, may span multiple lines
-        val commentStartOff         = lineStart + lineContent.indexOf("/*")
-        val (afterComment, newLine) =
-          skipBlockComment(commentStartOff, lineNum)
-        // After the block comment, check if the rest of the line (if any) is blank
-        // Find the end of the current logical "section" that covers the block comment
-        // We need to advance `offset` and `lineNum` past the block comment.
-        // Also check if the block comment ends on the same line and there's more content.
+        val (afterComment, newLine) = skipBlockComment(trimmed, lineNum)
         offset = afterComment
         lineNum = newLine
         // Skip to end of the current line (in case there's trailing whitespace after `*/`)
@@ -109,33 +138,35 @@ object CommentExtractor:
             codeStart = lineStart
           offset += 1
         if codeStart < 0 then
-          if offset < length && content(offset) == '\n' then offset += 1
+          offset = afterLine(offset)
           lineNum += 1
-      else if trimmed.startsWith("//") && !trimmed.startsWith("//>") then
+      else if startsWith(trimmed, end, "//") && !startsWith(trimmed, end, "//>") then
         // Line comment (not a directive): skip
-        offset = lineStart + lineContent.length
-        if offset < length && content(offset) == '\n' then offset += 1
+        offset = afterLine(end)
         lineNum += 1
-      else if trimmed.startsWith("//>") then
-        val withoutLeading = lineContent.dropWhile(c => c == ' ' || c == '\t')
-        val leadingLen     = lineContent.length - withoutLeading.length
-        if withoutLeading.startsWith("//> using") then
-          val adjustedOffset = lineStart + leadingLen + bomOffset
-          directives += DirectiveLine(withoutLeading, lineNum, adjustedOffset)
-          offset = lineStart + lineContent.length
-          if offset < length && content(offset) == '\n' then offset += 1
-          lineNum += 1
-        else if UsingDirectiveRegex.findFirstIn(withoutLeading).isDefined then
-          val linePos = Some(Position(lineNum, leadingLen, lineStart + leadingLen + bomOffset))
-          val msg     =
-            s"Using directive must use the exact prefix `//> using`. Invalid prefix in: ${withoutLeading.trim}"
-          diagnostics += UsingDirectiveDiagnostic(msg, DiagnosticSeverity.Warning, linePos)
-          offset = lineStart + lineContent.length
-          if offset < length && content(offset) == '\n' then offset += 1
+      else if startsWith(trimmed, end, "//>") then
+        // Only spaces and tabs may precede a directive
+        var directiveStart = lineStart
+        while directiveStart < end &&
+          (content(directiveStart) == ' ' || content(directiveStart) == '\t')
+        do directiveStart += 1
+        if startsWith(directiveStart, end, "//> using") then
+          onDirective(directiveStart, end, lineNum)
+          offset = afterLine(end)
           lineNum += 1
-          codeStart = offset
         else
-          codeStart = lineStart
+          val withoutLeading = new String(content, directiveStart, end - directiveStart)
+          if UsingDirectiveRegex.findFirstIn(withoutLeading).isDefined then
+            val linePos =
+              Some(Position(lineNum, directiveStart - lineStart, directiveStart))
+            val msg =
+              s"Using directive must use the exact prefix `//> using`. Invalid prefix in: ${withoutLeading.trim}"
+            diagnostics += UsingDirectiveDiagnostic(msg, DiagnosticSeverity.Warning, linePos)
+            offset = afterLine(end)
+            lineNum += 1
+            codeStart = offset
+          else
+            codeStart = lineStart
       else
         // First code line
         codeStart = lineStart
@@ -143,35 +174,33 @@ object CommentExtractor:
     // If we never found code, codeOffset is end of file
     val codeOffset = if codeStart >= 0 then codeStart else length
 
-    // Continue scanning the rest of the file for post-code directives
-    if codeStart >= 0 then
+    // Continue scanning the rest of the file for post-code directives, if there can be any
+    if codeStart >= 0 && containsDirectivePrefix(codeStart) then
       offset = codeStart
       var ln = lineNum
 
       while offset < length do
-        val lineStart   = offset
-        val lineContent = currentLineText(lineStart)
-        val trimmed     = lineContent.stripLeading()
+        val lineStart = offset
+        val end       = lineEnd(lineStart)
+        val trimmed   = trimmedStart(lineStart, end)
 
-        if trimmed.startsWith("/*") then
+        if startsWith(trimmed, end, "/*") then
           // Skip block comment
-          val commentStartOff         = lineStart + lineContent.indexOf("/*")
-          val (afterComment, newLine) = skipBlockComment(commentStartOff, ln)
+          val (afterComment, newLine) = skipBlockComment(trimmed, ln)
           offset = afterComment
           ln = newLine
-          while offset < length && content(offset) != '\n' do offset += 1
-          if offset < length && content(offset) == '\n' then offset += 1
+          offset = afterLine(lineEnd(offset))
           ln += 1
         else
-          val linePos = Some(Position(ln, 0, lineStart + bomOffset))
-          if trimmed.startsWith("//> using") then
-            val msg = s"Ignoring using directive found after Scala code: ${trimmed.trim}"
-            diagnostics += UsingDirectiveDiagnostic(msg, DiagnosticSeverity.Warning, linePos)
-          else if UsingDirectiveRegex.findFirstIn(trimmed).isDefined then
-            val msg = s"Ignoring using directive found after Scala code: ${trimmed.trim}"
-            diagnostics += UsingDirectiveDiagnostic(msg, DiagnosticSeverity.Warning, linePos)
-          offset = lineStart + lineContent.length
-          if offset < length && content(offset) == '\n' then offset += 1
+          if startsWith(trimmed, end, "//>") then
+            val trimmedText = new String(content, trimmed, end - trimmed)
+            if trimmedText.startsWith("//> using") ||
+              UsingDirectiveRegex.findFirstIn(trimmedText).isDefined
+            then
+              val linePos = Some(Position(ln, 0, lineStart))
+              val msg = s"Ignoring using directive found after Scala code: ${trimmedText.trim}"
+              diagnostics += UsingDirectiveDiagnostic(msg, DiagnosticSeverity.Warning, linePos)
+          offset = afterLine(end)
           ln += 1
 
-    ExtractorResult(directives.toSeq, codeOffset + bomOffset, diagnostics.toSeq)
+    (codeOffset, diagnostics.toSeq)
@@ -24,13 +24,44 @@ object Lexer:
     *   tokens produced from this line, ending with [[Token.Newline]]
     */
   def tokenize(lineText: String, lineNum: Int, lineStartOffset: Int): Seq[Token] =
-    val chars  = lineText.toArray
-    val length = chars.length
-    val buf    = scala.collection.mutable.ArrayBuffer.empty[Token]
+    val buf = scala.collection.mutable.ArrayBuffer.empty[Token]
+    tokenizeInto(buf, lineText.toCharArray, 0, lineText.length, lineNum, lineStartOffset)
+    buf.toSeq
+
+  /** Tokenize the directive line found between `start` and `end` in `chars`, adding tokens to
+    * `buf`.
+    *
+    * The line isn't copied: only the values of tokens are, straight from `chars`.
+    *
+    * @param lineStartOffset
+    *   absolute byte offset of the first character of this line (at `start` in `chars`) in the
+    *   original file
+    */
+  private[parse] def tokenizeInto(
+    buf: scala.collection.mutable.ArrayBuffer[Token],
+    chars: Array[Char],
+    start: Int,
+    end: Int,
+    lineNum: Int,
+    lineStartOffset: Int
+  ): Unit =
+    val length = end - start
 
     def pos(col: Int): Position =
       Position(lineNum, col, lineStartOffset + col)
 
+    def charAt(col: Int): Char = chars(start + col)
+
+    def text(fromCol: Int, untilCol: Int): String =
+      new String(chars, start + fromCol, untilCol - fromCol)
+
+    def textIs(fromCol: Int, untilCol: Int, value: String): Boolean =
+      untilCol - fromCol == value.length && {
+        var i = 0
+        while i < value.length && charAt(fromCol + i) == value.charAt(i) do i += 1
+        i == value.length
+      }
+
     var col = 0
 
     def skipDirectivePrefix(): Unit =
@@ -43,9 +74,9 @@ object Lexer:
     skipDirectivePrefix()
 
     while col < length do
-      val c = chars(col)
+      val c = charAt(col)
       if isWhitespace(c) then col += 1
-      else if c == ',' && (col + 1 >= length || isWhitespace(chars(col + 1))) then
+      else if c == ',' && (col + 1 >= length || isWhitespace(charAt(col + 1))) then
         // Standalone comma: deprecated separator
         buf += Token.Comma(pos(col))
         col += 1
@@ -53,44 +84,42 @@ object Lexer:
         // Backtick-quoted identifier: strip backticks, treat content as a bare Ident
         val startCol = col
         col += 1
-        val sb     = new StringBuilder
-        var closed = false
-        while col < length && !closed do
-          chars(col) match
-            case '`' =>
-              closed = true
-              col += 1
-            case other =>
-              sb += other
-              col += 1
-        val text = sb.toString
+        while col < length && charAt(col) != '`' do col += 1
+        val closed = col < length
         if !closed then
           buf += Token.LexError("Unterminated backtick identifier", pos(startCol))
-        else if text.isEmpty then
+        else if col == startCol + 1 then
+          col += 1
           buf += Token.LexError("Empty backtick identifier", pos(startCol))
         else
-          buf += Token.Ident(text, pos(startCol))
+          buf += Token.Ident(text(startCol + 1, col), pos(startCol))
+          col += 1
       else if c == '"' then
         // Double-quoted string literal
         val startCol = col
         col += 1
-        val sb     = new StringBuilder
+        // only allocated once an escape sequence is found
+        var sb: StringBuilder = null
+        def builder(): StringBuilder =
+          if sb == null then sb = new StringBuilder(text(startCol + 1, col))
+          sb
         var closed = false
         while col < length && !closed do
-          chars(col) match
+          charAt(col) match
             case '"' =>
               closed = true
               col += 1
             case '\\' if col + 1 < length =>
+              val sb0 = builder()
               col += 1
-              val escaped = chars(col) match
+              val escaped = charAt(col) match
                 case 'n'                     => '\n'
                 case 't'                     => '\t'
                 case 'r'                     => '\r'
                 case '\\'                    => '\\'
                 case '"'                     => '"'
                 case 'u' if col + 4 < length =>
-                  val hex = lineText.substring(col + 1, col + 5)
+                  val hex = text(col + 1, col + 5)
                   col += 4
                   try Integer.parseInt(hex, 16).toChar
                   catch
@@ -101,22 +130,22 @@ object Lexer:
                       )
                       ' '
                 case other => other
-              sb += escaped
+              sb0 += escaped
               col += 1
             case other =>
-              sb += other
+              if sb != null then sb += other
               col += 1
         if !closed then
           buf += Token.LexError("Unterminated string literal", pos(startCol))
         else
-          buf += Token.StringLit(sb.toString, pos(startCol))
+          val value = if sb == null then text(startCol + 1, col - 1) else sb.toString
+          buf += Token.StringLit(value, pos(startCol))
       else
         // Bare identifier / value: consume until whitespace or (comma + whitespace/end)
         val startCol = col
-        val sb       = new StringBuilder
         var stop     = false
         while col < length && !stop do
-          val ch = chars(col)
+          val ch = charAt(col)
           if isWhitespace(ch) then stop = true
           else if ch == '"' then
             buf += Token.LexError(
@@ -124,27 +153,23 @@ object Lexer:
               pos(col)
             )
             stop = true
-          else if ch == ',' && (col + 1 >= length || isWhitespace(chars(col + 1))) then
+          else if ch == ',' && (col + 1 >= length || isWhitespace(charAt(col + 1))) then
             // Comma followed by whitespace/end: stop here, don't consume the comma
             stop = true
           else
-            sb += ch
             col += 1
-        val text = sb.toString
-        if text.nonEmpty then
-          text match
-            case "using" => buf += Token.Using(pos(startCol))
-            case "true"  => buf += Token.BoolLit(true, pos(startCol))
-            case "false" => buf += Token.BoolLit(false, pos(startCol))
-            case _       =>
-              // Check if this looks like a dotted key segment (may have internal dots)
-              // We emit Dot tokens for '.' characters between identifiers in key position;
-              // the Parser handles the distinction between key and value contexts.
-              // For simplicity, emit the whole bare token as Ident — the Parser splits on dots.
-              buf += Token.Ident(text, pos(startCol))
+        if col > startCol then
+          if textIs(startCol, col, "using") then buf += Token.Using(pos(startCol))
+          else if textIs(startCol, col, "true") then buf += Token.BoolLit(true, pos(startCol))
+          else if textIs(startCol, col, "false") then buf += Token.BoolLit(false, pos(startCol))
+          else
+            // Check if this looks like a dotted key segment (may have internal dots)
+            // We emit Dot tokens for '.' characters between identifiers in key position;
+            // the Parser handles the distinction between key and value contexts.
+            // For simplicity, emit the whole bare token as Ident — the Parser splits on dots.
+            buf += Token.Ident(text(startCol, col), pos(startCol))
 
     buf += Token.Newline(pos(length))
-    buf.toSeq
 
   /** Tokenize a directive line and split dotted key parts into separate Ident + Dot tokens.
     *
@@ -6,6 +6,9 @@ package scala.cli.parse
   *   1. [[CommentExtractor.extract]] – scans the source and identifies `//> using` lines
   *   2. [[Lexer.tokenize]] – tokenizes the content of each directive line
   *   3. [[Parser.parse]] – converts the token stream into [[UsingDirective]] nodes
+  *
+  * The first two phases run together in [[parse]], so that directive lines are tokenized straight
+  * from the source content rather than from copies of these lines.
   */
 object UsingDirectivesParser:
 
@@ -17,26 +20,23 @@ object UsingDirectivesParser:
     *   a [[UsingDirectivesResult]] with parsed directives, code offset, and diagnostics
     */
   def parse(content: Array[Char]): UsingDirectivesResult =
-    val extracted = CommentExtractor.extract(content)
-
-    val allTokens = scala.collection.mutable.ArrayBuffer.empty[Token]
-    for line <- extracted.directiveLines do
-      val tokens = Lexer.tokenize(line.content, line.lineNum, line.lineStartOffset)
-      allTokens ++= tokens
+    val allTokens                          = scala.collection.mutable.ArrayBuffer.empty[Token]
+    var eofPos                             = Position(0, 0, 0)
+    val (codeOffset, extractorDiagnostics) =
+      CommentExtractor.scan(content) { (start, end, lineNum) =>
+        Lexer.tokenizeInto(allTokens, content, start, end, lineNum, start)
+        eofPos = Position(lineNum, 0, start)
+      }
 
-    allTokens += Token.Eof(
-      extracted.directiveLines.lastOption
-        .map(l => Position(l.lineNum, 0, l.lineStartOffset))
-        .getOrElse(Position(0, 0, 0))
-    )
+    allTokens += Token.Eof(eofPos)
 
-    val (directives, parserDiagnostics) = Parser.parse(allTokens.toSeq)
+    val (directives, parserDiagnostics) = Parser.parse(allTokens.toIndexedSeq)
 
-    val allDiagnostics = parserDiagnostics ++ extracted.diagnostics
+    val allDiagnostics = parserDiagnostics ++ extractorDiagnostics
 
     UsingDirectivesResult(
       directives = directives,
-      codeOffset = extracted.codeOffset,
+      codeOffset = codeOffset,
       diagnostics = allDiagnostics
     )
 
@@ -506,3 +506,49 @@ class ParserTests extends FunSuite:
     val errs = r.diagnostics.filter(_.severity == DiagnosticSeverity.Error)
     assert(errs.exists(_.message.contains("Whitespace is required")), s"errors=$errs")
   }
+
+  test("parsing tokenizes directive lines in place like the separate phases do") {
+    def phaseByPhase(src: String): UsingDirectivesResult =
+      val extracted = CommentExtractor.extract(src.toCharArray)
+      val tokens    = extracted.directiveLines.flatMap { line =>
+        Lexer.tokenize(line.content, line.lineNum, line.lineStartOffset)
+      }
+      val eof = Token.Eof(
+        extracted.directiveLines.lastOption
+          .map(l => Position(l.lineNum, 0, l.lineStartOffset))
+          .getOrElse(Position(0, 0, 0))
+      )
+      val (directives, parserDiagnostics) = Parser.parse(tokens :+ eof)
+      UsingDirectivesResult(
+        directives,
+        extracted.codeOffset,
+        parserDiagnostics ++ extracted.diagnostics
+      )
+
+    val sources = Seq(
+      "",
+      "object Main",
+      "\uFEFF//> using scala 3\nobject Main\n",
+      """#!/usr/bin/env -S scala-cli shebang
+        |// a comment
+        |  //> using dep "com.lihaoyi::os-lib:0.11.4" `my key` true,
+        |/* a block
+        | * //> using dep ignored:ignored:1.0
+        | */
+        |  //> using javacOpt "a\tbA" "un\"closed
+        |//>  using option -deprecation
+        |object Main:
+        |  // //> using dep not:a:directive
+        |//> using scala 2.13
+        |/* //> using dep in:comment:1.0 */
+        |""".stripMargin,
+      """//> using `` ``unclosed
+        |//> using dep a,"b" c, d,, e
+        |//>using scala 3
+        |val x = 1 /*
+        |//> using dep after:code:1.0 */ //> using scala 3
+        |""".stripMargin
+    )
+    for src <- sources do
+      assertEquals(parse(src), phaseByPhase(src), s"source: $src")
+  }
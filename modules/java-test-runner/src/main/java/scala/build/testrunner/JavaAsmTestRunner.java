@@ -1,6 +1,8 @@
 package scala.build.testrunner;
 
 import org.objectweb.asm.*;
+import org.objectweb.asm.signature.SignatureReader;
+import org.objectweb.asm.signature.SignatureVisitor;
 import sbt.testing.*;
 
 import java.io.*;
@@ -8,30 +10,163 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 import java.util.zip.*;
 
 public class JavaAsmTestRunner {
 
+    /**
+     * Test discovery only needs class headers, annotations and method signatures, so method
+     * bodies, debug info and stack map frames are never parsed.
+     */
+    static final int HEADER_ONLY =
+        ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+
+    /** What test discovery needs to know about a class, read from its bytecode only. */
+    public static class ClassInfo {
+        static final ClassInfo MISSING = new ClassInfo(
+            0, 0, null, Collections.emptyList(), Collections.emptySet(), Collections.emptySet());
+
+        private final int access;
+        private final int publicConstructorCount;
+        private final String superName;
+        private final List<String> parents;
+        private final Set<String> classAnnotations;
+        private final Set<String> publicMethodAnnotations;
+
+        ClassInfo(
+            int access,
+            int publicConstructorCount,
+            String superName,
+            List<String> parents,
+            Set<String> classAnnotations,
+            Set<String> publicMethodAnnotations
+        ) {
+            this.access = access;
+            this.publicConstructorCount = publicConstructorCount;
+            this.superName = superName;
+            this.parents = parents;
+            this.classAnnotations = classAnnotations;
+            this.publicMethodAnnotations = publicMethodAnnotations;
+        }
+
+        static ClassInfo of(TestClassChecker checker) {
+            return new ClassInfo(
+                checker.getAccess(),
+                checker.getPublicConstructorCount(),
+                checker.getSuperName(),
+                Collections.unmodifiableList(checker.getImplements()),
+                Collections.unmodifiableSet(checker.getClassAnnotations()),
+                Collections.unmodifiableSet(checker.getPublicMethodAnnotations())
+            );
+        }
+
+        public int getAccess() { return access; }
+        public boolean isAbstract() { return (access & Opcodes.ACC_ABSTRACT) != 0; }
+        public boolean isInterface() { return (access & Opcodes.ACC_INTERFACE) != 0; }
+        public int getPublicConstructorCount() { return publicConstructorCount; }
+        /** Internal name of the superclass, or {@code null} for interfaces and missing classes. */
+        public String getSuperName() { return superName; }
+        public List<String> getParents() { return parents; }
+        /** Descriptors of the runtime-visible annotations of the class. */
+        public Set<String> getClassAnnotations() { return classAnnotations; }
+        /** Descriptors of the runtime-visible annotations of the public methods of the class. */
+        public Set<String> getPublicMethodAnnotations() { return publicMethodAnnotations; }
+    }
+
     public static class ParentInspector {
         private final List<Path> classPath;
+        private final JavaClassPathResources resources;
+        private final JavaTestIndex index;
         private final JavaTestLogger logger;
-        private final ConcurrentHashMap<String, List<String>> cache = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, ClassInfo> cache = new ConcurrentHashMap<>();
 
         public ParentInspector(List<Path> classPath, JavaTestLogger logger) {
+            this(classPath, null, null, logger);
+        }
+
+        /** Classes of JARs are read from {@code index} rather than from the JARs, if it's not null. */
+        public ParentInspector(List<Path> classPath, JavaTestIndex index, JavaTestLogger logger) {
+            this(classPath, null, index, logger);
+        }
+
+        /**
+         * Classes are looked up in {@code resources} if it's not null, rather than by trying each
+         * class path entry in turn. {@code resources} must be built from {@code classPath}.
+         */
+        public ParentInspector(
+            List<Path> classPath,
+            JavaClassPathResources resources,
+            JavaTestIndex index,
+            JavaTestLogger logger
+        ) {
             this.classPath = classPath;
+            this.resources = resources;
+            this.index = index;
             this.logger = logger;
         }
 
+        // Safe to share between discovery threads. The class path lookup happens outside of
+        // the map, so that concurrent lookups of unrelated classes don't block each other; two
+        // threads racing on the same class compute the same value, and the first one is kept.
+        public ClassInfo classInfo(String className) {
+            ClassInfo cached = cache.get(className);
+            if (cached != null) return cached;
+            ClassInfo info = findClassInfo(className);
+            ClassInfo previous = cache.putIfAbsent(className, info);
+            return previous == null ? info : previous;
+        }
+
+        private ClassInfo findClassInfo(String className) {
+            if (resources != null) {
+                String resourceName = className + ".class";
+                Path owner = resources.owner(resourceName);
+                if (owner == null) return ClassInfo.MISSING;
+                JavaTestIndex.JarIndex jarIndex = jarIndex(index, owner);
+                ClassInfo indexed = jarIndex == null ? null : jarIndex.getClasses().get(className);
+                if (indexed == null) indexed = indexedClassInfo(owner, className);
+                if (indexed != null) return indexed;
+                byte[] byteCode = resources.read(owner, resourceName);
+                return byteCode == null ? ClassInfo.MISSING : classInfo(byteCode);
+            }
+            for (Path entry : classPath) {
+                JavaTestIndex.JarIndex jarIndex = jarIndex(index, entry);
+                if (jarIndex != null) {
+                    ClassInfo info = jarIndex.getClasses().get(className);
+                    if (info != null) return info;
+                    continue;
+                }
+                ClassInfo indexed = indexedClassInfo(entry, className);
+                if (indexed != null) return indexed;
+                byte[] byteCode = findInClassPathEntry(entry, className + ".class", logger);
+                if (byteCode != null) return classInfo(byteCode);
+            }
+            return ClassInfo.MISSING;
+        }
+
+        private ClassInfo indexedClassInfo(Path entry, String className) {
+            JavaTestIndex.ClassDirectoryIndex dirIndex = classDirectoryIndex(entry, logger);
+            JavaTestIndex.IndexedClass indexed = dirIndex == null ? null : dirIndex.get(className);
+            return indexed == null ? null : indexed.getInfo();
+        }
+
+        private static ClassInfo classInfo(byte[] byteCode) {
+            TestClassChecker checker = new TestClassChecker();
+            ClassReader reader = new ClassReader(byteCode);
+            reader.accept(checker, HEADER_ONLY);
+            return ClassInfo.of(checker);
+        }
+
         private List<String> parents(String className) {
-            return cache.computeIfAbsent(className, name -> {
-                byte[] byteCode = findInClassPath(classPath, name + ".class", logger);
-                if (byteCode == null) return Collections.emptyList();
-                TestClassChecker checker = new TestClassChecker();
-                ClassReader reader = new ClassReader(byteCode);
-                reader.accept(checker, 0);
-                return checker.getImplements();
-            });
+            return classInfo(className).getParents();
+        }
+
+        /** Whether the annotation with descriptor {@code descriptor} is meta-annotated with {@code @Inherited}. */
+        public boolean isInherited(String annotationDescriptor) {
+            String name = annotationDescriptor.substring(1, annotationDescriptor.length() - 1);
+            return classInfo(name).getClassAnnotations().contains(INHERITED_DESCRIPTOR);
         }
 
         public List<String> allParents(String className) {
@@ -49,23 +184,287 @@ public class JavaAsmTestRunner {
         }
     }
 
+    /**
+     * Streams the classes of a class path through a single reusable byte window, so that at most
+     * one class file is held in memory at any time, whatever the size of the class path.
+     */
+    public static class ClassScanner {
+
+        /** Receives each class; returns {@code false} to stop the scan early. */
+        public interface Visitor {
+            boolean visit(String name, ClassReader reader);
+        }
+
+        private static final int INITIAL_WINDOW_SIZE = 16384;
+
+        private final JavaTestLogger logger;
+        private byte[] window = new byte[INITIAL_WINDOW_SIZE];
+        private int classLength = 0;
+        private long classCount = 0L;
+        private long bytesRead = 0L;
+
+        public ClassScanner(JavaTestLogger logger) {
+            this.logger = logger;
+        }
+
+        /** Size of the byte window, i.e. the largest amount of bytecode held at any time. */
+        public int windowSize() { return window.length; }
+        public long classCount() { return classCount; }
+        public long bytesRead() { return bytesRead; }
+
+        /**
+         * Visits every class of {@code classPath}, in class path order. When a class name appears
+         * in several entries, only the first one is visited, like a class loader would.
+         */
+        public void scan(List<Path> classPath, boolean keepJars, Visitor visitor) {
+            Set<String> seen = new HashSet<>();
+            for (Path entry : classPath) {
+                if (!scan(entry, keepJars, seen, visitor)) return;
+            }
+        }
+
+        /**
+         * Visits the classes {@code names} (internal names) of a class path entry opened
+         * beforehand, which several scanners can read at the same time.
+         */
+        public void scan(OpenEntry entry, List<String> names, Visitor visitor) {
+            for (String name : names) {
+                boolean read;
+                if (entry.zipFile == null) read = readFile(entry.path.resolve(name + ".class"));
+                else {
+                    ZipEntry ze = entry.zipFile.getEntry(name + ".class");
+                    read = ze != null && readEntry(entry.zipFile, ze);
+                }
+                if (read && !visit(name, visitor)) return;
+            }
+        }
+
+        private boolean scan(Path entry, boolean keepJars, Set<String> seen, Visitor visitor) {
+            if (Files.isDirectory(entry)) {
+                try (Stream<Path> stream = Files.walk(entry, Integer.MAX_VALUE)) {
+                    Iterator<Path> it = stream.iterator();
+                    while (it.hasNext()) {
+                        Path p = it.next();
+                        String name = classFileName(entry, p);
+                        if (name == null || !seen.add(name)) continue;
+                        if (readFile(p) && !visit(name, visitor)) return false;
+                    }
+                } catch (IOException | UncheckedIOException e) {
+                    logger.log("Could not walk directory " + entry + ": " + e.getMessage());
+                }
+            } else if (keepJars && Files.isRegularFile(entry)) {
+                try (ZipFile zf = new ZipFile(entry.toFile())) {
+                    Enumeration<? extends ZipEntry> entries = zf.entries();
+                    while (entries.hasMoreElements()) {
+                        ZipEntry ze = entries.nextElement();
+                        String name = classEntryName(ze);
+                        if (name == null || !seen.add(name)) continue;
+                        if (readEntry(zf, ze) && !visit(name, visitor)) return false;
+                    }
+                } catch (IOException e) {
+                    logger.log("Could not read JAR " + entry + ": " + e.getMessage());
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Opens the entries of {@code classPath} and lists the internal names of their classes,
+         * in class path order, without reading any bytecode. Names shadowed by an earlier entry
+         * are left out, and so are entries without classes. The returned entries must be closed.
+         */
+        public static LinkedHashMap<OpenEntry, List<String>> openClassPath(
+            List<Path> classPath, boolean keepJars, JavaTestLogger logger
+        ) {
+            LinkedHashMap<OpenEntry, List<String>> result = new LinkedHashMap<>();
+            Set<String> seen = new HashSet<>();
+            for (Path entry : classPath) {
+                OpenEntry opened =
+                    keepJars || Files.isDirectory(entry) ? OpenEntry.open(entry, logger) : null;
+                if (opened == null) continue;
+                List<String> names = new ArrayList<>();
+                for (String name : opened.classNames(logger))
+                    if (seen.add(name)) names.add(name);
+                if (names.isEmpty()) opened.close();
+                else result.put(opened, names);
+            }
+            return result;
+        }
+
+        /**
+         * A class path entry, opened once so that its JAR isn't opened again by each of the
+         * scanners reading its classes. Reading it from several threads is fine.
+         */
+        public static final class OpenEntry implements AutoCloseable {
+            private final Path path;
+            private final ZipFile zipFile;
+
+            private OpenEntry(Path path, ZipFile zipFile) {
+                this.path = path;
+                this.zipFile = zipFile;
+            }
+
+            /** Opens {@code entry}, or returns {@code null} if it's not a directory nor a JAR. */
+            public static OpenEntry open(Path entry, JavaTestLogger logger) {
+                if (Files.isDirectory(entry)) return new OpenEntry(entry, null);
+                if (!Files.isRegularFile(entry)) return null;
+                try {
+                    return new OpenEntry(entry, new ZipFile(entry.toFile()));
+                } catch (IOException e) {
+                    logger.log("Could not read JAR " + entry + ": " + e.getMessage());
+                    return null;
+                }
+            }
+
+            public Path getPath() { return path; }
+
+            /** Internal names of the classes of this entry, read from the JAR directory only. */
+            public List<String> classNames(JavaTestLogger logger) {
+                List<String> names = new ArrayList<>();
+                if (zipFile == null) {
+                    try (Stream<Path> stream = Files.walk(path, Integer.MAX_VALUE)) {
+                        Iterator<Path> it = stream.iterator();
+                        while (it.hasNext()) {
+                            String name = classFileName(path, it.next());
+                            if (name != null) names.add(name);
+                        }
+                    } catch (IOException | UncheckedIOException e) {
+                        logger.log("Could not walk directory " + path + ": " + e.getMessage());
+                    }
+                } else {
+                    Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                    while (entries.hasMoreElements()) {
+                        String name = classEntryName(entries.nextElement());
+                        if (name != null) names.add(name);
+                    }
+                }
+                return names;
+            }
+
+            @Override
+            public void close() {
+                if (zipFile != null) {
+                    try {
+                        zipFile.close();
+                    } catch (IOException e) {
+                        // nothing was written, nothing to lose
+                    }
+                }
+            }
+        }
+
+        private static String classFileName(Path entry, Path p) {
+            if (!p.getFileName().toString().endsWith(".class")) return null;
+            String rel = entry.relativize(p).toString().replace('\\', '/');
+            return rel.substring(0, rel.length() - 6);
+        }
+
+        private static String classEntryName(ZipEntry ze) {
+            if (ze.isDirectory() || !ze.getName().endsWith(".class")) return null;
+            return ze.getName().substring(0, ze.getName().length() - 6);
+        }
+
+        private boolean readFile(Path p) {
+            try (InputStream is = Files.newInputStream(p)) {
+                classLength = read(is, Files.size(p));
+                return true;
+            } catch (IOException e) {
+                logger.debug("Could not read class file " + p + ": " + e.getMessage());
+                return false;
+            }
+        }
+
+        private boolean readEntry(ZipFile zf, ZipEntry ze) {
+            try (InputStream is = zf.getInputStream(ze)) {
+                classLength = read(is, ze.getSize());
+                return true;
+            } catch (IOException e) {
+                logger.debug("Could not read " + ze.getName() + " from " + zf.getName() + ": " + e.getMessage());
+                return false;
+            }
+        }
+
+        private boolean visit(String name, Visitor visitor) {
+            classCount++;
+            bytesRead += classLength;
+            ClassReader reader;
+            try {
+                reader = new ClassReader(window, 0, classLength);
+            } catch (IllegalArgumentException e) {
+                logger.debug("Could not parse bytecode of " + name + ": " + e.getMessage());
+                return true;
+            }
+            return visitor.visit(name, reader);
+        }
+
+        /** Reads {@code is} fully into the window, growing it only for the largest classes. */
+        private int read(InputStream is, long sizeHint) throws IOException {
+            if (sizeHint > window.length) window = new byte[(int) sizeHint];
+            int length = 0;
+            while (true) {
+                if (length == window.length) {
+                    int next = is.read();
+                    if (next < 0) break;
+                    window = Arrays.copyOf(window, window.length * 2);
+                    window[length++] = (byte) next;
+                }
+                int read = is.read(window, length, window.length - length);
+                if (read < 0) break;
+                length += read;
+            }
+            return length;
+        }
+    }
+
     public static Optional<Fingerprint> matchFingerprints(
         String className,
         InputStream byteCodeStream,
         List<Fingerprint> fingerprints,
-        ParentInspector parentInspector,
-        ClassLoader loader,
-        JavaTestLogger logger
+        ParentInspector parentInspector
     ) throws IOException {
+        return matchFingerprints(className, new ClassReader(byteCodeStream), fingerprints, parentInspector);
+    }
+
+    /**
+     * Matches a class against test fingerprints from its bytecode only, without loading it, nor
+     * any of its parents. Annotated fingerprints are checked the way
+     * {@link JavaFrameworkUtils#matchFingerprints} does it with reflection.
+     */
+    public static Optional<Fingerprint> matchFingerprints(
+        String className,
+        ClassReader reader,
+        List<Fingerprint> fingerprints,
+        ParentInspector parentInspector
+    ) {
         TestClassChecker checker = new TestClassChecker();
-        ClassReader reader = new ClassReader(byteCodeStream);
-        reader.accept(checker, 0);
+        reader.accept(checker, HEADER_ONLY);
+        return matchFingerprints(
+            className, ClassInfo.of(checker), checker.getMethodAnnotations(), fingerprints, parentInspector);
+    }
+
+    /** Same as the bytecode-based {@code matchFingerprints}, from a class of a class directory index. */
+    public static Optional<Fingerprint> matchFingerprints(
+        String className,
+        JavaTestIndex.IndexedClass indexed,
+        List<Fingerprint> fingerprints,
+        ParentInspector parentInspector
+    ) {
+        return matchFingerprints(
+            className, indexed.getInfo(), indexed.getMethodAnnotations(), fingerprints, parentInspector);
+    }
 
+    private static Optional<Fingerprint> matchFingerprints(
+        String className,
+        ClassInfo info,
+        Set<String> methodAnnotations,
+        List<Fingerprint> fingerprints,
+        ParentInspector parentInspector
+    ) {
         boolean isModule = className.endsWith("$");
-        boolean hasPublicConstructors = checker.getPublicConstructorCount() > 0;
-        boolean definitelyNoTests = checker.isAbstract() ||
-            checker.isInterface() ||
-            checker.getPublicConstructorCount() > 1 ||
+        boolean hasPublicConstructors = info.getPublicConstructorCount() > 0;
+        boolean definitelyNoTests = info.isAbstract() ||
+            info.isInterface() ||
+            info.getPublicConstructorCount() > 1 ||
             isModule == hasPublicConstructors;
 
         if (definitelyNoTests) return Optional.empty();
@@ -75,43 +474,102 @@ public class JavaAsmTestRunner {
                 SubclassFingerprint sf = (SubclassFingerprint) fp;
                 if (sf.isModule() != isModule) continue;
                 String superName = sf.superclassName().replace('.', '/');
-                if (parentInspector.allParents(checker.getName()).contains(superName)) {
+                if (parentInspector.allParents(className).contains(superName)) {
                     return Optional.of(fp);
                 }
             } else if (fp instanceof AnnotatedFingerprint) {
                 AnnotatedFingerprint af = (AnnotatedFingerprint) fp;
                 if (af.isModule() != isModule) continue;
-                // Use classloader-based reflection for annotation matching (proven approach)
-                if (loader != null) {
-                    try {
-                        String rawName = className.replace('/', '.').replace('\\', '.');
-                        String clsNameForLoad = rawName.endsWith("$") ? rawName.substring(0, rawName.length() - 1) : rawName;
-                        Class<?> cls = loader.loadClass(clsNameForLoad);
-                        Optional<Fingerprint> result =
-                            JavaFrameworkUtils.matchFingerprints(loader, cls, new Fingerprint[]{fp}, logger);
-                        if (result.isPresent()) return Optional.of(fp);
-                    } catch (ClassNotFoundException | NoClassDefFoundError |
-                             UnsupportedClassVersionError | IncompatibleClassChangeError e) {
-                        // Expected: class may not be loadable during scanning
-                        logger.debug(
-                            "Could not load class for annotation matching: " + className + " (" + e + ")");
-                    }
+                String descriptor = annotationDescriptor(af.annotationName());
+                if (hasAnnotation(className, info, methodAnnotations, descriptor, parentInspector)) {
+                    return Optional.of(fp);
                 }
             }
         }
         return Optional.empty();
     }
 
+    private static final String INHERITED_DESCRIPTOR = "Ljava/lang/annotation/Inherited;";
+
+    private static String annotationDescriptor(String annotationName) {
+        return "L" + annotationName.replace('.', '/') + ";";
+    }
+
+    /**
+     * The annotation is on the class itself, on a superclass when the annotation is
+     * {@code @Inherited} (like {@code Class.isAnnotationPresent}), on any method declared by the
+     * class ({@code Class.getDeclaredMethods}), or on a public method of one of its parents
+     * ({@code Class.getMethods}).
+     */
+    private static boolean hasAnnotation(
+        String className,
+        ClassInfo info,
+        Set<String> methodAnnotations,
+        String descriptor,
+        ParentInspector parentInspector
+    ) {
+        if (info.getClassAnnotations().contains(descriptor) ||
+            methodAnnotations.contains(descriptor)) return true;
+
+        List<String> parents = parentInspector.allParents(className);
+        for (int i = 1; i < parents.size(); i++) {
+            if (parentInspector.classInfo(parents.get(i)).getPublicMethodAnnotations().contains(descriptor))
+                return true;
+        }
+
+        if (parentInspector.isInherited(descriptor)) {
+            Set<String> done = new HashSet<>();
+            String superName = info.getSuperName();
+            while (superName != null && done.add(superName)) {
+                ClassInfo superInfo = parentInspector.classInfo(superName);
+                if (superInfo.getClassAnnotations().contains(descriptor)) return true;
+                superName = superInfo.getSuperName();
+            }
+        }
+        return false;
+    }
+
     public static List<String> findFrameworkServices(List<Path> classPath, JavaTestLogger logger) {
+        return findFrameworkServices(classPath, null, logger);
+    }
+
+    public static List<String> findFrameworkServices(
+        List<Path> classPath,
+        JavaTestIndex index,
+        JavaTestLogger logger
+    ) {
         List<String> result = new ArrayList<>();
-        byte[] content = findInClassPath(classPath, "META-INF/services/sbt.testing.Framework", logger);
-        if (content != null) {
-            parseServiceFileContent(new String(content, StandardCharsets.UTF_8), result);
+        for (Path entry : classPath) {
+            JavaTestIndex.JarIndex jarIndex = jarIndex(index, entry);
+            if (jarIndex != null) {
+                if (jarIndex.hasServicesFile()) {
+                    result.addAll(jarIndex.getServices());
+                    return result;
+                }
+                continue;
+            }
+            byte[] content = findInClassPathEntry(entry, JavaTestIndex.SERVICES_RESOURCE, logger);
+            if (content != null) {
+                parseServiceFileContent(new String(content, StandardCharsets.UTF_8), result);
+                return result;
+            }
         }
         return result;
     }
 
-    private static void parseServiceFileContent(String content, List<String> result) {
+    /** The class index of {@code entry} if it's a build output directory that has one, {@code null} otherwise. */
+    static JavaTestIndex.ClassDirectoryIndex classDirectoryIndex(Path entry, JavaTestLogger logger) {
+        if (!Files.isDirectory(entry)) return null;
+        return JavaTestIndex.classDirectory(entry, logger);
+    }
+
+    /** The index of {@code entry} if it's a JAR and {@code index} isn't null, {@code null} otherwise. */
+    static JavaTestIndex.JarIndex jarIndex(JavaTestIndex index, Path entry) {
+        if (index == null || !Files.isRegularFile(entry)) return null;
+        return index.jar(entry);
+    }
+
+    static void parseServiceFileContent(String content, List<String> result) {
         for (String line : content.split("[\r\n]+")) {
             String trimmed = line.trim();
             if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
@@ -125,133 +583,261 @@ public class JavaAsmTestRunner {
         List<String> preferredClasses,
         ParentInspector parentInspector,
         JavaTestLogger logger
+    ) {
+        return findFrameworks(classPath, preferredClasses, null, parentInspector, logger);
+    }
+
+    public static List<String> findFrameworks(
+        List<Path> classPath,
+        List<String> preferredClasses,
+        JavaTestIndex index,
+        ParentInspector parentInspector,
+        JavaTestLogger logger
     ) {
         List<String> result = new ArrayList<>();
         // first check preferred classes
         for (String preferred : preferredClasses) {
-            String resourceName = preferred.replace('.', '/') + ".class";
-            byte[] bytes = findInClassPath(classPath, resourceName, logger);
-            if (bytes != null) {
-                TestClassChecker checker = new TestClassChecker();
-                new ClassReader(bytes).accept(checker, 0);
-                if (!checker.isAbstract() && checker.getPublicConstructorCount() == 1) {
-                    String internalName = preferred.replace('.', '/');
-                    if (parentInspector.allParents(internalName).contains("sbt/testing/Framework")) {
-                        result.add(internalName);
-                    }
-                }
+            String internalName = preferred.replace('.', '/');
+            ClassInfo info = parentInspector.classInfo(internalName);
+            if (!info.isAbstract() && info.getPublicConstructorCount() == 1 &&
+                parentInspector.allParents(internalName).contains("sbt/testing/Framework")) {
+                result.add(internalName);
             }
         }
         if (!result.isEmpty()) return result;
 
         // scan all classes in classpath
-        for (Map.Entry<String, byte[]> entry : listClassesByteCode(classPath, true, logger).entrySet()) {
-            String name = entry.getKey();
-            if (name.contains("module-info")) continue;
-            TestClassChecker checker = new TestClassChecker();
-            new ClassReader(entry.getValue()).accept(checker, 0);
-            if (!checker.isAbstract() && checker.getPublicConstructorCount() == 1) {
-                if (parentInspector.allParents(name).contains("sbt/testing/Framework")) {
-                    result.add(name);
+        return frameworkCandidates(
+            JavaParallelDiscovery.sequential(),
+            classPath,
+            index,
+            info -> !info.isAbstract() && info.getPublicConstructorCount() == 1,
+            parentInspector,
+            logger
+        );
+    }
+
+    /**
+     * Internal names of the classes of {@code classPath} accepted by {@code filter} that
+     * implement {@code sbt.testing.Framework}, in class path order. JARs found in {@code index}
+     * are not read, their class infos come from the index.
+     */
+    static List<String> frameworkCandidates(
+        JavaParallelDiscovery discovery,
+        List<Path> classPath,
+        JavaTestIndex index,
+        Predicate<ClassInfo> filter,
+        ParentInspector parentInspector,
+        JavaTestLogger logger
+    ) {
+        List<Supplier<List<String>>> chunks = new ArrayList<>();
+        List<ClassScanner.OpenEntry> opened = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (Path entry : classPath) {
+            JavaTestIndex.JarIndex jarIndex = jarIndex(index, entry);
+            List<String> names = new ArrayList<>();
+            if (jarIndex != null) {
+                for (String name : jarIndex.getClasses().keySet())
+                    if (seen.add(name)) names.add(name);
+                for (List<String> chunk : JavaParallelDiscovery.chunks(names, JavaParallelDiscovery.CHUNK_SIZE)) {
+                    chunks.add(() -> {
+                        List<String> found = new ArrayList<>();
+                        for (String name : chunk) {
+                            if (isFrameworkCandidate(name, jarIndex.getClasses().get(name), filter, parentInspector))
+                                found.add(name);
+                        }
+                        return found;
+                    });
+                }
+            } else {
+                ClassScanner.OpenEntry openEntry = ClassScanner.OpenEntry.open(entry, logger);
+                if (openEntry == null) continue;
+                opened.add(openEntry);
+                for (String name : openEntry.classNames(logger))
+                    if (seen.add(name)) names.add(name);
+                JavaTestIndex.ClassDirectoryIndex dirIndex = classDirectoryIndex(entry, logger);
+                for (List<String> chunk : JavaParallelDiscovery.chunks(names, JavaParallelDiscovery.CHUNK_SIZE)) {
+                    chunks.add(() -> {
+                        // classes of build outputs come from their class index when it's up-to-date
+                        Map<String, ClassInfo> infos = new HashMap<>();
+                        List<String> toScan = new ArrayList<>();
+                        for (String name : chunk) {
+                            JavaTestIndex.IndexedClass indexed = dirIndex == null ? null : dirIndex.get(name);
+                            if (indexed == null) toScan.add(name);
+                            else infos.put(name, indexed.getInfo());
+                        }
+                        new ClassScanner(logger).scan(openEntry, toScan, (name, reader) -> {
+                            TestClassChecker checker = new TestClassChecker();
+                            try {
+                                reader.accept(checker, HEADER_ONLY);
+                            } catch (RuntimeException e) {
+                                logger.debug("Could not read bytecode for " + name + ": " + e.getMessage());
+                                return true;
+                            }
+                            infos.put(name, ClassInfo.of(checker));
+                            return true;
+                        });
+                        List<String> found = new ArrayList<>();
+                        for (String name : chunk) {
+                            ClassInfo info = infos.get(name);
+                            if (info != null && isFrameworkCandidate(name, info, filter, parentInspector))
+                                found.add(name);
+                        }
+                        return found;
+                    });
                 }
             }
         }
-        return result;
+        try {
+            return discovery.flatMap(chunks, Supplier::get);
+        } finally {
+            for (ClassScanner.OpenEntry openEntry : opened) openEntry.close();
+        }
+    }
+
+    private static boolean isFrameworkCandidate(
+        String name,
+        ClassInfo info,
+        Predicate<ClassInfo> filter,
+        ParentInspector parentInspector
+    ) {
+        return !name.contains("module-info") &&
+            filter.test(info) &&
+            parentInspector.allParents(name).contains("sbt/testing/Framework");
+    }
+
+    public static List<TaskDef> taskDefs(
+        List<Path> classPath,
+        boolean keepJars,
+        List<Fingerprint> fingerprints,
+        ParentInspector parentInspector,
+        JavaTestLogger logger
+    ) {
+        return taskDefs(new ClassScanner(logger), classPath, keepJars, fingerprints, parentInspector, logger);
     }
 
     public static List<TaskDef> taskDefs(
+        ClassScanner scanner,
         List<Path> classPath,
         boolean keepJars,
         List<Fingerprint> fingerprints,
         ParentInspector parentInspector,
-        ClassLoader loader,
         JavaTestLogger logger
     ) {
         List<TaskDef> result = new ArrayList<>();
-        for (Map.Entry<String, byte[]> entry : listClassesByteCode(classPath, keepJars, logger).entrySet()) {
-            String name = entry.getKey();
-            if (name.contains("module-info")) continue;
+        scanner.scan(classPath, keepJars, (name, reader) -> {
+            addTaskDef(name, reader, fingerprints, parentInspector, logger, result);
+            return true;
+        });
+        return result;
+    }
+
+    /**
+     * Same as the sequential {@code taskDefs}, with the class path split by entry and by chunks
+     * of {@link JavaParallelDiscovery#CHUNK_SIZE} classes, each chunk being matched on its own
+     * fork-join task with its own {@link ClassScanner}. Each entry is opened once, and shared by
+     * the tasks of its chunks. Classes of build output directories that have a class index are
+     * matched from it, unless their class file changed since indexing.
+     */
+    public static List<TaskDef> taskDefs(
+        JavaParallelDiscovery discovery,
+        List<Path> classPath,
+        boolean keepJars,
+        List<Fingerprint> fingerprints,
+        ParentInspector parentInspector,
+        JavaTestLogger logger
+    ) {
+        boolean hasClassIndex = false;
+        for (Path entry : classPath)
+            if (classDirectoryIndex(entry, logger) != null) hasClassIndex = true;
+        if (!discovery.isParallel() && !hasClassIndex)
+            return taskDefs(classPath, keepJars, fingerprints, parentInspector, logger);
+        LinkedHashMap<ClassScanner.OpenEntry, List<String>> entries =
+            ClassScanner.openClassPath(classPath, keepJars, logger);
+        try {
+            return discovery.flatMap(
+                classChunks(entries), chunk -> taskDefs(chunk, fingerprints, parentInspector, logger));
+        } finally {
+            for (ClassScanner.OpenEntry entry : entries.keySet()) entry.close();
+        }
+    }
+
+    private static List<TaskDef> taskDefs(
+        Map.Entry<ClassScanner.OpenEntry, List<String>> chunk,
+        List<Fingerprint> fingerprints,
+        ParentInspector parentInspector,
+        JavaTestLogger logger
+    ) {
+        JavaTestIndex.ClassDirectoryIndex dirIndex = classDirectoryIndex(chunk.getKey().getPath(), logger);
+        Map<String, Optional<Fingerprint>> matches = new HashMap<>();
+        List<String> toScan = new ArrayList<>();
+        for (String name : chunk.getValue()) {
+            JavaTestIndex.IndexedClass indexed = dirIndex == null ? null : dirIndex.get(name);
+            if (indexed == null) toScan.add(name);
+            else if (!name.contains("module-info"))
+                matches.put(name, matchFingerprints(name, indexed, fingerprints, parentInspector));
+        }
+        new ClassScanner(logger).scan(chunk.getKey(), toScan, (name, reader) -> {
+            if (name.contains("module-info")) return true;
             try {
-                Optional<Fingerprint> fp = matchFingerprints(
-                    name,
-                    new ByteArrayInputStream(entry.getValue()),
-                    fingerprints,
-                    parentInspector,
-                    loader,
-                    logger
-                );
-                if (fp.isPresent()) {
-                    String stripped = name.endsWith("$") ? name.substring(0, name.length() - 1) : name;
-                    String clsName = stripped.replace('/', '.').replace('\\', '.');
-                    result.add(new TaskDef(clsName, fp.get(), false, new Selector[]{new SuiteSelector()}));
-                }
-            } catch (IOException e) {
+                matches.put(name, matchFingerprints(name, reader, fingerprints, parentInspector));
+            } catch (RuntimeException e) {
+                // ASM throws unchecked exceptions on malformed class files
                 logger.debug("Could not read bytecode for " + name + ": " + e.getMessage());
             }
+            return true;
+        });
+        // in class path order, whether classes were matched from the index or from bytecode
+        List<TaskDef> result = new ArrayList<>();
+        for (String name : chunk.getValue()) {
+            Optional<Fingerprint> fp = matches.get(name);
+            if (fp != null && fp.isPresent()) result.add(taskDef(name, fp.get()));
         }
         return result;
     }
 
-    private static Map<String, byte[]> listClassesByteCode(
-        List<Path> classPath, boolean keepJars, JavaTestLogger logger
+    /**
+     * Splits the classes of opened class path entries by chunks of
+     * {@link JavaParallelDiscovery#CHUNK_SIZE} classes, in class path order.
+     */
+    static List<Map.Entry<ClassScanner.OpenEntry, List<String>>> classChunks(
+        LinkedHashMap<ClassScanner.OpenEntry, List<String>> entries
     ) {
-        Map<String, byte[]> result = new LinkedHashMap<>();
-        for (Path entry : classPath) {
-            result.putAll(listClassesByteCode(entry, keepJars, logger));
+        List<Map.Entry<ClassScanner.OpenEntry, List<String>>> chunks = new ArrayList<>();
+        for (Map.Entry<ClassScanner.OpenEntry, List<String>> entry : entries.entrySet()) {
+            List<List<String>> entryChunks =
+                JavaParallelDiscovery.chunks(entry.getValue(), JavaParallelDiscovery.CHUNK_SIZE);
+            for (List<String> chunk : entryChunks) {
+                chunks.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), chunk));
+            }
         }
-        return result;
+        return chunks;
     }
 
-    private static Map<String, byte[]> listClassesByteCode(
-        Path entry, boolean keepJars, JavaTestLogger logger
+    private static void addTaskDef(
+        String name,
+        ClassReader reader,
+        List<Fingerprint> fingerprints,
+        ParentInspector parentInspector,
+        JavaTestLogger logger,
+        List<TaskDef> result
     ) {
-        Map<String, byte[]> result = new LinkedHashMap<>();
-        if (Files.isDirectory(entry)) {
-            try (Stream<Path> stream = Files.walk(entry, Integer.MAX_VALUE)) {
-                stream.filter(p -> p.getFileName().toString().endsWith(".class"))
-                    .forEach(p -> {
-                        String rel = entry.relativize(p).toString().replace('\\', '/');
-                        String name = rel.endsWith(".class") ? rel.substring(0, rel.length() - 6) : rel;
-                        try {
-                            result.put(name, Files.readAllBytes(p));
-                        } catch (IOException e) {
-                            logger.debug("Could not read class file " + p + ": " + e.getMessage());
-                        }
-                    });
-            } catch (IOException e) {
-                logger.log("Could not walk directory " + entry + ": " + e.getMessage());
-            }
-        } else if (keepJars && Files.isRegularFile(entry)) {
-            byte[] buf = new byte[16384];
-            try (ZipFile zf = new ZipFile(entry.toFile())) {
-                Enumeration<? extends ZipEntry> entries = zf.entries();
-                while (entries.hasMoreElements()) {
-                    ZipEntry ze = entries.nextElement();
-                    if (!ze.getName().endsWith(".class")) continue;
-                    String name = ze.getName();
-                    name = name.substring(0, name.length() - 6);
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    try (InputStream is = zf.getInputStream(ze)) {
-                        int read;
-                        while ((read = is.read(buf)) >= 0) {
-                            baos.write(buf, 0, read);
-                        }
-                    }
-                    result.put(name, baos.toByteArray());
-                }
-            } catch (IOException e) {
-                logger.log("Could not read JAR " + entry + ": " + e.getMessage());
-            }
+        if (name.contains("module-info")) return;
+        Optional<Fingerprint> fp;
+        try {
+            fp = matchFingerprints(name, reader, fingerprints, parentInspector);
+        } catch (RuntimeException e) {
+            // ASM throws unchecked exceptions on malformed class files
+            logger.debug("Could not read bytecode for " + name + ": " + e.getMessage());
+            return;
         }
-        return result;
+        fp.ifPresent(fingerprint -> result.add(taskDef(name, fingerprint)));
     }
 
-    static byte[] findInClassPath(List<Path> classPath, String name, JavaTestLogger logger) {
-        for (Path entry : classPath) {
-            byte[] found = findInClassPathEntry(entry, name, logger);
-            if (found != null) return found;
-        }
-        return null;
+    private static TaskDef taskDef(String name, Fingerprint fingerprint) {
+        String stripped = name.endsWith("$") ? name.substring(0, name.length() - 1) : name;
+        String clsName = stripped.replace('/', '.').replace('\\', '.');
+        return new TaskDef(clsName, fingerprint, false, new Selector[]{new SuiteSelector()});
     }
 
     private static byte[] findInClassPathEntry(Path entry, String name, JavaTestLogger logger) {
@@ -288,10 +874,15 @@ public class JavaAsmTestRunner {
 
     public static class TestClassChecker extends ClassVisitor {
         private String name;
+        private String superName;
+        private int access;
         private int publicConstructorCount = 0;
         private boolean isInterface = false;
         private boolean isAbstract = false;
         private List<String> implementsList = new ArrayList<>();
+        private Set<String> classAnnotations = new HashSet<>();
+        private Set<String> methodAnnotations = new HashSet<>();
+        private Set<String> publicMethodAnnotations = new HashSet<>();
 
         public TestClassChecker() {
             super(Opcodes.ASM9);
@@ -301,6 +892,8 @@ public class JavaAsmTestRunner {
         public void visit(int version, int access, String name, String signature,
                           String superName, String[] interfaces) {
             this.name = name;
+            this.superName = superName;
+            this.access = access;
             this.isInterface = (access & Opcodes.ACC_INTERFACE) != 0;
             this.isAbstract = (access & Opcodes.ACC_ABSTRACT) != 0;
             if (superName != null) implementsList.add(superName);
@@ -311,19 +904,295 @@ public class JavaAsmTestRunner {
             }
         }
 
+        @Override
+        public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+            // only runtime-visible annotations can be seen through reflection
+            if (visible) classAnnotations.add(descriptor);
+            return null;
+        }
+
         @Override
         public MethodVisitor visitMethod(int access, String name, String descriptor,
                                          String signature, String[] exceptions) {
-            if ("<init>".equals(name) && (access & Opcodes.ACC_PUBLIC) != 0) {
+            boolean isPublic = (access & Opcodes.ACC_PUBLIC) != 0;
+            if ("<init>".equals(name) && isPublic) {
                 publicConstructorCount++;
             }
-            return null;
+            if ("<init>".equals(name) || "<clinit>".equals(name)) return null;
+            return new MethodVisitor(Opcodes.ASM9) {
+                @Override
+                public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+                    if (visible) {
+                        methodAnnotations.add(desc);
+                        if (isPublic) publicMethodAnnotations.add(desc);
+                    }
+                    return null;
+                }
+            };
         }
 
         public String getName() { return name; }
+        public String getSuperName() { return superName; }
+        public int getAccess() { return access; }
         public int getPublicConstructorCount() { return publicConstructorCount; }
         public boolean isInterface() { return isInterface; }
         public boolean isAbstract() { return isAbstract; }
         public List<String> getImplements() { return implementsList; }
+        public Set<String> getClassAnnotations() { return classAnnotations; }
+        /** Annotations of all the methods declared by the class, constructors excluded. */
+        public Set<String> getMethodAnnotations() { return methodAnnotations; }
+        public Set<String> getPublicMethodAnnotations() { return publicMethodAnnotations; }
+    }
+
+    /**
+     * Collects the internal names of the classes a class refers to: its parents, the types in its
+     * field and method signatures and annotations, and the types its method bodies use. Strings
+     * loaded as constants are kept too, with dots replaced by slashes, in case they name classes
+     * loaded through reflection. Used to build the class dependency graph of test impact analysis
+     * (see {@link JavaTestImpact}), so it errs on the side of recording too much.
+     */
+    public static class ReferenceCollector extends ClassVisitor {
+        private final Set<String> references = new HashSet<>();
+        private final Deque<String> classTypes = new ArrayDeque<>();
+        private String name;
+
+        private final SignatureVisitor signatureVisitor = new SignatureVisitor(Opcodes.ASM9) {
+            @Override
+            public void visitClassType(String name) {
+                classTypes.push(name);
+                references.add(name);
+            }
+
+            @Override
+            public void visitInnerClassType(String name) {
+                String inner = classTypes.isEmpty() ? name : classTypes.pop() + "$" + name;
+                classTypes.push(inner);
+                references.add(inner);
+            }
+
+            @Override
+            public void visitEnd() {
+                if (!classTypes.isEmpty()) classTypes.pop();
+            }
+        };
+
+        private final AnnotationVisitor annotationVisitor = new AnnotationVisitor(Opcodes.ASM9) {
+            @Override
+            public void visit(String name, Object value) {
+                addConstant(value);
+            }
+
+            @Override
+            public void visitEnum(String name, String descriptor, String value) {
+                addType(descriptor);
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String name, String descriptor) {
+                addType(descriptor);
+                return this;
+            }
+
+            @Override
+            public AnnotationVisitor visitArray(String name) {
+                return this;
+            }
+        };
+
+        private final FieldVisitor fieldVisitor = new FieldVisitor(Opcodes.ASM9) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                addType(descriptor);
+                return annotationVisitor;
+            }
+        };
+
+        private final MethodVisitor methodVisitor = new MethodVisitor(Opcodes.ASM9) {
+            @Override
+            public AnnotationVisitor visitAnnotationDefault() {
+                return annotationVisitor;
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                addType(descriptor);
+                return annotationVisitor;
+            }
+
+            @Override
+            public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+                addType(descriptor);
+                return annotationVisitor;
+            }
+
+            @Override
+            public void visitTypeInsn(int opcode, String type) {
+                addInternalName(type);
+            }
+
+            @Override
+            public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+                addInternalName(owner);
+                addType(descriptor);
+            }
+
+            @Override
+            public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+                addInternalName(owner);
+                addSignature(descriptor);
+            }
+
+            @Override
+            public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle,
+                                               Object... bootstrapMethodArguments) {
+                addSignature(descriptor);
+                addConstant(bootstrapMethodHandle);
+                for (Object arg : bootstrapMethodArguments) addConstant(arg);
+            }
+
+            @Override
+            public void visitLdcInsn(Object value) {
+                addConstant(value);
+            }
+
+            @Override
+            public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+                addType(descriptor);
+            }
+
+            @Override
+            public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+                addInternalName(type);
+            }
+
+            @Override
+            public void visitLocalVariable(String name, String descriptor, String signature,
+                                           Label start, Label end, int index) {
+                addType(descriptor);
+                addTypeSignature(signature);
+            }
+        };
+
+        public ReferenceCollector() {
+            super(Opcodes.ASM9);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature,
+                          String superName, String[] interfaces) {
+            this.name = name;
+            addInternalName(superName);
+            if (interfaces != null) {
+                for (String iface : interfaces) addInternalName(iface);
+            }
+            addSignature(signature);
+        }
+
+        @Override
+        public void visitNestHost(String nestHost) {
+            addInternalName(nestHost);
+        }
+
+        @Override
+        public void visitOuterClass(String owner, String name, String descriptor) {
+            addInternalName(owner);
+        }
+
+        @Override
+        public void visitNestMember(String nestMember) {
+            addInternalName(nestMember);
+        }
+
+        @Override
+        public void visitPermittedSubclass(String permittedSubclass) {
+            addInternalName(permittedSubclass);
+        }
+
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access) {
+            addInternalName(name);
+            addInternalName(outerName);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+            addType(descriptor);
+            return annotationVisitor;
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor,
+                                       String signature, Object value) {
+            addType(descriptor);
+            addTypeSignature(signature);
+            return fieldVisitor;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor,
+                                         String signature, String[] exceptions) {
+            addSignature(descriptor);
+            addSignature(signature);
+            if (exceptions != null) {
+                for (String exception : exceptions) addInternalName(exception);
+            }
+            return methodVisitor;
+        }
+
+        /** Internal names of the classes referred to, not including the visited class itself. */
+        public Set<String> getReferences() {
+            Set<String> result = new HashSet<>(references);
+            result.remove(name);
+            return result;
+        }
+
+        private void addInternalName(String internalName) {
+            if (internalName == null) return;
+            if (internalName.startsWith("[")) addType(internalName);
+            else references.add(internalName);
+        }
+
+        private void addType(String descriptor) {
+            if (descriptor == null) return;
+            Type type = Type.getType(descriptor);
+            if (type.getSort() == Type.ARRAY) type = type.getElementType();
+            if (type.getSort() == Type.OBJECT) references.add(type.getInternalName());
+        }
+
+        /** Class and method signatures, and method descriptors. */
+        private void addSignature(String signature) {
+            if (signature == null) return;
+            classTypes.clear();
+            new SignatureReader(signature).accept(signatureVisitor);
+        }
+
+        private void addTypeSignature(String signature) {
+            if (signature == null) return;
+            classTypes.clear();
+            new SignatureReader(signature).acceptType(signatureVisitor);
+        }
+
+        private void addConstant(Object value) {
+            if (value instanceof Type) {
+                Type type = (Type) value;
+                if (type.getSort() == Type.METHOD) addSignature(type.getDescriptor());
+                else addType(type.getDescriptor());
+            } else if (value instanceof Handle) {
+                Handle handle = (Handle) value;
+                addInternalName(handle.getOwner());
+                if (handle.getTag() <= Opcodes.H_PUTSTATIC) addType(handle.getDesc());
+                else addSignature(handle.getDesc());
+            } else if (value instanceof ConstantDynamic) {
+                ConstantDynamic constant = (ConstantDynamic) value;
+                addType(constant.getDescriptor());
+                addConstant(constant.getBootstrapMethod());
+                for (int i = 0; i < constant.getBootstrapMethodArgumentCount(); i++)
+                    addConstant(constant.getBootstrapMethodArgument(i));
+            } else if (value instanceof String) {
+                String str = (String) value;
+                if (!str.isEmpty() && str.length() < 256 && str.indexOf(' ') < 0)
+                    references.add(str.replace('.', '/'));
+            }
+        }
     }
 }
@@ -0,0 +1,169 @@
+package scala.build.testrunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Index of the resources of a class path, mapping each resource name to the first class path
+ * entry that has it, along with a pool of open JAR handles.
+ *
+ * The index is built on first use, by listing every directory and JAR once. A lookup then costs
+ * a hash probe and a read of a single entry, rather than trying each class path entry in turn and
+ * opening each JAR along the way. JARs stay open until {@link #close()}, and can be read from
+ * several threads at once.
+ *
+ * When given a {@link JavaTestIndex}, JARs it indexed contribute the class names of their index
+ * rather than being opened and listed, so that a warm run only opens the JARs it actually reads
+ * class files from. Other resources of those JARs are then left out.
+ */
+public class JavaClassPathResources implements AutoCloseable {
+
+    private final List<Path> classPath;
+    private final JavaTestIndex index;
+    private final JavaTestLogger logger;
+    private final ConcurrentHashMap<Path, ZipFile> jars = new ConcurrentHashMap<>();
+    private final AtomicInteger openedJarCount = new AtomicInteger();
+    private volatile Map<String, Path> owners;
+    private boolean closed = false;
+
+    public JavaClassPathResources(List<Path> classPath, JavaTestLogger logger) {
+        this(classPath, null, logger);
+    }
+
+    public JavaClassPathResources(List<Path> classPath, JavaTestIndex index, JavaTestLogger logger) {
+        this.classPath = classPath;
+        this.index = index;
+        this.logger = logger;
+    }
+
+    /** Number of JARs opened so far, each one being opened at most once. */
+    public int openedJarCount() { return openedJarCount.get(); }
+
+    /** Number of distinct resource names on the class path. */
+    public int size() { return owners().size(); }
+
+    /** The class path entry {@code name} is loaded from, or {@code null} if none has it. */
+    public Path owner(String name) {
+        return owners().get(name);
+    }
+
+    /** Content of resource {@code name}, as the first class path entry that has it would return it. */
+    public byte[] read(String name) {
+        Path owner = owner(name);
+        return owner == null ? null : read(owner, name);
+    }
+
+    /** Content of resource {@code name} of class path entry {@code entry}, or {@code null}. */
+    public byte[] read(Path entry, String name) {
+        if (Files.isDirectory(entry)) {
+            Path p = entry.resolve(name);
+            try {
+                return Files.readAllBytes(p);
+            } catch (IOException e) {
+                logger.debug("Could not read " + p + ": " + e.getMessage());
+                return null;
+            }
+        }
+        ZipFile zf = jar(entry);
+        if (zf == null) return null;
+        ZipEntry ze = zf.getEntry(name);
+        if (ze == null) return null;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(ze.getSize() > 0 ? (int) ze.getSize() : 512);
+        byte[] buf = new byte[8192];
+        try (InputStream is = zf.getInputStream(ze)) {
+            int read;
+            while ((read = is.read(buf)) >= 0) baos.write(buf, 0, read);
+            return baos.toByteArray();
+        } catch (IOException e) {
+            logger.debug("Could not read " + name + " from " + entry + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private Map<String, Path> owners() {
+        Map<String, Path> current = owners;
+        if (current != null) return current;
+        synchronized (this) {
+            if (owners == null) owners = listResources();
+            return owners;
+        }
+    }
+
+    private Map<String, Path> listResources() {
+        Map<String, Path> map = new HashMap<>();
+        for (Path entry : classPath) {
+            if (Files.isDirectory(entry)) {
+                try (Stream<Path> stream = Files.walk(entry, Integer.MAX_VALUE)) {
+                    Iterator<Path> it = stream.iterator();
+                    while (it.hasNext()) {
+                        Path p = it.next();
+                        if (!Files.isRegularFile(p)) continue;
+                        String name = entry.relativize(p).toString().replace('\\', '/');
+                        map.putIfAbsent(name, entry);
+                    }
+                } catch (IOException | UncheckedIOException e) {
+                    logger.log("Could not walk directory " + entry + ": " + e.getMessage());
+                }
+            } else if (Files.isRegularFile(entry)) {
+                JavaTestIndex.JarIndex jarIndex = index == null ? null : index.jar(entry);
+                if (jarIndex != null) {
+                    if (jarIndex.hasServicesFile())
+                        map.putIfAbsent(JavaTestIndex.SERVICES_RESOURCE, entry);
+                    for (String className : jarIndex.getClasses().keySet())
+                        map.putIfAbsent(className + ".class", entry);
+                    continue;
+                }
+                ZipFile zf = jar(entry);
+                if (zf == null) continue;
+                Enumeration<? extends ZipEntry> entries = zf.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry ze = entries.nextElement();
+                    if (!ze.isDirectory()) map.putIfAbsent(ze.getName(), entry);
+                }
+            }
+        }
+        return map;
+    }
+
+    private ZipFile jar(Path entry) {
+        ZipFile zf = jars.get(entry);
+        if (zf != null) return zf;
+        synchronized (this) {
+            if (closed) throw new IllegalStateException("Class path resources already closed");
+            zf = jars.get(entry);
+            if (zf != null) return zf;
+            try {
+                zf = new ZipFile(entry.toFile());
+            } catch (IOException e) {
+                logger.log("Could not read JAR " + entry + ": " + e.getMessage());
+                return null;
+            }
+            openedJarCount.incrementAndGet();
+            jars.put(entry, zf);
+            return zf;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (ZipFile zf : jars.values()) {
+            try {
+                zf.close();
+            } catch (IOException e) {
+                logger.debug("Could not close " + zf.getName() + ": " + e.getMessage());
+            }
+        }
+        jars.clear();
+    }
+}
@@ -2,14 +2,24 @@ package scala.build.testrunner;
 
 import sbt.testing.*;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 public class JavaDynamicTestRunner {
 
+    /** Number of suites listed in the slowest suites summary printed along with reports. */
+    private static final int SLOWEST_SUITES = 10;
+
     /**
      * Based on junit-interface GlobFilter.compileGlobPattern:
      * https://github.com/sbt/junit-interface/blob/f8c6372ed01ce86f15393b890323d96afbe6d594/src/main/java/com/novocode/junit/GlobFilter.java#L37
@@ -27,11 +37,32 @@ public class JavaDynamicTestRunner {
     }
 
     public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * Discovers and runs tests with the thread context class loader, as {@link #main} does, and
+     * returns the exit code rather than exiting.
+     */
+    public static int run(String[] args) {
+        // the counter is shared by all the runs of a test worker JVM
+        long loadedClassesBefore = JavaFrameworkUtils.loadedClassCount();
         List<String> testFrameworks = new ArrayList<>();
         List<String> remainingArgs = new ArrayList<>();
         boolean requireTests = false;
+        boolean parallelDiscovery = false;
         int verbosity = 0;
+        int testParallelism = 1;
+        List<String> parallelFrameworks = new ArrayList<>(JavaTestRunner.parallelTestFrameworks());
+        int shard = 0;
+        int shardCount = 1;
+        Optional<String> testDurations = Optional.empty();
+        Optional<String> testReport = Optional.empty();
+        Optional<String> testEvents = Optional.empty();
+        Optional<String> junitReportDir = Optional.empty();
+        Optional<String> testImpact = Optional.empty();
         Optional<String> testOnly = Optional.empty();
+        Optional<String> testIndexDir = Optional.empty();
 
         boolean pastDashDash = false;
         for (String arg : args) {
@@ -49,8 +80,38 @@ public class JavaDynamicTestRunner {
                 } catch (NumberFormatException e) {
                     System.err.println("Warning: malformed --verbosity value: " + arg);
                 }
+            } else if (arg.startsWith("--test-parallelism=")) {
+                try {
+                    testParallelism = Math.max(1, Integer.parseInt(arg.substring("--test-parallelism=".length())));
+                } catch (NumberFormatException e) {
+                    System.err.println("Warning: malformed --test-parallelism value: " + arg);
+                }
+            } else if (arg.startsWith("--test-parallel-framework=")) {
+                parallelFrameworks.add(arg.substring("--test-parallel-framework=".length()));
+            } else if (arg.startsWith("--shard=")) {
+                String[] parts = arg.substring("--shard=".length()).split("/", -1);
+                try {
+                    shard = Integer.parseInt(parts[0]);
+                    shardCount = Integer.parseInt(parts[1]);
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    System.err.println("Warning: malformed --shard value (expected index/count): " + arg);
+                }
+            } else if (arg.startsWith("--test-durations=")) {
+                testDurations = Optional.of(arg.substring("--test-durations=".length()));
+            } else if (arg.startsWith("--test-report=")) {
+                testReport = Optional.of(arg.substring("--test-report=".length()));
+            } else if (arg.startsWith("--test-events=")) {
+                testEvents = Optional.of(arg.substring("--test-events=".length()));
+            } else if (arg.startsWith("--junit-report-dir=")) {
+                junitReportDir = Optional.of(arg.substring("--junit-report-dir=".length()));
+            } else if (arg.startsWith("--test-impact=")) {
+                testImpact = Optional.of(arg.substring("--test-impact=".length()));
             } else if ("--require-tests".equals(arg)) {
                 requireTests = true;
+            } else if (arg.startsWith("--test-index-dir=")) {
+                testIndexDir = Optional.of(arg.substring("--test-index-dir=".length()));
+            } else if ("--parallel-discovery".equals(arg)) {
+                parallelDiscovery = true;
             } else {
                 remainingArgs.add(arg);
             }
@@ -65,107 +126,205 @@ public class JavaDynamicTestRunner {
 
         ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
         java.util.List<java.nio.file.Path> classPath0 = JavaTestRunner.classPath(classLoader, logger);
+        JavaParallelDiscovery discovery = parallelDiscovery
+            ? JavaParallelDiscovery.parallel()
+            : JavaParallelDiscovery.sequential();
+        JavaTestIndex testIndex = testIndexDir
+            .map(dir -> new JavaTestIndex(Paths.get(dir), logger))
+            .orElse(null);
+        // JAR handles stay open until the run is over, so that each parent lookup during
+        // discovery costs a hash probe and a single entry read
+        JavaClassPathResources resources = new JavaClassPathResources(classPath0, testIndex, logger);
+        JavaAsmTestRunner.ParentInspector parentInspector =
+            new JavaAsmTestRunner.ParentInspector(classPath0, resources, testIndex, logger);
 
-        List<Framework> frameworks;
-        if (!testFrameworks.isEmpty()) {
-            frameworks = new ArrayList<>();
-            for (String fw : testFrameworks) {
-                try {
-                    frameworks.add(JavaFrameworkUtils.loadFramework(classLoader, fw));
-                } catch (Exception e) {
-                    logger.error("Could not load test framework: " + fw);
-                    logger.error(e.toString());
-                    System.exit(1);
+        int exitCode;
+        JavaTestReporter reporter = null;
+        List<TaskDef> ranTaskDefs = new ArrayList<>();
+        try {
+            List<Framework> frameworks;
+            if (!testFrameworks.isEmpty()) {
+                frameworks = new ArrayList<>();
+                for (String fw : testFrameworks) {
+                    try {
+                        frameworks.add(JavaFrameworkUtils.loadFramework(classLoader, fw));
+                    } catch (Exception e) {
+                        logger.error("Could not load test framework: " + fw);
+                        logger.error(e.toString());
+                        return 1;
+                    }
+                }
+            } else {
+                long start = System.nanoTime();
+                List<Framework> frameworkServices = JavaFrameworkUtils.findFrameworkServices(classLoader);
+                List<Framework> scannedFrameworks = JavaFrameworkUtils.findFrameworks(
+                    discovery,
+                    classPath0,
+                    classLoader,
+                    JavaTestRunner.commonTestFrameworks(),
+                    testIndex,
+                    parentInspector,
+                    logger
+                );
+                logger.debug("Test framework lookup took " + elapsedMillis(start) + " ms using " +
+                    threadCount(discovery));
+                if (testIndex != null)
+                    logger.debug("Test index: " + testIndex.readCount() + " JAR(s) read from " +
+                        testIndexDir.get() + ", " + testIndex.writeCount() + " JAR(s) indexed");
+                List<Framework> toRun = JavaFrameworkUtils.getFrameworksToRun(
+                    frameworkServices, scannedFrameworks, logger
+                );
+                if (toRun.isEmpty()) {
+                    if (verbosity >= 2) {
+                        throw new RuntimeException("No test framework found");
+                    } else {
+                        System.err.println("No test framework found");
+                        return 1;
+                    }
                 }
+                frameworks = toRun;
             }
-        } else {
-            List<Framework> frameworkServices = JavaFrameworkUtils.findFrameworkServices(classLoader);
-            List<Framework> scannedFrameworks = JavaFrameworkUtils.findFrameworks(
-                classPath0, classLoader, JavaTestRunner.commonTestFrameworks(), logger
-            );
-            List<Framework> toRun = JavaFrameworkUtils.getFrameworksToRun(
-                frameworkServices, scannedFrameworks, logger
-            );
-            if (toRun.isEmpty()) {
-                if (verbosity >= 2) {
-                    throw new RuntimeException("No test framework found");
+
+            Map<String, Long> knownDurations = shardCount > 1 && testDurations.isPresent()
+                ? JavaTestShards.readDurations(Paths.get(testDurations.get()), logger)
+                : Collections.emptyMap();
+            reporter = reporter(testEvents, junitReportDir, logger);
+            JavaTestImpact impact = testImpact
+                .map(file -> JavaTestImpact.load(Paths.get(file), classPath0, remainingArgs, logger))
+                .orElse(null);
+
+            String[] runnerArgs = remainingArgs.toArray(new String[0]);
+            final Optional<String> testOnlyFinal = testOnly;
+            final boolean requireTestsFinal = requireTests;
+
+            boolean anyFailed = false;
+            for (Framework framework : frameworks) {
+                logger.log("Running test framework: " + framework.name());
+                Fingerprint[] fingerprints = framework.fingerprints();
+                Runner runner = framework.runner(runnerArgs, new String[0], classLoader);
+
+                long start = System.nanoTime();
+                final List<TaskDef> taskDefs;
+                if (JavaFrameworkUtils.isJupiterFramework(framework)) {
+                    taskDefs = JavaFrameworkUtils.filterTaskDefsByClassName(
+                        JavaFrameworkUtils.jupiterTaskDefs(discovery, classPath0, classLoader, logger),
+                        testOnlyFinal,
+                        (pattern, className) -> globPattern(pattern).matcher(className).matches()
+                    );
                 } else {
-                    System.err.println("No test framework found");
-                    System.exit(1);
+                    // matched from bytecode only: discovery doesn't load test classes, the framework
+                    // runner loads the ones it runs
+                    List<TaskDef> matched = JavaAsmTestRunner.taskDefs(
+                        discovery, classPath0, false, Arrays.asList(fingerprints), parentInspector, logger
+                    );
+                    taskDefs = new ArrayList<>();
+                    for (TaskDef taskDef : matched) {
+                        if (testOnlyFinal.isPresent()) {
+                            Pattern pat = globPattern(testOnlyFinal.get());
+                            if (!pat.matcher(taskDef.fullyQualifiedName()).matches()) continue;
+                        }
+                        taskDefs.add(taskDef);
+                    }
                 }
-            }
-            frameworks = toRun;
-        }
+                logger.debug("Discovered " + taskDefs.size() + " test suite(s) for " + framework.name() +
+                    " in " + elapsedMillis(start) + " ms using " + threadCount(discovery));
+                logger.debug("Test discovery loaded " +
+                    (JavaFrameworkUtils.loadedClassCount() - loadedClassesBefore) + " class(es) so far");
 
-        String[] runnerArgs = remainingArgs.toArray(new String[0]);
-        final Optional<String> testOnlyFinal = testOnly;
-        final boolean requireTestsFinal = requireTests;
+                int skippedBefore = impact == null ? 0 : impact.skippedCount();
+                List<TaskDef> selectedTaskDefs = impact == null ? taskDefs : impact.select(taskDefs);
+                boolean anySkipped = impact != null && impact.skippedCount() > skippedBefore;
 
-        boolean anyFailed = false;
-        for (Framework framework : frameworks) {
-            logger.log("Running test framework: " + framework.name());
-            Fingerprint[] fingerprints = framework.fingerprints();
-            Runner runner = framework.runner(runnerArgs, new String[0], classLoader);
+                List<TaskDef> shardTaskDefs = selectedTaskDefs;
+                if (shardCount > 1) {
+                    shardTaskDefs = JavaTestShards.select(selectedTaskDefs, shard, shardCount, knownDurations);
+                    logger.debug("Shard " + shard + "/" + shardCount + " runs " + shardTaskDefs.size() +
+                        " of " + selectedTaskDefs.size() + " test suite(s) for " + framework.name());
+                }
 
-            List<Class<?>> classes = new ArrayList<>();
-            for (String name : JavaFrameworkUtils.listClasses(classPath0, false, logger)) {
-                try {
-                    classes.add(classLoader.loadClass(name));
-                } catch (ClassNotFoundException | NoClassDefFoundError |
-                         UnsupportedClassVersionError | IncompatibleClassChangeError e) {
-                    // Expected: not every .class file on the classpath is loadable
-                    logger.debug("Could not load class " + name + ": " + e);
+                Task[] initialTasks = runner.tasks(shardTaskDefs.toArray(new TaskDef[0]));
+                int parallelism =
+                    JavaTestRunner.parallelism(framework, testParallelism, parallelFrameworks, logger);
+                if (parallelism > 1)
+                    logger.debug("Running " + initialTasks.length + " task(s) on " + parallelism + " threads");
+                long eventsBefore = reporter.eventCount();
+                long failedBefore = reporter.failedCount();
+                JavaTestRunner.runTasks(Arrays.asList(initialTasks), System.out, parallelism, reporter);
+                boolean noEvents = reporter.eventCount() == eventsBefore;
+                boolean failed = reporter.failedCount() > failedBefore;
+                ranTaskDefs.addAll(shardTaskDefs);
+
+                String doneMsg = runner.done();
+                if (doneMsg != null && !doneMsg.isEmpty()) System.out.println(doneMsg);
+
+                // suites skipped by test impact analysis passed in an earlier run
+                if (requireTestsFinal && noEvents && !anySkipped) {
+                    logger.error("Error: no tests were run for " + framework.name() + ".");
+                    anyFailed = true;
+                } else if (failed) {
+                    logger.error("Error: " + framework.name() + " tests failed.");
+                    anyFailed = true;
+                } else {
+                    logger.log(framework.name() + " tests ran successfully.");
                 }
             }
 
-            final List<TaskDef> taskDefs;
-            if (JavaFrameworkUtils.isJupiterFramework(framework)) {
-                taskDefs = JavaFrameworkUtils.filterTaskDefsByClassName(
-                    JavaFrameworkUtils.jupiterTaskDefs(classPath0, classLoader, logger),
-                    testOnlyFinal,
-                    (pattern, className) -> globPattern(pattern).matcher(className).matches()
-                );
-            } else {
-                taskDefs = new ArrayList<>();
-                for (Class<?> cls : classes) {
-                    Optional<Fingerprint> fp = JavaFrameworkUtils.matchFingerprints(
-                        classLoader, cls, fingerprints, logger
-                    );
-                    if (!fp.isPresent()) continue;
-                    String clsName = cls.getName().endsWith("$")
-                        ? cls.getName().substring(0, cls.getName().length() - 1)
-                        : cls.getName();
-                    if (testOnlyFinal.isPresent()) {
-                        Pattern pat = globPattern(testOnlyFinal.get());
-                        if (!pat.matcher(clsName).matches()) continue;
-                    }
-                    taskDefs.add(new TaskDef(clsName, fp.get(), false, new Selector[]{new SuiteSelector()}));
+            if (impact != null) {
+                impact.printSummary();
+                Set<String> failedSuites = new HashSet<>();
+                for (Map.Entry<String, JavaTestReporter.SuiteStats> entry : reporter.suites().entrySet()) {
+                    if (entry.getValue().failures() + entry.getValue().errors() > 0)
+                        failedSuites.add(entry.getKey());
                 }
+                impact.save(ranTaskDefs, failedSuites);
             }
 
-            Task[] initialTasks = runner.tasks(taskDefs.toArray(new TaskDef[0]));
-            List<Event> events = JavaTestRunner.runTasks(Arrays.asList(initialTasks), System.out);
+            exitCode = anyFailed ? 1 : 0;
+        } finally {
+            discovery.close();
+            resources.close();
+            if (reporter != null) reporter.close();
+        }
 
-            boolean failed = events.stream().anyMatch(ev ->
-                ev.status() == Status.Error ||
-                ev.status() == Status.Failure ||
-                ev.status() == Status.Canceled
+        if (testEvents.isPresent() || junitReportDir.isPresent())
+            reporter.printSlowestSuites(System.out, SLOWEST_SUITES);
+        if (testReport.isPresent())
+            JavaTestShards.writeReport(
+                Paths.get(testReport.get()),
+                JavaTestShards.suiteDurations(ranTaskDefs, reporter.suiteDurations()),
+                reporter.eventCount(),
+                logger
             );
+        return exitCode;
+    }
 
-            String doneMsg = runner.done();
-            if (doneMsg != null && !doneMsg.isEmpty()) System.out.println(doneMsg);
-
-            if (requireTestsFinal && events.isEmpty()) {
-                logger.error("Error: no tests were run for " + framework.name() + ".");
-                anyFailed = true;
-            } else if (failed) {
-                logger.error("Error: " + framework.name() + " tests failed.");
-                anyFailed = true;
-            } else {
-                logger.log(framework.name() + " tests ran successfully.");
+    private static JavaTestReporter reporter(
+        Optional<String> testEvents,
+        Optional<String> junitReportDir,
+        JavaTestLogger logger
+    ) {
+        try {
+            return new JavaTestReporter(
+                testEvents.map(Paths::get).orElse(null),
+                junitReportDir.map(Paths::get).orElse(null),
+                logger
+            );
+        } catch (IOException e) {
+            logger.error("Could not create test reports: " + e.getMessage());
+            try {
+                return new JavaTestReporter(null, null, logger);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
             }
         }
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000L;
+    }
 
-        System.exit(anyFailed ? 1 : 0);
+    private static String threadCount(JavaParallelDiscovery discovery) {
+        int count = discovery.threadCount();
+        return count + (count == 1 ? " thread" : " threads");
     }
 }
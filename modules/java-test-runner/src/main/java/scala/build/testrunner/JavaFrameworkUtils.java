@@ -9,6 +9,7 @@ import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -28,12 +29,24 @@ public class JavaFrameworkUtils {
         List<Path> classPath,
         ClassLoader loader,
         JavaTestLogger logger
+    ) {
+        return jupiterTaskDefs(JavaParallelDiscovery.sequential(), classPath, loader, logger);
+    }
+
+    public static List<TaskDef> jupiterTaskDefs(
+        JavaParallelDiscovery discovery,
+        List<Path> classPath,
+        ClassLoader loader,
+        JavaTestLogger logger
     ) {
         try {
             URL[] runtimeClasspath = classPathUrls(classPath);
-            return classPath.stream()
+            List<Path> classDirectories = classPath.stream()
                 .filter(Files::isDirectory)
-                .flatMap(dir -> collectJupiterTests(dir, loader, runtimeClasspath, logger).stream())
+                .collect(Collectors.toList());
+            return discovery
+                .flatMap(classDirectories, dir -> collectJupiterTests(dir, loader, runtimeClasspath, logger))
+                .stream()
                 .map(JavaFrameworkUtils::jupiterItemToTaskDef)
                 .collect(Collectors.collectingAndThen(
                     Collectors.toMap(
@@ -115,6 +128,22 @@ public class JavaFrameworkUtils {
         return result;
     }
 
+    private static final AtomicLong loadedClassCount = new AtomicLong();
+
+    /**
+     * Number of classes test discovery loaded through a class loader so far, across all the runs
+     * of this JVM. Take the difference with the value at the start of a run to count its own.
+     */
+    public static long loadedClassCount() {
+        return loadedClassCount.get();
+    }
+
+    static Class<?> loadClass(ClassLoader loader, String name) throws ClassNotFoundException {
+        Class<?> cls = loader.loadClass(name);
+        loadedClassCount.incrementAndGet();
+        return cls;
+    }
+
     public static Framework loadFramework(ClassLoader loader, String className) throws Exception {
         Class<?> cls = loader.loadClass(className);
         return (Framework) cls.getConstructor().newInstance();
@@ -126,44 +155,105 @@ public class JavaFrameworkUtils {
         List<String> preferredClasses,
         JavaTestLogger logger
     ) {
-        Class<?> frameworkCls = Framework.class;
-        List<Framework> result = new ArrayList<>();
-        Set<String> seen = new LinkedHashSet<>();
+        return findFrameworks(
+            JavaParallelDiscovery.sequential(), classPath, loader, preferredClasses, logger);
+    }
 
-        // first try preferred classes, then scan classpath
-        List<String> candidates = new ArrayList<>(preferredClasses);
-        for (String name : listClasses(classPath, true, logger)) {
-            if (!seen.contains(name)) {
-                candidates.add(name);
-            }
+    public static List<Framework> findFrameworks(
+        JavaParallelDiscovery discovery,
+        List<Path> classPath,
+        ClassLoader loader,
+        List<String> preferredClasses,
+        JavaTestLogger logger
+    ) {
+        return findFrameworks(discovery, classPath, loader, preferredClasses, null, logger);
+    }
+
+    public static List<Framework> findFrameworks(
+        JavaParallelDiscovery discovery,
+        List<Path> classPath,
+        ClassLoader loader,
+        List<String> preferredClasses,
+        JavaTestIndex index,
+        JavaTestLogger logger
+    ) {
+        return findFrameworks(
+            discovery,
+            classPath,
+            loader,
+            preferredClasses,
+            index,
+            new JavaAsmTestRunner.ParentInspector(classPath, index, logger),
+            logger
+        );
+    }
+
+    public static List<Framework> findFrameworks(
+        JavaParallelDiscovery discovery,
+        List<Path> classPath,
+        ClassLoader loader,
+        List<String> preferredClasses,
+        JavaTestIndex index,
+        JavaAsmTestRunner.ParentInspector parentInspector,
+        JavaTestLogger logger
+    ) {
+        // first try preferred classes, then scan classpath; scanned classes are only loaded
+        // if their bytecode (or its index, for JARs) says they implement sbt.testing.Framework
+        List<String> scanned = new ArrayList<>();
+        for (String name : JavaAsmTestRunner.frameworkCandidates(
+            discovery,
+            classPath,
+            index,
+            info -> !info.isAbstract() && !info.isInterface(),
+            parentInspector,
+            logger
+        )) {
+            scanned.add(name.replace('/', '.'));
         }
+        Set<String> candidates = new LinkedHashSet<>(preferredClasses);
+        candidates.addAll(scanned);
 
-        for (String name : candidates) {
-            if (!seen.add(name)) continue;
-            Class<?> cls;
-            try {
-                cls = loader.loadClass(name);
-            } catch (ClassNotFoundException | UnsupportedClassVersionError |
-                     NoClassDefFoundError | IncompatibleClassChangeError e) {
-                // Expected: most classpath entries aren't test frameworks
-                continue;
+        List<Class<?>> frameworkClasses = discovery.flatMap(
+            JavaParallelDiscovery.chunks(new ArrayList<>(candidates), JavaParallelDiscovery.CHUNK_SIZE),
+            chunk -> {
+                List<Class<?>> found = new ArrayList<>();
+                for (String name : chunk) {
+                    Class<?> cls = frameworkClass(loader, name);
+                    if (cls != null) found.add(cls);
+                }
+                return found;
             }
-            if (!frameworkCls.isAssignableFrom(cls)) continue;
-            if (Modifier.isAbstract(cls.getModifiers())) continue;
-            long publicNoArgCtors = Arrays.stream(cls.getConstructors())
-                .filter(c -> Modifier.isPublic(c.getModifiers()) && c.getParameterCount() == 0)
-                .count();
-            if (publicNoArgCtors != 1) continue;
+        );
+
+        List<Framework> result = new ArrayList<>();
+        for (Class<?> cls : frameworkClasses) {
             try {
                 Framework instance = (Framework) cls.getConstructor().newInstance();
                 result.add(instance);
             } catch (Exception e) {
-                logger.log("Could not instantiate framework " + name + ": " + e);
+                logger.log("Could not instantiate framework " + cls.getName() + ": " + e);
             }
         }
         return result;
     }
 
+    private static Class<?> frameworkClass(ClassLoader loader, String name) {
+        Class<?> cls;
+        try {
+            cls = loadClass(loader, name);
+        } catch (ClassNotFoundException | UnsupportedClassVersionError |
+                 NoClassDefFoundError | IncompatibleClassChangeError e) {
+            // Expected: most classpath entries aren't test frameworks
+            return null;
+        }
+        if (!Framework.class.isAssignableFrom(cls)) return null;
+        if (Modifier.isAbstract(cls.getModifiers())) return null;
+        long publicNoArgCtors = Arrays.stream(cls.getConstructors())
+            .filter(c -> Modifier.isPublic(c.getModifiers()) && c.getParameterCount() == 0)
+            .count();
+        return publicNoArgCtors == 1 ? cls : null;
+    }
+
     public static Optional<Fingerprint> matchFingerprints(
         ClassLoader loader,
         Class<?> cls,
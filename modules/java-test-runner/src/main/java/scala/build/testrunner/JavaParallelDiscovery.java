@@ -0,0 +1,92 @@
+package scala.build.testrunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+
+/**
+ * Runs test discovery work either inline or on a fork-join pool.
+ *
+ * Work is split by class path entry and by chunks of classes, and partial results are always
+ * concatenated in input order, so that parallel discovery returns the same task definitions, in
+ * the same order, as the sequential one.
+ */
+public class JavaParallelDiscovery implements AutoCloseable {
+
+    /** Number of classes handled by a single fork-join task. */
+    public static final int CHUNK_SIZE = 256;
+
+    private final ForkJoinPool pool;
+
+    private JavaParallelDiscovery(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public static JavaParallelDiscovery sequential() {
+        return new JavaParallelDiscovery(null);
+    }
+
+    public static JavaParallelDiscovery parallel(int parallelism) {
+        return new JavaParallelDiscovery(new ForkJoinPool(Math.max(1, parallelism)));
+    }
+
+    public static JavaParallelDiscovery parallel() {
+        return parallel(Runtime.getRuntime().availableProcessors());
+    }
+
+    public boolean isParallel() { return pool != null; }
+
+    public int threadCount() { return pool == null ? 1 : pool.getParallelism(); }
+
+    public <A, B> List<B> flatMap(List<A> items, Function<A, List<B>> f) {
+        if (pool == null) {
+            List<B> result = new ArrayList<>();
+            for (A item : items) result.addAll(f.apply(item));
+            return result;
+        }
+        return pool.invoke(new FlatMapTask<>(items, 0, items.size(), f));
+    }
+
+    public static <A> List<List<A>> chunks(List<A> items, int chunkSize) {
+        List<List<A>> result = new ArrayList<>();
+        for (int i = 0; i < items.size(); i += chunkSize) {
+            result.add(items.subList(i, Math.min(items.size(), i + chunkSize)));
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) pool.shutdown();
+    }
+
+    private static class FlatMapTask<A, B> extends RecursiveTask<List<B>> {
+        private final List<A> items;
+        private final int from;
+        private final int until;
+        private final Function<A, List<B>> f;
+
+        FlatMapTask(List<A> items, int from, int until, Function<A, List<B>> f) {
+            this.items = items;
+            this.from = from;
+            this.until = until;
+            this.f = f;
+        }
+
+        @Override
+        protected List<B> compute() {
+            if (until - from == 0) return Collections.emptyList();
+            if (until - from == 1) return f.apply(items.get(from));
+            int mid = (from + until) >>> 1;
+            FlatMapTask<A, B> left = new FlatMapTask<>(items, from, mid, f);
+            left.fork();
+            List<B> right = new FlatMapTask<>(items, mid, until, f).compute();
+            List<B> result = new ArrayList<>(left.join());
+            result.addAll(right);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package scala.build.testrunner;
+
+import sbt.testing.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs test tasks on a pool of worker threads.
+ *
+ * Tags returned by {@link Task#tags()} stand for exclusive resources: two tasks sharing a tag never
+ * run at the same time. Each task logs to its own buffer, printed in one go once the task is done,
+ * so that the output of suites running concurrently is never interleaved. Tasks returned by a task
+ * are queued after the ones already pending. Events are passed on as soon as they're fired, from the
+ * worker threads.
+ */
+final class JavaTaskScheduler {
+
+    private final PrintStream out;
+    private final int parallelism;
+    private final EventHandler handler;
+    private final Deque<Task> pending;
+    private final Set<String> busyTags = new HashSet<>();
+    private int running = 0;
+    private Throwable failure = null;
+
+    private JavaTaskScheduler(List<Task> initialTasks, PrintStream out, int parallelism, EventHandler handler) {
+        this.out = out;
+        this.parallelism = parallelism;
+        this.handler = handler;
+        this.pending = new ArrayDeque<>(initialTasks);
+    }
+
+    /** {@code handler} has to be thread-safe. */
+    static void run(List<Task> initialTasks, PrintStream out, int parallelism, EventHandler handler) {
+        new JavaTaskScheduler(initialTasks, out, parallelism, handler).run();
+    }
+
+    private void run() {
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "scala-cli-test-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            synchronized (this) {
+                while (true) {
+                    if (failure == null) {
+                        Iterator<Task> it = pending.iterator();
+                        while (running < parallelism && it.hasNext()) {
+                            Task task = it.next();
+                            List<String> tags = tags(task);
+                            if (Collections.disjoint(tags, busyTags)) {
+                                it.remove();
+                                busyTags.addAll(tags);
+                                running++;
+                                pool.execute(() -> execute(task, tags));
+                            }
+                        }
+                    }
+                    if (running == 0 && (pending.isEmpty() || failure != null)) break;
+                    wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            pool.shutdownNow();
+        }
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        if (failure != null) throw new RuntimeException(failure);
+    }
+
+    private void execute(Task task, List<String> tags) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream taskOut = new PrintStream(buffer, true);
+        Task[] newTasks = new Task[0];
+        Throwable error = null;
+        try {
+            newTasks = task.execute(handler, new sbt.testing.Logger[]{JavaTestRunner.logger(taskOut)});
+        } catch (Throwable t) {
+            error = t;
+        }
+        taskOut.flush();
+        synchronized (out) {
+            out.write(buffer.toByteArray(), 0, buffer.size());
+            out.flush();
+        }
+        synchronized (this) {
+            if (newTasks != null) pending.addAll(Arrays.asList(newTasks));
+            busyTags.removeAll(tags);
+            running--;
+            if (error != null && failure == null) failure = error;
+            notifyAll();
+        }
+    }
+
+    private static List<String> tags(Task task) {
+        String[] tags = task.tags();
+        return tags == null ? Collections.emptyList() : Arrays.asList(tags);
+    }
+}
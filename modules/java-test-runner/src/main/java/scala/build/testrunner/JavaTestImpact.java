@@ -0,0 +1,326 @@
+package scala.build.testrunner;
+
+import org.objectweb.asm.ClassReader;
+import sbt.testing.TaskDef;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Test impact analysis: skips the test suites that passed in an earlier run, and that can't reach
+ * any project class that changed since then in the class dependency graph of the project.
+ *
+ * Project classes are the classes of the directories of the class path. Their dependency graph is
+ * built from their bytecode with {@link JavaAsmTestRunner.ReferenceCollector}, and changes are
+ * spotted by comparing class file hashes with the ones of the previous run. Anything that can't be
+ * tracked that way runs everything: a change in the JARs of the class path, in the resources of the
+ * project directories, or in the test framework arguments.
+ *
+ * State files have a {@code context\t<hash>} line, a {@code class\t<name>\t<hash>} line per project
+ * class and a {@code passed\t<suite>} line per suite known to pass. The format is shared with the
+ * Scala test runner's {@code TestImpact}, keep both in sync.
+ */
+public class JavaTestImpact {
+
+    private final Path stateFile;
+    private final JavaTestLogger logger;
+    private final String context;
+    private final Map<String, String> classHashes;
+    /** Project classes that can reach a changed class, or {@code null} to run everything. */
+    private final Set<String> affected;
+    private final Set<String> previouslyPassed;
+    private final Set<String> skipped = new LinkedHashSet<>();
+    private int suiteCount = 0;
+
+    private JavaTestImpact(
+        Path stateFile,
+        JavaTestLogger logger,
+        String context,
+        Map<String, String> classHashes,
+        Set<String> affected,
+        Set<String> previouslyPassed
+    ) {
+        this.stateFile = stateFile;
+        this.logger = logger;
+        this.context = context;
+        this.classHashes = classHashes;
+        this.affected = affected;
+        this.previouslyPassed = previouslyPassed;
+    }
+
+    /**
+     * Hashes the project classes of {@code classPath} and builds their dependency graph, and
+     * compares them with the state saved in {@code stateFile} by the previous run, if any.
+     */
+    public static JavaTestImpact load(
+        Path stateFile,
+        List<Path> classPath,
+        List<String> testArgs,
+        JavaTestLogger logger
+    ) {
+        long start = System.nanoTime();
+        MessageDigest contextDigest = sha1();
+        for (Path entry : classPath) {
+            if (Files.isDirectory(entry)) continue;
+            update(contextDigest, "jar\t" + entry);
+            try {
+                update(contextDigest, "\t" + Files.size(entry) + "\t" + Files.getLastModifiedTime(entry).toMillis());
+            } catch (IOException e) {
+                update(contextDigest, "\tmissing");
+            }
+            update(contextDigest, "\n");
+        }
+        for (String arg : testArgs) update(contextDigest, "arg\t" + arg + "\n");
+
+        Map<String, String> hashes = new HashMap<>();
+        Map<String, Set<String>> references = new HashMap<>();
+        for (Path entry : classPath) {
+            if (Files.isDirectory(entry)) scanDirectory(entry, hashes, references, contextDigest, logger);
+        }
+        String context = hex(contextDigest.digest());
+
+        State previous = readState(stateFile, logger);
+        Set<String> affected = null;
+        Set<String> previouslyPassed = Collections.emptySet();
+        if (previous == null) {
+            logger.log("Test impact analysis: no earlier run to compare with, running all test suites");
+        } else if (!previous.context.equals(context)) {
+            logger.log("Test impact analysis: dependencies, resources or test arguments changed, running all test suites");
+        } else {
+            Set<String> changed = new HashSet<>();
+            for (Map.Entry<String, String> e : hashes.entrySet()) {
+                if (!e.getValue().equals(previous.classHashes.get(e.getKey()))) changed.add(e.getKey());
+            }
+            for (String name : previous.classHashes.keySet()) {
+                if (!hashes.containsKey(name)) changed.add(name);
+            }
+            affected = reachingClasses(changed, references);
+            previouslyPassed = previous.passed;
+            logger.debug("Test impact analysis: " + changed.size() + " changed class(es), " +
+                affected.size() + " affected class(es)");
+        }
+        logger.debug("Test impact analysis: hashed " + hashes.size() + " class(es) in " +
+            (System.nanoTime() - start) / 1000000L + " ms");
+        return new JavaTestImpact(stateFile, logger, context, hashes, affected, previouslyPassed);
+    }
+
+    /**
+     * The task definitions of {@code taskDefs} that need to run, in order. The others passed in the
+     * previous run and don't depend on anything that changed since.
+     */
+    public List<TaskDef> select(List<TaskDef> taskDefs) {
+        List<TaskDef> result = new ArrayList<>();
+        for (TaskDef taskDef : taskDefs) {
+            suiteCount++;
+            String suite = taskDef.fullyQualifiedName();
+            if (previouslyPassed.contains(suite) && !isAffected(suite)) skipped.add(suite);
+            else result.add(taskDef);
+        }
+        return result;
+    }
+
+    /** Number of suites {@link #select} left out so far. */
+    public int skippedCount() { return skipped.size(); }
+
+    public void printSummary() {
+        if (affected != null)
+            logger.message("Test impact analysis: skipped " + skipped.size() + " of " + suiteCount +
+                " test suite(s), not affected by changes since the last run");
+    }
+
+    /**
+     * Saves the class hashes of this run, along with the suites known to pass with them: those
+     * that ran without failures, and those that passed earlier and that weren't affected by the
+     * latest changes.
+     *
+     * @param ran suites that ran
+     * @param failed suites with failures or errors, possibly not all in {@code ran} when a suite
+     *               reports events for nested suites
+     */
+    public void save(Collection<TaskDef> ran, Set<String> failed) {
+        Set<String> ranNames = new HashSet<>();
+        for (TaskDef taskDef : ran) ranNames.add(taskDef.fullyQualifiedName());
+        // failures reported under unknown suite names can't be tied to the suites that ran, so
+        // none of them is recorded as passing
+        boolean failuresKnown = ranNames.containsAll(failed);
+        Set<String> passed = new TreeSet<>();
+        for (String suite : previouslyPassed) {
+            if (!ranNames.contains(suite) && !isAffected(suite)) passed.add(suite);
+        }
+        if (failuresKnown) {
+            for (String suite : ranNames) {
+                if (!failed.contains(suite)) passed.add(suite);
+            }
+        }
+
+        StringBuilder content = new StringBuilder();
+        content.append("context\t").append(context).append('\n');
+        for (String name : new TreeSet<>(classHashes.keySet()))
+            content.append("class\t").append(name).append('\t').append(classHashes.get(name)).append('\n');
+        for (String suite : passed) content.append("passed\t").append(suite).append('\n');
+        Path tmp = stateFile.resolveSibling("." + stateFile.getFileName() + ".tmp");
+        try {
+            Path parent = stateFile.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                w.write(content.toString());
+            }
+            Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Could not save test impact analysis state to " + stateFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Whether a suite may be affected by the latest changes. Suites whose class can't be found
+     * among the project classes always are.
+     */
+    private boolean isAffected(String suite) {
+        if (affected == null) return true;
+        String className = suite.replace('.', '/');
+        String moduleName = className + "$";
+        boolean known = classHashes.containsKey(className) || classHashes.containsKey(moduleName);
+        return !known || affected.contains(className) || affected.contains(moduleName);
+    }
+
+    /** {@code changed} and the classes that depend on them, directly or not. */
+    static Set<String> reachingClasses(Set<String> changed, Map<String, Set<String>> references) {
+        Map<String, List<String>> dependents = new HashMap<>();
+        for (Map.Entry<String, Set<String>> e : references.entrySet()) {
+            for (String ref : e.getValue()) {
+                if (references.containsKey(ref) || changed.contains(ref))
+                    dependents.computeIfAbsent(ref, k -> new ArrayList<>()).add(e.getKey());
+            }
+        }
+        Set<String> result = new HashSet<>(changed);
+        Deque<String> todo = new ArrayDeque<>(changed);
+        while (!todo.isEmpty()) {
+            for (String dependent : dependents.getOrDefault(todo.poll(), Collections.emptyList())) {
+                if (result.add(dependent)) todo.add(dependent);
+            }
+        }
+        return result;
+    }
+
+    private static void scanDirectory(
+        Path dir,
+        Map<String, String> hashes,
+        Map<String, Set<String>> references,
+        MessageDigest contextDigest,
+        JavaTestLogger logger
+    ) {
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(dir, Integer.MAX_VALUE)) {
+            files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        } catch (IOException | UncheckedIOException e) {
+            logger.log("Could not walk directory " + dir + ": " + e.getMessage());
+            untracked(contextDigest);
+            return;
+        }
+        for (Path file : files) {
+            String rel = dir.relativize(file).toString().replace('\\', '/');
+            byte[] content;
+            try {
+                content = Files.readAllBytes(file);
+            } catch (IOException e) {
+                logger.debug("Could not read " + file + ": " + e.getMessage());
+                untracked(contextDigest);
+                continue;
+            }
+            if (!rel.endsWith(".class")) {
+                update(contextDigest, "resource\t" + rel + "\n");
+                contextDigest.update(content);
+                continue;
+            }
+            String name = rel.substring(0, rel.length() - ".class".length());
+            if (hashes.containsKey(name)) continue; // shadowed by an earlier directory
+            hashes.put(name, hex(sha1().digest(content)));
+            JavaAsmTestRunner.ReferenceCollector collector = new JavaAsmTestRunner.ReferenceCollector();
+            try {
+                new ClassReader(content).accept(collector, ClassReader.SKIP_FRAMES);
+                references.put(name, collector.getReferences());
+            } catch (RuntimeException e) {
+                // ASM throws unchecked exceptions on malformed class files
+                logger.debug("Could not parse bytecode of " + name + ": " + e.getMessage());
+                untracked(contextDigest);
+                references.put(name, Collections.emptySet());
+            }
+        }
+    }
+
+    private static final class State {
+        final String context;
+        final Map<String, String> classHashes;
+        final Set<String> passed;
+
+        State(String context, Map<String, String> classHashes, Set<String> passed) {
+            this.context = context;
+            this.classHashes = classHashes;
+            this.passed = passed;
+        }
+    }
+
+    /** Reads a state file, returning {@code null} if it doesn't exist, can't be read, or is incomplete. */
+    private static State readState(Path file, JavaTestLogger logger) {
+        if (!Files.isRegularFile(file)) return null;
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            logger.debug("Could not read test impact analysis state from " + file + ": " + e.getMessage());
+            return null;
+        }
+        String context = null;
+        Map<String, String> classHashes = new HashMap<>();
+        Set<String> passed = new HashSet<>();
+        for (String line : lines) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length == 2 && fields[0].equals("context")) context = fields[1];
+            else if (fields.length == 3 && fields[0].equals("class")) classHashes.put(fields[1], fields[2]);
+            else if (fields.length == 2 && fields[0].equals("passed")) passed.add(fields[1]);
+            else logger.debug("Ignoring malformed line in " + file + ": " + line);
+        }
+        return context == null ? null : new State(context, classHashes, passed);
+    }
+
+    /**
+     * Makes the context of this run unique, so that nothing is skipped in this run nor in the next
+     * one, when a part of the project can't be tracked.
+     */
+    private static void untracked(MessageDigest contextDigest) {
+        update(contextDigest, "untracked\t" + UUID.randomUUID() + "\n");
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static String hex(byte[] digest) {
+        char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            chars[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
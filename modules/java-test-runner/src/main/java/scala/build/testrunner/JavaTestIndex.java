@@ -0,0 +1,383 @@
+package scala.build.testrunner;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * On-disk index of what test discovery needs from dependency JARs: the
+ * {@code META-INF/services/sbt.testing.Framework} entries, and for each class, its access flags,
+ * public constructor count, parents and annotations.
+ *
+ * Dependency JARs are immutable coursier artifacts, so a JAR is scanned once, and later runs read
+ * its index instead. An index file is named after the JAR path, and records the JAR size and last
+ * modification time at indexing time; it's discarded if either changed since then. JARs aren't
+ * hashed, as that would read them in full, the very thing the index is here to avoid.
+ *
+ * The format is shared with the Scala test runner's {@code TestIndex}, keep both in sync.
+ */
+public class JavaTestIndex {
+
+    static final String HEADER = "scala-cli-test-index\t2";
+    static final String SERVICES_RESOURCE = "META-INF/services/sbt.testing.Framework";
+
+    public static class JarIndex {
+        private final boolean hasServicesFile;
+        private final List<String> services;
+        private final LinkedHashMap<String, JavaAsmTestRunner.ClassInfo> classes;
+
+        JarIndex(
+            boolean hasServicesFile,
+            List<String> services,
+            LinkedHashMap<String, JavaAsmTestRunner.ClassInfo> classes
+        ) {
+            this.hasServicesFile = hasServicesFile;
+            this.services = services;
+            this.classes = classes;
+        }
+
+        /** Whether the JAR has a {@code META-INF/services/sbt.testing.Framework} entry. */
+        public boolean hasServicesFile() { return hasServicesFile; }
+        public List<String> getServices() { return services; }
+        /** Classes of the JAR, by internal name, in JAR order. */
+        public Map<String, JavaAsmTestRunner.ClassInfo> getClasses() { return classes; }
+    }
+
+    /** A class of a {@link ClassDirectoryIndex}. */
+    public static class IndexedClass {
+        private final long size;
+        private final long mtimeNanos;
+        private final JavaAsmTestRunner.ClassInfo info;
+        private final Set<String> methodAnnotations;
+
+        IndexedClass(long size, long mtimeNanos, JavaAsmTestRunner.ClassInfo info, Set<String> methodAnnotations) {
+            this.size = size;
+            this.mtimeNanos = mtimeNanos;
+            this.info = info;
+            this.methodAnnotations = methodAnnotations;
+        }
+
+        public JavaAsmTestRunner.ClassInfo getInfo() { return info; }
+        /** Runtime-visible annotations of all the methods declared by the class, constructors excluded. */
+        public Set<String> getMethodAnnotations() { return methodAnnotations; }
+    }
+
+    /**
+     * Class headers of a class directory, read from the class index Scala CLI writes for its build
+     * outputs (see {@code scala.build.internal.ClassIndex}), keep both in sync. Classes whose
+     * class file changed since they were indexed are ignored, and have to be read from bytecode.
+     */
+    public static class ClassDirectoryIndex {
+        private final Path directory;
+        private final Map<String, IndexedClass> classes;
+
+        ClassDirectoryIndex(Path directory, Map<String, IndexedClass> classes) {
+            this.directory = directory;
+            this.classes = classes;
+        }
+
+        /** The class {@code className}, or {@code null} if it's not indexed or changed since then. */
+        public IndexedClass get(String className) {
+            IndexedClass indexed = classes.get(className);
+            if (indexed == null) return null;
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(
+                    directory.resolve(className + ".class"), BasicFileAttributes.class);
+                boolean unchanged = attrs.size() == indexed.size &&
+                    attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS) == indexed.mtimeNanos;
+                return unchanged ? indexed : null;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    static final String CLASS_INDEX_HEADER = "scala-cli-class-index\t1";
+
+    /** A class index read from disk, along with the size and last modification time of its file then. */
+    private static final class CachedClassDirectory {
+        final long indexSize;
+        final long indexMtimeNanos;
+        final ClassDirectoryIndex index;
+
+        CachedClassDirectory(long indexSize, long indexMtimeNanos, ClassDirectoryIndex index) {
+            this.indexSize = indexSize;
+            this.indexMtimeNanos = indexMtimeNanos;
+            this.index = index;
+        }
+    }
+
+    private static final ConcurrentHashMap<Path, CachedClassDirectory> classDirectories =
+        new ConcurrentHashMap<>();
+
+    /**
+     * The class index of {@code directory}, or {@code null} if it's not a Scala CLI build output that has one.
+     *
+     * Indices are kept in memory, and read again once their file changed, as build outputs are
+     * indexed again after each compilation, while the runner may stay loaded in between.
+     */
+    public static ClassDirectoryIndex classDirectory(Path directory, JavaTestLogger logger) {
+        Path absDir = directory.toAbsolutePath().normalize();
+        Path parent = absDir.getParent();
+        if (parent == null || parent.getParent() == null) return null;
+        Path indexFile = parent.getParent().resolve("class-index").resolve(absDir.getFileName().toString());
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(indexFile, BasicFileAttributes.class);
+        } catch (IOException e) {
+            classDirectories.remove(absDir);
+            return null;
+        }
+        if (!attrs.isRegularFile()) return null;
+        long size = attrs.size();
+        long mtimeNanos = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        CachedClassDirectory cached = classDirectories.get(absDir);
+        if (cached == null || cached.indexSize != size || cached.indexMtimeNanos != mtimeNanos) {
+            cached = new CachedClassDirectory(size, mtimeNanos, readClassDirectory(absDir, indexFile, logger));
+            classDirectories.put(absDir, cached);
+        }
+        return cached.index;
+    }
+
+    private static ClassDirectoryIndex readClassDirectory(Path directory, Path indexFile, JavaTestLogger logger) {
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            if (!CLASS_INDEX_HEADER.equals(reader.readLine())) return null;
+            if (!("classes\t" + directory).equals(reader.readLine())) return null;
+            Map<String, IndexedClass> classes = new HashMap<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length < 12 || !fields[0].equals("class")) continue;
+                JavaAsmTestRunner.ClassInfo info = new JavaAsmTestRunner.ClassInfo(
+                    Integer.parseInt(fields[5]),
+                    Integer.parseInt(fields[6]),
+                    fields[7].isEmpty() ? null : fields[7],
+                    Collections.unmodifiableList(parents(fields[7], fields[8])),
+                    Collections.unmodifiableSet(new HashSet<>(list(fields[9]))),
+                    Collections.unmodifiableSet(new HashSet<>(list(fields[11])))
+                );
+                classes.put(fields[1], new IndexedClass(
+                    Long.parseLong(fields[2]),
+                    Long.parseLong(fields[3]),
+                    info,
+                    Collections.unmodifiableSet(new HashSet<>(list(fields[10])))
+                ));
+            }
+            return new ClassDirectoryIndex(directory, classes);
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Ignoring invalid class index " + indexFile + ": " + e);
+            return null;
+        }
+    }
+
+    private final Path directory;
+    private final JavaTestLogger logger;
+    private final ConcurrentHashMap<Path, Optional<JarIndex>> jars = new ConcurrentHashMap<>();
+    private final AtomicInteger readCount = new AtomicInteger();
+    private final AtomicInteger writeCount = new AtomicInteger();
+
+    public JavaTestIndex(Path directory, JavaTestLogger logger) {
+        this.directory = directory;
+        this.logger = logger;
+    }
+
+    /** Number of JAR indices read from disk so far. */
+    public int readCount() { return readCount.get(); }
+    /** Number of JARs scanned and indexed so far. */
+    public int writeCount() { return writeCount.get(); }
+
+    /** The index of {@code jar}, or {@code null} if it isn't a readable JAR. */
+    public JarIndex jar(Path jar) {
+        Path absJar = jar.toAbsolutePath();
+        Optional<JarIndex> cached = jars.get(absJar);
+        if (cached == null) {
+            cached = Optional.ofNullable(load(absJar));
+            Optional<JarIndex> previous = jars.putIfAbsent(absJar, cached);
+            if (previous != null) cached = previous;
+        }
+        return cached.orElse(null);
+    }
+
+    private JarIndex load(Path jar) {
+        long size;
+        long modified;
+        try {
+            size = Files.size(jar);
+            modified = Files.getLastModifiedTime(jar).toMillis();
+        } catch (IOException e) {
+            logger.debug("Could not read attributes of " + jar + ": " + e.getMessage());
+            return null;
+        }
+        Path indexFile = directory.resolve(sha1Hex(jar.toString().getBytes(StandardCharsets.UTF_8)) + ".idx");
+        if (Files.isRegularFile(indexFile)) {
+            try {
+                JarIndex index = read(indexFile, jar, size, modified);
+                if (index != null) {
+                    readCount.incrementAndGet();
+                    return index;
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Ignoring invalid test index " + indexFile + ": " + e);
+            }
+        }
+        JarIndex index = build(jar);
+        if (index != null) {
+            try {
+                write(indexFile, jar, size, modified, index);
+                writeCount.incrementAndGet();
+            } catch (IOException e) {
+                logger.debug("Could not write test index " + indexFile + ": " + e.getMessage());
+            }
+        }
+        return index;
+    }
+
+    private JarIndex build(Path jar) {
+        boolean hasServicesFile = false;
+        List<String> services = new ArrayList<>();
+        try (ZipFile zf = new ZipFile(jar.toFile())) {
+            ZipEntry ze = zf.getEntry(SERVICES_RESOURCE);
+            if (ze != null) {
+                hasServicesFile = true;
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                try (InputStream is = zf.getInputStream(ze)) {
+                    byte[] buf = new byte[16384];
+                    int read;
+                    while ((read = is.read(buf)) >= 0) baos.write(buf, 0, read);
+                }
+                JavaAsmTestRunner.parseServiceFileContent(
+                    new String(baos.toByteArray(), StandardCharsets.UTF_8), services);
+            }
+        } catch (IOException e) {
+            logger.debug("Could not index " + jar + ": " + e.getMessage());
+            return null;
+        }
+        LinkedHashMap<String, JavaAsmTestRunner.ClassInfo> classes = new LinkedHashMap<>();
+        new JavaAsmTestRunner.ClassScanner(logger).scan(
+            Collections.singletonList(jar), true, (name, reader) -> {
+                JavaAsmTestRunner.TestClassChecker checker = new JavaAsmTestRunner.TestClassChecker();
+                try {
+                    reader.accept(checker, JavaAsmTestRunner.HEADER_ONLY);
+                } catch (RuntimeException e) {
+                    logger.debug("Could not read bytecode for " + name + ": " + e.getMessage());
+                    return true;
+                }
+                classes.put(name, JavaAsmTestRunner.ClassInfo.of(checker));
+                return true;
+            });
+        return new JarIndex(hasServicesFile, services, classes);
+    }
+
+    private static JarIndex read(Path indexFile, Path jar, long size, long modified) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) return null;
+            if (!("jar\t" + jar).equals(reader.readLine())) return null;
+            if (!("size\t" + size).equals(reader.readLine())) return null;
+            if (!("modified\t" + modified).equals(reader.readLine())) return null;
+
+            boolean hasServicesFile = false;
+            List<String> services = new ArrayList<>();
+            LinkedHashMap<String, JavaAsmTestRunner.ClassInfo> classes = new LinkedHashMap<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                switch (fields[0]) {
+                    case "services-file":
+                        hasServicesFile = true;
+                        break;
+                    case "service":
+                        services.add(fields[1]);
+                        break;
+                    case "class":
+                        classes.put(fields[1], new JavaAsmTestRunner.ClassInfo(
+                            Integer.parseInt(fields[2]),
+                            Integer.parseInt(fields[3]),
+                            fields[4].isEmpty() ? null : fields[4],
+                            Collections.unmodifiableList(parents(fields[4], fields[5])),
+                            Collections.unmodifiableSet(new HashSet<>(list(fields[6]))),
+                            Collections.unmodifiableSet(new HashSet<>(list(fields[7])))
+                        ));
+                        break;
+                    default:
+                        // written by a newer version, ignore
+                        break;
+                }
+            }
+            return new JarIndex(hasServicesFile, services, classes);
+        }
+    }
+
+    private void write(Path indexFile, Path jar, long size, long modified, JarIndex index) throws IOException {
+        Files.createDirectories(directory);
+        Path tmp = Files.createTempFile(directory, indexFile.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                writer.write(HEADER + "\n");
+                writer.write("jar\t" + jar + "\n");
+                writer.write("size\t" + size + "\n");
+                writer.write("modified\t" + modified + "\n");
+                if (index.hasServicesFile()) writer.write("services-file\n");
+                for (String service : index.getServices()) writer.write("service\t" + service + "\n");
+                for (Map.Entry<String, JavaAsmTestRunner.ClassInfo> entry : index.getClasses().entrySet()) {
+                    JavaAsmTestRunner.ClassInfo info = entry.getValue();
+                    List<String> interfaces = info.getSuperName() == null
+                        ? info.getParents()
+                        : info.getParents().subList(1, info.getParents().size());
+                    writer.write("class\t" + entry.getKey() +
+                        "\t" + info.getAccess() +
+                        "\t" + info.getPublicConstructorCount() +
+                        "\t" + (info.getSuperName() == null ? "" : info.getSuperName()) +
+                        "\t" + String.join(",", interfaces) +
+                        "\t" + String.join(",", info.getClassAnnotations()) +
+                        "\t" + String.join(",", info.getPublicMethodAnnotations()) +
+                        "\n");
+                }
+            }
+            try {
+                Files.move(tmp, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static List<String> list(String field) {
+        return field.isEmpty() ? Collections.emptyList() : Arrays.asList(field.split(","));
+    }
+
+    private static List<String> parents(String superName, String interfaces) {
+        List<String> result = new ArrayList<>();
+        if (!superName.isEmpty()) result.add(superName);
+        result.addAll(list(interfaces));
+        return result;
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    private static String sha1Hex(byte[] content) {
+        return hex(sha1().digest(content));
+    }
+}
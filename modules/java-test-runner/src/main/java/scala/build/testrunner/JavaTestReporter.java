@@ -0,0 +1,409 @@
+package scala.build.testrunner;
+
+import sbt.testing.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event handler keeping per-suite counts and timings, and optionally writing each event as soon as
+ * it's fired, as a JSON line and as a JUnit XML test case.
+ *
+ * Only per-suite totals are kept in memory, so that memory use doesn't grow with the number of
+ * tests. JUnit XML test cases are appended to a {@code .part} file per suite, and each suite file
+ * is assembled on {@link #close()}, once its totals (needed in the {@code <testsuite>} element)
+ * are known. At most {@link #MAX_OPEN_PARTS} part files are open at any time.
+ *
+ * JSON lines look like
+ * {@code {"type":"event","suite":"a.BTest","selector":"test","test":"c","status":"Failure","durationMs":12,"throwable":{...}}},
+ * followed on close by a {@code "type":"suite"} line per suite with its totals. The Scala test
+ * runner's {@code TestReporter} writes the same reports, keep both in sync.
+ *
+ * Thread-safe, events can be handled from several threads at once. Events are formatted on the
+ * thread handling them, and written to the reports on a single writer thread, in the order they
+ * were handled, so that tasks running in parallel don't wait on disk I/O.
+ */
+public class JavaTestReporter implements EventHandler, AutoCloseable {
+
+    static final int MAX_OPEN_PARTS = 16;
+
+    public static final class SuiteStats {
+        private int tests;
+        private int failures;
+        private int errors;
+        private int skipped;
+        private long durationMs;
+
+        public int tests() { return tests; }
+        public int failures() { return failures; }
+        public int errors() { return errors; }
+        public int skipped() { return skipped; }
+        /** Sum of the durations of the suite events, in milliseconds. */
+        public long durationMs() { return durationMs; }
+    }
+
+    private final Path junitDir;
+    private final JavaTestLogger logger;
+    private final Writer jsonLines;
+    private final ExecutorService writer;
+    private final Map<String, SuiteStats> suites = new LinkedHashMap<>();
+    private final Map<String, Writer> openParts = new LinkedHashMap<String, Writer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Writer> eldest) {
+            if (size() <= MAX_OPEN_PARTS) return false;
+            closeQuietly(eldest.getValue());
+            return true;
+        }
+    };
+    private long eventCount = 0L;
+    private long failedCount = 0L;
+
+    /**
+     * @param jsonLinesFile file to write events to, as JSON lines, or {@code null}
+     * @param junitDir directory to write a JUnit XML file per suite to, or {@code null}
+     */
+    public JavaTestReporter(Path jsonLinesFile, Path junitDir, JavaTestLogger logger) throws IOException {
+        this.junitDir = junitDir;
+        this.logger = logger;
+        if (jsonLinesFile != null) {
+            Path parent = jsonLinesFile.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            this.jsonLines = Files.newBufferedWriter(jsonLinesFile, StandardCharsets.UTF_8);
+        } else {
+            this.jsonLines = null;
+        }
+        if (junitDir != null) Files.createDirectories(junitDir);
+        this.writer = jsonLines == null && junitDir == null
+            ? null
+            : Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "scala-cli-test-reports");
+                t.setDaemon(true);
+                return t;
+            });
+    }
+
+    /** Number of events handled so far. */
+    public synchronized long eventCount() { return eventCount; }
+
+    /** Number of events with an error, failure or canceled status handled so far. */
+    public synchronized long failedCount() { return failedCount; }
+
+    /** Totals of each suite that fired events so far, in first-event order. */
+    public synchronized Map<String, SuiteStats> suites() {
+        return new LinkedHashMap<>(suites);
+    }
+
+    /** Duration of each suite that fired events so far, in milliseconds, in first-event order. */
+    public synchronized Map<String, Long> suiteDurations() {
+        Map<String, Long> durations = new LinkedHashMap<>();
+        for (Map.Entry<String, SuiteStats> entry : suites.entrySet())
+            durations.put(entry.getKey(), entry.getValue().durationMs);
+        return durations;
+    }
+
+    @Override
+    public void handle(Event event) {
+        if (event == null) return;
+        String suite = event.fullyQualifiedName();
+        long durationMs = Math.max(0L, event.duration());
+        boolean firstEvent;
+        synchronized (this) {
+            SuiteStats stats = suites.computeIfAbsent(suite, k -> new SuiteStats());
+            firstEvent = stats.tests == 0;
+            stats.tests++;
+            stats.durationMs += durationMs;
+            eventCount++;
+            switch (event.status()) {
+                case Failure:
+                    stats.failures++;
+                    failedCount++;
+                    break;
+                case Error:
+                case Canceled:
+                    stats.errors++;
+                    failedCount++;
+                    break;
+                case Skipped:
+                case Ignored:
+                case Pending:
+                    stats.skipped++;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (writer == null) return;
+
+        Throwable throwable = event.throwable() != null && event.throwable().isDefined()
+            ? event.throwable().get()
+            : null;
+        String jsonLine = jsonLines == null ? null : jsonLine(event, suite, durationMs, throwable);
+        String testCase = junitDir == null ? null : testCase(event, suite, durationMs, throwable);
+        try {
+            writer.execute(() -> {
+                try {
+                    if (jsonLine != null) jsonLines.write(jsonLine);
+                    if (testCase != null) part(suite, firstEvent).write(testCase);
+                } catch (IOException e) {
+                    logger.error("Could not write test report for " + suite + ": " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("Not reporting event of " + suite + ", fired after the reports were closed");
+        }
+    }
+
+    private static String jsonLine(Event event, String suite, long durationMs, Throwable throwable) {
+        StringBuilder b = new StringBuilder("{\"type\":\"event\",\"suite\":");
+        json(b, suite);
+        b.append(",\"selector\":");
+        json(b, selectorKind(event.selector()));
+        String test = testName(event.selector());
+        if (test != null) {
+            b.append(",\"test\":");
+            json(b, test);
+        }
+        b.append(",\"status\":");
+        json(b, event.status().name());
+        b.append(",\"durationMs\":").append(durationMs);
+        if (throwable != null) {
+            b.append(",\"throwable\":{\"class\":");
+            json(b, throwable.getClass().getName());
+            if (throwable.getMessage() != null) {
+                b.append(",\"message\":");
+                json(b, throwable.getMessage());
+            }
+            StackTraceElement[] trace = throwable.getStackTrace();
+            if (trace != null && trace.length > 0) {
+                b.append(",\"at\":");
+                json(b, trace[0].toString());
+            }
+            b.append('}');
+        }
+        b.append("}\n");
+        return b.toString();
+    }
+
+    private static String testCase(Event event, String suite, long durationMs, Throwable throwable) {
+        String test = testName(event.selector());
+        StringBuilder b = new StringBuilder("  <testcase classname=\"");
+        xml(b, suite);
+        b.append("\" name=\"");
+        xml(b, test == null ? suite : test);
+        b.append("\" time=\"").append(seconds(durationMs)).append('"');
+        String element;
+        switch (event.status()) {
+            case Failure: element = "failure"; break;
+            case Error: case Canceled: element = "error"; break;
+            case Skipped: case Ignored: case Pending: element = "skipped"; break;
+            default: element = null; break;
+        }
+        if (element == null) {
+            b.append("/>\n");
+        } else {
+            b.append(">\n    <").append(element);
+            if (throwable != null) {
+                b.append(" type=\"");
+                xml(b, throwable.getClass().getName());
+                b.append('"');
+                if (throwable.getMessage() != null) {
+                    b.append(" message=\"");
+                    xml(b, throwable.getMessage());
+                    b.append('"');
+                }
+                StringWriter trace = new StringWriter();
+                throwable.printStackTrace(new PrintWriter(trace));
+                b.append('>');
+                xml(b, trace.toString());
+                b.append("</").append(element).append(">\n");
+            } else if (event.status() == Status.Canceled) {
+                b.append(" message=\"canceled\"/>\n");
+            } else {
+                b.append("/>\n");
+            }
+            b.append("  </testcase>\n");
+        }
+        return b.toString();
+    }
+
+    /**
+     * Part file of {@code suite}, emptied on the suite first event, in case an earlier run left one.
+     * Only called from the writer thread.
+     */
+    private Writer part(String suite, boolean firstEvent) throws IOException {
+        Writer writer = openParts.get(suite);
+        if (writer == null) {
+            writer = Files.newBufferedWriter(
+                partFile(suite),
+                StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE,
+                firstEvent ? StandardOpenOption.TRUNCATE_EXISTING : StandardOpenOption.APPEND
+            );
+            openParts.put(suite, writer);
+        }
+        return writer;
+    }
+
+    private Path partFile(String suite) {
+        return junitDir.resolve(junitFileName(suite) + ".part");
+    }
+
+    static String junitFileName(String suite) {
+        return "TEST-" + suite.replaceAll("[^A-Za-z0-9_.$-]", "_") + ".xml";
+    }
+
+    /** Prints the {@code count} suites that took longest, if any. */
+    public synchronized void printSlowestSuites(PrintStream out, int count) {
+        List<Map.Entry<String, SuiteStats>> entries = new ArrayList<>(suites.entrySet());
+        if (entries.isEmpty()) return;
+        entries.sort((a, b) -> Long.compare(b.getValue().durationMs, a.getValue().durationMs));
+        int shown = Math.min(count, entries.size());
+        out.println("Slowest test suites:");
+        for (Map.Entry<String, SuiteStats> entry : entries.subList(0, shown)) {
+            SuiteStats stats = entry.getValue();
+            out.println("  " + seconds(stats.durationMs) + " s  " + entry.getKey() +
+                " (" + stats.tests + (stats.tests == 1 ? " test)" : " tests)"));
+        }
+    }
+
+    /** Waits for pending writes, and writes the suite totals and JUnit XML files. */
+    @Override
+    public void close() {
+        if (writer != null) {
+            writer.shutdown();
+            try {
+                writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            writeTotals();
+        }
+    }
+
+    private void writeTotals() {
+        try {
+            for (Writer writer : openParts.values()) closeQuietly(writer);
+            openParts.clear();
+            if (jsonLines != null) {
+                for (Map.Entry<String, SuiteStats> entry : suites.entrySet()) {
+                    SuiteStats stats = entry.getValue();
+                    StringBuilder b = new StringBuilder("{\"type\":\"suite\",\"suite\":");
+                    json(b, entry.getKey());
+                    b.append(",\"tests\":").append(stats.tests)
+                        .append(",\"failures\":").append(stats.failures)
+                        .append(",\"errors\":").append(stats.errors)
+                        .append(",\"skipped\":").append(stats.skipped)
+                        .append(",\"durationMs\":").append(stats.durationMs)
+                        .append("}\n");
+                    jsonLines.write(b.toString());
+                }
+                jsonLines.close();
+            }
+            if (junitDir != null) {
+                for (Map.Entry<String, SuiteStats> entry : suites.entrySet())
+                    writeJunitFile(entry.getKey(), entry.getValue());
+            }
+        } catch (IOException e) {
+            logger.error("Could not write test reports: " + e.getMessage());
+        }
+    }
+
+    private void writeJunitFile(String suite, SuiteStats stats) throws IOException {
+        Path part = partFile(suite);
+        Path target = junitDir.resolve(junitFileName(suite));
+        Path tmp = junitDir.resolve(junitFileName(suite) + ".tmp");
+        StringBuilder header = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testsuite name=\"");
+        xml(header, suite);
+        header.append("\" tests=\"").append(stats.tests)
+            .append("\" failures=\"").append(stats.failures)
+            .append("\" errors=\"").append(stats.errors)
+            .append("\" skipped=\"").append(stats.skipped)
+            .append("\" time=\"").append(seconds(stats.durationMs))
+            .append("\">\n");
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+            os.write(header.toString().getBytes(StandardCharsets.UTF_8));
+            if (Files.exists(part)) Files.copy(part, os);
+            os.write("</testsuite>\n".getBytes(StandardCharsets.UTF_8));
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(part);
+    }
+
+    private static String selectorKind(Selector selector) {
+        if (selector instanceof TestSelector) return "test";
+        if (selector instanceof NestedTestSelector) return "nested-test";
+        if (selector instanceof NestedSuiteSelector) return "nested-suite";
+        if (selector instanceof TestWildcardSelector) return "test-wildcard";
+        if (selector instanceof SuiteSelector) return "suite";
+        return selector == null ? "none" : selector.getClass().getSimpleName();
+    }
+
+    private static String testName(Selector selector) {
+        if (selector instanceof TestSelector) return ((TestSelector) selector).testName();
+        if (selector instanceof NestedTestSelector) {
+            NestedTestSelector nested = (NestedTestSelector) selector;
+            return nested.suiteId() + "." + nested.testName();
+        }
+        if (selector instanceof NestedSuiteSelector) return ((NestedSuiteSelector) selector).suiteId();
+        if (selector instanceof TestWildcardSelector) return ((TestWildcardSelector) selector).testWildcard();
+        return null;
+    }
+
+    private static String seconds(long millis) {
+        long frac = millis % 1000L;
+        return (millis / 1000L) + (frac < 10 ? ".00" : frac < 100 ? ".0" : ".") + frac;
+    }
+
+    private static void json(StringBuilder b, String s) {
+        b.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': b.append("\\\""); break;
+                case '\\': b.append("\\\\"); break;
+                case '\n': b.append("\\n"); break;
+                case '\r': b.append("\\r"); break;
+                case '\t': b.append("\\t"); break;
+                default:
+                    if (c < 0x20) b.append(String.format("\\u%04x", (int) c));
+                    else b.append(c);
+            }
+        }
+        b.append('"');
+    }
+
+    private static void xml(StringBuilder b, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '<': b.append("&lt;"); break;
+                case '>': b.append("&gt;"); break;
+                case '&': b.append("&amp;"); break;
+                case '"': b.append("&quot;"); break;
+                default:
+                    // characters not allowed in XML 1.0
+                    if (c < 0x20 && c != '\n' && c != '\r' && c != '\t') b.append('?');
+                    else b.append(c);
+            }
+        }
+    }
+
+    private void closeQuietly(Writer writer) {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            logger.debug("Could not close test report part file: " + e.getMessage());
+        }
+    }
+}
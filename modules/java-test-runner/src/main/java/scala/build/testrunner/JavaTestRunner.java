@@ -10,6 +10,7 @@ import java.nio.file.Paths;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.List;
 
@@ -25,6 +26,33 @@ public class JavaTestRunner {
         );
     }
 
+    /**
+     * Frameworks whose tasks can run concurrently, as sbt runs them by default. Tasks of other
+     * frameworks run sequentially whatever {@code --test-parallelism}, unless they're passed with
+     * {@code --test-parallel-framework}.
+     */
+    public static List<String> parallelTestFrameworks() {
+        return Arrays.asList(
+            "com.novocode.junit.JUnitFramework",
+            "com.github.sbt.junit.jupiter.api.JupiterFramework"
+        );
+    }
+
+    /** The number of threads to run the tasks of {@code framework} on. */
+    public static int parallelism(
+        Framework framework,
+        int parallelism,
+        List<String> parallelFrameworks,
+        JavaTestLogger logger
+    ) {
+        String name = framework.getClass().getName();
+        if (parallelism <= 1 || parallelFrameworks.contains(name)) return parallelism;
+        logger.debug("Running tasks of " + framework.name() + " sequentially, as " + name +
+            " isn't known to support concurrent tasks (pass it with --test-parallel-framework " +
+            "to run them in parallel)");
+        return 1;
+    }
+
     public static List<Path> classPath(ClassLoader loader, JavaTestLogger logger) {
         List<Path> result = new ArrayList<>();
         collectClassPath(loader, result, logger);
@@ -57,20 +85,38 @@ public class JavaTestRunner {
     }
 
     public static List<Event> runTasks(List<Task> initialTasks, PrintStream out) {
-        Deque<Task> tasks = new ArrayDeque<>(initialTasks);
-        List<Event> events = new ArrayList<>();
+        return runTasks(initialTasks, out, 1);
+    }
 
-        sbt.testing.Logger logger = new sbt.testing.Logger() {
-            public boolean ansiCodesSupported() { return true; }
-            public void error(String msg) { out.println(msg); }
-            public void warn(String msg) { out.println(msg); }
-            public void info(String msg) { out.println(msg); }
-            public void debug(String msg) { out.println(msg); }
-            public void trace(Throwable t) { t.printStackTrace(out); }
-        };
+    /**
+     * Runs {@code initialTasks}, and the tasks they return, sequentially on the current thread if
+     * {@code parallelism} is 1, or else on {@code parallelism} worker threads (see
+     * {@link JavaTaskScheduler}).
+     */
+    public static List<Event> runTasks(List<Task> initialTasks, PrintStream out, int parallelism) {
+        List<Event> events = Collections.synchronizedList(new ArrayList<>());
+        runTasks(initialTasks, out, parallelism, events::add);
+        return events;
+    }
+
+    /**
+     * Same as {@link #runTasks(List, PrintStream, int)}, passing events to {@code eventHandler}
+     * as soon as they're fired rather than keeping them. {@code eventHandler} has to be thread-safe
+     * if {@code parallelism} is greater than 1.
+     */
+    public static void runTasks(
+        List<Task> initialTasks,
+        PrintStream out,
+        int parallelism,
+        EventHandler eventHandler
+    ) {
+        if (parallelism > 1) {
+            JavaTaskScheduler.run(initialTasks, out, parallelism, eventHandler);
+            return;
+        }
 
-        EventHandler eventHandler = event -> events.add(event);
-        sbt.testing.Logger[] loggers = new sbt.testing.Logger[]{logger};
+        Deque<Task> tasks = new ArrayDeque<>(initialTasks);
+        sbt.testing.Logger[] loggers = new sbt.testing.Logger[]{logger(out)};
 
         while (!tasks.isEmpty()) {
             Task task = tasks.poll();
@@ -79,7 +125,16 @@ public class JavaTestRunner {
                 tasks.add(t);
             }
         }
+    }
 
-        return events;
+    static sbt.testing.Logger logger(PrintStream out) {
+        return new sbt.testing.Logger() {
+            public boolean ansiCodesSupported() { return true; }
+            public void error(String msg) { out.println(msg); }
+            public void warn(String msg) { out.println(msg); }
+            public void info(String msg) { out.println(msg); }
+            public void debug(String msg) { out.println(msg); }
+            public void trace(Throwable t) { t.printStackTrace(out); }
+        };
     }
 }
@@ -0,0 +1,130 @@
+package scala.build.testrunner;
+
+import sbt.testing.TaskDef;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Splits test suites between the JVMs of a sharded test run, and reports how long the suites of a
+ * shard took, so that later runs can balance shards better.
+ *
+ * Durations files have one {@code <suite>\t<milliseconds>} line per suite. Reports have one
+ * {@code suite\t<suite>\t<milliseconds>} line per suite run, and an {@code events\t<count>} line.
+ * The format is shared with the Scala test runner's {@code TestShards}, keep both in sync.
+ */
+public class JavaTestShards {
+
+    /**
+     * The task definitions shard {@code shard} (0-based) out of {@code shardCount} should run, in
+     * discovery order.
+     *
+     * Suites are assigned, longest first, to the shard with the least work so far. Suites without
+     * a recorded duration count as the average recorded one, so that without any history, shards
+     * get the same number of suites. Every shard computes the same assignment, as long as they
+     * discover the same suites.
+     */
+    public static List<TaskDef> select(
+        List<TaskDef> taskDefs,
+        int shard,
+        int shardCount,
+        Map<String, Long> durations
+    ) {
+        long known = 0L;
+        int knownCount = 0;
+        for (TaskDef taskDef : taskDefs) {
+            Long duration = durations.get(taskDef.fullyQualifiedName());
+            if (duration != null) {
+                known += duration;
+                knownCount++;
+            }
+        }
+        long fallback = knownCount == 0 ? 1L : Math.max(1L, known / knownCount);
+
+        Integer[] order = new Integer[taskDefs.size()];
+        long[] weights = new long[taskDefs.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            Long duration = durations.get(taskDefs.get(i).fullyQualifiedName());
+            weights[i] = duration == null ? fallback : Math.max(1L, duration);
+        }
+        Arrays.sort(order, (a, b) -> {
+            int byWeight = Long.compare(weights[b], weights[a]);
+            if (byWeight != 0) return byWeight;
+            int byName = taskDefs.get(a).fullyQualifiedName().compareTo(taskDefs.get(b).fullyQualifiedName());
+            return byName != 0 ? byName : Integer.compare(a, b);
+        });
+
+        long[] loads = new long[shardCount];
+        boolean[] selected = new boolean[taskDefs.size()];
+        for (int idx : order) {
+            int target = 0;
+            for (int s = 1; s < shardCount; s++) {
+                if (loads[s] < loads[target]) target = s;
+            }
+            loads[target] += weights[idx];
+            selected[idx] = target == shard;
+        }
+
+        List<TaskDef> result = new ArrayList<>();
+        for (int i = 0; i < selected.length; i++) {
+            if (selected[i]) result.add(taskDefs.get(i));
+        }
+        return result;
+    }
+
+    /** Reads a durations file, returning an empty map if it doesn't exist or can't be read. */
+    public static Map<String, Long> readDurations(Path file, JavaTestLogger logger) {
+        Map<String, Long> durations = new HashMap<>();
+        if (!Files.isRegularFile(file)) return durations;
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                int idx = line.lastIndexOf('\t');
+                if (idx <= 0) continue;
+                try {
+                    durations.put(line.substring(0, idx), Long.parseLong(line.substring(idx + 1)));
+                } catch (NumberFormatException e) {
+                    logger.debug("Ignoring malformed line in " + file + ": " + line);
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("Could not read test durations from " + file + ": " + e.getMessage());
+        }
+        return durations;
+    }
+
+    /**
+     * Durations of the suites of {@code taskDefs}, as recorded in {@code recorded}, or zero for
+     * suites without any event.
+     */
+    public static Map<String, Long> suiteDurations(List<TaskDef> taskDefs, Map<String, Long> recorded) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (TaskDef taskDef : taskDefs) result.put(taskDef.fullyQualifiedName(), 0L);
+        result.putAll(recorded);
+        return result;
+    }
+
+    public static void writeReport(
+        Path file,
+        Map<String, Long> suiteDurations,
+        long eventCount,
+        JavaTestLogger logger
+    ) {
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Long> entry : suiteDurations.entrySet()) {
+                    writer.write("suite\t" + entry.getKey() + "\t" + entry.getValue() + "\n");
+                }
+                writer.write("events\t" + eventCount + "\n");
+            }
+        } catch (IOException e) {
+            logger.error("Could not write test report " + file + ": " + e.getMessage());
+        }
+    }
+}
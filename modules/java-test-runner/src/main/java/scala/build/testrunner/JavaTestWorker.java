@@ -0,0 +1,77 @@
+package scala.build.testrunner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Long-running test runner, running tests each time it's asked to on its standard input, for
+ * {@code scala-cli test --watch}.
+ *
+ * The worker class path has the test runner and the dependency JARs, loaded once by the
+ * application class loader. Each run gets a new class loader for the project class directories on
+ * top of it, so that dependency classes stay loaded and JIT-compiled from one run to the next,
+ * while project classes are loaded anew. Test frameworks are instantiated again in each run.
+ *
+ * Requests are lines of NUL-separated fields: {@code run}, the project class directories separated
+ * by the path separator, then the test runner arguments. Once a run is done, the worker prints
+ * {@link #DONE_MARKER} followed by the exit code and a new line on its standard output. An
+ * {@code exit} line or the end of the input stops the worker.
+ *
+ * The Scala test runner's {@code TestWorker} speaks the same protocol, keep both in sync.
+ */
+public class JavaTestWorker {
+
+    public static final String DONE_MARKER = "\u0000scala-cli-test-worker-done\t";
+
+    public static void main(String[] args) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        ClassLoader parent = JavaTestWorker.class.getClassLoader();
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] fields = line.split("\u0000", -1);
+            if ("exit".equals(fields[0])) break;
+            int exitCode;
+            if ("run".equals(fields[0]) && fields.length >= 2) {
+                exitCode = run(parent, fields[1], Arrays.copyOfRange(fields, 2, fields.length));
+            } else {
+                System.err.println("Ignoring malformed test worker request");
+                exitCode = 1;
+            }
+            System.out.flush();
+            System.out.print(DONE_MARKER + exitCode + "\n");
+            System.out.flush();
+        }
+    }
+
+    private static int run(ClassLoader parent, String classDirs, String[] args) {
+        Thread thread = Thread.currentThread();
+        ClassLoader previous = thread.getContextClassLoader();
+        try (URLClassLoader loader = new URLClassLoader(urls(classDirs), parent)) {
+            thread.setContextClassLoader(loader);
+            return JavaDynamicTestRunner.run(args);
+        } catch (Throwable t) {
+            t.printStackTrace();
+            return 1;
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+    }
+
+    private static URL[] urls(String classDirs) throws MalformedURLException {
+        List<URL> urls = new ArrayList<>();
+        for (String dir : classDirs.split(File.pathSeparator)) {
+            if (!dir.isEmpty()) urls.add(Paths.get(dir).toUri().toURL());
+        }
+        return urls.toArray(new URL[0]);
+    }
+}
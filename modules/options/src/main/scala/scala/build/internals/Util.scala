@@ -5,7 +5,13 @@ import coursier.version.VersionConstraint
 import dependency.NoAttributes
 
 import java.io.{File, PrintStream}
-import java.util.concurrent.ThreadFactory
+import java.util.concurrent.{
+  CompletableFuture,
+  CompletionException,
+  ExecutorService,
+  Executors,
+  ThreadFactory
+}
 import java.util.concurrent.atomic.AtomicInteger
 
 import scala.build.Ops.EitherSeqOps
@@ -46,6 +52,53 @@ object Util {
         }
     }
 
+  /** Bounded pool running the CPU-bound work of builds (preprocessing, hashing, indexing and
+    * post-processing), shared by all builds, so that these never use more threads than there are
+    * processors altogether
+    */
+  private lazy val cpuPool: ExecutorService =
+    Executors.newFixedThreadPool(
+      Runtime.getRuntime.availableProcessors(),
+      daemonThreadFactory("scala-cli-cpu")
+    )
+
+  private val isCpuPoolThread = ThreadLocal.withInitial[Boolean](() => false)
+
+  /** Runs `f` on the shared CPU pool.
+    *
+    * When called from a task of that pool, `f` runs right away on the calling thread instead, so
+    * that nested tasks never wait for threads held by the tasks waiting for them.
+    */
+  def onCpuPool[T](f: => T): CompletableFuture[T] =
+    if (isCpuPoolThread.get())
+      try CompletableFuture.completedFuture(f)
+      catch {
+        case e: Exception => CompletableFuture.failedFuture(e)
+      }
+    else
+      CompletableFuture.supplyAsync(
+        () => {
+          isCpuPoolThread.set(true)
+          f
+        },
+        cpuPool
+      )
+
+  /** Waits for `future`, rethrowing what it failed with as is */
+  def join[T](future: CompletableFuture[T]): T =
+    try future.join()
+    catch {
+      case e: CompletionException if e.getCause != null => throw e.getCause
+    }
+
+  /** Runs `f` on each element of `elems` on the shared CPU pool, returning results in the order of
+    * `elems`, and rethrowing what `f` throws as is. Fewer than `threshold` elements are processed
+    * on the calling thread.
+    */
+  def inParallel[T, U](elems: Seq[T], threshold: Int = 2)(f: T => U): Seq[U] =
+    if (elems.lengthCompare(threshold) < 0 || isCpuPoolThread.get()) elems.map(f)
+    else elems.map(elem => onCpuPool(f(elem))).map(join(_))
+
   implicit class ModuleOps(private val mod: dependency.Module) extends AnyVal {
     def toCs: coursier.Module =
       coursier.Module(
@@ -4,7 +4,14 @@ import scala.build.Positioned
 
 final case class TestOptions(
   frameworks: Seq[Positioned[String]] = Nil,
-  testOnly: Option[String] = None
+  testOnly: Option[String] = None,
+  parallelDiscovery: Option[Boolean] = None,
+  parallelism: Option[Int] = None,
+  parallelFrameworks: Seq[String] = Nil,
+  shards: Option[Int] = None,
+  eventsFile: Option[os.Path] = None,
+  junitReportDir: Option[os.Path] = None,
+  impactAnalysis: Option[Boolean] = None
 )
 
 object TestOptions {
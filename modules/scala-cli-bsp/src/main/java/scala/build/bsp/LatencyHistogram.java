@@ -0,0 +1,176 @@
+package scala.build.bsp;
+
+import ch.epfl.scala.bsp4j.BuildTargetIdentifier;
+import java.util.List;
+import org.eclipse.lsp4j.jsonrpc.validation.NonNull;
+import org.eclipse.lsp4j.util.Preconditions;
+import org.eclipse.xtext.xbase.lib.Pure;
+import org.eclipse.xtext.xbase.lib.util.ToStringBuilder;
+
+/**
+ * Latencies of a build phase, like {@code prepareBuild}, {@code dependencies}, {@code compile} or
+ * {@code postProcess}.
+ */
+public class LatencyHistogram {
+  @NonNull
+  private String phase;
+
+  /** Build target of this phase, or null for phases that process all the targets at once */
+  private BuildTargetIdentifier target;
+
+  private long count;
+
+  private double totalMillis;
+
+  private double maxMillis;
+
+  /** Upper bounds of the histogram buckets, inclusive, in milliseconds */
+  @NonNull
+  private List<Long> bucketUpperBoundsMillis;
+
+  /** Number of durations per bucket, with one more bucket than bounds for longer durations */
+  @NonNull
+  private List<Long> bucketCounts;
+
+  public LatencyHistogram(@NonNull final String phase, final long count, final double totalMillis, final double maxMillis, @NonNull final List<Long> bucketUpperBoundsMillis, @NonNull final List<Long> bucketCounts) {
+    this.phase = phase;
+    this.count = count;
+    this.totalMillis = totalMillis;
+    this.maxMillis = maxMillis;
+    this.bucketUpperBoundsMillis = bucketUpperBoundsMillis;
+    this.bucketCounts = bucketCounts;
+  }
+
+  @Pure
+  @NonNull
+  public String getPhase() {
+    return this.phase;
+  }
+
+  public void setPhase(@NonNull final String phase) {
+    this.phase = Preconditions.checkNotNull(phase, "phase");
+  }
+
+  @Pure
+  public BuildTargetIdentifier getTarget() {
+    return this.target;
+  }
+
+  public void setTarget(final BuildTargetIdentifier target) {
+    this.target = target;
+  }
+
+  @Pure
+  public long getCount() {
+    return this.count;
+  }
+
+  public void setCount(final long count) {
+    this.count = count;
+  }
+
+  @Pure
+  public double getTotalMillis() {
+    return this.totalMillis;
+  }
+
+  public void setTotalMillis(final double totalMillis) {
+    this.totalMillis = totalMillis;
+  }
+
+  @Pure
+  public double getMaxMillis() {
+    return this.maxMillis;
+  }
+
+  public void setMaxMillis(final double maxMillis) {
+    this.maxMillis = maxMillis;
+  }
+
+  @Pure
+  @NonNull
+  public List<Long> getBucketUpperBoundsMillis() {
+    return this.bucketUpperBoundsMillis;
+  }
+
+  public void setBucketUpperBoundsMillis(@NonNull final List<Long> bucketUpperBoundsMillis) {
+    this.bucketUpperBoundsMillis = Preconditions.checkNotNull(bucketUpperBoundsMillis, "bucketUpperBoundsMillis");
+  }
+
+  @Pure
+  @NonNull
+  public List<Long> getBucketCounts() {
+    return this.bucketCounts;
+  }
+
+  public void setBucketCounts(@NonNull final List<Long> bucketCounts) {
+    this.bucketCounts = Preconditions.checkNotNull(bucketCounts, "bucketCounts");
+  }
+
+  @Override
+  @Pure
+  public String toString() {
+    ToStringBuilder b = new ToStringBuilder(this);
+    b.add("phase", this.phase);
+    b.add("target", this.target);
+    b.add("count", this.count);
+    b.add("totalMillis", this.totalMillis);
+    b.add("maxMillis", this.maxMillis);
+    b.add("bucketUpperBoundsMillis", this.bucketUpperBoundsMillis);
+    b.add("bucketCounts", this.bucketCounts);
+    return b.toString();
+  }
+
+  @Override
+  @Pure
+  public boolean equals(final Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    LatencyHistogram other = (LatencyHistogram) obj;
+    if (this.phase == null) {
+      if (other.phase != null)
+        return false;
+    } else if (!this.phase.equals(other.phase))
+      return false;
+    if (this.target == null) {
+      if (other.target != null)
+        return false;
+    } else if (!this.target.equals(other.target))
+      return false;
+    if (other.count != this.count)
+      return false;
+    if (Double.doubleToLongBits(other.totalMillis) != Double.doubleToLongBits(this.totalMillis))
+      return false;
+    if (Double.doubleToLongBits(other.maxMillis) != Double.doubleToLongBits(this.maxMillis))
+      return false;
+    if (this.bucketUpperBoundsMillis == null) {
+      if (other.bucketUpperBoundsMillis != null)
+        return false;
+    } else if (!this.bucketUpperBoundsMillis.equals(other.bucketUpperBoundsMillis))
+      return false;
+    if (this.bucketCounts == null) {
+      if (other.bucketCounts != null)
+        return false;
+    } else if (!this.bucketCounts.equals(other.bucketCounts))
+      return false;
+    return true;
+  }
+
+  @Override
+  @Pure
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + ((this.phase== null) ? 0 : this.phase.hashCode());
+    result = prime * result + ((this.target== null) ? 0 : this.target.hashCode());
+    result = prime * result + (int) (this.count ^ (this.count >>> 32));
+    result = prime * result + (int) (Double.doubleToLongBits(this.totalMillis) ^ (Double.doubleToLongBits(this.totalMillis) >>> 32));
+    result = prime * result + (int) (Double.doubleToLongBits(this.maxMillis) ^ (Double.doubleToLongBits(this.maxMillis) >>> 32));
+    result = prime * result + ((this.bucketUpperBoundsMillis== null) ? 0 : this.bucketUpperBoundsMillis.hashCode());
+    return prime * result + ((this.bucketCounts== null) ? 0 : this.bucketCounts.hashCode());
+  }
+}
@@ -0,0 +1,104 @@
+package scala.build.bsp;
+
+import java.util.List;
+import java.util.Map;
+import org.eclipse.lsp4j.jsonrpc.validation.NonNull;
+import org.eclipse.lsp4j.util.Preconditions;
+import org.eclipse.xtext.xbase.lib.Pure;
+import org.eclipse.xtext.xbase.lib.util.ToStringBuilder;
+
+public class PerformanceMetricsResult {
+  @NonNull
+  private List<LatencyHistogram> latencies;
+
+  /** Number of tasks waiting in the queues of the BSP server, per queue */
+  @NonNull
+  private Map<String, Integer> queueDepths;
+
+  @NonNull
+  private Map<String, Long> counters;
+
+  public PerformanceMetricsResult(@NonNull final List<LatencyHistogram> latencies, @NonNull final Map<String, Integer> queueDepths, @NonNull final Map<String, Long> counters) {
+    this.latencies = latencies;
+    this.queueDepths = queueDepths;
+    this.counters = counters;
+  }
+
+  @Pure
+  @NonNull
+  public List<LatencyHistogram> getLatencies() {
+    return this.latencies;
+  }
+
+  public void setLatencies(@NonNull final List<LatencyHistogram> latencies) {
+    this.latencies = Preconditions.checkNotNull(latencies, "latencies");
+  }
+
+  @Pure
+  @NonNull
+  public Map<String, Integer> getQueueDepths() {
+    return this.queueDepths;
+  }
+
+  public void setQueueDepths(@NonNull final Map<String, Integer> queueDepths) {
+    this.queueDepths = Preconditions.checkNotNull(queueDepths, "queueDepths");
+  }
+
+  @Pure
+  @NonNull
+  public Map<String, Long> getCounters() {
+    return this.counters;
+  }
+
+  public void setCounters(@NonNull final Map<String, Long> counters) {
+    this.counters = Preconditions.checkNotNull(counters, "counters");
+  }
+
+  @Override
+  @Pure
+  public String toString() {
+    ToStringBuilder b = new ToStringBuilder(this);
+    b.add("latencies", this.latencies);
+    b.add("queueDepths", this.queueDepths);
+    b.add("counters", this.counters);
+    return b.toString();
+  }
+
+  @Override
+  @Pure
+  public boolean equals(final Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    PerformanceMetricsResult other = (PerformanceMetricsResult) obj;
+    if (this.latencies == null) {
+      if (other.latencies != null)
+        return false;
+    } else if (!this.latencies.equals(other.latencies))
+      return false;
+    if (this.queueDepths == null) {
+      if (other.queueDepths != null)
+        return false;
+    } else if (!this.queueDepths.equals(other.queueDepths))
+      return false;
+    if (this.counters == null) {
+      if (other.counters != null)
+        return false;
+    } else if (!this.counters.equals(other.counters))
+      return false;
+    return true;
+  }
+
+  @Override
+  @Pure
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + ((this.latencies== null) ? 0 : this.latencies.hashCode());
+    result = prime * result + ((this.queueDepths== null) ? 0 : this.queueDepths.hashCode());
+    return prime * result + ((this.counters== null) ? 0 : this.counters.hashCode());
+  }
+}
@@ -9,4 +9,18 @@ public interface ScalaScriptBuildServer {
     @JsonRequest("buildTarget/wrappedSources")
     CompletableFuture<WrappedSourcesResult> buildTargetWrappedSources(WrappedSourcesParams params);
 
+    /**
+     * Only the wrapped sources that changed since the version passed, so that clients asking for
+     * wrapped sources often don't get all of them each time.
+     */
+    @JsonRequest("buildTarget/wrappedSourcesDelta")
+    CompletableFuture<WrappedSourcesDeltaResult> buildTargetWrappedSourcesDelta(WrappedSourcesDeltaParams params);
+
+    /**
+     * Latency histograms of the build phases, queue depths and counters of the build server, to see
+     * where time goes in IDE sessions.
+     */
+    @JsonRequest("buildTarget/performanceMetrics")
+    CompletableFuture<PerformanceMetricsResult> buildTargetPerformanceMetrics(PerformanceMetricsParams params);
+
 }
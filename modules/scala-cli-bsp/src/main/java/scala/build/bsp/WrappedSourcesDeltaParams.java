@@ -0,0 +1,76 @@
+package scala.build.bsp;
+
+import ch.epfl.scala.bsp4j.BuildTargetIdentifier;
+import java.util.List;
+import org.eclipse.lsp4j.jsonrpc.validation.NonNull;
+import org.eclipse.xtext.xbase.lib.Pure;
+import org.eclipse.xtext.xbase.lib.util.ToStringBuilder;
+
+public class WrappedSourcesDeltaParams {
+  @NonNull
+  private List<BuildTargetIdentifier> targets;
+
+  /**
+   * Version of the wrapped sources the client already has, as returned by a former
+   * {@code buildTarget/wrappedSources} or {@code buildTarget/wrappedSourcesDelta} request, or
+   * {@code null} to get all the items.
+   */
+  private String sinceVersion;
+
+  public WrappedSourcesDeltaParams(@NonNull final List<BuildTargetIdentifier> targets, final String sinceVersion) {
+    this.targets = targets;
+    this.sinceVersion = sinceVersion;
+  }
+
+  @Pure
+  @NonNull
+  public List<BuildTargetIdentifier> getTargets() {
+    return this.targets;
+  }
+
+  @Pure
+  public String getSinceVersion() {
+    return this.sinceVersion;
+  }
+
+  @Override
+  @Pure
+  public String toString() {
+    ToStringBuilder b = new ToStringBuilder(this);
+    b.add("targets", this.targets);
+    b.add("sinceVersion", this.sinceVersion);
+    return b.toString();
+  }
+
+  @Override
+  @Pure
+  public boolean equals(final Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    WrappedSourcesDeltaParams other = (WrappedSourcesDeltaParams) obj;
+    if (this.targets == null) {
+      if (other.targets != null)
+        return false;
+    } else if (!this.targets.equals(other.targets))
+      return false;
+    if (this.sinceVersion == null) {
+      if (other.sinceVersion != null)
+        return false;
+    } else if (!this.sinceVersion.equals(other.sinceVersion))
+      return false;
+    return true;
+  }
+
+  @Override
+  @Pure
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + ((this.targets== null) ? 0 : this.targets.hashCode());
+    return prime * result + ((this.sinceVersion== null) ? 0 : this.sinceVersion.hashCode());
+  }
+}
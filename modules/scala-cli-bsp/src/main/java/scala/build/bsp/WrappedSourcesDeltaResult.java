@@ -0,0 +1,130 @@
+package scala.build.bsp;
+
+import java.util.List;
+import org.eclipse.lsp4j.jsonrpc.validation.NonNull;
+import org.eclipse.lsp4j.util.Preconditions;
+import org.eclipse.xtext.xbase.lib.Pure;
+import org.eclipse.xtext.xbase.lib.util.ToStringBuilder;
+
+/**
+ * Wrapped sources that changed since a given version. When the server doesn't know that version
+ * anymore, {@code full} is true, {@code items} has all the wrapped sources, and the client should
+ * drop the ones it had.
+ */
+@SuppressWarnings("all")
+public class WrappedSourcesDeltaResult {
+  @NonNull
+  private String version;
+
+  private boolean full;
+
+  /** Items added or changed since the requested version. */
+  @NonNull
+  private List<WrappedSourcesItem> items;
+
+  /** Items removed since the requested version, without their wrappers. */
+  @NonNull
+  private List<WrappedSourcesItem> removed;
+
+  public WrappedSourcesDeltaResult(
+      @NonNull final String version,
+      final boolean full,
+      @NonNull final List<WrappedSourcesItem> items,
+      @NonNull final List<WrappedSourcesItem> removed) {
+    this.version = version;
+    this.full = full;
+    this.items = items;
+    this.removed = removed;
+  }
+
+  @Pure
+  @NonNull
+  public String getVersion() {
+    return this.version;
+  }
+
+  public void setVersion(@NonNull final String version) {
+    this.version = Preconditions.checkNotNull(version, "version");
+  }
+
+  @Pure
+  public boolean isFull() {
+    return this.full;
+  }
+
+  public void setFull(final boolean full) {
+    this.full = full;
+  }
+
+  @Pure
+  @NonNull
+  public List<WrappedSourcesItem> getItems() {
+    return this.items;
+  }
+
+  public void setItems(@NonNull final List<WrappedSourcesItem> items) {
+    this.items = Preconditions.checkNotNull(items, "items");
+  }
+
+  @Pure
+  @NonNull
+  public List<WrappedSourcesItem> getRemoved() {
+    return this.removed;
+  }
+
+  public void setRemoved(@NonNull final List<WrappedSourcesItem> removed) {
+    this.removed = Preconditions.checkNotNull(removed, "removed");
+  }
+
+  @Override
+  @Pure
+  public String toString() {
+    ToStringBuilder b = new ToStringBuilder(this);
+    b.add("version", this.version);
+    b.add("full", this.full);
+    b.add("items", this.items);
+    b.add("removed", this.removed);
+    return b.toString();
+  }
+
+  @Override
+  @Pure
+  public boolean equals(final Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    WrappedSourcesDeltaResult other = (WrappedSourcesDeltaResult) obj;
+    if (this.version == null) {
+      if (other.version != null)
+        return false;
+    } else if (!this.version.equals(other.version))
+      return false;
+    if (this.full != other.full)
+      return false;
+    if (this.items == null) {
+      if (other.items != null)
+        return false;
+    } else if (!this.items.equals(other.items))
+      return false;
+    if (this.removed == null) {
+      if (other.removed != null)
+        return false;
+    } else if (!this.removed.equals(other.removed))
+      return false;
+    return true;
+  }
+
+  @Override
+  @Pure
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + ((this.version== null) ? 0 : this.version.hashCode());
+    result = prime * result + (this.full ? 1231 : 1237);
+    result = prime * result + ((this.items== null) ? 0 : this.items.hashCode());
+    return prime * result + ((this.removed== null) ? 0 : this.removed.hashCode());
+  }
+}
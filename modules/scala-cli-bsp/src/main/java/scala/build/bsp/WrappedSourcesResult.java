@@ -11,6 +11,13 @@ public class WrappedSourcesResult {
   @NonNull
   private List<WrappedSourcesItem> items;
 
+  /**
+   * Opaque version of the wrapped sources of the build server, changing whenever one of the items
+   * changes. Can be passed to {@code buildTarget/wrappedSourcesDelta} to get only the items that
+   * changed since.
+   */
+  private String version;
+
   public WrappedSourcesResult(@NonNull final List<WrappedSourcesItem> items) {
     this.items = items;
   }
@@ -25,11 +32,21 @@ public class WrappedSourcesResult {
     this.items = Preconditions.checkNotNull(items, "items");
   }
 
+  @Pure
+  public String getVersion() {
+    return this.version;
+  }
+
+  public void setVersion(final String version) {
+    this.version = version;
+  }
+
   @Override
   @Pure
   public String toString() {
     ToStringBuilder b = new ToStringBuilder(this);
     b.add("items", this.items);
+    b.add("version", this.version);
     return b.toString();
   }
 
@@ -48,12 +65,20 @@ public class WrappedSourcesResult {
         return false;
     } else if (!this.items.equals(other.items))
       return false;
+    if (this.version == null) {
+      if (other.version != null)
+        return false;
+    } else if (!this.version.equals(other.version))
+      return false;
     return true;
   }
 
   @Override
   @Pure
   public int hashCode() {
-    return 31 * 1 + ((this.items== null) ? 0 : this.items.hashCode());
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + ((this.items== null) ? 0 : this.items.hashCode());
+    return prime * result + ((this.version== null) ? 0 : this.version.hashCode());
   }
 }
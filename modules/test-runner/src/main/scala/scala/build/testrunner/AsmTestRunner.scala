@@ -1,6 +1,7 @@
 package scala.build.testrunner
 
 import org.objectweb.asm
+import org.objectweb.asm.signature.{SignatureReader, SignatureVisitor}
 import sbt.testing.{Logger as _, *}
 
 import java.io.{ByteArrayInputStream, ByteArrayOutputStream, InputStream}
@@ -8,11 +9,15 @@ import java.nio.charset.StandardCharsets
 import java.nio.file.{Files, Path}
 import java.util.concurrent.ConcurrentHashMap
 
+import scala.collection.mutable
 import scala.jdk.CollectionConverters.*
 
 object AsmTestRunner {
 
-  class ParentInspector(classPath: Seq[Path], logger: Logger) {
+  /** @param index
+    *   if defined, classes of JARs are read from it rather than from the JARs
+    */
+  class ParentInspector(classPath: Seq[Path], logger: Logger, index: Option[TestIndex] = None) {
 
     private val cache = new ConcurrentHashMap[String, Seq[String]]
 
@@ -20,19 +25,12 @@ object AsmTestRunner {
       Option(cache.get(className)) match {
         case Some(value) => value
         case None        =>
-          val byteCodeOpt =
-            findInClassPath(classPath, className + ".class", logger)
-              .take(1)
-              .toList
-              .headOption
-          val parents = byteCodeOpt match {
-            case None    => Nil
-            case Some(b) =>
-              val reader  = new asm.ClassReader(new ByteArrayInputStream(b))
-              val checker = new TestClassChecker
-              reader.accept(checker, 0)
-              checker.implements
-          }
+          val parents = findClassEntries(classPath, className, logger, index)
+            .take(1)
+            .toList
+            .headOption
+            .map(_.parents)
+            .getOrElse(Nil)
 
           cache.put(className, parents)
           parents
@@ -70,11 +68,53 @@ object AsmTestRunner {
     }
     finally if (is0 != null) is0.close()
 
+    matchFingerprints(
+      className,
+      checker.name,
+      checker.isAbstract,
+      checker.isInterface,
+      checker.publicConstructorCount,
+      checker.hasAnnotation,
+      fingerprints,
+      parentInspector
+    )
+  }
+
+  /** Same as the other `matchFingerprints`, from a class header of a [[TestIndex]] */
+  def matchFingerprints(
+    className: String,
+    entry: TestIndex.ClassEntry,
+    fingerprints: Seq[Fingerprint],
+    parentInspector: ParentInspector
+  ): Option[Fingerprint] =
+    matchFingerprints(
+      className,
+      className,
+      entry.isAbstract,
+      entry.isInterface,
+      entry.publicConstructorCount,
+      descriptor =>
+        entry.classAnnotations.contains(descriptor) ||
+        entry.publicMethodAnnotations.contains(descriptor),
+      fingerprints,
+      parentInspector
+    )
+
+  private def matchFingerprints(
+    className: String,
+    internalName: String,
+    isAbstract: Boolean,
+    isInterface: Boolean,
+    publicConstructorCount: Int,
+    hasAnnotation: String => Boolean,
+    fingerprints: Seq[Fingerprint],
+    parentInspector: ParentInspector
+  ): Option[Fingerprint] = {
     val isModule              = className.endsWith("$")
-    val hasPublicConstructors = checker.publicConstructorCount > 0
-    val definitelyNoTests     = checker.isAbstract ||
-      checker.isInterface ||
-      checker.publicConstructorCount > 1 ||
+    val hasPublicConstructors = publicConstructorCount > 0
+    val definitelyNoTests     = isAbstract ||
+      isInterface ||
+      publicConstructorCount > 1 ||
       isModule == hasPublicConstructors
     if (definitelyNoTests)
       None
@@ -82,11 +122,11 @@ object AsmTestRunner {
       fingerprints.find {
         case f: SubclassFingerprint =>
           f.isModule == isModule &&
-          parentInspector.allParents(checker.name)
+          parentInspector.allParents(internalName)
             .contains(f.superclassName().replace('.', '/'))
 
         case f: AnnotatedFingerprint =>
-          f.isModule == isModule && checker.hasAnnotation(annotationDescriptor(f.annotationName()))
+          f.isModule == isModule && hasAnnotation(annotationDescriptor(f.annotationName()))
       }
   }
 
@@ -219,9 +259,72 @@ object AsmTestRunner {
       .iterator
       .flatMap(findInClassPath(_, name, logger).iterator)
 
+  private def jarIndex(index: Option[TestIndex], classPathEntry: Path): Option[TestIndex.JarIndex] =
+    index.filter(_ => Files.isRegularFile(classPathEntry)).flatMap(_.jar(classPathEntry))
+
+  private[testrunner] def classEntry(byteCode: InputStream): TestIndex.ClassEntry = {
+    val checker = new TestClassChecker
+    val reader  = new asm.ClassReader(byteCode)
+    reader.accept(checker, asm.ClassReader.SKIP_CODE | asm.ClassReader.SKIP_DEBUG)
+    checker.classEntry
+  }
+
+  private def classDirectoryIndex(
+    classPathEntry: Path,
+    logger: Logger
+  ): Option[TestIndex.ClassDirectoryIndex] =
+    if (Files.isDirectory(classPathEntry)) TestIndex.classDirectory(classPathEntry, logger)
+    else None
+
+  private def findClassEntries(
+    classPath: Seq[Path],
+    className: String,
+    logger: Logger,
+    index: Option[TestIndex]
+  ): Iterator[TestIndex.ClassEntry] =
+    classPath.iterator.flatMap { entry =>
+      jarIndex(index, entry) match {
+        case Some(jarIndex) => jarIndex.classes.get(className).iterator
+        case None           =>
+          classDirectoryIndex(entry, logger).flatMap(_.get(className)) match {
+            case Some(classEntry0) => Iterator(classEntry0)
+            case None              =>
+              findInClassPath(entry, className + ".class", logger)
+                .iterator
+                .map(b => classEntry(new ByteArrayInputStream(b)))
+          }
+      }
+    }
+
+  private def listClassEntries(
+    classPath: Seq[Path],
+    logger: Logger,
+    index: Option[TestIndex]
+  ): Iterator[(String, () => TestIndex.ClassEntry)] =
+    classPath.iterator.flatMap { entry =>
+      jarIndex(index, entry) match {
+        case Some(jarIndex) =>
+          jarIndex.classNames.iterator.map(name => (name, () => jarIndex.classes(name)))
+        case None =>
+          val dirIndex = classDirectoryIndex(entry, logger)
+          listClassesByteCode(entry, keepJars = true, logger).map {
+            case (name, is) =>
+              def entry0(): TestIndex.ClassEntry = {
+                var is0: InputStream = null
+                try {
+                  is0 = is()
+                  classEntry(is0)
+                }
+                finally if (is0 != null) is0.close()
+              }
+              (name, () => dirIndex.flatMap(_.get(name)).getOrElse(entry0()))
+          }
+      }
+    }
+
   /** Parse Java ServiceLoader format: one class name per line; # comments and empty lines ignored.
     */
-  private def parseServiceFileContent(content: String): Seq[String] =
+  private[testrunner] def parseServiceFileContent(content: String): Seq[String] =
     content
       .split("[\r\n]+")
       .iterator
@@ -229,47 +332,53 @@ object AsmTestRunner {
       .filter(line => line.nonEmpty && !line.startsWith("#"))
       .toSeq
 
-  def findFrameworkServices(classPath: Seq[Path], logger: Logger): Seq[String] =
-    findInClassPath(classPath, "META-INF/services/sbt.testing.Framework", logger)
-      .flatMap(b => parseServiceFileContent(new String(b, StandardCharsets.UTF_8)))
+  def findFrameworkServices(
+    classPath: Seq[Path],
+    logger: Logger,
+    index: Option[TestIndex] = None
+  ): Seq[String] =
+    classPath
+      .iterator
+      .flatMap { entry =>
+        jarIndex(index, entry) match {
+          case Some(jarIndex) =>
+            if (jarIndex.hasServicesFile) Iterator(jarIndex.services) else Iterator.empty
+          case None =>
+            findInClassPath(entry, TestIndex.servicesResource, logger)
+              .iterator
+              .map(b => parseServiceFileContent(new String(b, StandardCharsets.UTF_8)))
+        }
+      }
+      .flatten
       .toSeq
 
   def findFrameworks(
     classPath: Seq[Path],
     preferredClasses: Seq[String],
     parentInspector: ParentInspector,
-    logger: Logger
+    logger: Logger,
+    index: Option[TestIndex] = None
   ): List[String] = {
     // first check preferred classes
-    val preferredClassesByteCode = preferredClasses
+    val preferredClassEntries = preferredClasses
       .map(_.replace('.', '/'))
       .flatMap { name =>
-        findInClassPath(classPath, name + ".class", logger)
-          .map { b =>
-            def openStream() = new ByteArrayInputStream(b)
-            (name, () => openStream())
-          }
+        findClassEntries(classPath, name, logger, index)
+          .map(entry => (name, () => entry))
       }
     // scan all classes in classpath
-    (preferredClassesByteCode.iterator ++ listClassesByteCode(classPath, true, logger))
+    (preferredClassEntries.iterator ++ listClassEntries(classPath, logger, index))
       .flatMap {
         case (moduleInfo, _) if moduleInfo.contains("module-info") => Iterator.empty
-        case (name, is)                                            =>
-          val checker          = new TestClassChecker
-          var is0: InputStream = null
-          try {
-            is0 = is()
-            val reader = new asm.ClassReader(is0)
-            reader.accept(checker, 0)
-          }
-          finally if (is0 != null) is0.close()
+        case (name, entry)                                         =>
           val isFramework = parentInspector.allParents(name).contains("sbt/testing/Framework")
-          if (isFramework && !checker.isAbstract && checker.publicConstructorCount == 1)
+          lazy val entry0 = entry()
+          if (isFramework && !entry0.isAbstract && entry0.publicConstructorCount == 1)
             Iterator(name)
           else
             Iterator.empty
       }
-      .take(math.max(preferredClassesByteCode.length, 1))
+      .take(math.max(preferredClassEntries.length, 1))
       .toList
   }
 
@@ -277,13 +386,18 @@ object AsmTestRunner {
     "L" + annotationName.replace('.', '/') + ";"
 
   private class TestClassChecker extends asm.ClassVisitor(asm.Opcodes.ASM9) {
-    private var nameOpt                 = Option.empty[String]
-    private var publicConstructorCount0 = 0
-    private var isInterfaceOpt          = Option.empty[Boolean]
-    private var isAbstractOpt           = Option.empty[Boolean]
-    private var implements0             = List.empty[String]
-    private var classAnnotations0       = List.empty[String]
-    private var methodAnnotations0      = List.empty[String]
+    private var nameOpt                  = Option.empty[String]
+    private var publicConstructorCount0  = 0
+    private var isInterfaceOpt           = Option.empty[Boolean]
+    private var isAbstractOpt            = Option.empty[Boolean]
+    private var implements0              = List.empty[String]
+    private var classAnnotations0        = List.empty[String]
+    private var methodAnnotations0       = List.empty[String]
+    private var access0                  = 0
+    private var superNameOpt             = Option.empty[String]
+    private var interfaces0              = List.empty[String]
+    private var visibleClassAnnotations  = Set.empty[String]
+    private var visibleMethodAnnotations = Set.empty[String]
 
     def name: String                   = nameOpt.getOrElse(sys.error("Class not visited"))
     def publicConstructorCount: Int    = publicConstructorCount0
@@ -293,11 +407,23 @@ object AsmTestRunner {
     def classAnnotations: Seq[String]  = classAnnotations0
     def methodAnnotations: Seq[String] = methodAnnotations0
 
+    /** Class header as stored in [[TestIndex]], with runtime-visible annotations only */
+    def classEntry: TestIndex.ClassEntry =
+      TestIndex.ClassEntry(
+        access0,
+        publicConstructorCount,
+        superNameOpt,
+        interfaces0,
+        visibleClassAnnotations,
+        visibleMethodAnnotations
+      )
+
     def hasAnnotation(descriptor: String): Boolean =
       classAnnotations.contains(descriptor) || methodAnnotations.contains(descriptor)
 
     override def visitAnnotation(descriptor: String, visible: Boolean): asm.AnnotationVisitor = {
       classAnnotations0 = descriptor :: classAnnotations0
+      if (visible) visibleClassAnnotations += descriptor
       null
     }
 
@@ -312,6 +438,9 @@ object AsmTestRunner {
       isInterfaceOpt = Some((access & asm.Opcodes.ACC_INTERFACE) != 0)
       isAbstractOpt = Some((access & asm.Opcodes.ACC_ABSTRACT) != 0)
       nameOpt = Some(name)
+      access0 = access
+      superNameOpt = Option(superName)
+      interfaces0 = Option(interfaces).toList.flatten
       implements0 = Option(superName).toList ::: implements0
       if (interfaces.nonEmpty)
         implements0 = interfaces.toList ::: implements0
@@ -331,6 +460,7 @@ object AsmTestRunner {
         new asm.MethodVisitor(asm.Opcodes.ASM9) {
           override def visitAnnotation(desc: String, visible: Boolean): asm.AnnotationVisitor = {
             methodAnnotations0 = desc :: methodAnnotations0
+            if (visible) visibleMethodAnnotations += desc
             null
           }
         }
@@ -339,6 +469,228 @@ object AsmTestRunner {
     }
   }
 
+  /** Collects the internal names of the classes a class refers to: its parents, the types in its
+    * field and method signatures and annotations, and the types its method bodies use. Strings
+    * loaded as constants are kept too, with dots replaced by slashes, in case they name classes
+    * loaded through reflection. Used to build the class dependency graph of [[TestImpact]], so it
+    * errs on the side of recording too much.
+    *
+    * Mirrors the Java test runner's `JavaAsmTestRunner.ReferenceCollector`.
+    */
+  private[testrunner] class ReferenceCollector extends asm.ClassVisitor(asm.Opcodes.ASM9) {
+    private val references0 = mutable.HashSet.empty[String]
+    private var classTypes  = List.empty[String]
+    private var nameOpt     = Option.empty[String]
+
+    /** Internal names of the classes referred to, not including the visited class itself */
+    def references: Set[String] = references0.toSet -- nameOpt
+
+    private val signatureVisitor = new SignatureVisitor(asm.Opcodes.ASM9) {
+      override def visitClassType(name: String): Unit = {
+        classTypes = name :: classTypes
+        references0 += name
+      }
+      override def visitInnerClassType(name: String): Unit = {
+        val inner = classTypes match {
+          case outer :: rest =>
+            classTypes = rest
+            s"$outer$$$name"
+          case Nil           => name
+        }
+        classTypes = inner :: classTypes
+        references0 += inner
+      }
+      override def visitEnd(): Unit =
+        classTypes = classTypes.drop(1)
+    }
+
+    private val annotationVisitor: asm.AnnotationVisitor =
+      new asm.AnnotationVisitor(asm.Opcodes.ASM9) {
+        override def visit(name: String, value: AnyRef): Unit = addConstant(value)
+        override def visitEnum(name: String, descriptor: String, value: String): Unit =
+          addType(descriptor)
+        override def visitAnnotation(name: String, descriptor: String): asm.AnnotationVisitor = {
+          addType(descriptor)
+          this
+        }
+        override def visitArray(name: String): asm.AnnotationVisitor = this
+      }
+
+    private val fieldVisitor = new asm.FieldVisitor(asm.Opcodes.ASM9) {
+      override def visitAnnotation(descriptor: String, visible: Boolean): asm.AnnotationVisitor = {
+        addType(descriptor)
+        annotationVisitor
+      }
+    }
+
+    private val methodVisitor = new asm.MethodVisitor(asm.Opcodes.ASM9) {
+      override def visitAnnotationDefault(): asm.AnnotationVisitor = annotationVisitor
+      override def visitAnnotation(descriptor: String, visible: Boolean): asm.AnnotationVisitor = {
+        addType(descriptor)
+        annotationVisitor
+      }
+      override def visitParameterAnnotation(
+        parameter: Int,
+        descriptor: String,
+        visible: Boolean
+      ): asm.AnnotationVisitor = {
+        addType(descriptor)
+        annotationVisitor
+      }
+      override def visitTypeInsn(opcode: Int, tpe: String): Unit = addInternalName(tpe)
+      override def visitFieldInsn(
+        opcode: Int,
+        owner: String,
+        name: String,
+        descriptor: String
+      ): Unit = {
+        addInternalName(owner)
+        addType(descriptor)
+      }
+      override def visitMethodInsn(
+        opcode: Int,
+        owner: String,
+        name: String,
+        descriptor: String,
+        isInterface: Boolean
+      ): Unit = {
+        addInternalName(owner)
+        addSignature(descriptor)
+      }
+      override def visitInvokeDynamicInsn(
+        name: String,
+        descriptor: String,
+        bootstrapMethodHandle: asm.Handle,
+        bootstrapMethodArguments: AnyRef*
+      ): Unit = {
+        addSignature(descriptor)
+        addConstant(bootstrapMethodHandle)
+        bootstrapMethodArguments.foreach(addConstant)
+      }
+      override def visitLdcInsn(value: AnyRef): Unit = addConstant(value)
+      override def visitMultiANewArrayInsn(descriptor: String, numDimensions: Int): Unit =
+        addType(descriptor)
+      override def visitTryCatchBlock(
+        start: asm.Label,
+        end: asm.Label,
+        handler: asm.Label,
+        tpe: String
+      ): Unit = addInternalName(tpe)
+      override def visitLocalVariable(
+        name: String,
+        descriptor: String,
+        signature: String,
+        start: asm.Label,
+        end: asm.Label,
+        index: Int
+      ): Unit = {
+        addType(descriptor)
+        addTypeSignature(signature)
+      }
+    }
+
+    override def visit(
+      version: Int,
+      access: Int,
+      name: String,
+      signature: String,
+      superName: String,
+      interfaces: Array[String]
+    ): Unit = {
+      nameOpt = Some(name)
+      addInternalName(superName)
+      Option(interfaces).toSeq.flatten.foreach(addInternalName)
+      addSignature(signature)
+    }
+    override def visitNestHost(nestHost: String): Unit = addInternalName(nestHost)
+    override def visitOuterClass(owner: String, name: String, descriptor: String): Unit =
+      addInternalName(owner)
+    override def visitNestMember(nestMember: String): Unit = addInternalName(nestMember)
+    override def visitPermittedSubclass(permittedSubclass: String): Unit =
+      addInternalName(permittedSubclass)
+    override def visitInnerClass(
+      name: String,
+      outerName: String,
+      innerName: String,
+      access: Int
+    ): Unit = {
+      addInternalName(name)
+      addInternalName(outerName)
+    }
+    override def visitAnnotation(descriptor: String, visible: Boolean): asm.AnnotationVisitor = {
+      addType(descriptor)
+      annotationVisitor
+    }
+    override def visitField(
+      access: Int,
+      name: String,
+      descriptor: String,
+      signature: String,
+      value: AnyRef
+    ): asm.FieldVisitor = {
+      addType(descriptor)
+      addTypeSignature(signature)
+      fieldVisitor
+    }
+    override def visitMethod(
+      access: Int,
+      name: String,
+      descriptor: String,
+      signature: String,
+      exceptions: Array[String]
+    ): asm.MethodVisitor = {
+      addSignature(descriptor)
+      addSignature(signature)
+      Option(exceptions).toSeq.flatten.foreach(addInternalName)
+      methodVisitor
+    }
+
+    private def addInternalName(internalName: String): Unit =
+      if (internalName != null)
+        if (internalName.startsWith("[")) addType(internalName)
+        else references0 += internalName
+
+    private def addType(descriptor: String): Unit =
+      if (descriptor != null) {
+        val tpe0 = asm.Type.getType(descriptor)
+        val tpe  = if (tpe0.getSort == asm.Type.ARRAY) tpe0.getElementType else tpe0
+        if (tpe.getSort == asm.Type.OBJECT) references0 += tpe.getInternalName
+      }
+
+    /** Class and method signatures, and method descriptors */
+    private def addSignature(signature: String): Unit =
+      if (signature != null) {
+        classTypes = Nil
+        new SignatureReader(signature).accept(signatureVisitor)
+      }
+
+    private def addTypeSignature(signature: String): Unit =
+      if (signature != null) {
+        classTypes = Nil
+        new SignatureReader(signature).acceptType(signatureVisitor)
+      }
+
+    private def addConstant(value: AnyRef): Unit =
+      value match {
+        case tpe: asm.Type =>
+          if (tpe.getSort == asm.Type.METHOD) addSignature(tpe.getDescriptor)
+          else addType(tpe.getDescriptor)
+        case handle: asm.Handle =>
+          addInternalName(handle.getOwner)
+          if (handle.getTag <= asm.Opcodes.H_PUTSTATIC) addType(handle.getDesc)
+          else addSignature(handle.getDesc)
+        case constant: asm.ConstantDynamic =>
+          addType(constant.getDescriptor)
+          addConstant(constant.getBootstrapMethod)
+          for (idx <- 0 until constant.getBootstrapMethodArgumentCount)
+            addConstant(constant.getBootstrapMethodArgument(idx))
+        case str: String =>
+          if (str.nonEmpty && str.length < 256 && str.indexOf(' ') < 0)
+            references0 += str.replace('.', '/')
+        case _ =>
+      }
+  }
+
   def taskDefs(
     classPath: Seq[Path],
     keepJars: Boolean,
@@ -346,9 +698,22 @@ object AsmTestRunner {
     parentInspector: ParentInspector,
     logger: Logger
   ): Iterator[TaskDef] =
-    listClassesByteCode(classPath, keepJars = keepJars, logger)
+    classPath
+      .iterator
+      .flatMap { entry =>
+        // classes of build outputs are matched from their class index when it's up-to-date
+        val dirIndex = classDirectoryIndex(entry, logger)
+        listClassesByteCode(entry, keepJars = keepJars, logger).map {
+          case (name, is) =>
+            (name, is, dirIndex.flatMap(_.get(name)))
+        }
+      }
       .flatMap {
-        case (name, is) =>
+        case (name, _, Some(classEntry0)) =>
+          matchFingerprints(name, classEntry0, fingerprints, parentInspector)
+            .map((name.stripSuffix("$"), _))
+            .iterator
+        case (name, is, None) =>
           try
             matchFingerprints(name, is, fingerprints, parentInspector)
               .map((name.stripSuffix("$"), _))
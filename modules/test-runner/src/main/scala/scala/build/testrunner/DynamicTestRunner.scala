@@ -2,13 +2,19 @@ package scala.build.testrunner
 
 import sbt.testing.{Logger as _, *}
 
+import java.io.IOException
+import java.nio.file.Paths
 import java.util.regex.Pattern
 
 import scala.annotation.tailrec
+import scala.collection.mutable
 import scala.build.testrunner.FrameworkUtils.*
 
 object DynamicTestRunner {
 
+  /** Number of suites listed in the slowest suites summary printed along with reports */
+  private val slowestSuites = 10
+
   /** Based on junit-interface [GlobFilter.
     * compileGlobPattern](https://github.com/sbt/junit-interface/blob/f8c6372ed01ce86f15393b890323d96afbe6d594/src/main/java/com/novocode/junit/GlobFilter.java#L37)
     *
@@ -26,40 +32,60 @@ object DynamicTestRunner {
     Pattern.compile(b.toString)
   }
 
-  def main(args: Array[String]): Unit = {
+  private final case class RunnerArgs(
+    testFrameworks: List[String] = Nil,
+    requireTests: Boolean = false,
+    verbosity: Int = 0,
+    testOnly: Option[String] = None,
+    testParallelism: Int = 1,
+    parallelFrameworks: List[String] = Nil,
+    shard: Option[(Int, Int)] = None,
+    testDurations: Option[String] = None,
+    testReport: Option[String] = None,
+    testEvents: Option[String] = None,
+    junitReportDir: Option[String] = None,
+    testImpact: Option[String] = None,
+    testArgs: List[String] = Nil
+  )
+
+  def main(args: Array[String]): Unit =
+    sys.exit(run(args))
+
+  /** Discovers and runs tests with the thread context class loader, as [[main]] does, and returns
+    * the exit code rather than exiting
+    */
+  def run(args: Array[String]): Int = {
 
-    val (testFrameworks, requireTests, verbosity, testOnly, args0) = {
+    val RunnerArgs(
+      testFrameworks,
+      requireTests,
+      verbosity,
+      testOnly,
+      testParallelism,
+      parallelFrameworks,
+      shard,
+      testDurations,
+      testReport,
+      testEvents,
+      junitReportDir,
+      testImpact,
+      args0
+    ) = {
       @tailrec
-      def parse(
-        testFrameworks: List[String],
-        reverseTestArgs: List[String],
-        requireTests: Boolean,
-        verbosity: Int,
-        testOnly: Option[String],
-        args: List[String]
-      ): (List[String], Boolean, Int, Option[String], List[String]) =
+      def parse(parsed: RunnerArgs, reverseTestArgs: List[String], args: List[String]): RunnerArgs =
         args match {
-          case Nil => (testFrameworks, requireTests, verbosity, testOnly, reverseTestArgs.reverse)
-          case "--" :: t =>
-            (testFrameworks, requireTests, verbosity, testOnly, reverseTestArgs.reverse ::: t)
+          case Nil       => parsed.copy(testArgs = reverseTestArgs.reverse)
+          case "--" :: t => parsed.copy(testArgs = reverseTestArgs.reverse ::: t)
           case h :: t if h.startsWith("--test-framework=") =>
             parse(
-              testFrameworks ++ List(h.stripPrefix("--test-framework=")),
+              parsed.copy(testFrameworks =
+                parsed.testFrameworks ++ List(h.stripPrefix("--test-framework="))
+              ),
               reverseTestArgs,
-              requireTests,
-              verbosity,
-              testOnly,
               t
             )
           case h :: t if h.startsWith("--test-only=") =>
-            parse(
-              testFrameworks,
-              reverseTestArgs,
-              requireTests,
-              verbosity,
-              Some(h.stripPrefix("--test-only=")),
-              t
-            )
+            parse(parsed.copy(testOnly = Some(h.stripPrefix("--test-only="))), reverseTestArgs, t)
           case h :: t if h.startsWith("--verbosity=") =>
             val v =
               try h.stripPrefix("--verbosity=").toInt
@@ -68,21 +94,70 @@ object DynamicTestRunner {
                   System.err.println(s"Warning: malformed --verbosity value: $h")
                   0
               }
+            parse(parsed.copy(verbosity = v), reverseTestArgs, t)
+          case h :: t if h.startsWith("--test-parallelism=") =>
+            val n =
+              try math.max(1, h.stripPrefix("--test-parallelism=").toInt)
+              catch {
+                case _: NumberFormatException =>
+                  System.err.println(s"Warning: malformed --test-parallelism value: $h")
+                  1
+              }
+            parse(parsed.copy(testParallelism = n), reverseTestArgs, t)
+          case h :: t if h.startsWith("--test-parallel-framework=") =>
             parse(
-              testFrameworks,
+              parsed.copy(parallelFrameworks =
+                parsed.parallelFrameworks ++ List(h.stripPrefix("--test-parallel-framework="))
+              ),
+              reverseTestArgs,
+              t
+            )
+          case h :: t if h.startsWith("--shard=") =>
+            val shard = h.stripPrefix("--shard=").split("/", -1) match {
+              case Array(idx, count) if idx.toIntOption.nonEmpty && count.toIntOption.nonEmpty =>
+                Some((idx.toInt, count.toInt))
+              case _ =>
+                System.err.println(s"Warning: malformed --shard value (expected index/count): $h")
+                None
+            }
+            parse(parsed.copy(shard = shard), reverseTestArgs, t)
+          case h :: t if h.startsWith("--test-durations=") =>
+            parse(
+              parsed.copy(testDurations = Some(h.stripPrefix("--test-durations="))),
+              reverseTestArgs,
+              t
+            )
+          case h :: t if h.startsWith("--test-report=") =>
+            parse(
+              parsed.copy(testReport = Some(h.stripPrefix("--test-report="))),
+              reverseTestArgs,
+              t
+            )
+          case h :: t if h.startsWith("--test-events=") =>
+            parse(
+              parsed.copy(testEvents = Some(h.stripPrefix("--test-events="))),
+              reverseTestArgs,
+              t
+            )
+          case h :: t if h.startsWith("--junit-report-dir=") =>
+            parse(
+              parsed.copy(junitReportDir = Some(h.stripPrefix("--junit-report-dir="))),
+              reverseTestArgs,
+              t
+            )
+          case h :: t if h.startsWith("--test-impact=") =>
+            parse(
+              parsed.copy(testImpact = Some(h.stripPrefix("--test-impact="))),
               reverseTestArgs,
-              requireTests,
-              v,
-              testOnly,
               t
             )
           case "--require-tests" :: t =>
-            parse(testFrameworks, reverseTestArgs, true, verbosity, testOnly, t)
+            parse(parsed.copy(requireTests = true), reverseTestArgs, t)
           case h :: t =>
-            parse(testFrameworks, h :: reverseTestArgs, requireTests, verbosity, testOnly, t)
+            parse(parsed, h :: reverseTestArgs, t)
         }
 
-      parse(Nil, Nil, false, 0, None, args.toList)
+      parse(RunnerArgs(), Nil, args.toList)
     }
 
     val logger = Logger(verbosity)
@@ -104,13 +179,14 @@ object DynamicTestRunner {
             frameworks =
               findFrameworks(classPath0, classLoader, TestRunner.commonTestFrameworks, logger)
           )(logger) match {
-            case f if f.nonEmpty     => f
-            case _ if verbosity >= 2 => sys.error("No test framework found")
-            case _                   =>
-              System.err.println("No test framework found")
-              sys.exit(1)
+            case f if f.isEmpty && verbosity >= 2 => sys.error("No test framework found")
+            case f                                => f
           }
         }
+    if (frameworks.isEmpty) {
+      System.err.println("No test framework found")
+      return 1
+    }
     def classes = {
       val keepJars = false // look into dependencies, much slower
       listClasses(classPath0, keepJars, logger).flatMap { name =>
@@ -126,9 +202,24 @@ object DynamicTestRunner {
     }
     val out = System.out
 
+    val knownDurations = (shard, testDurations) match {
+      case (Some(_), Some(path)) => TestShards.readDurations(Paths.get(path), logger)
+      case _                     => Map.empty[String, Long]
+    }
+    val ranTaskDefs = mutable.Buffer.empty[TaskDef]
+    val reporter    =
+      try new TestReporter(testEvents.map(Paths.get(_)), junitReportDir.map(Paths.get(_)), logger)
+      catch {
+        case e: IOException =>
+          logger.error(s"Could not create test reports: ${e.getMessage}")
+          new TestReporter(None, None, logger)
+      }
+
+    val impact = testImpact.map(file => TestImpact.load(Paths.get(file), classPath0, args0, logger))
+
     val exitCodes =
-      frameworks
-        .map { framework =>
+      try {
+        val exitCodes0 = frameworks.map { framework =>
           logger.log(s"Running test framework: ${framework.name}")
           val fingerprints = framework.fingerprints()
           val runner       = framework.runner(args0.toArray, Array(), classLoader)
@@ -155,16 +246,37 @@ object DynamicTestRunner {
                   new TaskDef(className, fp, false, Array(new SuiteSelector))
                 }
                 .toVector
-          val initialTasks = runner.tasks(taskDefs.toArray).toSeq
-          val events       = TestRunner.runTasks(initialTasks, out)
-          val failed       = events.exists { ev =>
-            ev.status == Status.Error ||
-            ev.status == Status.Failure ||
-            ev.status == Status.Canceled
+          val skippedBefore    = impact.fold(0)(_.skippedCount)
+          val selectedTaskDefs = impact.fold(taskDefs)(_.select(taskDefs))
+          val anySkipped       = impact.exists(_.skippedCount > skippedBefore)
+          val shardTaskDefs    = shard match {
+            case Some((idx, count)) if count > 1 =>
+              val selected = TestShards.select(selectedTaskDefs, idx, count, knownDurations)
+              logger.debug(
+                s"Shard $idx/$count runs ${selected.length} of ${selectedTaskDefs.length} test suite(s) for ${framework.name()}"
+              )
+              selected
+            case _ => selectedTaskDefs
           }
+          val initialTasks = runner.tasks(shardTaskDefs.toArray).toSeq
+          val parallelism  = TestRunner.parallelism(
+            framework,
+            testParallelism,
+            TestRunner.parallelTestFrameworks ++ parallelFrameworks,
+            logger
+          )
+          if (parallelism > 1)
+            logger.debug(s"Running ${initialTasks.length} task(s) on $parallelism threads")
+          val eventsBefore = reporter.eventCount
+          val failedBefore = reporter.failedCount
+          TestRunner.runTasks(initialTasks, out, parallelism, reporter)
+          val noEvents = reporter.eventCount == eventsBefore
+          val failed   = reporter.failedCount > failedBefore
+          ranTaskDefs ++= shardTaskDefs
           val doneMsg = runner.done()
           if (doneMsg.nonEmpty) out.println(doneMsg)
-          if (requireTests && events.isEmpty) {
+          // suites skipped by test impact analysis passed in an earlier run
+          if (requireTests && noEvents && !anySkipped) {
             logger.error(s"Error: no tests were run for ${framework.name()}.")
             1
           }
@@ -177,8 +289,28 @@ object DynamicTestRunner {
             0
           }
         }
-    if (exitCodes.contains(1)) sys.exit(1)
-    else sys.exit(0)
+        for (impact0 <- impact) {
+          impact0.printSummary()
+          val failedSuites = reporter.suites.collect {
+            case (name, stats) if stats.failures + stats.errors > 0 => name
+          }
+          impact0.save(ranTaskDefs.toSeq, failedSuites.toSet)
+        }
+        exitCodes0
+      }
+      finally reporter.close()
+    if (testEvents.nonEmpty || junitReportDir.nonEmpty)
+      reporter.printSlowestSuites(out, slowestSuites)
+    for (path <- testReport) {
+      val durations = reporter.suites.map { case (name, stats) => name -> stats.durationMs }
+      TestShards.writeReport(
+        Paths.get(path),
+        TestShards.suiteDurations(ranTaskDefs.toSeq, durations),
+        reporter.eventCount,
+        logger
+      )
+    }
+    if (exitCodes.contains(1)) 1 else 0
   }
 }
 
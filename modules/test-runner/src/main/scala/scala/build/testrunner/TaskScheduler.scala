@@ -0,0 +1,106 @@
+package scala.build.testrunner
+
+import sbt.testing.{EventHandler, Task}
+
+import java.io.{ByteArrayOutputStream, PrintStream}
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{ExecutorService, Executors}
+
+import scala.collection.mutable
+
+/** Runs test tasks on a pool of worker threads.
+  *
+  * Tags returned by `Task.tags` stand for exclusive resources: two tasks sharing a tag never run
+  * at the same time. Each task logs to its own buffer, printed in one go once the task is done, so
+  * that the output of suites running concurrently is never interleaved. Tasks returned by a task
+  * are queued after the ones already pending. Events are passed on as soon as they're fired, from
+  * the worker threads.
+  */
+private[testrunner] final class TaskScheduler private (
+  initialTasks: Seq[Task],
+  out: PrintStream,
+  parallelism: Int,
+  handler: EventHandler
+) {
+
+  private val pending            = mutable.ListBuffer.from(initialTasks)
+  private val busyTags           = mutable.HashSet.empty[String]
+  private var running            = 0
+  private var failure: Throwable = null
+
+  private def run(): Unit = {
+    val threadCount           = new AtomicInteger
+    val pool: ExecutorService = Executors.newFixedThreadPool(
+      parallelism,
+      (r: Runnable) => {
+        val t = new Thread(r, s"scala-cli-test-${threadCount.incrementAndGet()}")
+        t.setDaemon(true)
+        t
+      }
+    )
+    try
+      synchronized {
+        var done = false
+        while (!done) {
+          if (failure == null) {
+            val startable = mutable.ListBuffer.empty[Task]
+            for (task <- pending if running + startable.length < parallelism) {
+              val tags = TaskScheduler.tags(task)
+              if (!tags.exists(busyTags)) {
+                startable += task
+                busyTags ++= tags
+              }
+            }
+            for (task <- startable) {
+              pending -= task
+              running += 1
+              pool.execute(() => execute(task, TaskScheduler.tags(task)))
+            }
+          }
+          if (running == 0 && (pending.isEmpty || failure != null)) done = true
+          else wait()
+        }
+      }
+    finally pool.shutdownNow()
+    if (failure != null) throw failure
+  }
+
+  private def execute(task: Task, tags: Seq[String]): Unit = {
+    val buffer           = new ByteArrayOutputStream
+    val taskOut          = new PrintStream(buffer, true)
+    var newTasks         = Array.empty[Task]
+    var error: Throwable = null
+    try
+      newTasks = task.execute(handler, Array(TestRunner.logger(taskOut)))
+    catch {
+      case t: Throwable =>
+        error = t
+    }
+    taskOut.flush()
+    out.synchronized {
+      out.write(buffer.toByteArray, 0, buffer.size())
+      out.flush()
+    }
+    synchronized {
+      if (newTasks != null) pending ++= newTasks
+      busyTags --= tags
+      running -= 1
+      if (error != null && failure == null) failure = error
+      notifyAll()
+    }
+  }
+}
+
+private[testrunner] object TaskScheduler {
+  /** `handler` has to be thread-safe */
+  def run(
+    initialTasks: Seq[Task],
+    out: PrintStream,
+    parallelism: Int,
+    handler: EventHandler
+  ): Unit =
+    new TaskScheduler(initialTasks, out, parallelism, handler).run()
+
+  private def tags(task: Task): Seq[String] =
+    Option(task.tags()).map(_.toSeq).getOrElse(Nil)
+}
@@ -0,0 +1,305 @@
+package scala.build.testrunner
+
+import org.objectweb.asm.ClassReader
+import sbt.testing.TaskDef
+
+import java.io.{IOException, UncheckedIOException}
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, StandardCopyOption}
+import java.security.MessageDigest
+import java.util.UUID
+
+import scala.collection.mutable
+import scala.jdk.CollectionConverters.*
+
+/** Test impact analysis: skips the test suites that passed in an earlier run, and that can't reach
+  * any project class that changed since then in the class dependency graph of the project.
+  *
+  * Project classes are the classes of the directories of the class path. Their dependency graph is
+  * built from their bytecode with [[AsmTestRunner.ReferenceCollector]], and changes are spotted by
+  * comparing class file hashes with the ones of the previous run. Anything that can't be tracked
+  * that way runs everything: a change in the JARs of the class path, in the resources of the
+  * project directories, or in the test framework arguments.
+  *
+  * Reads and writes the same state files as the Java test runner's `JavaTestImpact`, keep both in
+  * sync.
+  *
+  * @param affected
+  *   project classes that can reach a changed class, or `None` to run everything
+  */
+final class TestImpact private (
+  stateFile: Path,
+  logger: Logger,
+  context: String,
+  classHashes: Map[String, String],
+  affected: Option[Set[String]],
+  previouslyPassed: Set[String]
+) {
+
+  private val skipped    = mutable.LinkedHashSet.empty[String]
+  private var suiteCount = 0
+
+  /** The task definitions of `taskDefs` that need to run, in order. The others passed in the
+    * previous run and don't depend on anything that changed since.
+    */
+  def select(taskDefs: Seq[TaskDef]): Seq[TaskDef] = {
+    suiteCount += taskDefs.length
+    val (toSkip, toRun) = taskDefs.partition { taskDef =>
+      val suite = taskDef.fullyQualifiedName()
+      previouslyPassed.contains(suite) && !isAffected(suite)
+    }
+    skipped ++= toSkip.map(_.fullyQualifiedName())
+    toRun
+  }
+
+  /** Number of suites [[select]] left out so far */
+  def skippedCount: Int = skipped.size
+
+  def printSummary(): Unit =
+    if (affected.nonEmpty)
+      logger.message(
+        s"Test impact analysis: skipped ${skipped.size} of $suiteCount test suite(s), not affected by changes since the last run"
+      )
+
+  /** Saves the class hashes of this run, along with the suites known to pass with them: those that
+    * ran without failures, and those that passed earlier and that weren't affected by the latest
+    * changes.
+    *
+    * @param ran
+    *   suites that ran
+    * @param failed
+    *   suites with failures or errors, possibly not all in `ran` when a suite reports events for
+    *   nested suites
+    */
+  def save(ran: Seq[TaskDef], failed: Set[String]): Unit = {
+    val ranNames = ran.map(_.fullyQualifiedName()).toSet
+    // failures reported under unknown suite names can't be tied to the suites that ran, so none of
+    // them is recorded as passing
+    val failuresKnown = failed.subsetOf(ranNames)
+    val passed        =
+      previouslyPassed.filter(suite => !ranNames.contains(suite) && !isAffected(suite)) ++
+        (if (failuresKnown) ranNames -- failed else Set.empty[String])
+
+    val content = new StringBuilder
+    content.append("context\t").append(context).append('\n')
+    for ((name, hash) <- classHashes.toVector.sortBy(_._1))
+      content.append("class\t").append(name).append('\t').append(hash).append('\n')
+    for (suite <- passed.toVector.sorted)
+      content.append("passed\t").append(suite).append('\n')
+    val tmp = stateFile.resolveSibling(s".${stateFile.getFileName}.tmp")
+    try {
+      val parent = stateFile.toAbsolutePath.getParent
+      if (parent != null) Files.createDirectories(parent)
+      Files.write(tmp, content.toString.getBytes(StandardCharsets.UTF_8))
+      Files.move(
+        tmp,
+        stateFile,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE
+      )
+    }
+    catch {
+      case e: IOException =>
+        logger.error(s"Could not save test impact analysis state to $stateFile: ${e.getMessage}")
+    }
+  }
+
+  /** Whether a suite may be affected by the latest changes. Suites whose class can't be found among
+    * the project classes always are.
+    */
+  private def isAffected(suite: String): Boolean =
+    affected match {
+      case None            => true
+      case Some(affected0) =>
+        val className  = suite.replace('.', '/')
+        val moduleName = className + "$"
+        val known      = classHashes.contains(className) || classHashes.contains(moduleName)
+        !known || affected0.contains(className) || affected0.contains(moduleName)
+    }
+}
+
+object TestImpact {
+
+  private final case class State(
+    context: String,
+    classHashes: Map[String, String],
+    passed: Set[String]
+  )
+
+  /** Hashes the project classes of `classPath` and builds their dependency graph, and compares
+    * them with the state saved in `stateFile` by the previous run, if any.
+    */
+  def load(
+    stateFile: Path,
+    classPath: Seq[Path],
+    testArgs: Seq[String],
+    logger: Logger
+  ): TestImpact = {
+    val start         = System.nanoTime()
+    val contextDigest = sha1()
+    for (entry <- classPath if !Files.isDirectory(entry)) {
+      val stamp =
+        try s"${Files.size(entry)}\t${Files.getLastModifiedTime(entry).toMillis}"
+        catch {
+          case _: IOException => "missing"
+        }
+      update(contextDigest, s"jar\t$entry\t$stamp\n")
+    }
+    for (arg <- testArgs) update(contextDigest, s"arg\t$arg\n")
+
+    val hashes     = mutable.HashMap.empty[String, String]
+    val references = mutable.HashMap.empty[String, Set[String]]
+    for (entry <- classPath if Files.isDirectory(entry))
+      scanDirectory(entry, hashes, references, contextDigest, logger)
+    val context = hex(contextDigest.digest())
+
+    val (affected, previouslyPassed) = readState(stateFile, logger) match {
+      case None =>
+        logger.log("Test impact analysis: no earlier run to compare with, running all test suites")
+        (None, Set.empty[String])
+      case Some(previous) if previous.context != context =>
+        logger.log(
+          "Test impact analysis: dependencies, resources or test arguments changed, running all test suites"
+        )
+        (None, Set.empty[String])
+      case Some(previous) =>
+        val changed = hashes.iterator
+          .filter { case (name, hash) => !previous.classHashes.get(name).contains(hash) }
+          .map(_._1)
+          .toSet ++ previous.classHashes.keysIterator.filterNot(hashes.contains)
+        val affected0 = reachingClasses(changed, references.toMap)
+        logger.debug(
+          s"Test impact analysis: ${changed.size} changed class(es), ${affected0.size} affected class(es)"
+        )
+        (Some(affected0), previous.passed)
+    }
+    logger.debug(
+      s"Test impact analysis: hashed ${hashes.size} class(es) in ${(System.nanoTime() - start) / 1000000L} ms"
+    )
+    new TestImpact(stateFile, logger, context, hashes.toMap, affected, previouslyPassed)
+  }
+
+  /** `changed` and the classes that depend on them, directly or not */
+  private[testrunner] def reachingClasses(
+    changed: Set[String],
+    references: Map[String, Set[String]]
+  ): Set[String] = {
+    val dependents = mutable.HashMap.empty[String, List[String]]
+    for {
+      (name, refs) <- references
+      ref          <- refs
+      if references.contains(ref) || changed.contains(ref)
+    }
+      dependents(ref) = name :: dependents.getOrElse(ref, Nil)
+    val result = mutable.HashSet.empty[String] ++= changed
+    val todo   = mutable.Queue.empty[String] ++= changed
+    while (todo.nonEmpty)
+      for (dependent <- dependents.getOrElse(todo.dequeue(), Nil) if result.add(dependent))
+        todo.enqueue(dependent)
+    result.toSet
+  }
+
+  private def scanDirectory(
+    dir: Path,
+    hashes: mutable.HashMap[String, String],
+    references: mutable.HashMap[String, Set[String]],
+    contextDigest: MessageDigest,
+    logger: Logger
+  ): Unit = {
+    val filesOpt =
+      try {
+        val stream = Files.walk(dir, Integer.MAX_VALUE)
+        try Some(stream.iterator().asScala.filter(Files.isRegularFile(_)).toVector.sorted)
+        finally stream.close()
+      }
+      catch {
+        case e @ (_: IOException | _: UncheckedIOException) =>
+          logger.log(s"Could not walk directory $dir: ${e.getMessage}")
+          untracked(contextDigest)
+          None
+      }
+    for (files <- filesOpt; file <- files) {
+      val rel        = dir.relativize(file).toString.replace('\\', '/')
+      val contentOpt =
+        try Some(Files.readAllBytes(file))
+        catch {
+          case e: IOException =>
+            logger.debug(s"Could not read $file: ${e.getMessage}")
+            untracked(contextDigest)
+            None
+        }
+      for (content <- contentOpt)
+        if (!rel.endsWith(".class")) {
+          update(contextDigest, s"resource\t$rel\n")
+          contextDigest.update(content)
+        }
+        else {
+          val name = rel.stripSuffix(".class")
+          if (!hashes.contains(name)) { // else shadowed by an earlier directory
+            hashes(name) = hex(sha1().digest(content))
+            val collector = new AsmTestRunner.ReferenceCollector
+            references(name) =
+              try {
+                new ClassReader(content).accept(collector, ClassReader.SKIP_FRAMES)
+                collector.references
+              }
+              catch {
+                // ASM throws unchecked exceptions on malformed class files
+                case e: RuntimeException =>
+                  logger.debug(s"Could not parse bytecode of $name: ${e.getMessage}")
+                  untracked(contextDigest)
+                  Set.empty
+              }
+          }
+        }
+    }
+  }
+
+  /** Reads a state file, returning `None` if it doesn't exist, can't be read, or is incomplete */
+  private def readState(file: Path, logger: Logger): Option[State] =
+    if (Files.isRegularFile(file)) {
+      val linesOpt =
+        try Some(Files.readAllLines(file, StandardCharsets.UTF_8).asScala.toVector)
+        catch {
+          case e: IOException =>
+            logger.debug(s"Could not read test impact analysis state from $file: ${e.getMessage}")
+            None
+        }
+      linesOpt.flatMap { lines =>
+        var context     = Option.empty[String]
+        val classHashes = Map.newBuilder[String, String]
+        val passed      = Set.newBuilder[String]
+        for (line <- lines)
+          line.split("\t", -1) match {
+            case Array("context", value)    => context = Some(value)
+            case Array("class", name, hash) => classHashes += name -> hash
+            case Array("passed", suite)     => passed += suite
+            case _                          =>
+              logger.debug(s"Ignoring malformed line in $file: $line")
+          }
+        context.map(State(_, classHashes.result(), passed.result()))
+      }
+    }
+    else None
+
+  /** Makes the context of this run unique, so that nothing is skipped in this run nor in the next
+    * one, when a part of the project can't be tracked.
+    */
+  private def untracked(contextDigest: MessageDigest): Unit =
+    update(contextDigest, s"untracked\t${UUID.randomUUID()}\n")
+
+  private def update(digest: MessageDigest, value: String): Unit =
+    digest.update(value.getBytes(StandardCharsets.UTF_8))
+
+  private def sha1(): MessageDigest = MessageDigest.getInstance("SHA-1")
+
+  private def hex(digest: Array[Byte]): String = {
+    val digits = "0123456789abcdef"
+    val chars  = new Array[Char](digest.length * 2)
+    for (idx <- digest.indices) {
+      chars(2 * idx) = digits((digest(idx) >> 4) & 0xf)
+      chars(2 * idx + 1) = digits(digest(idx) & 0xf)
+    }
+    new String(chars)
+  }
+}
@@ -0,0 +1,350 @@
+package scala.build.testrunner
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, IOException, InputStream}
+import java.nio.charset.StandardCharsets
+import java.nio.file.attribute.BasicFileAttributes
+import java.nio.file.{AtomicMoveNotSupportedException, Files, Path, StandardCopyOption}
+import java.security.MessageDigest
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.zip.ZipFile
+
+import scala.collection.mutable
+import scala.jdk.CollectionConverters.*
+
+/** On-disk index of the test frameworks and class headers of dependency JARs.
+  *
+  * Reads and writes the same files as the Java test runner's `JavaTestIndex`, so that both runners
+  * share the indices of a given cache directory. Keep both in sync.
+  */
+class TestIndex(directory: Path, logger: Logger) {
+  import TestIndex.*
+
+  private val jars        = new ConcurrentHashMap[Path, Option[JarIndex]]
+  private val readCount0  = new AtomicInteger
+  private val writeCount0 = new AtomicInteger
+
+  /** Number of JAR indices read from disk so far */
+  def readCount: Int = readCount0.get()
+
+  /** Number of JARs scanned and indexed so far */
+  def writeCount: Int = writeCount0.get()
+
+  /** The index of `jar`, if it's a readable JAR */
+  def jar(jar: Path): Option[JarIndex] = {
+    val absJar = jar.toAbsolutePath
+    Option(jars.get(absJar)) match {
+      case Some(value) => value
+      case None        =>
+        val value    = load(absJar)
+        val previous = jars.putIfAbsent(absJar, value)
+        if (previous == null) value else previous
+    }
+  }
+
+  private def load(jar: Path): Option[JarIndex] =
+    try {
+      val size      = Files.size(jar)
+      val modified  = Files.getLastModifiedTime(jar).toMillis
+      val indexFile =
+        directory.resolve(hex(sha1().digest(jar.toString.getBytes(StandardCharsets.UTF_8))) + ".idx")
+      val fromDisk =
+        if (Files.isRegularFile(indexFile))
+          try read(indexFile, jar, size, modified)
+          catch {
+            case e @ (_: IOException | _: RuntimeException) =>
+              logger.debug(s"Ignoring invalid test index $indexFile: $e")
+              None
+          }
+        else None
+      fromDisk match {
+        case Some(index) =>
+          readCount0.incrementAndGet()
+          Some(index)
+        case None =>
+          val index = build(jar)
+          try {
+            write(indexFile, jar, size, modified, index)
+            writeCount0.incrementAndGet()
+          }
+          catch {
+            case e: IOException =>
+              logger.debug(s"Could not write test index $indexFile: ${e.getMessage}")
+          }
+          Some(index)
+      }
+    }
+    catch {
+      case e: IOException =>
+        logger.debug(s"Could not index $jar: ${e.getMessage}")
+        None
+    }
+
+  private def build(jar: Path): JarIndex = {
+    val buf             = Array.ofDim[Byte](16384)
+    var zf: ZipFile     = null
+    var hasServicesFile = false
+    var services        = Seq.empty[String]
+    val classes         = mutable.LinkedHashMap.empty[String, ClassEntry]
+    try {
+      zf = new ZipFile(jar.toFile)
+      for (ent <- zf.entries.asScala if !ent.isDirectory) {
+        val isClass = ent.getName.endsWith(".class")
+        if (isClass || ent.getName == servicesResource) {
+          val baos            = new ByteArrayOutputStream
+          var is: InputStream = null
+          try {
+            is = zf.getInputStream(ent)
+            var read = -1
+            while ({
+              read = is.read(buf)
+              read >= 0
+            }) baos.write(buf, 0, read)
+          }
+          finally if (is != null) is.close()
+          if (isClass) {
+            val name = ent.getName.stripSuffix(".class")
+            try classes(name) =
+                AsmTestRunner.classEntry(new ByteArrayInputStream(baos.toByteArray))
+            catch {
+              case e: RuntimeException =>
+                logger.debug(s"Could not read bytecode for $name: ${e.getMessage}")
+            }
+          }
+          else {
+            hasServicesFile = true
+            services = AsmTestRunner.parseServiceFileContent(
+              new String(baos.toByteArray, StandardCharsets.UTF_8)
+            )
+          }
+        }
+      }
+    }
+    finally if (zf != null) zf.close()
+    JarIndex(hasServicesFile, services, classes.toMap, classes.keys.toVector)
+  }
+
+  private def write(
+    indexFile: Path,
+    jar: Path,
+    size: Long,
+    modified: Long,
+    index: JarIndex
+  ): Unit = {
+    Files.createDirectories(directory)
+    val tmp = Files.createTempFile(directory, indexFile.getFileName.toString, ".tmp")
+    try {
+      val b = new StringBuilder
+      b ++= header ++= "\n"
+      b ++= s"jar\t$jar\n"
+      b ++= s"size\t$size\n"
+      b ++= s"modified\t$modified\n"
+      if (index.hasServicesFile) b ++= "services-file\n"
+      for (service <- index.services) b ++= s"service\t$service\n"
+      for (name <- index.classNames) {
+        val c = index.classes(name)
+        b ++= "class\t" ++= name
+        b ++= "\t" ++= c.access.toString
+        b ++= "\t" ++= c.publicConstructorCount.toString
+        b ++= "\t" ++= c.superName.getOrElse("")
+        b ++= "\t" ++= c.interfaces.mkString(",")
+        b ++= "\t" ++= c.classAnnotations.mkString(",")
+        b ++= "\t" ++= c.publicMethodAnnotations.mkString(",")
+        b ++= "\n"
+      }
+      Files.write(tmp, b.result().getBytes(StandardCharsets.UTF_8))
+      try
+        Files.move(
+          tmp,
+          indexFile,
+          StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING
+        )
+      catch {
+        case _: AtomicMoveNotSupportedException =>
+          Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING)
+      }
+    }
+    finally Files.deleteIfExists(tmp)
+  }
+}
+
+object TestIndex {
+
+  private val header = "scala-cli-test-index\t2"
+
+  private[testrunner] val servicesResource: String = "META-INF/services/sbt.testing.Framework"
+
+  final case class ClassEntry(
+    access: Int,
+    publicConstructorCount: Int,
+    superName: Option[String],
+    interfaces: Seq[String],
+    classAnnotations: Set[String],
+    publicMethodAnnotations: Set[String]
+  ) {
+    def parents: Seq[String] = superName.toSeq ++ interfaces
+    def isAbstract: Boolean  = (access & org.objectweb.asm.Opcodes.ACC_ABSTRACT) != 0
+    def isInterface: Boolean = (access & org.objectweb.asm.Opcodes.ACC_INTERFACE) != 0
+  }
+
+  /** @param classNames
+    *   names of the classes of the JAR, in JAR order
+    */
+  final case class JarIndex(
+    hasServicesFile: Boolean,
+    services: Seq[String],
+    classes: Map[String, ClassEntry],
+    classNames: Seq[String]
+  )
+
+  /** Class headers of a class directory, read from the class index Scala CLI writes for its build
+    * outputs (see `scala.build.internal.ClassIndex`). Keep both in sync.
+    *
+    * @param classes
+    *   size, last modification time in nanoseconds and header of the indexed classes
+    */
+  final case class ClassDirectoryIndex(
+    directory: Path,
+    classes: Map[String, (Long, Long, ClassEntry)]
+  ) {
+
+    /** The header of `className`, if it was indexed and its class file didn't change since then */
+    def get(className: String): Option[ClassEntry] =
+      classes.get(className).flatMap {
+        case (size, mtimeNanos, entry) =>
+          try {
+            val attrs = Files.readAttributes(
+              directory.resolve(className + ".class"),
+              classOf[BasicFileAttributes]
+            )
+            if (attrs.size == size && attrs.lastModifiedTime.to(TimeUnit.NANOSECONDS) == mtimeNanos)
+              Some(entry)
+            else None
+          }
+          catch {
+            case _: IOException => None
+          }
+      }
+  }
+
+  private val classIndexHeader = "scala-cli-class-index\t1"
+
+  /** A class index read from disk, along with the size and last modification time of its file
+    * then
+    */
+  private final case class CachedClassDirectory(
+    indexSize: Long,
+    indexMtimeNanos: Long,
+    index: Option[ClassDirectoryIndex]
+  )
+
+  private val classDirectories = new ConcurrentHashMap[Path, CachedClassDirectory]
+
+  /** The class index of `directory`, if it's a Scala CLI build output that has one
+    *
+    * Indices are kept in memory, and read again once their file changed, as build outputs are
+    * indexed again after each compilation, while the runner may stay loaded in between.
+    */
+  def classDirectory(directory: Path, logger: Logger): Option[ClassDirectoryIndex] = {
+    val absDir       = directory.toAbsolutePath.normalize
+    val indexFileOpt = Option(absDir.getParent).flatMap(p => Option(p.getParent))
+      .map(_.resolve("class-index").resolve(absDir.getFileName.toString))
+    indexFileOpt.flatMap { indexFile =>
+      val attrsOpt =
+        try Some(Files.readAttributes(indexFile, classOf[BasicFileAttributes]))
+        catch {
+          case _: IOException =>
+            classDirectories.remove(absDir)
+            None
+        }
+      attrsOpt.filter(_.isRegularFile).flatMap { attrs =>
+        val size       = attrs.size
+        val mtimeNanos = attrs.lastModifiedTime.to(TimeUnit.NANOSECONDS)
+        Option(classDirectories.get(absDir))
+          .filter(c => c.indexSize == size && c.indexMtimeNanos == mtimeNanos)
+          .getOrElse {
+            val cached =
+              CachedClassDirectory(size, mtimeNanos, readClassDirectory(absDir, indexFile, logger))
+            classDirectories.put(absDir, cached)
+            cached
+          }
+          .index
+      }
+    }
+  }
+
+  private def readClassDirectory(
+    directory: Path,
+    indexFile: Path,
+    logger: Logger
+  ): Option[ClassDirectoryIndex] =
+    try {
+      val lines = Files.readAllLines(indexFile, StandardCharsets.UTF_8).asScala
+      if (lines.take(2) == Seq(classIndexHeader, s"classes\t$directory")) {
+        def list(field: String): Seq[String] =
+          if (field.isEmpty) Nil else field.split(",").toSeq
+        val classes = lines.iterator.drop(2).map(_.split("\t", -1)).collect {
+          case fields if fields.length >= 12 && fields(0) == "class" =>
+            val entry = ClassEntry(
+              fields(5).toInt,
+              fields(6).toInt,
+              Some(fields(7)).filter(_.nonEmpty),
+              list(fields(8)),
+              list(fields(9)).toSet,
+              list(fields(11)).toSet
+            )
+            (fields(1), (fields(2).toLong, fields(3).toLong, entry))
+        }
+        Some(ClassDirectoryIndex(directory, classes.toMap))
+      }
+      else None
+    }
+    catch {
+      case e @ (_: IOException | _: RuntimeException) =>
+        logger.debug(s"Ignoring invalid class index $indexFile: $e")
+        None
+    }
+
+  private def read(indexFile: Path, jar: Path, size: Long, modified: Long): Option[JarIndex] = {
+    val lines = Files.readAllLines(indexFile, StandardCharsets.UTF_8).asScala.toVector
+    val valid = lines.length >= 4 &&
+      lines(0) == header &&
+      lines(1) == s"jar\t$jar" &&
+      lines(2) == s"size\t$size" &&
+      lines(3) == s"modified\t$modified"
+    if (valid) {
+      var hasServicesFile = false
+      val services        = Seq.newBuilder[String]
+      val classes         = Map.newBuilder[String, ClassEntry]
+      val classNames      = Vector.newBuilder[String]
+      def list(field: String): Seq[String] =
+        if (field.isEmpty) Nil else field.split(",").toSeq
+      for (line <- lines.iterator.drop(4)) {
+        val fields = line.split("\t", -1)
+        fields(0) match {
+          case "services-file" => hasServicesFile = true
+          case "service"       => services += fields(1)
+          case "class"         =>
+            classNames += fields(1)
+            classes += fields(1) -> ClassEntry(
+              fields(2).toInt,
+              fields(3).toInt,
+              Some(fields(4)).filter(_.nonEmpty),
+              list(fields(5)),
+              list(fields(6)).toSet,
+              list(fields(7)).toSet
+            )
+          case _ => // written by a newer version, ignore
+        }
+      }
+      Some(JarIndex(hasServicesFile, services.result(), classes.result(), classNames.result()))
+    }
+    else None
+  }
+
+  private def sha1(): MessageDigest = MessageDigest.getInstance("SHA-1")
+
+  private def hex(digest: Array[Byte]): String =
+    digest.map(b => f"${b & 0xff}%02x").mkString
+}
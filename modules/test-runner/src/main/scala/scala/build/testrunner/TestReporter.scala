@@ -0,0 +1,333 @@
+package scala.build.testrunner
+
+import sbt.testing.*
+
+import java.io.{BufferedOutputStream, IOException, PrintStream, PrintWriter, StringWriter, Writer}
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, StandardCopyOption, StandardOpenOption}
+import java.util.concurrent.{ExecutorService, Executors, RejectedExecutionException, TimeUnit}
+
+import scala.collection.mutable
+
+/** Event handler keeping per-suite counts and timings, and optionally writing each event as soon as
+  * it's fired, as a JSON line and as a JUnit XML test case.
+  *
+  * Only per-suite totals are kept in memory, so that memory use doesn't grow with the number of
+  * tests. JUnit XML test cases are appended to a `.part` file per suite, and each suite file is
+  * assembled on [[close]], once its totals are known. Writes the same reports as the Java test
+  * runner's `JavaTestReporter`, keep both in sync.
+  *
+  * Thread-safe, events can be handled from several threads at once. Events are formatted on the
+  * thread handling them, and written to the reports on a single writer thread, in the order they
+  * were handled, so that tasks running in parallel don't wait on disk I/O.
+  *
+  * @param jsonLinesFile
+  *   file to write events to, as JSON lines
+  * @param junitDir
+  *   directory to write a JUnit XML file per suite to
+  */
+final class TestReporter(
+  jsonLinesFile: Option[Path],
+  junitDir: Option[Path],
+  logger: Logger
+) extends EventHandler with AutoCloseable {
+  import TestReporter.*
+
+  private val suites0   = mutable.LinkedHashMap.empty[String, SuiteStats]
+  private val openParts = new java.util.LinkedHashMap[String, Writer](16, 0.75f, true) {
+    override def removeEldestEntry(eldest: java.util.Map.Entry[String, Writer]): Boolean =
+      size() > maxOpenParts && {
+        closeQuietly(eldest.getValue)
+        true
+      }
+  }
+  private var eventCount0  = 0L
+  private var failedCount0 = 0L
+
+  private val jsonLines: Option[Writer] = jsonLinesFile.map { file =>
+    Option(file.toAbsolutePath.getParent).foreach(Files.createDirectories(_))
+    Files.newBufferedWriter(file, StandardCharsets.UTF_8)
+  }
+  junitDir.foreach(Files.createDirectories(_))
+
+  private val writer: Option[ExecutorService] =
+    if (jsonLines.isEmpty && junitDir.isEmpty) None
+    else
+      Some {
+        Executors.newSingleThreadExecutor { r =>
+          val t = new Thread(r, "scala-cli-test-reports")
+          t.setDaemon(true)
+          t
+        }
+      }
+
+  /** Number of events handled so far */
+  def eventCount: Long = synchronized(eventCount0)
+
+  /** Number of events with an error, failure or canceled status handled so far */
+  def failedCount: Long = synchronized(failedCount0)
+
+  /** Totals of each suite that fired events so far, in first-event order */
+  def suites: Seq[(String, SuiteStats)] = synchronized(suites0.toVector)
+
+  def handle(event: Event): Unit =
+    if (event != null) {
+      val suite      = event.fullyQualifiedName()
+      val durationMs = math.max(0L, event.duration())
+      val firstEvent = synchronized {
+        val previous = suites0.get(suite)
+        suites0(suite) = previous.getOrElse(SuiteStats()).add(event.status(), durationMs)
+        eventCount0 += 1
+        if (isFailed(event.status())) failedCount0 += 1
+        previous.isEmpty
+      }
+
+      for (w <- writer) {
+        val throwable =
+          Option(event.throwable()).filter(_.isDefined).map(_.get())
+        val jsonLine0 = jsonLines.map(_ => jsonLine(event, suite, durationMs, throwable))
+        val testCase0 = junitDir.map(dir => (dir, testCase(event, suite, durationMs, throwable)))
+        try
+          w.execute { () =>
+            try {
+              for (jsonWriter <- jsonLines; line <- jsonLine0) jsonWriter.write(line)
+              for ((dir, c) <- testCase0) part(dir, suite, firstEvent).write(c)
+            }
+            catch {
+              case e: IOException =>
+                logger.error(s"Could not write test report for $suite: ${e.getMessage}")
+            }
+          }
+        catch {
+          case _: RejectedExecutionException =>
+            logger.debug(s"Not reporting event of $suite, fired after the reports were closed")
+        }
+      }
+    }
+
+  /** Part file of `suite`, emptied on the suite first event, in case an earlier run left one. Only
+    * called from the writer thread.
+    */
+  private def part(dir: Path, suite: String, firstEvent: Boolean): Writer =
+    Option(openParts.get(suite)).getOrElse {
+      val writer = Files.newBufferedWriter(
+        dir.resolve(junitFileName(suite) + ".part"),
+        StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE,
+        if (firstEvent) StandardOpenOption.TRUNCATE_EXISTING else StandardOpenOption.APPEND
+      )
+      openParts.put(suite, writer)
+      writer
+    }
+
+  /** Prints the `count` suites that took longest, if any */
+  def printSlowestSuites(out: PrintStream, count: Int): Unit = synchronized {
+    if (suites0.nonEmpty) {
+      out.println("Slowest test suites:")
+      for ((name, stats) <- suites0.toVector.sortBy(-_._2.durationMs).take(count)) {
+        val tests = if (stats.tests == 1) "1 test" else s"${stats.tests} tests"
+        out.println(s"  ${seconds(stats.durationMs)} s  $name ($tests)")
+      }
+    }
+  }
+
+  /** Waits for pending writes, and writes the suite totals and JUnit XML files */
+  def close(): Unit = {
+    for (w <- writer) {
+      w.shutdown()
+      try w.awaitTermination(Long.MaxValue, TimeUnit.MILLISECONDS)
+      catch {
+        case _: InterruptedException =>
+          Thread.currentThread().interrupt()
+      }
+    }
+    synchronized(writeTotals())
+  }
+
+  private def writeTotals(): Unit =
+    try {
+      openParts.values().forEach(closeQuietly(_))
+      openParts.clear()
+      for (w <- jsonLines) {
+        for ((name, stats) <- suites0) {
+          val totals =
+            s""""tests":${stats.tests},"failures":${stats.failures},"errors":${stats.errors},""" +
+              s""""skipped":${stats.skipped},"durationMs":${stats.durationMs}"""
+          w.write(s"""{"type":"suite","suite":${json(name)},$totals}""" + "\n")
+        }
+        w.close()
+      }
+      for (dir <- junitDir; (name, stats) <- suites0)
+        writeJunitFile(dir, name, stats)
+    }
+    catch {
+      case e: IOException =>
+        logger.error(s"Could not write test reports: ${e.getMessage}")
+    }
+
+  private def writeJunitFile(dir: Path, suite: String, stats: SuiteStats): Unit = {
+    val part   = dir.resolve(junitFileName(suite) + ".part")
+    val tmp    = dir.resolve(junitFileName(suite) + ".tmp")
+    val totals =
+      s"""tests="${stats.tests}" failures="${stats.failures}" errors="${stats.errors}" """ +
+        s"""skipped="${stats.skipped}" time="${seconds(stats.durationMs)}""""
+    val header =
+      s"""<?xml version="1.0" encoding="UTF-8"?>
+         |<testsuite name="${xml(suite)}" $totals>
+         |""".stripMargin
+    val os = new BufferedOutputStream(Files.newOutputStream(tmp))
+    try {
+      os.write(header.getBytes(StandardCharsets.UTF_8))
+      if (Files.exists(part)) Files.copy(part, os)
+      os.write("</testsuite>\n".getBytes(StandardCharsets.UTF_8))
+    }
+    finally os.close()
+    Files.move(tmp, dir.resolve(junitFileName(suite)), StandardCopyOption.REPLACE_EXISTING)
+    Files.deleteIfExists(part)
+  }
+
+  private def closeQuietly(writer: Writer): Unit =
+    try writer.close()
+    catch {
+      case e: IOException =>
+        logger.debug(s"Could not close test report part file: ${e.getMessage}")
+    }
+}
+
+object TestReporter {
+
+  private val maxOpenParts = 16
+
+  final case class SuiteStats(
+    tests: Int = 0,
+    failures: Int = 0,
+    errors: Int = 0,
+    skipped: Int = 0,
+    durationMs: Long = 0L
+  ) {
+    def add(status: Status, eventDurationMs: Long): SuiteStats = {
+      val base = copy(tests = tests + 1, durationMs = durationMs + eventDurationMs)
+      status match {
+        case Status.Failure                                   => base.copy(failures = failures + 1)
+        case Status.Error | Status.Canceled                   => base.copy(errors = errors + 1)
+        case Status.Skipped | Status.Ignored | Status.Pending => base.copy(skipped = skipped + 1)
+        case _                                                => base
+      }
+    }
+  }
+
+  def isFailed(status: Status): Boolean =
+    status == Status.Error || status == Status.Failure || status == Status.Canceled
+
+  private[testrunner] def junitFileName(suite: String): String =
+    "TEST-" + suite.replaceAll("[^A-Za-z0-9_.$-]", "_") + ".xml"
+
+  private def selectorKind(selector: Selector): String =
+    selector match {
+      case _: TestSelector         => "test"
+      case _: NestedTestSelector   => "nested-test"
+      case _: NestedSuiteSelector  => "nested-suite"
+      case _: TestWildcardSelector => "test-wildcard"
+      case _: SuiteSelector        => "suite"
+      case null                    => "none"
+      case other                   => other.getClass.getSimpleName
+    }
+
+  private def testName(selector: Selector): Option[String] =
+    selector match {
+      case s: TestSelector         => Some(s.testName())
+      case s: NestedTestSelector   => Some(s"${s.suiteId()}.${s.testName()}")
+      case s: NestedSuiteSelector  => Some(s.suiteId())
+      case s: TestWildcardSelector => Some(s.testWildcard())
+      case _                       => None
+    }
+
+  private def jsonLine(
+    event: Event,
+    suite: String,
+    durationMs: Long,
+    throwable: Option[Throwable]
+  ): String = {
+    val b = new StringBuilder
+    b ++= s"""{"type":"event","suite":${json(suite)}"""
+    b ++= s""","selector":${json(selectorKind(event.selector()))}"""
+    for (test <- testName(event.selector())) b ++= s""","test":${json(test)}"""
+    b ++= s""","status":${json(event.status().name())},"durationMs":$durationMs"""
+    for (t <- throwable) {
+      b ++= s""","throwable":{"class":${json(t.getClass.getName)}"""
+      for (message <- Option(t.getMessage)) b ++= s""","message":${json(message)}"""
+      for (frame <- Option(t.getStackTrace).flatMap(_.headOption))
+        b ++= s""","at":${json(frame.toString)}"""
+      b += '}'
+    }
+    b ++= "}\n"
+    b.result()
+  }
+
+  private def testCase(
+    event: Event,
+    suite: String,
+    durationMs: Long,
+    throwable: Option[Throwable]
+  ): String = {
+    val name = testName(event.selector()).getOrElse(suite)
+    val open =
+      s"""  <testcase classname="${xml(suite)}" name="${xml(name)}" time="${seconds(durationMs)}""""
+    val element = event.status() match {
+      case Status.Failure                                   => Some("failure")
+      case Status.Error | Status.Canceled                   => Some("error")
+      case Status.Skipped | Status.Ignored | Status.Pending => Some("skipped")
+      case _                                                => None
+    }
+    element match {
+      case None          => open + "/>\n"
+      case Some(element) =>
+        val content = throwable match {
+          case Some(t) =>
+            val trace = new StringWriter
+            t.printStackTrace(new PrintWriter(trace))
+            val message = Option(t.getMessage).fold("")(m => s""" message="${xml(m)}"""")
+            s"""<$element type="${xml(t.getClass.getName)}"$message>""" +
+              s"""${xml(trace.toString)}</$element>"""
+          case None if event.status() == Status.Canceled =>
+            s"""<$element message="canceled"/>"""
+          case None => s"<$element/>"
+        }
+        s"$open>\n    $content\n  </testcase>\n"
+    }
+  }
+
+  private def seconds(millis: Long): String = {
+    val frac = millis % 1000L
+    s"${millis / 1000L}" + (if (frac < 10) ".00" else if (frac < 100) ".0" else ".") + frac
+  }
+
+  private def json(s: String): String = {
+    val b = new StringBuilder("\"")
+    s.foreach {
+      case '"'           => b ++= "\\\""
+      case '\\'          => b ++= "\\\\"
+      case '\n'          => b ++= "\\n"
+      case '\r'          => b ++= "\\r"
+      case '\t'          => b ++= "\\t"
+      case c if c < 0x20 => b ++= f"\\u${c.toInt}%04x"
+      case c             => b += c
+    }
+    b += '"'
+    b.result()
+  }
+
+  private def xml(s: String): String = {
+    val b = new StringBuilder
+    // control characters other than new lines and tabs aren't allowed in XML 1.0
+    s.foreach {
+      case '<'                                                  => b ++= "&lt;"
+      case '>'                                                  => b ++= "&gt;"
+      case '&'                                                  => b ++= "&amp;"
+      case '"'                                                  => b ++= "&quot;"
+      case c if c < 0x20 && c != '\n' && c != '\r' && c != '\t' => b += '?'
+      case c                                                    => b += c
+    }
+    b.result()
+  }
+}
@@ -21,6 +21,36 @@ object TestRunner {
     "weaver.framework.CatsEffect"
   )
 
+  /** Frameworks whose tasks can run concurrently, as sbt runs them by default. Tasks of other
+    * frameworks run sequentially whatever `--test-parallelism`, unless they're passed with
+    * `--test-parallel-framework`.
+    */
+  def parallelTestFrameworks: Seq[String] = Seq(
+    "munit.Framework",
+    "utest.runner.Framework",
+    "org.scalatest.tools.Framework",
+    "com.novocode.junit.JUnitFramework",
+    "com.github.sbt.junit.jupiter.api.JupiterFramework"
+  )
+
+  /** The number of threads to run the tasks of `framework` on */
+  def parallelism(
+    framework: Framework,
+    parallelism: Int,
+    parallelFrameworks: Seq[String],
+    logger: Logger
+  ): Int = {
+    val name = framework.getClass.getName
+    if (parallelism <= 1 || parallelFrameworks.contains(name)) parallelism
+    else {
+      logger.debug(
+        s"Running tasks of ${framework.name()} sequentially, as $name isn't known to support " +
+          "concurrent tasks (pass it with --test-parallel-framework to run them in parallel)"
+      )
+      1
+    }
+  }
+
   def classPath(loader: ClassLoader, logger: Logger): Seq[Path] = {
     def helper(loader: ClassLoader): LazyList[Path] =
       if (loader == null) LazyList.empty
@@ -51,33 +81,46 @@ object TestRunner {
     helper(loader).toVector
   }
 
-  // initially based on https://github.com/com-lihaoyi/mill/blob/e4c838cf9347ec3659d487af2121c9960d5842e8/scalalib/src/TestRunner.scala#L218-L248
-  def runTasks(initialTasks: Seq[Task], out: PrintStream): Seq[Event] = {
+  def logger(out: PrintStream): SbtTestLogger =
+    new SbtTestLogger {
+      def error(msg: String): Unit      = out.println(msg)
+      def warn(msg: String): Unit       = out.println(msg)
+      def info(msg: String): Unit       = out.println(msg)
+      def debug(msg: String): Unit      = out.println(msg)
+      def trace(t: Throwable): Unit     = t.printStackTrace(out)
+      def ansiCodesSupported(): Boolean = true
+    }
 
-    val tasks = new mutable.Queue[Task]
-    tasks ++= initialTasks
+  // initially based on https://github.com/com-lihaoyi/mill/blob/e4c838cf9347ec3659d487af2121c9960d5842e8/scalalib/src/TestRunner.scala#L218-L248
+  /** Runs `initialTasks`, and the tasks they return, sequentially on the current thread if
+    * `parallelism` is 1, or else on `parallelism` worker threads (see [[TaskScheduler]])
+    */
+  def runTasks(initialTasks: Seq[Task], out: PrintStream, parallelism: Int = 1): Seq[Event] = {
+    val events                     = mutable.Buffer.empty[Event]
+    val eventHandler: EventHandler = (event: Event) => events.synchronized(events.append(event))
+    runTasks(initialTasks, out, parallelism, eventHandler)
+    events.toVector
+  }
 
-    val events = mutable.Buffer.empty[Event]
+  /** Same as the other `runTasks`, passing events to `eventHandler` as soon as they're fired rather
+    * than keeping them. `eventHandler` has to be thread-safe if `parallelism` is greater than 1.
+    */
+  def runTasks(
+    initialTasks: Seq[Task],
+    out: PrintStream,
+    parallelism: Int,
+    eventHandler: EventHandler
+  ): Unit =
+    if (parallelism > 1) TaskScheduler.run(initialTasks, out, parallelism, eventHandler)
+    else {
+      val tasks = new mutable.Queue[Task]
+      tasks ++= initialTasks
 
-    val logger: SbtTestLogger =
-      new SbtTestLogger {
-        def error(msg: String): Unit      = out.println(msg)
-        def warn(msg: String): Unit       = out.println(msg)
-        def info(msg: String): Unit       = out.println(msg)
-        def debug(msg: String): Unit      = out.println(msg)
-        def trace(t: Throwable): Unit     = t.printStackTrace(out)
-        def ansiCodesSupported(): Boolean = true
+      while (tasks.nonEmpty) {
+        val task     = tasks.dequeue()
+        val newTasks = task.execute(eventHandler, Array(logger(out)))
+        tasks ++= newTasks
       }
-
-    val eventHandler: EventHandler = (event: Event) => events.append(event)
-
-    while (tasks.nonEmpty) {
-      val task     = tasks.dequeue()
-      val newTasks = task.execute(eventHandler, Array(logger))
-      tasks ++= newTasks
     }
 
-    events.toVector
-  }
-
 }
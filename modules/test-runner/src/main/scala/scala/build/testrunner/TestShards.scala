@@ -0,0 +1,105 @@
+package scala.build.testrunner
+
+import sbt.testing.TaskDef
+
+import java.io.IOException
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path}
+
+import scala.jdk.CollectionConverters.*
+
+/** Splits test suites between the JVMs of a sharded test run, and reports how long the suites of a
+  * shard took, so that later runs can balance shards better.
+  *
+  * Reads and writes the same files as the Java test runner's `JavaTestShards`, keep both in sync.
+  */
+object TestShards {
+
+  /** The task definitions shard `shard` (0-based) out of `shardCount` should run, in discovery
+    * order.
+    *
+    * Suites are assigned, longest first, to the shard with the least work so far. Suites without a
+    * recorded duration count as the average recorded one, so that without any history, shards get
+    * the same number of suites.
+    */
+  def select(
+    taskDefs: Seq[TaskDef],
+    shard: Int,
+    shardCount: Int,
+    durations: Map[String, Long]
+  ): Seq[TaskDef] = {
+    val known    = taskDefs.flatMap(t => durations.get(t.fullyQualifiedName()))
+    val fallback = if (known.isEmpty) 1L else math.max(1L, known.sum / known.length)
+    val weights  = taskDefs.toVector.map { t =>
+      durations.get(t.fullyQualifiedName()).fold(fallback)(math.max(1L, _))
+    }
+    val order = taskDefs.indices.sortWith { (a, b) =>
+      if (weights(a) != weights(b)) weights(a) > weights(b)
+      else {
+        val byName = taskDefs(a).fullyQualifiedName().compareTo(taskDefs(b).fullyQualifiedName())
+        if (byName != 0) byName < 0 else a < b
+      }
+    }
+    val loads    = Array.fill(shardCount)(0L)
+    val selected = Array.fill(taskDefs.length)(false)
+    for (idx <- order) {
+      val target = loads.indices.minBy(s => (loads(s), s))
+      loads(target) += weights(idx)
+      selected(idx) = target == shard
+    }
+    taskDefs.zipWithIndex.collect { case (t, idx) if selected(idx) => t }
+  }
+
+  /** Reads a durations file, returning an empty map if it doesn't exist or can't be read */
+  def readDurations(file: Path, logger: Logger): Map[String, Long] =
+    if (Files.isRegularFile(file))
+      try
+        Files.readAllLines(file, StandardCharsets.UTF_8).asScala.iterator
+          .flatMap { line =>
+            val idx = line.lastIndexOf('\t')
+            if (idx <= 0) Iterator.empty
+            else
+              line.substring(idx + 1).toLongOption match {
+                case Some(duration) => Iterator(line.substring(0, idx) -> duration)
+                case None           =>
+                  logger.debug(s"Ignoring malformed line in $file: $line")
+                  Iterator.empty
+              }
+          }
+          .toMap
+      catch {
+        case e: IOException =>
+          logger.debug(s"Could not read test durations from $file: ${e.getMessage}")
+          Map.empty
+      }
+    else Map.empty
+
+  /** Durations of the suites of `taskDefs`, as recorded in `recorded`, or zero for suites without
+    * any event
+    */
+  def suiteDurations(taskDefs: Seq[TaskDef], recorded: Seq[(String, Long)]): Seq[(String, Long)] = {
+    val result = scala.collection.mutable.LinkedHashMap.empty[String, Long]
+    for (t <- taskDefs) result(t.fullyQualifiedName()) = 0L
+    result ++= recorded
+    result.toSeq
+  }
+
+  def writeReport(
+    file: Path,
+    suiteDurations: Seq[(String, Long)],
+    eventCount: Long,
+    logger: Logger
+  ): Unit =
+    try {
+      val parent = file.toAbsolutePath.getParent
+      if (parent != null) Files.createDirectories(parent)
+      val content =
+        suiteDurations.map { case (name, duration) => s"suite\t$name\t$duration\n" }.mkString +
+          s"events\t$eventCount\n"
+      Files.write(file, content.getBytes(StandardCharsets.UTF_8))
+    }
+    catch {
+      case e: IOException =>
+        logger.error(s"Could not write test report $file: ${e.getMessage}")
+    }
+}
@@ -0,0 +1,62 @@
+package scala.build.testrunner
+
+import java.io.{BufferedReader, File, InputStreamReader}
+import java.net.{URL, URLClassLoader}
+import java.nio.charset.StandardCharsets
+import java.nio.file.Paths
+
+/** Long-running test runner, running tests each time it's asked to on its standard input, for
+  * `scala-cli test --watch`.
+  *
+  * The worker class path has the test runner and the dependency JARs, loaded once by the
+  * application class loader. Each run gets a new class loader for the project class directories on
+  * top of it, so that dependency classes stay loaded and JIT-compiled from one run to the next,
+  * while project classes are loaded anew. Test frameworks are instantiated again in each run.
+  *
+  * Speaks the same protocol as the Java test runner's `JavaTestWorker`, keep both in sync.
+  */
+object TestWorker {
+
+  val doneMarker: String = "\u0000scala-cli-test-worker-done\t"
+
+  def main(args: Array[String]): Unit = {
+    val in     = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+    val parent = getClass.getClassLoader
+    Iterator.continually(in.readLine())
+      .takeWhile(line => line != null && line != "exit")
+      .foreach { line =>
+        val exitCode = line.split("\u0000", -1).toList match {
+          case "run" :: classDirs :: runnerArgs => run(parent, classDirs, runnerArgs)
+          case _                                =>
+            System.err.println("Ignoring malformed test worker request")
+            1
+        }
+        System.out.flush()
+        System.out.print(s"$doneMarker$exitCode\n")
+        System.out.flush()
+      }
+  }
+
+  private def run(parent: ClassLoader, classDirs: String, args: Seq[String]): Int = {
+    val thread   = Thread.currentThread()
+    val previous = thread.getContextClassLoader
+    val urls     = classDirs.split(File.pathSeparator).filter(_.nonEmpty)
+      .map(dir => Paths.get(dir).toUri.toURL: URL)
+    val loader = new URLClassLoader(urls, parent)
+    try {
+      thread.setContextClassLoader(loader)
+      DynamicTestRunner.run(args.toArray)
+    }
+    catch {
+      case t: Throwable =>
+        t.printStackTrace()
+        1
+    }
+    finally {
+      thread.setContextClassLoader(previous)
+      loader.close()
+    }
+  }
+}
+
+abstract class TestWorker